@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.bench;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.centre.md.CandleEngine;
+import com.nabiki.centre.md.CandleTiming;
+import com.nabiki.centre.md.MarketDataReceiver;
+import com.nabiki.centre.md.MarketDataRouter;
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time for the candle engine to take one minute of ticks of all instruments
+ * and close their candles of all durations, from the first tick in until the
+ * last candle out of the router. Ticks are timed by the exchange, so each
+ * invocation is the next trading minute, and the nights and noons between
+ * the sessions are in the invocations that cross them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.time=ALL-UNNAMED")
+public class CandleEngineBenchmark {
+  /*
+  Instruments per product, like months of a future.
+   */
+  static final int MONTHS = 10;
+  static final String DAY = "20210104";
+  /*
+  Trading sessions in minutes of day, (from, to].
+   */
+  static final int[][] SESSIONS = {
+      {21 * 60, 23 * 60}, {9 * 60, 11 * 60 + 30}, {13 * 60 + 30, 15 * 60}};
+  /*
+  Minutes of day that the ticks of the invocations fall in, in order.
+   */
+  static final int[] MINUTES = minutes();
+
+  @Param({"1000", "4000"})
+  public int instruments;
+
+  @Param({"4"})
+  public int ticksPerMinute;
+
+  private CandleEngine engine;
+  private EventClock clock;
+  private String[] instrumentIDs;
+  private CDepthMarketData[] ticks;
+  private final AtomicLong oneMinute = new AtomicLong(0);
+  private long expected = 0;
+  private int minute = 0;
+
+  static int[] minutes() {
+    int n = 0;
+    for (var s : SESSIONS)
+      n += s[1] - s[0];
+    var r = new int[n];
+    n = 0;
+    for (var s : SESSIONS)
+      for (int m = s[0]; m < s[1]; ++m)
+        r[n++] = m;
+    return r;
+  }
+
+  /*
+  Clock that follows the tick time, so the timer never closes a candle that
+  ticks haven't closed.
+   */
+  static class EventClock extends Clock {
+    private final ZoneId zone = ZoneId.systemDefault();
+    private volatile Instant instant;
+
+    void set(int minuteOfDay) {
+      this.instant = LocalDateTime.of(LocalDate.of(2021, 1, 4), LocalTime.MIDNIGHT)
+          .plusMinutes(minuteOfDay).atZone(this.zone).toInstant();
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return this.zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return this.instant;
+    }
+  }
+
+  static String productID(int index) {
+    var s = new StringBuilder("p");
+    do {
+      s.append((char) ('a' + index % 26));
+      index /= 26;
+    } while (index > 0);
+    return s.toString();
+  }
+
+  static void writeTradingHour(Path root, int products) throws IOException {
+    var dir = Files.createDirectories(root.resolve(".cfg").resolve(".hour"));
+    var ids = new StringBuilder();
+    for (int p = 0; p < products; ++p)
+      ids.append(p == 0 ? "" : ",").append('"').append(productID(p)).append('"');
+    var hours = new StringBuilder();
+    for (var s : SESSIONS)
+      hours.append(hours.length() == 0 ? "" : ",")
+          .append("{\"From\":").append(time(s[0]))
+          .append(",\"To\":").append(time(s[1])).append('}');
+    var json = "{\"ProductID\":[" + ids + "],\"TradingHour\":[" + hours + "]}";
+    Files.writeString(dir.resolve("hour.bench.json"), json,
+        StandardCharsets.UTF_8);
+  }
+
+  private static String time(int minuteOfDay) {
+    return "{\"Hour\":" + minuteOfDay / 60 + ",\"Minute\":" + minuteOfDay % 60
+        + ",\"Second\":0,\"Nano\":0}";
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    var root = Files.createTempDirectory("candle-bench");
+    writeTradingHour(root, (this.instruments + MONTHS - 1) / MONTHS);
+    GlobalConfig.ROOT_PATH = root.toString();
+    Global global = GlobalConfig.config();
+    GlobalConfig.setTradingDay(DAY);
+    var router = new MarketDataRouter();
+    router.addReceiver(new MarketDataReceiver() {
+      @Override
+      public void depthReceived(CDepthMarketData depth) {
+      }
+
+      @Override
+      public void candleReceived(CCandle candle) {
+        if (candle.Minute == 1)
+          oneMinute.incrementAndGet();
+      }
+    });
+    this.clock = new EventClock();
+    this.clock.set(MINUTES[0]);
+    this.engine = new CandleEngine(router, global, CandleTiming.EVENT_TIME,
+        Duration.ZERO, this.clock);
+    this.engine.setWorking(true);
+    this.instrumentIDs = new String[this.instruments];
+    for (int i = 0; i < this.instruments; ++i) {
+      this.instrumentIDs[i] = productID(i / MONTHS) + (2101 + i % MONTHS);
+      this.engine.addInstrument(this.instrumentIDs[i]);
+    }
+    // Ticks of the first minute open the candles.
+    prepare();
+    feed();
+  }
+
+  /*
+  Ticks of the next minute, spread over the minute and the instruments.
+   */
+  @Setup(Level.Invocation)
+  public void prepare() {
+    var n = this.instruments * this.ticksPerMinute;
+    this.ticks = new CDepthMarketData[n];
+    for (int k = 0; k < n; ++k) {
+      int i = k % this.instruments;
+      int millis = (int) ((long) k * 60000 / n);
+      var ofDay = MINUTES[this.minute % MINUTES.length] * 60 + millis / 1000;
+      var md = new CDepthMarketData();
+      md.InstrumentID = this.instrumentIDs[i];
+      md.ActionDay = DAY;
+      md.TradingDay = DAY;
+      md.UpdateTime = String.format("%02d:%02d:%02d", ofDay / 3600,
+          ofDay / 60 % 60, ofDay % 60);
+      md.UpdateMillisec = millis % 1000;
+      md.LastPrice = 2000 + (k * 7 + this.minute) % 31;
+      md.Volume = this.minute * this.ticksPerMinute + k / this.instruments;
+      md.OpenInterest = 100000 + i;
+      this.ticks[k] = md;
+    }
+  }
+
+  private void feed() {
+    this.clock.set(MINUTES[this.minute % MINUTES.length]);
+    for (var md : this.ticks)
+      this.engine.update(md);
+    // The first tick of this minute closes the one-minute candles of the last
+    // trading minute, which is always in a session.
+    if (this.minute++ > 0)
+      this.expected += this.instruments;
+  }
+
+  @Benchmark
+  public long minute() {
+    feed();
+    while (this.oneMinute.get() < this.expected)
+      LockSupport.parkNanos(1000);
+    return this.oneMinute.get();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.engine.setWorking(false);
+    this.engine.cancel();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.bench;
+
+import com.nabiki.commons.ctpobj.CInputOrder;
+import com.nabiki.commons.ctpobj.CInputOrderAction;
+import com.nabiki.commons.ctpobj.CInvestorPositionDetail;
+import com.nabiki.commons.ctpobj.CTradingAccount;
+import com.nabiki.commons.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Modifier;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the copies made for one order in the account and position paths:
+ * the order is copied on request and execution, and account and position on
+ * query. Run with {@code -prof gc} to see the bytes allocated per order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyBenchmark {
+  private CInputOrder order;
+  private CInputOrderAction action;
+  private CTradingAccount account;
+  private CInvestorPositionDetail position;
+
+  static <T> T fill(T obj, Random random) throws IllegalAccessException {
+    for (var f : obj.getClass().getFields()) {
+      if (Modifier.isStatic(f.getModifiers()))
+        continue;
+      var type = f.getType();
+      if (type == String.class)
+        f.set(obj, "s" + random.nextInt());
+      else if (type == String[].class)
+        f.set(obj, new String[]{"a" + random.nextInt(), "b" + random.nextInt()});
+      else if (type == double.class)
+        f.setDouble(obj, random.nextDouble());
+      else if (type == int.class)
+        f.setInt(obj, random.nextInt());
+      else if (type == byte.class)
+        f.setByte(obj, (byte) random.nextInt());
+    }
+    return obj;
+  }
+
+  @Setup
+  public void setup() throws IllegalAccessException {
+    var random = new Random(0);
+    this.order = fill(new CInputOrder(), random);
+    this.action = fill(new CInputOrderAction(), random);
+    this.account = fill(new CTradingAccount(), random);
+    this.position = fill(new CInvestorPositionDetail(), random);
+  }
+
+  @Benchmark
+  public void serializationCopy(Blackhole bh) {
+    for (int i = 0; i < 3; ++i)
+      bh.consume(Utils.deepCopy(this.order));
+    bh.consume(Utils.deepCopy(this.action));
+    bh.consume(Utils.deepCopy(this.account));
+    bh.consume(Utils.deepCopy(this.position));
+  }
+
+  @Benchmark
+  public void fieldCopy(Blackhole bh) {
+    for (int i = 0; i < 3; ++i)
+      bh.consume(new CInputOrder(this.order));
+    bh.consume(new CInputOrderAction(this.action));
+    bh.consume(new CTradingAccount(this.account));
+    bh.consume(new CInvestorPositionDetail(this.position));
+  }
+}
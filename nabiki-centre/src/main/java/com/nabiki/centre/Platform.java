@@ -35,14 +35,22 @@ import com.nabiki.centre.ctp.OrderProvider;
 import com.nabiki.centre.ctp.TickProvider;
 import com.nabiki.centre.md.CandleEngine;
 import com.nabiki.centre.md.CandleRW;
+import com.nabiki.centre.md.CandleTiming;
 import com.nabiki.centre.md.MarketDataRouter;
+import com.nabiki.centre.md.OverflowPolicy;
+import com.nabiki.centre.md.TickRecorder;
+import com.nabiki.centre.md.WaitStrategy;
 import com.nabiki.centre.user.auth.UserAuthManager;
 import com.nabiki.centre.user.core.ActiveUserManager;
+import com.nabiki.centre.user.risk.RiskEngine;
 import com.nabiki.commons.iop.IOP;
 import com.nabiki.commons.utils.SystemStream;
 import com.nabiki.commons.utils.Utils;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -51,15 +59,18 @@ public class Platform {
   private OrderProvider orderProvider;
   private TickProvider tickProvider;
   private UserAuthManager authMgr;
+  private RiskEngine risk;
   private ActiveUserManager userMgr;
   private ParkedRequestManager parkedReqMgr;
   private CandleEngine candleEngine;
+  private TickRecorder tickRecorder;
+  private CandleRW candleRW;
+  private SubscriptionAdaptor subscription;
 
-  private final MarketDataRouter router;
+  private MarketDataRouter router;
   private final static long MILLIS = TimeUnit.MINUTES.toMillis(1);
 
   Platform() {
-    this.router = new MarketDataRouter();
   }
 
   OrderProvider getOrder() {
@@ -74,19 +85,47 @@ public class Platform {
     return authMgr;
   }
 
+  RiskEngine getRisk() {
+    return risk;
+  }
+
   ActiveUserManager getUsers() {
     return userMgr;
   }
 
+  MarketDataRouter getRouter() {
+    return router;
+  }
+
   CandleEngine getCandleEngine() {
     return candleEngine;
   }
 
+  TickRecorder getTickRecorder() {
+    return tickRecorder;
+  }
+
+  CandleRW getCandleRW() {
+    return candleRW;
+  }
+
+  SubscriptionAdaptor getSubscription() {
+    return subscription;
+  }
+
   private void providers() {
+    // Prepare market data router.
+    this.router = new MarketDataRouter(
+        getMdCapacity(),
+        getMdWait(),
+        getMdOverflow());
     // Prepare candle engine.
     candleEngine = new CandleEngine(
         this.router,
-        this.global);
+        this.global,
+        getCandleTiming(),
+        getCandleLateness(),
+        Clock.systemDefaultZone());
     // Set order provider.
     this.orderProvider = new OrderProvider(
         candleEngine,
@@ -98,6 +137,74 @@ public class Platform {
         this.global);
   }
 
+  private CandleTiming getCandleTiming() {
+    var timing = this.global.getArgument(Global.CMD_CANDLE_TIME_PREFIX);
+    if (timing == null || timing.trim().length() == 0)
+      return CandleTiming.WALL_CLOCK;
+    switch (timing.trim().toLowerCase()) {
+      case "wall":
+        return CandleTiming.WALL_CLOCK;
+      case "event":
+        return CandleTiming.EVENT_TIME;
+      default:
+        this.global.getLogger().warning("unknown candle time: " + timing);
+        return CandleTiming.WALL_CLOCK;
+    }
+  }
+
+  private Duration getCandleLateness() {
+    var lateness = this.global.getArgument(Global.CMD_CANDLE_LATENESS_PREFIX);
+    if (lateness == null || lateness.trim().length() == 0)
+      return Duration.ZERO;
+    try {
+      var millis = Long.parseLong(lateness.trim());
+      if (0 <= millis && millis < TimeUnit.MINUTES.toMillis(1))
+        return Duration.ofMillis(millis);
+    } catch (NumberFormatException ignored) {
+    }
+    this.global.getLogger().warning("illegal candle lateness: " + lateness);
+    return Duration.ZERO;
+  }
+
+  private WaitStrategy getMdWait() {
+    var wait = this.global.getArgument(Global.CMD_MD_WAIT_PREFIX);
+    if (wait == null || wait.trim().length() == 0)
+      return WaitStrategy.PARK;
+    try {
+      return WaitStrategy.valueOf(wait.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      this.global.getLogger().warning("unknown md wait strategy: " + wait);
+      return WaitStrategy.PARK;
+    }
+  }
+
+  private int getMdCapacity() {
+    var capacity = this.global.getArgument(Global.CMD_MD_CAPACITY_PREFIX);
+    if (capacity == null || capacity.trim().length() == 0)
+      return MarketDataRouter.DEFAULT_CAPACITY;
+    try {
+      var c = Integer.parseInt(capacity.trim());
+      if (2 <= c && c <= (1 << 24))
+        return c;
+    } catch (NumberFormatException ignored) {
+    }
+    this.global.getLogger().warning("illegal md capacity: " + capacity);
+    return MarketDataRouter.DEFAULT_CAPACITY;
+  }
+
+  private OverflowPolicy getMdOverflow() {
+    var policy = this.global.getArgument(Global.CMD_MD_OVERFLOW_PREFIX);
+    if (policy == null || policy.trim().length() == 0)
+      return OverflowPolicy.DROP_OLDEST;
+    try {
+      return OverflowPolicy.valueOf(
+          policy.trim().toUpperCase().replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      this.global.getLogger().warning("unknown md overflow policy: " + policy);
+      return OverflowPolicy.DROP_OLDEST;
+    }
+  }
+
   private void server() throws IOException {
     String listen = this.global.getArgument(Global.CMD_LISTEN_PREFIX);
     if (listen == null || listen.trim().length() == 0) {
@@ -106,17 +213,21 @@ public class Platform {
     // Server.
     var server = IOP.createServer();
     // Install candle writer.
-    var rw = new CandleRW(global);
-    router.addReceiver(rw);
+    candleRW = new CandleRW(global);
+    router.addReceiver(candleRW);
+    // Install tick recorder.
+    tickRecorder = new TickRecorder(global);
+    router.addReceiver(tickRecorder);
     // Install login manager.
     server.setLoginManager(new UserLoginManager(authMgr, userMgr, global));
     // Install session adaptor.
     server.setSessionAdaptor(new SessionAdaptor(router, global));
     // Install adaptors.
     var chain = server.getAdaptorChain();
-    chain.addAdaptor(new RequestValidator(authMgr, parkedReqMgr, global));
-    chain.addAdaptor(new RequestExecutor(userMgr, global));
-    chain.addAdaptor(new SubscriptionAdaptor(router, rw, global));
+    chain.addAdaptor(new RequestValidator(authMgr, parkedReqMgr, risk, global));
+    chain.addAdaptor(new RequestExecutor(userMgr, risk, global));
+    subscription = new SubscriptionAdaptor(router, candleRW, global);
+    chain.addAdaptor(subscription);
     chain.addAdaptor(new QueryAdaptor(userMgr, global));
     // Install msg writer.
     // Create msg in/out writer.
@@ -134,6 +245,8 @@ public class Platform {
         .next()
         .path();
     this.authMgr = new UserAuthManager(userDir);
+    this.risk = new RiskEngine(authMgr);
+    this.orderProvider.setRiskEngine(risk);
     this.userMgr = new ActiveUserManager(
         orderProvider,
         global,
@@ -159,7 +272,16 @@ public class Platform {
         Global.CMD_ROOT_PREFIX,
         Global.CMD_LISTEN_PREFIX,
         Global.CMD_LOGSVR_PREFIX,
-        Global.CMD_START_NOW_PREFIX
+        Global.CMD_START_NOW_PREFIX,
+        Global.CMD_GATEWAY_PREFIX,
+        Global.CMD_FLOW_SYNC_PREFIX,
+        Global.CMD_FLOW_OVERFLOW_PREFIX,
+        Global.CMD_LEDGER_SYNC_PREFIX,
+        Global.CMD_CANDLE_TIME_PREFIX,
+        Global.CMD_CANDLE_LATENESS_PREFIX,
+        Global.CMD_MD_WAIT_PREFIX,
+        Global.CMD_MD_CAPACITY_PREFIX,
+        Global.CMD_MD_OVERFLOW_PREFIX
     };
     for (var pre : prefix) {
       String arg = Utils.getOption(pre, args);
@@ -184,6 +306,55 @@ public class Platform {
     providers();
     managers();
     server();
+    // Write out the queued candles and ticks on exit.
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+  }
+
+  private void close() {
+    if (candleRW != null)
+      candleRW.close();
+    if (tickRecorder != null) {
+      try {
+        if (!tickRecorder.close(TimeUnit.MINUTES.toMillis(1)))
+          global.getLogger().warning("tick recorder close timeout");
+      } catch (InterruptedException e) {
+        global.getLogger().warning("tick recorder close interrupted");
+      }
+    }
+  }
+
+  /*
+   Export flow journals of the day to per-message JSON files under the flow
+   directories.
+   */
+  private void exportFlow(String[] args, String day) throws IOException {
+    setArguments(args);
+    initConfig(Utils.getOption(Global.CMD_ROOT_PREFIX, args));
+    for (var key : new String[]{"dir.flow.req", "dir.flow.rtn",
+        "dir.flow.err", "dir.flow.client_in", "dir.flow.client_out"}) {
+      var dirs = global.getRootDirectory().recursiveGet(key);
+      if (dirs.size() == 0)
+        continue;
+      var flow = global.getFlow(key);
+      var n = flow.export(day, dirs.iterator().next().path());
+      flow.close();
+      System.out.println(key + ": " + n);
+    }
+  }
+
+  /*
+   Import candles from CSV files into candle store, or export candles in store
+   to CSV files.
+   */
+  private void convertCandle(String[] args, String importDir, String exportDir)
+      throws IOException {
+    setArguments(args);
+    initConfig(Utils.getOption(Global.CMD_ROOT_PREFIX, args));
+    var rw = new CandleRW(global);
+    if (importDir != null)
+      System.out.println("import candles: " + rw.importCsv(Path.of(importDir)));
+    if (exportDir != null)
+      System.out.println("export candles: " + rw.exportCsv(Path.of(exportDir)));
   }
 
   public void task() {
@@ -213,12 +384,50 @@ public class Platform {
     System.out.println("                9039 or 127.0.0.1:9039");
     System.out.println("--start-now     true if the system is initiated right after this command, otherwise");
     System.out.println("                it starts at specified time.");
+    System.out.println("--gateway       Class name of the gateway factory to connect counter and market");
+    System.out.println("                data. The factory is loaded from class path and CTP is used by");
+    System.out.println("                default.");
+    System.out.println("--flow-sync     When flow journals are forced to disk, none, batch or interval.");
+    System.out.println("                Default is interval, at most once a second.");
+    System.out.println("--flow-overflow What flow journals do on a full queue, block waits for the writer");
+    System.out.println("                and drop drops the record. Default is block.");
+    System.out.println("--ledger-sync   When user ledgers are forced to disk, none, batch or interval.");
+    System.out.println("                Default is batch, every account and position event.");
+    System.out.println("--candle-time   What closes candles, wall for the clock or event for the update");
+    System.out.println("                time of ticks. Default is wall.");
+    System.out.println("--candle-lateness");
+    System.out.println("                Milliseconds a tick can be later than the latest tick and still");
+    System.out.println("                fall in its own candle, only for event time. Default is 0.");
+    System.out.println("--md-wait       How market data router waits for data, busy_spin, yield or park.");
+    System.out.println("                Default is park.");
+    System.out.println("--md-capacity   Number of market data the router queues before it overflows,");
+    System.out.println("                rounded up to power of two. Default is 65536.");
+    System.out.println("--md-overflow   What router does to depths on a full queue, drop_oldest keeps the");
+    System.out.println("                latest depth of each instrument and block waits. Default is");
+    System.out.println("                drop_oldest.");
+    System.out.println("--export-flow   Export flow journals of the specified day in yyyyMMdd to JSON");
+    System.out.println("                files, one file per message, and exit.");
+    System.out.println("--import-candle Import candles from CSV files in the specified directory to candle");
+    System.out.println("                store, and exit.");
+    System.out.println("--export-candle Export candles in candle store to CSV files in the specified");
+    System.out.println("                directory, and exit.");
   }
 
   public static void main(String[] args) {
     if (needHelp(args))
       return;
     try {
+      var day = Utils.getOption(Global.CMD_EXPORT_FLOW_PREFIX, args);
+      if (day != null) {
+        new Platform().exportFlow(args, day);
+        return;
+      }
+      var importCdl = Utils.getOption(Global.CMD_IMPORT_CANDLE_PREFIX, args);
+      var exportCdl = Utils.getOption(Global.CMD_EXPORT_CANDLE_PREFIX, args);
+      if (importCdl != null || exportCdl != null) {
+        new Platform().convertCandle(args, importCdl, exportCdl);
+        return;
+      }
       var platform = new Platform();
       platform.start(args);
       platform.task();
@@ -63,6 +63,8 @@ class PlatformTask extends TimerTask {
   private final Global global;
   private WorkingState workingState = WorkingState.STOPPED;
   private UserState userState = UserState.SETTLED;
+  private long mdOverflowCount = 0;
+  private long sessionDroppedCount = 0;
 
   PlatformTask(Platform main, Global global) {
     this.main = main;
@@ -133,6 +135,8 @@ class PlatformTask extends TimerTask {
       main.getAuth().flush();
       main.getUsers().settle();
       main.getOrder().settle();
+      global.getLogger().info(
+          "risk rejects: " + main.getRisk().getRejectStatistics());
       setUserState(UserState.SETTLED);
     } catch (Throwable th) {
       th.printStackTrace();
@@ -257,12 +261,98 @@ class PlatformTask extends TimerTask {
           // Fix date: 2021-02-14
           // Clear products at every settlement so the outdated instruments are
           // cleared up in the candle engine.
+          global.getLogger().info(
+              "candle late ticks: " + main.getCandleEngine().getLateCount());
           main.getCandleEngine().clearProducts();
+          flushTicks();
+          flushCandles();
+          reportRouter();
         }
       }
     }
   }
 
+  private void flushTicks() {
+    var recorder = main.getTickRecorder();
+    if (recorder == null)
+      return;
+    try {
+      if (!recorder.flush(TimeUnit.MINUTES.toMillis(1)))
+        global.getLogger().warning("tick recorder flush timeout");
+    } catch (InterruptedException e) {
+      global.getLogger().warning("tick recorder flush interrupted");
+    }
+    global.getLogger().info(
+        "tick dropped: " + recorder.getDroppedCount());
+  }
+
+  private void flushCandles() {
+    var rw = main.getCandleRW();
+    if (rw == null)
+      return;
+    try {
+      if (!rw.flush(TimeUnit.MINUTES.toMillis(1)))
+        global.getLogger().warning("candle flush timeout");
+    } catch (InterruptedException e) {
+      global.getLogger().warning("candle flush interrupted");
+    }
+  }
+
+  /*
+  Warn once a minute if market data overflows the router queue, so a slow
+  receiver is visible before settlement.
+   */
+  private void checkRouter() {
+    var router = main.getRouter();
+    if (router == null)
+      return;
+    var count = router.getOverflowCount();
+    if (count > mdOverflowCount) {
+      global.getLogger().warning(String.format(
+              "md overflow: %d, dropped: %d, depth: %d/%d",
+              count - mdOverflowCount,
+              router.getDroppedCount(),
+              router.getQueueDepth(),
+              router.getCapacity()));
+      mdOverflowCount = count;
+    }
+  }
+
+  /*
+  Warn once a minute if depths are dropped for sessions that lag behind.
+   */
+  private void checkSubscription() {
+    var sub = main.getSubscription();
+    if (sub == null)
+      return;
+    var count = sub.getDroppedCount();
+    if (count > sessionDroppedCount) {
+      global.getLogger().warning(String.format(
+              "session md dropped: %d, queued: %d",
+              count - sessionDroppedCount,
+              sub.getQueueDepth()));
+      sessionDroppedCount = count;
+    }
+  }
+
+  private void reportRouter() {
+    var router = main.getRouter();
+    if (router == null)
+      return;
+    global.getLogger().info(String.format(
+            "md queue peak: %d/%d, overflow: %d, dropped: %d",
+            router.getPeakQueueDepth(),
+            router.getCapacity(),
+            router.getOverflowCount(),
+            router.getDroppedCount()));
+    var sub = main.getSubscription();
+    if (sub != null)
+      global.getLogger().info(String.format(
+              "session md dropped: %d, queued: %d",
+              sub.getDroppedCount(),
+              sub.getQueueDepth()));
+  }
+
   private void stop() {
     setWorkingState(WorkingState.STOPPING);
     if (main.getOrder().getWorkingState() != WorkingState.STOPPED) {
@@ -297,6 +387,8 @@ class PlatformTask extends TimerTask {
       if (needStop()) {
         stop();
       }
+      checkRouter();
+      checkSubscription();
     } catch (Throwable th) {
       th.printStackTrace();
       global.getLogger().severe(th.getMessage());
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.chain;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.md.CandleStore;
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CRspInfo;
+import com.nabiki.commons.ctpobj.ErrorCodes;
+import com.nabiki.commons.iop.Message;
+import com.nabiki.commons.iop.MessageType;
+import com.nabiki.commons.iop.ServerSession;
+import com.nabiki.commons.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ Replay history candles to a session off the I/O thread. Candles are read from
+ store a page at a time, and the next page is read when the last frame of the
+ page is written and the session's pending writes are below the limit, so a
+ large replay doesn't fill memory or starve the session's live market data.
+ No task waits for a session, it sends a page and returns, so one thread
+ serves the replays of all sessions in turn. Replay frames still in flight
+ are counted in a session attribute, so live market data can leave them out
+ of its own pending writes.
+ */
+class CandleReplay {
+  static final int DEFAULT_PAGE_SIZE = 500, MAX_PAGE_SIZE = 5000;
+  static final String FRONT_REPLAY_PENDING_KEY = "front.replay.pending";
+  private static final long WAIT_MILLIS = 10;
+
+  private final CandleStore store;
+  private final Global global;
+  private final int maxPendingWrites;
+  private final long timeoutMillis;
+  private final ScheduledExecutorService executor;
+
+  CandleReplay(CandleStore store, Global global, int maxPendingWrites,
+               long timeoutMillis) {
+    this.store = store;
+    this.global = global;
+    this.maxPendingWrites = maxPendingWrites;
+    this.timeoutMillis = timeoutMillis;
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      var t = new Thread(r, "candle-replay");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /*
+   Replay candles of the instrument between the times, inclusive. If minute is
+   zero or negative, candles of all durations are merged in time, and candles
+   of the same time are in ascending duration. Messages are numbered in
+   current and total count. If there's no candle and an empty response is
+   required, one empty candle is sent.
+   */
+  void replay(ServerSession session, MessageType type, String requestID,
+              String instrumentID, int minute, long from, long to,
+              int pageSize, boolean emptyResponse) {
+    var job = new Job(session, type, requestID, instrumentID, minute, from, to,
+        normalize(pageSize), emptyResponse);
+    execute(job::start, job);
+  }
+
+  private void execute(Runnable task, Job job) {
+    try {
+      this.executor.execute(() -> run(task, job));
+    } catch (RejectedExecutionException e) {
+      job.warn(e.getMessage());
+    }
+  }
+
+  private void schedule(Runnable task, Job job) {
+    try {
+      this.executor.schedule(() -> run(task, job), WAIT_MILLIS,
+          TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      job.warn(e.getMessage());
+    }
+  }
+
+  private void run(Runnable task, Job job) {
+    try {
+      task.run();
+    } catch (Throwable th) {
+      job.warn(th.getMessage());
+    }
+  }
+
+  /*
+   Parse time in yyyyMMddHHmmss, ignoring non-digit characters. Missing digits
+   are filled with the specified digit, so a day-only time covers the whole day
+   when it is filled with 9.
+   */
+  static long parseTime(String time, char fill, long defaultTime) {
+    if (time == null || time.trim().length() == 0)
+      return defaultTime;
+    var sb = new StringBuilder(14);
+    for (var ch : time.toCharArray()) {
+      if (ch >= '0' && ch <= '9' && sb.length() < 14)
+        sb.append(ch);
+    }
+    if (sb.length() == 0)
+      return defaultTime;
+    while (sb.length() < 14)
+      sb.append(fill);
+    return Long.parseLong(sb.toString());
+  }
+
+  /*
+   Number of replay frames written to the session but not yet sent.
+   */
+  static int getPendingReplays(ServerSession session) {
+    var count = session.getAttribute(FRONT_REPLAY_PENDING_KEY);
+    return count instanceof AtomicInteger ? ((AtomicInteger) count).get() : 0;
+  }
+
+  private static AtomicInteger pendingReplays(ServerSession session) {
+    synchronized (session) {
+      var count = session.getAttribute(FRONT_REPLAY_PENDING_KEY);
+      if (count instanceof AtomicInteger)
+        return (AtomicInteger) count;
+      var r = new AtomicInteger(0);
+      session.setAttribute(FRONT_REPLAY_PENDING_KEY, r);
+      return r;
+    }
+  }
+
+  private static void send(ServerSession session, AtomicInteger pending,
+                           Message rsp, Runnable written) {
+    pending.incrementAndGet();
+    try {
+      session.sendResponse(rsp, () -> {
+        pending.decrementAndGet();
+        written.run();
+      });
+    } catch (RuntimeException e) {
+      pending.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /*
+   New response for every candle because the session may still be encoding
+   the previous one.
+   */
+  private static Message response(MessageType type, String requestID,
+                                  CCandle candle, int current, int total) {
+    var rsp = new Message();
+    rsp.Type = type;
+    rsp.RequestID = requestID;
+    rsp.ResponseID = Utils.getUID();
+    rsp.RspInfo = new CRspInfo();
+    rsp.RspInfo.ErrorID = ErrorCodes.NONE;
+    rsp.RspInfo.ErrorMsg = Utils.getErrorMsg(rsp.RspInfo.ErrorID);
+    rsp.Body = candle;
+    rsp.CurrentCount = current;
+    rsp.TotalCount = total;
+    return rsp;
+  }
+
+  private static int normalize(int pageSize) {
+    if (pageSize <= 0)
+      return DEFAULT_PAGE_SIZE;
+    return Math.min(pageSize, MAX_PAGE_SIZE);
+  }
+
+  /*
+   State of a replay to a session. Each duration has a cursor of offset into
+   the store and a buffered page, and the next page takes the earliest head of
+   the buffers. Only the replay thread touches the cursors.
+   */
+  private class Job {
+    private final ServerSession session;
+    private final MessageType type;
+    private final String requestID, instrumentID;
+    private final int minute, pageSize;
+    private final long from, to;
+    private final boolean emptyResponse;
+    private final AtomicInteger pending, inFlight = new AtomicInteger(0);
+    private int[] minutes, counts, offsets, heads;
+    private List<List<CCandle>> buffers;
+    private int current = 0, total = 0;
+    private long deadline = 0;
+
+    Job(ServerSession session, MessageType type, String requestID,
+        String instrumentID, int minute, long from, long to, int pageSize,
+        boolean emptyResponse) {
+      this.session = session;
+      this.type = type;
+      this.requestID = requestID;
+      this.instrumentID = instrumentID;
+      this.minute = minute;
+      this.from = from;
+      this.to = to;
+      this.pageSize = pageSize;
+      this.emptyResponse = emptyResponse;
+      this.pending = pendingReplays(session);
+    }
+
+    void start() {
+      List<Integer> ms = new ArrayList<>();
+      if (this.minute > 0)
+        ms.add(this.minute);
+      else
+        ms.addAll(store.getMinutes(this.instrumentID));
+      this.minutes = new int[ms.size()];
+      this.counts = new int[ms.size()];
+      this.offsets = new int[ms.size()];
+      this.heads = new int[ms.size()];
+      this.buffers = new ArrayList<>(ms.size());
+      for (int i = 0; i < this.minutes.length; ++i) {
+        this.minutes[i] = ms.get(i);
+        this.counts[i] = store.count(this.instrumentID, this.minutes[i],
+            this.from, this.to);
+        this.total += this.counts[i];
+        this.buffers.add(new ArrayList<>());
+      }
+      if (this.total == 0) {
+        if (this.emptyResponse) {
+          var c = new CCandle();
+          c.InstrumentID = this.instrumentID;
+          c.Minute = this.minute;
+          send(this.session, this.pending,
+              response(this.type, this.requestID, c, 1, 1), () -> {});
+        }
+        return;
+      }
+      next();
+    }
+
+    /*
+     Send the next page if the session has room, or check again later.
+     */
+    private void next() {
+      if (this.session.isClosed())
+        return;
+      if (this.session.getPendingWrites() >= maxPendingWrites) {
+        var now = System.currentTimeMillis();
+        if (this.deadline == 0) {
+          this.deadline = now + timeoutMillis;
+        } else if (now > this.deadline) {
+          global.getLogger().warning(String.format(
+              "candle replay to %s timeout, pending writes %d",
+              this.session.getRemoteAddress(),
+              this.session.getPendingWrites()));
+          return;
+        }
+        schedule(this::next, this);
+        return;
+      }
+      this.deadline = 0;
+      var page = nextPage();
+      if (page.isEmpty())
+        return;
+      // The last frame written resumes the replay.
+      this.inFlight.set(page.size());
+      for (var c : page)
+        send(this.session, this.pending, response(this.type, this.requestID,
+            c, ++this.current, this.total), this::written);
+    }
+
+    private void written() {
+      if (this.inFlight.decrementAndGet() == 0 && this.current < this.total)
+        execute(this::next, this);
+    }
+
+    private List<CCandle> nextPage() {
+      var page = new ArrayList<CCandle>(this.pageSize);
+      while (page.size() < this.pageSize) {
+        int earliest = -1;
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < this.minutes.length; ++i) {
+          var c = peek(i);
+          if (c == null)
+            continue;
+          var t = CandleStore.toTime(c.ActionDay, c.UpdateTime);
+          if (t < time) {
+            time = t;
+            earliest = i;
+          }
+        }
+        if (earliest < 0)
+          break;
+        page.add(this.buffers.get(earliest).get(this.heads[earliest]++));
+      }
+      return page;
+    }
+
+    private CCandle peek(int i) {
+      var buffer = this.buffers.get(i);
+      if (this.heads[i] == buffer.size()) {
+        if (this.offsets[i] >= this.counts[i])
+          return null;
+        buffer = store.query(this.instrumentID, this.minutes[i], this.from,
+            this.to, this.offsets[i],
+            Math.min(this.pageSize, this.counts[i] - this.offsets[i]));
+        this.buffers.set(i, buffer);
+        this.heads[i] = 0;
+        if (buffer.isEmpty()) {
+          this.counts[i] = this.offsets[i];
+          return null;
+        }
+        this.offsets[i] += buffer.size();
+      }
+      return buffer.get(this.heads[i]);
+    }
+
+    private void warn(String msg) {
+      global.getLogger().warning(Utils.formatLog("candle replay",
+          this.instrumentID, msg, null));
+    }
+  }
+}
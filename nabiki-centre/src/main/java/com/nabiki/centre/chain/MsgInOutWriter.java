@@ -28,61 +28,17 @@
 
 package com.nabiki.centre.chain;
 
+import com.nabiki.centre.config.FlowJournal;
 import com.nabiki.centre.config.Global;
 import com.nabiki.commons.iop.IOPSession;
 import com.nabiki.commons.iop.Message;
-import com.nabiki.commons.utils.Utils;
-
-import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 public class MsgInOutWriter {
-  private final Global global;
-  private final Path inDir, outDir;
-  private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+  private final FlowJournal inFlow, outFlow;
 
   public MsgInOutWriter(Global cfg) {
-    this.global = cfg;
-    this.inDir = getPath(cfg, "dir.flow.client_in");
-    this.outDir = getPath(cfg, "dir.flow.client_out");
-  }
-
-  private Path getPath(Global cfg, String key) {
-    var dirs = cfg.getRootDirectory().recursiveGet(key);
-    if (dirs.size() > 0)
-      return dirs.iterator().next().path();
-    else
-      return Path.of("");
-  }
-
-  private void write(String text, File file) {
-    try {
-      Utils.writeText(text, file, StandardCharsets.UTF_8, false);
-    } catch (IOException e) {
-      this.global.getLogger()
-          .warning(file.toString() + ". " + e.getMessage());
-    }
-  }
-
-  private File ensureFile(Path root, String fn) {
-    try {
-      var r = Path.of(root.toAbsolutePath().toString(), fn);
-      Utils.createFile(root, true);
-      Utils.createFile(r, false);
-      return r.toFile();
-    } catch (IOException e) {
-      this.global.getLogger().warning(root.toString() + "/" + fn + ". "
-          + e.getMessage());
-      return new File(".failover");
-    }
-  }
-
-  private Path getClientDir(Path root, IOPSession session) {
-    return Path.of(root.toString(), getUserID(session));
+    this.inFlow = cfg.getFlow("dir.flow.client_in");
+    this.outFlow = cfg.getFlow("dir.flow.client_out");
   }
 
   private String getUserID(IOPSession session) {
@@ -91,24 +47,12 @@ public class MsgInOutWriter {
   }
 
   void writeOut(Message out, IOPSession session) {
-    var file = ensureFile(
-        getClientDir(this.outDir, session),
-        String.format(
-            "%s.%s.%s.json",
-            out.Type,
-            LocalDateTime.now().format(this.formatter),
-            out.RequestID));
-    write(Utils.toJson(out), file);
+    this.outFlow.append(String.valueOf(out.Type), getUserID(session),
+        out.RequestID, out);
   }
 
   void writeIn(Message in, IOPSession session) {
-    var file = ensureFile(
-        getClientDir(this.inDir, session),
-        String.format(
-            "%s.%s.%s.json",
-            in.Type,
-            LocalDateTime.now().format(this.formatter),
-            in.RequestID));
-    write(Utils.toJson(in), file);
+    this.inFlow.append(String.valueOf(in.Type), getUserID(session),
+        in.RequestID, in);
   }
 }
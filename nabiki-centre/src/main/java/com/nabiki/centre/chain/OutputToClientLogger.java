@@ -29,6 +29,7 @@
 package com.nabiki.centre.chain;
 
 import com.nabiki.commons.iop.Message;
+import com.nabiki.commons.iop.MessageType;
 import com.nabiki.commons.iop.ServerMessageHandler;
 import com.nabiki.commons.iop.ServerSession;
 
@@ -41,14 +42,21 @@ public class OutputToClientLogger implements ServerMessageHandler {
 
   @Override
   public void onMessage(ServerSession session, Message message) {
-    switch (message.Type) {
+    if (accepts(message.Type))
+      writer.writeOut(message, session);
+  }
+
+  @Override
+  public boolean accepts(MessageType type) {
+    if (type == null)
+      return false;
+    switch (type) {
       case RSP_REQ_ORDER_ACTION:
       case RSP_REQ_ORDER_INSERT:
       case RSP_ERROR:
-        writer.writeOut(message, session);
-        break;
+        return true;
       default:
-        break;
+        return false;
     }
   }
 }
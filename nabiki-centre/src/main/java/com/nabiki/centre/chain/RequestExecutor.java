@@ -31,6 +31,7 @@ package com.nabiki.centre.chain;
 import com.nabiki.centre.config.Global;
 import com.nabiki.centre.user.core.ActiveUser;
 import com.nabiki.centre.user.core.ActiveUserManager;
+import com.nabiki.centre.user.risk.RiskEngine;
 import com.nabiki.commons.ctpobj.*;
 import com.nabiki.commons.iop.Message;
 import com.nabiki.commons.iop.MessageType;
@@ -42,10 +43,12 @@ import java.time.LocalTime;
 
 public class RequestExecutor extends RequestSuper {
   private final ActiveUserManager userMgr;
+  private final RiskEngine risk;
   private final Global global;
 
-  public RequestExecutor(ActiveUserManager user, Global g) {
+  public RequestExecutor(ActiveUserManager user, RiskEngine r, Global g) {
     userMgr = user;
+    risk = r;
     global = g;
   }
 
@@ -123,6 +126,7 @@ public class RequestExecutor extends RequestSuper {
       int total) {
     var user = getUser(session);
     if (user == null) {
+      risk.release(request);
       reply(
           session,
           new COrder(),
@@ -134,8 +138,9 @@ public class RequestExecutor extends RequestSuper {
       // Measure performance.
       var max = this.global.getPerformance().start("order.insert.max");
       var cur = this.global.getPerformance().start("order.insert.cur");
-      // Order insert.
-      var uuid = user.insertOrder(request);
+      // Order insert. Keep it working in risk before it is sent because its
+      // return order may arrive before the method returns.
+      var uuid = user.insertOrder(request, id -> risk.accept(id, request));
       // End measurement.
       max.endWithMax();
       cur.end();
@@ -147,6 +152,7 @@ public class RequestExecutor extends RequestSuper {
         order.OrderSubmitStatus = OrderSubmitStatusType.ACCEPTED;
         order.OrderStatus = OrderStatusType.NO_TRADE_QUEUEING;
       } else {
+        risk.reject(uuid, request);
         order.OrderLocalID = null;
         order.OrderSubmitStatus = OrderSubmitStatusType.INSERT_REJECTED;
         order.OrderStatus = OrderStatusType.NO_TRADE_NOT_QUEUEING;
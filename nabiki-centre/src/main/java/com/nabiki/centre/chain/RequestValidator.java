@@ -29,9 +29,9 @@
 package com.nabiki.centre.chain;
 
 import com.nabiki.centre.config.Global;
-import com.nabiki.centre.user.auth.OrderOffset;
 import com.nabiki.centre.user.auth.UserAuthManager;
 import com.nabiki.centre.user.auth.UserAuthProfile;
+import com.nabiki.centre.user.risk.RiskEngine;
 import com.nabiki.commons.ctpobj.*;
 import com.nabiki.commons.iop.Message;
 import com.nabiki.commons.iop.MessageType;
@@ -45,24 +45,20 @@ import java.time.LocalTime;
 public class RequestValidator extends RequestSuper {
   private final ParkedRequestManager parked;
   private final UserAuthManager authMgr;
+  private final RiskEngine risk;
   private final Global global;
 
-  public RequestValidator(UserAuthManager auth, ParkedRequestManager p, Global g) {
+  public RequestValidator(
+      UserAuthManager auth,
+      ParkedRequestManager p,
+      RiskEngine r,
+      Global g) {
     parked = p;
+    risk = r;
     global = g;
     authMgr = auth;
   }
 
-  private boolean isAllowed(
-      UserAuthProfile.InstrumentAuth auth,
-      String instrumentID,
-      byte offset) {
-    var rightTrade = (auth.AllowOffset == OrderOffset.OPEN_CLOSE ||
-        (auth.AllowOffset == OrderOffset.ONLY_CLOSE &&
-            offset != CombOffsetFlagType.OFFSET_OPEN));
-    return auth.InstrumentID.compareTo(instrumentID) == 0 && rightTrade;
-  }
-
   private void reply(
       ServerSession session,
       COrder rsp,
@@ -156,40 +152,35 @@ public class RequestValidator extends RequestSuper {
             ErrorCodes.USER_NOT_ACTIVE,
             Utils.getErrorMsg(ErrorCodes.USER_NOT_ACTIVE));
       } else {
-        boolean validated = false;
-        for (var instrAuth : auth.InstrumentAuths) {
-          var instrumentID = request.InstrumentID;
-          var offset = request.CombOffsetFlag;
-          if (isAllowed(instrAuth, instrumentID, offset)) {
-            if (isOver(request.InstrumentID)) {
-              parked.offer(request);
-              // Set mark to indicate the order is inserted after market is closed.
-              // It turns to parked order.
-              var rsp = toRtnOrder(request);
-              rsp.OrderSubmitStatus = OrderSubmitStatusType.INSERT_SUBMITTED;
-              rsp.OrderStatus = OrderStatusType.NOT_TOUCHED;
-              // This field used as hint.
-              rsp.OrderLocalID = "<parked-order-no-id>";
-              reply(session,
-                  rsp,
-                  requestID,
-                  MessageType.RSP_REQ_ORDER_INSERT,
-                  ErrorCodes.NONE,
-                  Utils.getErrorMsg(ErrorCodes.NONE));
-              validated = true;
-            } else {
-              // Allow the request goes to next handler on the chain.
-              return;
-            }
-          }
-        }
-        if (!validated) {
+        var rspInfo = risk.check(request);
+        if (rspInfo != null) {
           reply(session,
               toRtnOrder(request),
               requestID,
               MessageType.RSP_REQ_ORDER_INSERT,
-              ErrorCodes.NO_TRADING_RIGHT,
-              Utils.getErrorMsg(ErrorCodes.NO_TRADING_RIGHT));
+              rspInfo.ErrorID,
+              rspInfo.ErrorMsg);
+        } else if (isOver(request.InstrumentID)) {
+          // Parked order is inserted later without passing the chain, so it
+          // doesn't hold open volume until then.
+          risk.release(request);
+          parked.offer(request);
+          // Set mark to indicate the order is inserted after market is closed.
+          // It turns to parked order.
+          var rsp = toRtnOrder(request);
+          rsp.OrderSubmitStatus = OrderSubmitStatusType.INSERT_SUBMITTED;
+          rsp.OrderStatus = OrderStatusType.NOT_TOUCHED;
+          // This field used as hint.
+          rsp.OrderLocalID = "<parked-order-no-id>";
+          reply(session,
+              rsp,
+              requestID,
+              MessageType.RSP_REQ_ORDER_INSERT,
+              ErrorCodes.NONE,
+              Utils.getErrorMsg(ErrorCodes.NONE));
+        } else {
+          // Allow the request goes to next handler on the chain.
+          return;
         }
       }
     }
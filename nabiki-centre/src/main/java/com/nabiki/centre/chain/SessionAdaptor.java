@@ -92,8 +92,12 @@ public class SessionAdaptor extends ServerSessionAdaptor {
             user,
             session.getRemoteAddress()));
         break;
-      case CREATED:
       case OPENED:
+        // Market data is fanned out to all sessions, merge the frames queued
+        // behind a busy socket into one write.
+        session.setCoalesce(true);
+        break;
+      case CREATED:
       case IDLE:
       default:
         break;
@@ -33,40 +33,165 @@ import com.nabiki.centre.md.CandleRW;
 import com.nabiki.centre.md.MarketDataReceiver;
 import com.nabiki.centre.md.MarketDataRouter;
 import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.iop.EncodedMessage;
+import com.nabiki.commons.iop.IOP;
 import com.nabiki.commons.iop.Message;
 import com.nabiki.commons.iop.MessageType;
 import com.nabiki.commons.iop.ServerMessageAdaptor;
 import com.nabiki.commons.iop.ServerSession;
 import com.nabiki.commons.utils.Utils;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SubscriptionAdaptor extends ServerMessageAdaptor {
+  /*
+  Receiver sending market data to one session. When the session has too many
+  frames not yet sent, market data is kept in the session's outbound queue and
+  sent after the session catches up. Depth is keyed by instrument in the queue
+  so a later tick replaces the earlier one and moves to the tail, behind the
+  candles queued before it. Candle is keyed by itself.
+  Only depths are conflated or evicted when the queue is full, candles are
+  always kept so the session never misses a bar.
+   */
   private class SessionMarketDataReceiver implements MarketDataReceiver {
     private final ServerSession session;
-    private final Map<String, Boolean> map = new ConcurrentHashMap<>();
+    private final Map<Object, EncodedMessage> queue = new LinkedHashMap<>();
+    private long dropped = 0, lagSince = 0;
+    private int depthCount = 0;
+    private boolean warned = false;
 
     SessionMarketDataReceiver(ServerSession session) {
       this.session = session;
     }
 
     void subscribe(String instrID) {
-      this.map.put(instrID, true);
+      router.subscribe(instrID, this);
     }
 
     void unsubscribe(String instrID) {
-      this.map.remove(instrID);
+      router.unsubscribe(instrID, this);
+    }
+
+    synchronized int getQueueDepth() {
+      return this.queue.size();
+    }
+
+    synchronized long getDropped() {
+      return this.dropped;
+    }
+
+    private synchronized void offer(Object key, EncodedMessage message) {
+      if (this.session.isClosed())
+        return;
+      flush();
+      if (this.queue.isEmpty()
+          && getLivePendingWrites() < maxPendingWrites) {
+        this.session.sendResponse(message);
+        return;
+      }
+      if (this.queue.remove(key) != null) {
+        // Later depth of the same instrument replaces the queued one, and is
+        // sent after the candles queued in between.
+        this.queue.put(key, message);
+        drop();
+      } else {
+        this.queue.put(key, message);
+        if (key instanceof String)
+          ++this.depthCount;
+        if (this.queue.size() > queueCapacity)
+          evictDepth(key);
+      }
+      if (this.lagSince == 0)
+        this.lagSince = System.currentTimeMillis();
+      checkSlow();
+    }
+
+    /*
+    Pending writes of the session except the candle replay frames, which are
+    paced by the replay and don't make the session a slow consumer.
+     */
+    private int getLivePendingWrites() {
+      return Math.max(0, this.session.getPendingWrites()
+          - CandleReplay.getPendingReplays(this.session));
+    }
+
+    /*
+    Remove the oldest depth in queue except the one just queued. Candles are
+    left in queue even if it is over capacity.
+     */
+    private void evictDepth(Object latest) {
+      if (this.depthCount == 0
+          || (this.depthCount == 1 && latest instanceof String))
+        return;
+      var iter = this.queue.keySet().iterator();
+      while (iter.hasNext()) {
+        var key = iter.next();
+        if (key instanceof String && !key.equals(latest)) {
+          iter.remove();
+          --this.depthCount;
+          drop();
+          return;
+        }
+      }
+    }
+
+    private void drop() {
+      ++this.dropped;
+      droppedCount.incrementAndGet();
+    }
+
+    /*
+    Send the queued market data while the session keeps up.
+     */
+    synchronized void flush() {
+      if (this.session.isClosed()) {
+        clear();
+        return;
+      }
+      var iter = this.queue.entrySet().iterator();
+      while (iter.hasNext()
+          && getLivePendingWrites() < maxPendingWrites) {
+        var entry = iter.next();
+        this.session.sendResponse(entry.getValue());
+        iter.remove();
+        if (entry.getKey() instanceof String)
+          --this.depthCount;
+      }
+      if (this.queue.isEmpty()) {
+        this.lagSince = 0;
+        this.warned = false;
+      }
+    }
+
+    synchronized void checkSlow() {
+      if (this.lagSince == 0 || this.warned
+          || System.currentTimeMillis() - this.lagSince < slowConsumerMillis)
+        return;
+      this.warned = true;
+      global.getLogger().warning(String.format(
+          "slow consumer %s, queued %d, dropped %d, pending writes %d",
+          this.session.getRemoteAddress(),
+          this.queue.size(),
+          this.dropped,
+          this.session.getPendingWrites()));
+      if (slowConsumerAction == SlowConsumerAction.DISCONNECT) {
+        clear();
+        this.session.close();
+      }
+    }
+
+    private void clear() {
+      this.queue.clear();
+      this.depthCount = 0;
     }
 
     @Override
     public void depthReceived(CDepthMarketData depth) {
       try {
-        if (!this.session.isClosed()
-            && this.map.containsKey(depth.InstrumentID))
-          this.session.sendResponse(toMessage(depth));
+        offer(depth.InstrumentID, encode(depth));
       } catch (Throwable th) {
         th.printStackTrace();
         global.getLogger().warning(th.getMessage());
@@ -76,9 +201,7 @@ public class SubscriptionAdaptor extends ServerMessageAdaptor {
     @Override
     public void candleReceived(CCandle candle) {
       try {
-        if (!this.session.isClosed() &&
-            this.map.containsKey(candle.InstrumentID))
-          this.session.sendResponse(toMessage(candle));
+        offer(candle, encode(candle));
       } catch (Throwable th) {
         th.printStackTrace();
         global.getLogger().warning(th.getMessage());
@@ -86,15 +209,157 @@ public class SubscriptionAdaptor extends ServerMessageAdaptor {
     }
   }
 
+  /*
+  Market data and its encoded message shared by all sessions.
+   */
+  private static class EncodedCache {
+    final Object source;
+    final EncodedMessage encoded;
+
+    EncodedCache(Object source, EncodedMessage encoded) {
+      this.source = source;
+      this.encoded = encoded;
+    }
+  }
+
   static String FRONT_MDRECEIVER_KEY = "front.mdrecv";
+  public final static int DEFAULT_QUEUE_CAPACITY = 1024;
+  public final static int DEFAULT_MAX_PENDING_WRITES = 256;
+  public final static long DEFAULT_SLOW_CONSUMER_MILLIS
+      = TimeUnit.SECONDS.toMillis(30);
+  private final static long FLUSH_MILLIS = 100;
+
   private final MarketDataRouter router;
   private final CandleRW candlRW;
   private final Global global;
+  private final int queueCapacity, maxPendingWrites;
+  private final long slowConsumerMillis;
+  private final SlowConsumerAction slowConsumerAction;
+  private final CandleReplay replay;
+  private final Set<SessionMarketDataReceiver> receivers
+      = ConcurrentHashMap.newKeySet();
+  private final AtomicLong droppedCount = new AtomicLong(0);
+  private volatile EncodedCache depthCache, candleCache;
 
   public SubscriptionAdaptor(MarketDataRouter router, CandleRW rw, Global global) {
+    this(router, rw, global,
+        DEFAULT_QUEUE_CAPACITY,
+        DEFAULT_MAX_PENDING_WRITES,
+        DEFAULT_SLOW_CONSUMER_MILLIS,
+        SlowConsumerAction.WARN);
+  }
+
+  /**
+   * Create subscription adaptor with the outbound queue settings.
+   *
+   * @param router             market data router
+   * @param rw                 candle reader/writer
+   * @param global             global config
+   * @param queueCapacity      max number of market data queued for a session,
+   *                           oldest depths are evicted beyond it but candles
+   *                           are kept
+   * @param maxPendingWrites   max number of frames not yet sent before the
+   *                           session's market data is queued
+   * @param slowConsumerMillis milliseconds a session can lag behind before it
+   *                           is taken as slow consumer
+   * @param action             action on slow consumer, {@link
+   *                           SlowConsumerAction#DISCONNECT} closes the
+   *                           session and drops its queued market data
+   */
+  public SubscriptionAdaptor(
+      MarketDataRouter router,
+      CandleRW rw,
+      Global global,
+      int queueCapacity,
+      int maxPendingWrites,
+      long slowConsumerMillis,
+      SlowConsumerAction action) {
+    if (queueCapacity < 1)
+      throw new IllegalArgumentException("queue capacity too small");
+    if (maxPendingWrites < 1)
+      throw new IllegalArgumentException("max pending writes too small");
+    if (action == null)
+      throw new NullPointerException("slow consumer action null");
     this.router = router;
     this.candlRW = rw;
     this.global = global;
+    this.queueCapacity = queueCapacity;
+    this.maxPendingWrites = maxPendingWrites;
+    this.slowConsumerMillis = slowConsumerMillis;
+    this.slowConsumerAction = action;
+    this.replay = new CandleReplay(rw.getStore(), global, maxPendingWrites,
+        slowConsumerMillis);
+    // Send the queued market data after sessions catch up, even if no more
+    // market data comes.
+    Utils.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        flushAll();
+      }
+    }, FLUSH_MILLIS);
+  }
+
+  private void flushAll() {
+    for (var recv : this.receivers) {
+      try {
+        if (recv.session.isClosed()) {
+          this.receivers.remove(recv);
+        } else {
+          recv.flush();
+          recv.checkSlow();
+        }
+      } catch (Throwable th) {
+        th.printStackTrace();
+        global.getLogger().warning(th.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Get number of market data queued for the session.
+   *
+   * @param session server session
+   * @return queue depth, or 0 if the session subscribes nothing
+   */
+  public int getQueueDepth(ServerSession session) {
+    var recv = session.getAttribute(FRONT_MDRECEIVER_KEY);
+    if (recv == null)
+      return 0;
+    return ((SessionMarketDataReceiver) recv).getQueueDepth();
+  }
+
+  /**
+   * Get number of depths dropped for the session because it lags behind.
+   *
+   * @param session server session
+   * @return dropped count, or 0 if the session subscribes nothing
+   */
+  public long getDroppedCount(ServerSession session) {
+    var recv = session.getAttribute(FRONT_MDRECEIVER_KEY);
+    if (recv == null)
+      return 0;
+    return ((SessionMarketDataReceiver) recv).getDropped();
+  }
+
+  /**
+   * Get number of market data queued for all sessions.
+   *
+   * @return queue depth
+   */
+  public int getQueueDepth() {
+    int r = 0;
+    for (var recv : this.receivers)
+      r += recv.getQueueDepth();
+    return r;
+  }
+
+  /**
+   * Get number of depths dropped for all sessions.
+   *
+   * @return dropped count
+   */
+  public long getDroppedCount() {
+    return this.droppedCount.get();
   }
 
   private static Message toMessage(CDepthMarketData depth) {
@@ -115,19 +380,46 @@ public class SubscriptionAdaptor extends ServerMessageAdaptor {
     return rsp;
   }
 
+  /*
+  Router passes the same instance to all receivers, so the market data is
+  encoded once for the first session and the other sessions share the bytes.
+   */
+  private EncodedMessage encode(CDepthMarketData depth) {
+    var c = this.depthCache;
+    if (c == null || c.source != depth) {
+      c = new EncodedCache(depth, IOP.encode(toMessage(depth)));
+      this.depthCache = c;
+    }
+    return c.encoded;
+  }
+
+  private EncodedMessage encode(CCandle candle) {
+    var c = this.candleCache;
+    if (c == null || c.source != candle) {
+      c = new EncodedCache(candle, IOP.encode(toMessage(candle)));
+      this.candleCache = c;
+    }
+    return c.encoded;
+  }
+
   private SessionMarketDataReceiver getReceiver(ServerSession session) {
     var recv = session.getAttribute(FRONT_MDRECEIVER_KEY);
     if (recv == null) {
+      // Router only routes the subscribed instruments to the receiver.
       recv = new SessionMarketDataReceiver(session);
-      this.router.addReceiver((MarketDataReceiver) recv);
+      this.receivers.add((SessionMarketDataReceiver) recv);
       session.setAttribute(FRONT_MDRECEIVER_KEY, recv);
     }
     return (SessionMarketDataReceiver) recv;
   }
 
+  /*
+  History candles are replayed in background after the subscription is set, so
+  the I/O thread isn't blocked.
+   */
   private void sendHistoryCandles(ServerSession session, String instrumentID) {
-    for (var c : this.candlRW.queryCandle(instrumentID))
-      session.sendResponse(toMessage(c));
+    this.replay.replay(session, MessageType.FLOW_CANDLE, "", instrumentID, 0,
+        Long.MIN_VALUE, Long.MAX_VALUE, CandleReplay.DEFAULT_PAGE_SIZE, false);
   }
 
   private void sendRsp(
@@ -191,8 +483,8 @@ public class SubscriptionAdaptor extends ServerMessageAdaptor {
       for (var instrID : instr) {
         int errorCode = ErrorCodes.NONE;
         try {
-          sendHistoryCandles(session, instrID);
           recv.subscribe(instrID);
+          sendHistoryCandles(session, instrID);
         } catch (Throwable ignored) {
           errorCode = ErrorCodes.BAD_FIELD;
         } finally {
@@ -210,6 +502,48 @@ public class SubscriptionAdaptor extends ServerMessageAdaptor {
     session.done();
   }
 
+  @Override
+  public void doQryCandle(
+      ServerSession session,
+      CQryCandle query,
+      String requestID,
+      int current,
+      int total) {
+    // Same as depth query, an instrument neither configured nor in store is
+    // not found, and a known instrument without candles gets an empty candle.
+    if (!isKnown(query.InstrumentID)) {
+      var rsp = new Message();
+      rsp.Type = MessageType.RSP_QRY_CANDLE;
+      rsp.RequestID = requestID;
+      rsp.ResponseID = Utils.getUID();
+      rsp.CurrentCount = rsp.TotalCount = 1;
+      rsp.Body = new CCandle();
+      rsp.RspInfo = new CRspInfo();
+      rsp.RspInfo.ErrorID = ErrorCodes.INSTRUMENT_NOT_FOUND;
+      rsp.RspInfo.ErrorMsg = Utils.getErrorMsg(rsp.RspInfo.ErrorID);
+      session.sendResponse(rsp);
+    } else {
+      this.replay.replay(
+          session,
+          MessageType.RSP_QRY_CANDLE,
+          requestID,
+          query.InstrumentID,
+          query.Minute,
+          CandleReplay.parseTime(query.From, '0', Long.MIN_VALUE),
+          CandleReplay.parseTime(query.To, '9', Long.MAX_VALUE),
+          query.PageSize,
+          true);
+    }
+    session.done();
+  }
+
+  private boolean isKnown(String instrumentID) {
+    if (instrumentID == null || instrumentID.length() == 0)
+      return false;
+    return this.global.getInstrInfo(instrumentID) != null
+        || this.candlRW.getStore().getMinutes(instrumentID).size() > 0;
+  }
+
   @Override
   public void doUnsubDepthMarketData(
       ServerSession session,
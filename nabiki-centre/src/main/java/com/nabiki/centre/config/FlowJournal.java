@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.config;
+
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.iop.Message;
+import com.nabiki.commons.utils.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Append-only journal of a flow, like requests, return orders or client
+ * messages. Records are appended by the caller and encoded and written in
+ * batches by a daemon thread, so the caller waits on neither JSON nor disk
+ * I/O. The queue between them is bounded, and a full queue blocks or drops
+ * as the overflow policy says.
+ *
+ * <p>Files of a day are {@code <day>.<segment>.flow} and {@code <day>.idx}.
+ * The day is the trading day given to the journal, so a night session goes
+ * with the next day session. A segment rolls over when it exceeds the
+ * segment size. The index has one
+ * line {@code <segment>\t<offset>\t<user ID>\t<order ref>} per record for
+ * lookup by user or order ref.
+ * </p>
+ */
+public class FlowJournal {
+  /**
+   * When the written records are forced to disk.
+   */
+  public enum SyncPolicy {
+    /** Leave it to the operating system. */
+    NONE,
+    /** Force after every batch. */
+    BATCH,
+    /** Force at most once a second. */
+    INTERVAL
+  }
+
+  /**
+   * What append does when the queue is full.
+   */
+  public enum OverflowPolicy {
+    /** Wait until the daemon takes records from queue, nothing is lost. */
+    BLOCK,
+    /** Drop the record and count it, the caller never waits. */
+    DROP
+  }
+
+  /**
+   * A record in journal.
+   */
+  public static class Record {
+    public long Time;
+    public String Type;
+    public String UserID;
+    public String OrderRef;
+    public String Json;
+  }
+
+  public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+  public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+  private static final int MAX_BATCH = 1024;
+  private static final long SYNC_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  private static final DateTimeFormatter DAY
+      = DateTimeFormatter.ofPattern("yyyyMMdd");
+  private static final DateTimeFormatter STAMP
+      = DateTimeFormatter.ofPattern("yyyyMMdd.HHmmss.SSS");
+  // Copy constructors of the objects in flows.
+  private static final Map<Class<?>, UnaryOperator<Object>> COPIES
+      = new HashMap<>();
+
+  static {
+    copies(CCandle.class, CCandle::new);
+    copies(CConnect.class, CConnect::new);
+    copies(CDepthMarketData.class, CDepthMarketData::new);
+    copies(CDisconnect.class, CDisconnect::new);
+    copies(CInputOrder.class, CInputOrder::new);
+    copies(CInputOrderAction.class, CInputOrderAction::new);
+    copies(CInstrument.class, CInstrument::new);
+    copies(CInstrumentCommissionRate.class, CInstrumentCommissionRate::new);
+    copies(CInstrumentMarginRate.class, CInstrumentMarginRate::new);
+    copies(CInvestorPosition.class, CInvestorPosition::new);
+    copies(CInvestorPositionDetail.class, CInvestorPositionDetail::new);
+    copies(COrder.class, COrder::new);
+    copies(COrderAction.class, COrderAction::new);
+    copies(CQryCandle.class, CQryCandle::new);
+    copies(CQryDepthMarketData.class, CQryDepthMarketData::new);
+    copies(CQryInstrument.class, CQryInstrument::new);
+    copies(CQryInstrumentCommissionRate.class,
+        CQryInstrumentCommissionRate::new);
+    copies(CQryInstrumentMarginRate.class, CQryInstrumentMarginRate::new);
+    copies(CQryInvestorPosition.class, CQryInvestorPosition::new);
+    copies(CQryInvestorPositionDetail.class, CQryInvestorPositionDetail::new);
+    copies(CQryOrder.class, CQryOrder::new);
+    copies(CQryTradingAccount.class, CQryTradingAccount::new);
+    copies(CReqAuthenticate.class, CReqAuthenticate::new);
+    copies(CReqUserLogin.class, CReqUserLogin::new);
+    copies(CRspAuthenticate.class, CRspAuthenticate::new);
+    copies(CRspInfo.class, CRspInfo::new);
+    copies(CRspUserLogin.class, CRspUserLogin::new);
+    copies(CSettlementInfoConfirm.class, CSettlementInfoConfirm::new);
+    copies(CSpecificInstrument.class, CSpecificInstrument::new);
+    copies(CSubMarketData.class, CSubMarketData::new);
+    copies(CTrade.class, CTrade::new);
+    copies(CTradingAccount.class, CTradingAccount::new);
+    copies(CUnsubMarketData.class, CUnsubMarketData::new);
+    copies(CUserLogout.class, CUserLogout::new);
+    copies(Message.class, o -> copyMessage((Message) o));
+  }
+
+  private final Path dir;
+  private final SyncPolicy sync;
+  private final long segmentSize;
+  private final OverflowPolicy overflow;
+  private final Supplier<String> tradingDay;
+  private final BlockingQueue<Entry> queue;
+  private final LongAdder dropped = new LongAdder();
+  private final Thread daemon;
+  private volatile boolean running = true;
+
+  // Only accessed by the daemon.
+  private String day;
+  private int segment;
+  private long offset, lastSync, reportedDrops;
+  private FileOutputStream file;
+  private OutputStream out;
+  private Writer index;
+
+  public FlowJournal(Path dir, SyncPolicy sync, long segmentSize) {
+    this(dir, sync, OverflowPolicy.BLOCK, DEFAULT_CAPACITY, segmentSize, null);
+  }
+
+  /**
+   * Create journal in the directory.
+   *
+   * @param dir         directory of journal files
+   * @param sync        sync policy
+   * @param overflow    overflow policy
+   * @param capacity    capacity of the queue
+   * @param segmentSize max size of a segment file
+   * @param tradingDay  trading day in yyyyMMdd that names the files, or
+   *                    {@code null} for today. When it gives {@code null},
+   *                    today is used.
+   */
+  public FlowJournal(Path dir, SyncPolicy sync, OverflowPolicy overflow,
+                     int capacity, long segmentSize,
+                     Supplier<String> tradingDay) {
+    this.dir = dir;
+    this.sync = sync == null ? SyncPolicy.INTERVAL : sync;
+    this.overflow = overflow == null ? OverflowPolicy.BLOCK : overflow;
+    this.tradingDay = tradingDay;
+    this.queue = new LinkedBlockingQueue<>(capacity);
+    this.segmentSize = segmentSize;
+    this.daemon = new Thread(this::loop, "flow-" + dir.getFileName());
+    this.daemon.setDaemon(true);
+    this.daemon.start();
+  }
+
+  /**
+   * Append the object in JSON. The object's fields are copied in caller's
+   * thread so it can be changed after the call, and the copy is encoded by
+   * the daemon. An object that can't be copied is encoded in caller's thread.
+   *
+   * @param type     type of the record, usually the object's type
+   * @param userID   user ID, or {@code null}
+   * @param orderRef order ref or request ID, or {@code null}
+   * @param object   object to write
+   */
+  public void append(String type, String userID, String orderRef,
+                     Object object) {
+    if (!this.running)
+      return;
+    var e = new Entry();
+    e.time = System.currentTimeMillis();
+    e.type = type;
+    e.userID = userID == null ? "" : userID;
+    e.orderRef = orderRef == null ? "" : orderRef;
+    e.object = snapshot(object);
+    if (e.object == null && object != null)
+      e.json = Utils.toJson(object);
+    if (this.overflow == OverflowPolicy.DROP) {
+      if (!this.queue.offer(e))
+        this.dropped.increment();
+    } else {
+      try {
+        this.queue.put(e);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        this.dropped.increment();
+      }
+    }
+  }
+
+  /**
+   * Get number of records dropped on a full queue.
+   *
+   * @return number of dropped records
+   */
+  public long getDropped() {
+    return this.dropped.sum();
+  }
+
+  /**
+   * Find records of the day with the specified user ID and order ref. A
+   * {@code null} condition matches all.
+   *
+   * @param day      day in yyyyMMdd
+   * @param userID   user ID, or {@code null}
+   * @param orderRef order ref, or {@code null}
+   * @return records in the order they are written
+   * @throws IOException fail reading journal
+   */
+  public List<Record> find(String day, String userID, String orderRef)
+      throws IOException {
+    var r = new LinkedList<Record>();
+    var idx = indexFile(day).toFile();
+    if (!idx.exists())
+      return r;
+    var files = new HashMap<Integer, RandomAccessFile>();
+    try (var reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(idx), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        var s = line.split("\t", -1);
+        if (s.length < 4 || (userID != null && !userID.equals(s[2]))
+            || (orderRef != null && !orderRef.equals(s[3])))
+          continue;
+        var seg = Integer.parseInt(s[0]);
+        var f = files.get(seg);
+        if (f == null) {
+          f = new RandomAccessFile(segmentFile(day, seg).toFile(), "r");
+          files.put(seg, f);
+        }
+        f.seek(Long.parseLong(s[1]));
+        var bytes = new byte[f.readInt()];
+        f.readFully(bytes);
+        r.add(decode(bytes));
+      }
+    } finally {
+      for (var f : files.values())
+        f.close();
+    }
+    return r;
+  }
+
+  /**
+   * Export records of the day to the per-message JSON layout, that is
+   * {@code <target>/<user ID>/<type>.<time>.<sequence>.json}.
+   *
+   * @param day    day in yyyyMMdd
+   * @param target target directory
+   * @return number of exported records
+   * @throws IOException fail reading journal or writing files
+   */
+  public int export(String day, Path target) throws IOException {
+    int count = 0;
+    for (var record : find(day, null, null)) {
+      var user = record.UserID.length() == 0 ? "null" : record.UserID;
+      var time = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.Time),
+          ZoneId.systemDefault());
+      var file = Path.of(target.toString(), user, String.format(
+          "%s.%s.%d.json", record.Type, time.format(STAMP), ++count));
+      Files.createDirectories(file.getParent());
+      Files.writeString(file, record.Json, StandardCharsets.UTF_8);
+    }
+    return count;
+  }
+
+  /**
+   * Write all appended records and stop the journal.
+   */
+  public void close() {
+    this.running = false;
+    try {
+      this.daemon.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Path segmentFile(String day, int segment) {
+    return Path.of(this.dir.toString(), day + "." + segment + ".flow");
+  }
+
+  private Path indexFile(String day) {
+    return Path.of(this.dir.toString(), day + ".idx");
+  }
+
+  private void loop() {
+    var batch = new ArrayList<Entry>(MAX_BATCH);
+    while (this.running || !this.queue.isEmpty()) {
+      try {
+        var e = this.queue.poll(SYNC_MILLIS, TimeUnit.MILLISECONDS);
+        if (e != null) {
+          batch.add(e);
+          this.queue.drainTo(batch, MAX_BATCH - 1);
+          write(batch);
+        }
+        sync(e != null);
+        reportDrops();
+      } catch (Throwable th) {
+        Global.logger.warning("flow journal " + this.dir + ", "
+            + th.getMessage());
+      } finally {
+        batch.clear();
+      }
+    }
+    closeFiles();
+  }
+
+  private void reportDrops() {
+    var drops = this.dropped.sum();
+    if (drops > this.reportedDrops) {
+      Global.logger.warning("flow journal " + this.dir + " dropped "
+          + (drops - this.reportedDrops) + " records on full queue");
+      this.reportedDrops = drops;
+    }
+  }
+
+  private String getDay() {
+    var day = this.tradingDay == null ? null : this.tradingDay.get();
+    return day == null || day.length() == 0 ? LocalDate.now().format(DAY) : day;
+  }
+
+  private void write(List<Entry> batch) throws IOException {
+    var today = getDay();
+    for (var e : batch) {
+      var bytes = encode(e.time, e.type, e.userID, e.orderRef,
+          e.json != null ? e.json : Utils.toJson(e.object));
+      if (!today.equals(this.day) || this.offset >= this.segmentSize)
+        roll(today);
+      this.out.write(bytes);
+      this.index.write(this.segment + "\t" + this.offset + "\t" + e.userID
+          + "\t" + e.orderRef + "\n");
+      this.offset += bytes.length;
+    }
+    this.out.flush();
+    this.index.flush();
+  }
+
+  private void sync(boolean written) throws IOException {
+    if (this.file == null || this.sync == SyncPolicy.NONE)
+      return;
+    var now = System.currentTimeMillis();
+    if ((this.sync == SyncPolicy.BATCH && written)
+        || (this.sync == SyncPolicy.INTERVAL
+        && now - this.lastSync >= SYNC_MILLIS)) {
+      this.file.getChannel().force(false);
+      this.lastSync = now;
+    }
+  }
+
+  /*
+   Open the last segment of the day, or a new segment if the day changes or
+   the last segment is full.
+   */
+  private void roll(String today) throws IOException {
+    Files.createDirectories(this.dir);
+    if (!today.equals(this.day)) {
+      closeFiles();
+      this.day = today;
+      this.segment = 0;
+      while (segmentFile(today, this.segment + 1).toFile().exists())
+        ++this.segment;
+      this.index = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(indexFile(today).toFile(), true),
+          StandardCharsets.UTF_8));
+    } else {
+      closeSegment();
+      ++this.segment;
+    }
+    var f = segmentFile(today, this.segment).toFile();
+    this.file = new FileOutputStream(f, true);
+    this.out = new BufferedOutputStream(this.file, 64 * 1024);
+    this.offset = f.length();
+    if (this.offset >= this.segmentSize) {
+      closeSegment();
+      roll(today);
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    if (this.out != null) {
+      this.out.flush();
+      if (this.sync != SyncPolicy.NONE)
+        this.file.getChannel().force(false);
+      this.out.close();
+      this.out = null;
+      this.file = null;
+    }
+  }
+
+  private void closeFiles() {
+    try {
+      closeSegment();
+      if (this.index != null) {
+        this.index.close();
+        this.index = null;
+      }
+    } catch (IOException e) {
+      Global.logger.warning("flow journal " + this.dir + ", "
+          + e.getMessage());
+    }
+  }
+
+  /*
+   Record: [int length][long time][type][user ID][order ref][int length][json]
+   */
+  private static byte[] encode(long time, String type, String userID,
+                               String orderRef, String json)
+      throws IOException {
+    var bytes = new ByteArrayOutputStream(json.length() + 64);
+    var out = new DataOutputStream(bytes);
+    out.writeInt(0);
+    out.writeLong(time);
+    out.writeUTF(type);
+    out.writeUTF(userID);
+    out.writeUTF(orderRef);
+    var j = json.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(j.length);
+    out.write(j);
+    var r = bytes.toByteArray();
+    var length = r.length - 4;
+    r[0] = (byte) (length >>> 24);
+    r[1] = (byte) (length >>> 16);
+    r[2] = (byte) (length >>> 8);
+    r[3] = (byte) length;
+    return r;
+  }
+
+  private static Record decode(byte[] bytes) throws IOException {
+    var in = new DataInputStream(new ByteArrayInputStream(bytes));
+    var r = new Record();
+    r.Time = in.readLong();
+    r.Type = in.readUTF();
+    r.UserID = in.readUTF();
+    r.OrderRef = in.readUTF();
+    var j = new byte[in.readInt()];
+    in.readFully(j);
+    r.Json = new String(j, StandardCharsets.UTF_8);
+    return r;
+  }
+
+  /*
+   Copy of the object by its copy constructor, or null if it has none. A
+   message is copied with its body and response info, and a message whose
+   body has no copy constructor is not copied.
+   */
+  static Object snapshot(Object object) {
+    if (object == null)
+      return null;
+    var copy = COPIES.get(object.getClass());
+    return copy == null ? null : copy.apply(object);
+  }
+
+  private static <T> void copies(Class<T> type, UnaryOperator<T> copy) {
+    COPIES.put(type, o -> copy.apply(type.cast(o)));
+  }
+
+  private static Message copyMessage(Message m) {
+    var body = m.Body == null ? null : snapshot(m.Body);
+    if (body == null && m.Body != null)
+      return null;
+    var r = new Message();
+    r.Type = m.Type;
+    r.Body = body;
+    r.RspInfo = m.RspInfo == null ? null : new CRspInfo(m.RspInfo);
+    r.RequestID = m.RequestID;
+    r.ResponseID = m.ResponseID;
+    r.CurrentCount = m.CurrentCount;
+    r.TotalCount = m.TotalCount;
+    r.TimeStamp = m.TimeStamp;
+    return r;
+  }
+
+  private static class Entry {
+    long time;
+    String type, userID, orderRef, json;
+    Object object;
+  }
+}
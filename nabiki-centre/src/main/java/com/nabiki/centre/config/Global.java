@@ -28,15 +28,20 @@
 
 package com.nabiki.centre.config;
 
+import com.nabiki.centre.config.plain.BarConfig;
 import com.nabiki.centre.config.plain.InstrumentInfo;
 import com.nabiki.centre.config.plain.LoginConfig;
 import com.nabiki.commons.ctpobj.CDepthMarketData;
 import com.nabiki.commons.utils.EasyFile;
 import com.nabiki.commons.utils.Performance;
 import com.nabiki.commons.utils.Utils;
+import com.nabiki.gateway.GatewayFactory;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -57,6 +62,10 @@ public class Global {
   final Map<String, Set<String>> products = new ConcurrentHashMap<>();
   // Commandline arguments: prefix -> argument
   final Map<String, String> args = new ConcurrentHashMap<>();
+  // Product ID -> bars other than time candles
+  final Map<String, List<BarConfig.SingleBar>> bars = new ConcurrentHashMap<>();
+  // Directory key -> flow journal
+  final Map<String, FlowJournal> flows = new ConcurrentHashMap<>();
 
   final Duration[] durations = new Duration[]{
       Duration.ofMinutes(1), Duration.ofMinutes(5), Duration.ofMinutes(15),
@@ -69,9 +78,22 @@ public class Global {
   public static final String CMD_LISTEN_PREFIX = "--listen";
   public static final String CMD_LOGSVR_PREFIX = "--log-server";
   public static final String CMD_START_NOW_PREFIX = "--start-now";
+  public static final String CMD_GATEWAY_PREFIX = "--gateway";
+  public static final String CMD_FLOW_SYNC_PREFIX = "--flow-sync";
+  public static final String CMD_FLOW_OVERFLOW_PREFIX = "--flow-overflow";
+  public static final String CMD_LEDGER_SYNC_PREFIX = "--ledger-sync";
+  public static final String CMD_EXPORT_FLOW_PREFIX = "--export-flow";
+  public static final String CMD_IMPORT_CANDLE_PREFIX = "--import-candle";
+  public static final String CMD_EXPORT_CANDLE_PREFIX = "--export-candle";
+  public static final String CMD_CANDLE_TIME_PREFIX = "--candle-time";
+  public static final String CMD_CANDLE_LATENESS_PREFIX = "--candle-lateness";
+  public static final String CMD_MD_WAIT_PREFIX = "--md-wait";
+  public static final String CMD_MD_CAPACITY_PREFIX = "--md-capacity";
+  public static final String CMD_MD_OVERFLOW_PREFIX = "--md-overflow";
 
   static Logger logger;
   Performance performance;
+  GatewayFactory gatewayFactory;
   String tradingDay;
   EasyFile rootDirectory;
 
@@ -87,6 +109,15 @@ public class Global {
     return this.performance;
   }
 
+  /**
+   * Get factory of trader and market data gateways.
+   *
+   * @return gateway factory
+   */
+  public GatewayFactory getGatewayFactory() {
+    return this.gatewayFactory;
+  }
+
   /**
    * Get login configurations.
    *
@@ -125,6 +156,17 @@ public class Global {
     return keeper;
   }
 
+  /**
+   * Get bars other than time candles computed for the specified product.
+   *
+   * @param productID product ID
+   * @return bars of the product, or empty list if there is no bar
+   */
+  public List<BarConfig.SingleBar> getBars(String productID) {
+    var r = this.bars.get(productID);
+    return r == null ? Collections.emptyList() : r;
+  }
+
   /**
    * Get all trading hours.
    *
@@ -211,6 +253,67 @@ public class Global {
     return this.durations;
   }
 
+  /**
+   * Get the journal of flow in the specified directory. All writers of the
+   * same directory share one journal.
+   *
+   * @param dirKey key of the flow directory, like {@code dir.flow.rtn}
+   * @return flow journal
+   */
+  public FlowJournal getFlow(String dirKey) {
+    return this.flows.computeIfAbsent(dirKey, key -> {
+      var dirs = getRootDirectory().recursiveGet(key);
+      var dir = dirs.size() > 0
+          ? dirs.iterator().next().path() : Path.of(key);
+      return new FlowJournal(dir, getFlowSync(), getFlowOverflow(),
+          FlowJournal.DEFAULT_CAPACITY, FlowJournal.DEFAULT_SEGMENT_SIZE,
+          this::getTradingDay);
+    });
+  }
+
+  private FlowJournal.SyncPolicy getFlowSync() {
+    var sync = getArgument(CMD_FLOW_SYNC_PREFIX);
+    if (sync == null || sync.trim().length() == 0)
+      return FlowJournal.SyncPolicy.INTERVAL;
+    try {
+      return FlowJournal.SyncPolicy.valueOf(sync.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      getLogger().warning("unknown flow sync policy: " + sync);
+      return FlowJournal.SyncPolicy.INTERVAL;
+    }
+  }
+
+  private FlowJournal.OverflowPolicy getFlowOverflow() {
+    var overflow = getArgument(CMD_FLOW_OVERFLOW_PREFIX);
+    if (overflow == null || overflow.trim().length() == 0)
+      return FlowJournal.OverflowPolicy.BLOCK;
+    try {
+      return FlowJournal.OverflowPolicy.valueOf(
+          overflow.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      getLogger().warning("unknown flow overflow policy: " + overflow);
+      return FlowJournal.OverflowPolicy.BLOCK;
+    }
+  }
+
+  /**
+   * Get the policy of forcing user ledgers to disk. Default is batch, every
+   * event is forced before the ledger returns.
+   *
+   * @return sync policy of user ledgers
+   */
+  public FlowJournal.SyncPolicy getLedgerSync() {
+    var sync = getArgument(CMD_LEDGER_SYNC_PREFIX);
+    if (sync == null || sync.trim().length() == 0)
+      return FlowJournal.SyncPolicy.BATCH;
+    try {
+      return FlowJournal.SyncPolicy.valueOf(sync.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      getLogger().warning("unknown ledger sync policy: " + sync);
+      return FlowJournal.SyncPolicy.BATCH;
+    }
+  }
+
   /**
    * Get command line argument with prefix.
    *
@@ -28,6 +28,8 @@
 
 package com.nabiki.centre.config;
 
+import com.nabiki.centre.ctp.CtpGatewayFactory;
+import com.nabiki.centre.config.plain.BarConfig;
 import com.nabiki.centre.config.plain.InstrumentInfo;
 import com.nabiki.centre.config.plain.LoginConfig;
 import com.nabiki.centre.config.plain.TradingHourConfig;
@@ -39,6 +41,7 @@ import com.nabiki.commons.utils.EasyFile;
 import com.nabiki.commons.utils.Performance;
 import com.nabiki.commons.utils.SocketLoggingHandler;
 import com.nabiki.commons.utils.Utils;
+import com.nabiki.gateway.GatewayFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -46,6 +49,7 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.FileHandler;
@@ -199,6 +203,7 @@ public class GlobalConfig {
     // re-config won't change the actually used values.
     GLOBAL.tradingHour.clear();
     GLOBAL.login.clear();
+    GLOBAL.bars.clear();
     // Clear mark.
     configLoaded.set(false);
   }
@@ -208,9 +213,11 @@ public class GlobalConfig {
     setDirectories();
     setLogger();
     setPerformanceMeasure();
+    setGatewayFactory();
     // Global below uses logger to keep error info.
     setLoginConfig();
     setTradingHourConfig();
+    setBarConfig();
     setInstrInfoConfig();
     // Set mark.
     configLoaded.set(true);
@@ -220,6 +227,42 @@ public class GlobalConfig {
     GLOBAL.performance = new Performance();
   }
 
+  private static void setGatewayFactory() throws IOException {
+    var name = GLOBAL.getArgument(Global.CMD_GATEWAY_PREFIX);
+    if (name == null || name.trim().length() == 0) {
+      GLOBAL.gatewayFactory = new CtpGatewayFactory(GLOBAL);
+      return;
+    }
+    try {
+      GLOBAL.gatewayFactory = (GatewayFactory) Class.forName(name.trim())
+          .getConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IOException("fail loading gateway factory " + name, e);
+    }
+    Global.logger.info("gateway factory: " + name);
+  }
+
+  public static void setTradingHour(TradingHourConfig c) {
+    // Empty GLOBAL.
+    if (c.TradingHour.size() == 0 || c.ProductID.size() == 0)
+      return;
+    // Prepare parameters to construct keeper.
+    var index = 0;
+    var hours = new TradingHourKeeper
+        .TradingHour[c.TradingHour.size()];
+    for (var hour : c.TradingHour)
+      hours[index++] = new TradingHourKeeper
+          .TradingHour(hour.From, hour.To);
+    var h = new TradingHourKeeper(hours);
+    for (var du : GLOBAL.durations)
+      h.sample(du);
+    // Save mapping into GLOBAL.
+    // All product IDs are lower case.
+    for (var p : c.ProductID)
+      GLOBAL.tradingHour.put(p, h);
+  }
+
   private static void setTradingHourConfig() throws IOException {
     var s = GLOBAL.getRootDirectory().recursiveGet("dir.cfg.hour");
     if (s.size() == 0)
@@ -238,21 +281,7 @@ public class GlobalConfig {
           Objects.requireNonNull(c);
           Objects.requireNonNull(c.TradingHour);
           Objects.requireNonNull(c.ProductID);
-          // Empty GLOBAL.
-          if (c.TradingHour.size() == 0 || c.ProductID.size() == 0)
-            return false;
-          // Prepare parameters to construct keeper.
-          var index = 0;
-          var hours = new TradingHourKeeper
-              .TradingHour[c.TradingHour.size()];
-          for (var hour : c.TradingHour)
-            hours[index++] = new TradingHourKeeper
-                .TradingHour(hour.From, hour.To);
-          var h = new TradingHourKeeper(hours);
-          // Save mapping into GLOBAL.
-          // All product IDs are lower case.
-          for (var p : c.ProductID)
-            GLOBAL.tradingHour.put(p, h);
+          setTradingHour(c);
         } catch (IOException | NullPointerException e) {
           GLOBAL.getLogger().warning(
               Utils.formatLog("failed trading hour GLOBAL",
@@ -276,6 +305,44 @@ public class GlobalConfig {
     }
   }
 
+  private static void setBarConfig() throws IOException {
+    var s = GLOBAL.getRootDirectory().recursiveGet("dir.cfg.bar");
+    if (s.size() == 0)
+      throw new IOException("directory for bar configs not found");
+    // Iterate over all dirs.
+    for (var cfg : s) {
+      cfg.file().listFiles(file -> {
+        try {
+          if (!file.isFile() || file.length() == 0
+              || !file.getName().endsWith(".json"))
+            return false;
+          var c = Utils.fromJson(
+              Utils.readText(file, StandardCharsets.UTF_8),
+              BarConfig.class);
+          // Not null.
+          Objects.requireNonNull(c);
+          Objects.requireNonNull(c.Bar);
+          Objects.requireNonNull(c.ProductID);
+          for (var p : c.ProductID)
+            GLOBAL.bars.computeIfAbsent(p, k -> new LinkedList<>())
+                .addAll(c.Bar);
+        } catch (IOException | NullPointerException e) {
+          GLOBAL.getLogger().warning(
+              Utils.formatLog("failed bar GLOBAL",
+                  null, e.getMessage(), null));
+        }
+        return false;
+      });
+    }
+    // Write sample GLOBAL.
+    if (GLOBAL.bars.size() == 0) {
+      var cfg = s.iterator().next();
+      var p = Path.of(cfg.file().getAbsolutePath(), "bar.sample.json");
+      Utils.writeText(
+          Utils.toJson(new BarConfig()), p.toFile(), StandardCharsets.UTF_8, false);
+    }
+  }
+
   private static void setLoginConfig() throws IOException {
     var s = GLOBAL.getRootDirectory().recursiveGet("dir.cfg.login");
     if (s.size() == 0)
@@ -315,12 +382,14 @@ public class GlobalConfig {
     root.setDirectory("dir.cfg", ".cfg");
     root.setDirectory("dir.flow", ".flow");
     root.setDirectory("dir.cdl", ".cdl");
+    root.setDirectory("dir.tick", ".tick");
     root.setDirectory("dir.log", ".log");
     root.setDirectory("dir.user", ".user");
 
     var cfg = root.get("dir.cfg");
     cfg.setDirectory("dir.cfg.login", ".login");
     cfg.setDirectory("dir.cfg.hour", ".hour");
+    cfg.setDirectory("dir.cfg.bar", ".bar");
 
     var flow = root.get("dir.flow");
     flow.setDirectory("dir.flow.ctp", ".ctp");
@@ -331,6 +400,7 @@ public class GlobalConfig {
     flow.setDirectory("dir.flow.client_out", ".client_out");
     flow.setDirectory("dir.flow.err", ".err");
     flow.setDirectory("dir.flow.info", ".info");
+    flow.setDirectory("dir.flow.order", ".order");
 
     // Set GLOBAL.
     GLOBAL.rootDirectory = root;
@@ -109,6 +109,26 @@ public class LoginConfig {
    */
   public String Name;
 
+  /**
+   * Max number of orders sent to the remote counter without response. Orders
+   * are sent without waiting for the previous response until the number is
+   * reached. Zero or negative value uses the default, 8.
+   */
+  public int MaxPendingOrders;
+
+  /**
+   * Max number of requests sent per second, set as the flow control limit of
+   * the remote counter. Zero or negative value uses the default, 5.
+   */
+  public int MaxRequestsPerSecond;
+
+  /**
+   * Max number of requests sent in a burst after idle, no larger than the
+   * flow control limit of the remote counter. Zero or negative value uses
+   * {@link #MaxRequestsPerSecond}.
+   */
+  public int MaxRequestBurst;
+
   public LoginConfig() {
   }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.ctp;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.commons.ctpobj.CReqUserLogin;
+import com.nabiki.commons.ctpobj.CUserLogout;
+import com.nabiki.ctp4j.CThostFtdcMdApi;
+import com.nabiki.gateway.MdGateway;
+import com.nabiki.gateway.MdGatewaySpi;
+
+/*
+ * Market data gateway over CTP JNI.
+ */
+class CtpMdGateway implements MdGateway {
+  private final Global global;
+  private final CThostFtdcMdApi api;
+  private JniMdSpi spi;
+
+  CtpMdGateway(String flowDirectory, boolean isUsingUDP, boolean isMulticast,
+               Global global) {
+    this.global = global;
+    this.api = CThostFtdcMdApi.CreateFtdcMdApi(
+        flowDirectory, isUsingUDP, isMulticast);
+  }
+
+  @Override
+  public void registerSpi(MdGatewaySpi spi) {
+    this.spi = new JniMdSpi(spi, global);
+    this.api.RegisterSpi(this.spi);
+  }
+
+  @Override
+  public void registerFront(String frontAddress) {
+    this.api.RegisterFront(frontAddress);
+  }
+
+  @Override
+  public void init() {
+    this.api.Init();
+  }
+
+  @Override
+  public void release() {
+    this.api.Release();
+    this.spi = null;
+  }
+
+  @Override
+  public int reqUserLogin(CReqUserLogin request, int requestID) {
+    return this.api.ReqUserLogin(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqUserLogout(CUserLogout request, int requestID) {
+    return this.api.ReqUserLogout(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int subscribeMarketData(String[] instrumentIDs, int count) {
+    return this.api.SubscribeMarketData(instrumentIDs, count);
+  }
+
+  @Override
+  public int unSubscribeMarketData(String[] instrumentIDs, int count) {
+    return this.api.UnSubscribeMarketData(instrumentIDs, count);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.ctp;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.ctp4j.CThostFtdcTraderApi;
+import com.nabiki.ctp4j.THOST_TE_RESUME_TYPE;
+import com.nabiki.gateway.TraderGateway;
+import com.nabiki.gateway.TraderGatewaySpi;
+
+/*
+ * Trader gateway over CTP JNI. It converts local objects to JNI objects before
+ * sending requests, and JniTraderSpi converts responses back.
+ */
+class CtpTraderGateway implements TraderGateway {
+  private final Global global;
+  private final CThostFtdcTraderApi api;
+  private JniTraderSpi spi;
+
+  CtpTraderGateway(String flowDirectory, Global global) {
+    this.global = global;
+    this.api = CThostFtdcTraderApi.CreateFtdcTraderApi(flowDirectory);
+  }
+
+  @Override
+  public void registerSpi(TraderGatewaySpi spi) {
+    this.spi = new JniTraderSpi(spi, global);
+    this.api.RegisterSpi(this.spi);
+  }
+
+  @Override
+  public void registerFront(String frontAddress) {
+    this.api.RegisterFront(frontAddress);
+  }
+
+  @Override
+  public void init() {
+    this.api.SubscribePrivateTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
+    this.api.SubscribePublicTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
+    this.api.Init();
+  }
+
+  @Override
+  public void release() {
+    this.api.Release();
+    this.spi = null;
+  }
+
+  @Override
+  public int reqAuthenticate(CReqAuthenticate request, int requestID) {
+    return this.api.ReqAuthenticate(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqUserLogin(CReqUserLogin request, int requestID) {
+    return this.api.ReqUserLogin(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqUserLogout(CUserLogout request, int requestID) {
+    return this.api.ReqUserLogout(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqSettlementInfoConfirm(CSettlementInfoConfirm request, int requestID) {
+    return this.api.ReqSettlementInfoConfirm(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqQryInstrument(CQryInstrument request, int requestID) {
+    return this.api.ReqQryInstrument(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqQryInstrumentMarginRate(
+      CQryInstrumentMarginRate request, int requestID) {
+    return this.api.ReqQryInstrumentMarginRate(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqQryInstrumentCommissionRate(
+      CQryInstrumentCommissionRate request, int requestID) {
+    return this.api.ReqQryInstrumentCommissionRate(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqOrderInsert(CInputOrder request, int requestID) {
+    return this.api.ReqOrderInsert(JNI.toJni(request), requestID);
+  }
+
+  @Override
+  public int reqOrderAction(CInputOrderAction request, int requestID) {
+    return this.api.ReqOrderAction(JNI.toJni(request), requestID);
+  }
+}
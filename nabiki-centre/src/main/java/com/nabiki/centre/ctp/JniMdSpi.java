@@ -32,18 +32,19 @@ import com.nabiki.centre.config.Global;
 import com.nabiki.centre.config.UncaughtWriter;
 import com.nabiki.commons.ctpobj.CDepthMarketData;
 import com.nabiki.ctp4j.*;
+import com.nabiki.gateway.MdGatewaySpi;
 
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public class JniMdSpi extends CThostFtdcMdSpi {
-  private final TickProvider provider;
+  private final MdGatewaySpi provider;
   private final Global global;
   private final BlockingQueue<CDepthMarketData> depths = new LinkedBlockingQueue<>();
   private Thread depthUpdateThread;
 
-  JniMdSpi(TickProvider provider, Global global) {
+  JniMdSpi(MdGatewaySpi provider, Global global) {
     this.provider = provider;
     this.global = global;
     prepare();
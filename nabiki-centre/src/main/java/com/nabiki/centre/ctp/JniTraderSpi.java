@@ -30,14 +30,15 @@ package com.nabiki.centre.ctp;
 
 import com.nabiki.centre.config.Global;
 import com.nabiki.ctp4j.*;
+import com.nabiki.gateway.TraderGatewaySpi;
 
 import java.util.Objects;
 
 public class JniTraderSpi extends CThostFtdcTraderSpi {
-  private final OrderProvider provider;
+  private final TraderGatewaySpi provider;
   private final Global global;
 
-  JniTraderSpi(OrderProvider provider, Global global) {
+  JniTraderSpi(TraderGatewaySpi provider, Global global) {
     this.provider = provider;
     this.global = global;
   }
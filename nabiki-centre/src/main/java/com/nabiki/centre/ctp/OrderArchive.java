@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.ctp;
+
+import com.nabiki.commons.ctpobj.COrder;
+import com.nabiki.commons.iop.internal.BinaryCodec;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ Store of completed orders. A completed order keeps only its last return order
+ in encoded bytes, keyed by ref and UUID, so the active request, the input order
+ and the user it references are released. The store is written to disk and
+ cleared at settlement.
+
+ File starts with [int magic][int format][codec name], the codec name tells
+ the layout of encoded orders, and it is followed by records of
+ [uuid][ref][int length][encoded rtn order].
+ */
+class OrderArchive {
+  private static final int MAGIC = 0x4E4F5244; // NORD
+  private static final int FORMAT = 1;
+
+  private final Map<String, byte[]> ref2rtn = new ConcurrentHashMap<>();
+  private final Map<String, String> ref2uid = new ConcurrentHashMap<>();
+  private final Map<String, Set<String>> uid2ref = new ConcurrentHashMap<>();
+
+  void put(String uuid, String ref, COrder rtn) {
+    put(uuid, ref, BinaryCodec.encodeObject(rtn));
+  }
+
+  private void put(String uuid, String ref, byte[] rtn) {
+    this.ref2rtn.put(ref, rtn);
+    this.ref2uid.put(ref, uuid);
+    this.uid2ref.computeIfAbsent(uuid, k -> ConcurrentHashMap.newKeySet())
+        .add(ref);
+  }
+
+  boolean contains(String ref) {
+    return this.ref2rtn.containsKey(ref);
+  }
+
+  COrder getRtnOrder(String ref) {
+    var bytes = this.ref2rtn.get(ref);
+    if (bytes == null)
+      return null;
+    try {
+      return BinaryCodec.decodeObject(bytes, COrder.class);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  Set<String> getOrderRef(String uuid) {
+    var refs = this.uid2ref.get(uuid);
+    return refs == null ? new HashSet<>() : new HashSet<>(refs);
+  }
+
+  /*
+   Get all return orders, keyed by ref.
+   */
+  Map<String, COrder> getRtnOrders() throws IOException {
+    var r = new HashMap<String, COrder>();
+    for (var entry : this.ref2rtn.entrySet())
+      r.put(entry.getKey(),
+          BinaryCodec.decodeObject(entry.getValue(), COrder.class));
+    return r;
+  }
+
+  /*
+   Read the archive written by flush.
+   */
+  static OrderArchive read(Path file) throws IOException {
+    try (var in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+        throw new IOException("not an order archive: " + file);
+      var codec = in.readUTF();
+      if (!BinaryCodec.NAME.equals(codec))
+        throw new IOException("order archive of codec " + codec + ": " + file);
+      var archive = new OrderArchive();
+      while (true) {
+        String uuid;
+        try {
+          uuid = in.readUTF();
+        } catch (EOFException e) {
+          break;
+        }
+        var ref = in.readUTF();
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        archive.put(uuid, ref, bytes);
+      }
+      return archive;
+    }
+  }
+
+  /*
+   Write completed orders to the file and clear memory.
+   */
+  void flush(Path file) throws IOException {
+    if (file != null && this.ref2rtn.size() > 0) {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      try (var out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(file)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(BinaryCodec.NAME);
+        for (var entry : this.ref2rtn.entrySet()) {
+          out.writeUTF(this.ref2uid.getOrDefault(entry.getKey(), ""));
+          out.writeUTF(entry.getKey());
+          out.writeInt(entry.getValue().length);
+          out.write(entry.getValue());
+        }
+      }
+    }
+    this.ref2rtn.clear();
+    this.ref2uid.clear();
+    this.uid2ref.clear();
+  }
+}
@@ -31,14 +31,24 @@ package com.nabiki.centre.ctp;
 import com.nabiki.centre.user.core.ActiveRequest;
 import com.nabiki.commons.ctpobj.CInputOrder;
 import com.nabiki.commons.ctpobj.COrder;
+import com.nabiki.commons.ctpobj.CTrade;
 import com.nabiki.commons.ctpobj.OrderStatusType;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Mappings between order UUID, detail order refs, active requests and return
+ * orders. Only working orders are kept in the maps. When a detail order is
+ * completed and all its trades arrive, it moves to an archive that keeps the
+ * last return order only. The archive is written to disk and cleared at
+ * settlement, so memory doesn't grow across trading days.
+ */
 public class OrderMapper {
   private final Map<String, ActiveRequest>
       ref2req = new ConcurrentHashMap<>(); // ref -> active order
@@ -50,11 +60,21 @@ public class OrderMapper {
       detRef2Rtn = new ConcurrentHashMap<>();   // ref -> rtn order
   private final Map<String, CInputOrder>
       ref2input = new ConcurrentHashMap<>();   // ref -> input order
+  private final Map<String, Integer>
+      ref2traded = new ConcurrentHashMap<>();   // ref -> traded volume
+  private final OrderArchive archive = new OrderArchive();
 
   public OrderMapper() {
   }
 
-  public void settle() {
+  /**
+   * Cancel unfilled orders, move all orders to archive and write the archive to
+   * the specified file. Memory of the trading day is freed after settlement.
+   *
+   * @param file archive file, or {@code null} if archive is not written
+   * @throws IOException fail writing archive file
+   */
+  public void settle(Path file) throws IOException {
     // Change unfilled orders' states.
     for (var o : detRef2Rtn.values()) {
       if (o.OrderStatus != OrderStatusType.ALL_TRADED) {
@@ -63,6 +83,27 @@ public class OrderMapper {
         o.OrderStatus = OrderStatusType.CANCELED;
       }
     }
+    for (var ref : new HashSet<>(detRef2Rtn.keySet()))
+      archive(ref);
+    this.archive.flush(file);
+    this.ref2req.clear();
+    this.uid2req.clear();
+    this.uid2ref.clear();
+    this.detRef2Rtn.clear();
+    this.ref2input.clear();
+    this.ref2traded.clear();
+  }
+
+  /**
+   * Read the return orders archived at settlement of a trading day.
+   *
+   * @param file archive file written by {@link OrderMapper#settle(Path)}
+   * @return detail order ref -> last return order
+   * @throws IOException if the file is not an archive, or is written with
+   *                     another codec version
+   */
+  public static Map<String, COrder> readArchive(Path file) throws IOException {
+    return OrderArchive.read(file).getRtnOrders();
   }
 
   /**
@@ -74,45 +115,73 @@ public class OrderMapper {
   public void register(CInputOrder order, ActiveRequest active) {
     this.ref2req.put(order.OrderRef, active);
     this.uid2req.put(active.getRequestUUID(), active);
-    this.uid2ref.computeIfAbsent(active.getRequestUUID(), k -> new HashSet<>());
-    this.uid2ref.get(active.getRequestUUID()).add(order.OrderRef);
+    this.uid2ref.computeIfAbsent(active.getRequestUUID(),
+        k -> ConcurrentHashMap.newKeySet()).add(order.OrderRef);
     this.ref2input.put(order.OrderRef, order);
   }
 
   /**
-   * Register return order and create mapping.
+   * Register return order and create mapping. If the order is completed with
+   * all trades, it is archived.
    *
    * @param rtn return order
    */
   public void register(COrder rtn) {
     this.detRef2Rtn.put(rtn.OrderRef, rtn);
+    archiveIfCompleted(rtn.OrderRef);
+  }
+
+  /**
+   * Count the traded volume of the detail order. If the order is completed
+   * with all trades, it is archived.
+   *
+   * @param trade trade of the detail order
+   */
+  public void register(CTrade trade) {
+    this.ref2traded.merge(trade.OrderRef, trade.Volume, Integer::sum);
+    archiveIfCompleted(trade.OrderRef);
   }
 
   /**
    * Get the specified return order of the detail ref. If no order has the UUID,
-   * return {@code null}.
+   * return {@code null}. Archived order is decoded into a new object.
    *
    * @param detailRef ref of the order
    * @return last updated return order, or {@code null} if no order has the UUID
    */
   public COrder getRtnOrder(String detailRef) {
-    return this.detRef2Rtn.get(detailRef);
+    var rtn = this.detRef2Rtn.get(detailRef);
+    return rtn != null ? rtn : this.archive.getRtnOrder(detailRef);
   }
 
   /**
-   * Get all detail order refs under the specified {@link UUID}. If no mapping
-   * found, return an empty set.
+   * Get all detail order refs under the specified {@link UUID}, both working
+   * and archived. If no mapping found, return an empty set.
    *
    * @param uuid UUID of the alive order that issues the detail orders
    * @return {@link Set} of detail order refs
    */
   public Set<String> getOrderRef(String uuid) {
-    return this.uid2ref.get(uuid);
+    var r = this.archive.getOrderRef(uuid);
+    var refs = this.uid2ref.get(uuid);
+    if (refs != null)
+      r.addAll(refs);
+    return r;
+  }
+
+  /**
+   * Check if the detail ref is used by a working or archived order.
+   *
+   * @param ref detail order reference
+   * @return {@code true} if the ref is used
+   */
+  public boolean containsRef(String ref) {
+    return this.ref2input.containsKey(ref) || this.archive.contains(ref);
   }
 
   /**
    * Get detail order of the specified detail ref. If no mapping found, return
-   * {@code null}.
+   * {@code null}. Archived order doesn't keep its detail order.
    *
    * @param ref detail order reference
    * @return detail order, or {@code null} if no such ref
@@ -128,4 +197,43 @@ public class OrderMapper {
   public ActiveRequest getActiveRequest(String detailRef) {
     return this.ref2req.get(detailRef);
   }
+
+  /*
+  Trade may arrive after the completed return order, so the order is archived
+  only after its traded volume is all counted.
+   */
+  private void archiveIfCompleted(String ref) {
+    var rtn = this.detRef2Rtn.get(ref);
+    if (rtn == null)
+      return;
+    if (rtn.OrderStatus != OrderStatusType.ALL_TRADED
+        && rtn.OrderStatus != OrderStatusType.CANCELED)
+      return;
+    if (this.ref2traded.getOrDefault(ref, 0) < rtn.VolumeTraded)
+      return;
+    archive(ref);
+  }
+
+  private void archive(String ref) {
+    var rtn = this.detRef2Rtn.get(ref);
+    var active = this.ref2req.get(ref);
+    if (rtn == null || active == null)
+      return;
+    var uuid = active.getRequestUUID();
+    // Put into archive before removing from working maps, so the order is
+    // always found.
+    this.archive.put(uuid, ref, rtn);
+    this.detRef2Rtn.remove(ref);
+    this.ref2req.remove(ref);
+    this.ref2input.remove(ref);
+    this.ref2traded.remove(ref);
+    var refs = this.uid2ref.get(uuid);
+    if (refs != null) {
+      refs.remove(ref);
+      if (refs.isEmpty()) {
+        this.uid2ref.remove(uuid);
+        this.uid2req.remove(uuid);
+      }
+    }
+  }
 }
@@ -34,25 +34,26 @@ import com.nabiki.centre.config.UncaughtWriter;
 import com.nabiki.centre.config.plain.LoginConfig;
 import com.nabiki.centre.md.CandleEngine;
 import com.nabiki.centre.user.core.ActiveRequest;
+import com.nabiki.centre.user.risk.RiskEngine;
 import com.nabiki.commons.ctpobj.*;
 import com.nabiki.commons.utils.Signal;
 import com.nabiki.commons.utils.Utils;
-import com.nabiki.ctp4j.CThostFtdcTraderApi;
-import com.nabiki.ctp4j.THOST_TE_RESUME_TYPE;
+import com.nabiki.gateway.TraderGateway;
+import com.nabiki.gateway.TraderGatewaySpi;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * {@code AliveOrderManager} keeps the status of all alive orders, interacts with
- * JNI interfaces and invoke callback methods to process responses.
+ * trader gateway and invoke callback methods to process responses.
  */
-public class OrderProvider {
+public class OrderProvider implements TraderGatewaySpi {
   private final OrderMapper mapper = new OrderMapper();
   private final AtomicInteger orderRef = new AtomicInteger(0);
   private final Global global;
@@ -61,7 +62,7 @@ public class OrderProvider {
   private final ReqRspWriter msgWriter;
   private final Set<String> instrumentIDs = new HashSet<>();
   private final Map<String, CInstrument> activeInstruments = new ConcurrentHashMap<>();
-  private final BlockingDeque<PendingRequest> pendingReqs;
+  private final RequestScheduler pendingReqs;
 
   // Offset for order ref, try to avoid duplication.
   private final Integer orderRefOffset;
@@ -80,15 +81,15 @@ public class OrderProvider {
   // State.
   private WorkingState workingState = WorkingState.STOPPED;
 
-  private CThostFtdcTraderApi api;
-  private JniTraderSpi spi;
+  private TraderGateway gateway;
+  private RiskEngine risk;
 
   public OrderProvider(CandleEngine cdl, Global glb) {
     global = glb;
     candleEngine = cdl;
     loginCfg = global.getLoginConfigs().get("trader");
     msgWriter = new ReqRspWriter(mapper, global);
-    pendingReqs = new LinkedBlockingDeque<>();
+    pendingReqs = new RequestScheduler();
     orderRefOffset = getOrderRefOffset();
     startOrderDaemonOnce();
   }
@@ -106,13 +107,34 @@ public class OrderProvider {
     }
   }
 
+  public void setRiskEngine(RiskEngine risk) {
+    this.risk = risk;
+  }
+
   public void settle() {
-    getMapper().settle();
+    try {
+      getMapper().settle(getArchivePath());
+    } catch (IOException e) {
+      e.printStackTrace();
+      this.global.getLogger().warning(
+              Utils.formatLog("failed writing order archive", null,
+                              e.getMessage(), null));
+    }
+    // Refs are unique in a trading day, free them for the next day.
+    this.reqTask.clearOrderRef();
     /* Clear all pending requests because their frozen resources will be freed,
      * then settled. They become invalid after settlement. */
     getPendingRequests().clear();
   }
 
+  private Path getArchivePath() {
+    var dirs = this.global.getRootDirectory().recursiveGet("dir.flow.order");
+    var day = this.global.getTradingDay();
+    if (dirs.size() == 0 || day == null)
+      return null;
+    return Path.of(dirs.iterator().next().path().toString(), day + ".bin");
+  }
+
   private void startOrderDaemonOnce() {
     // In case the method is called more than once, throwing exception.
     if (orderDaemon != null && orderDaemon.isAlive())
@@ -138,7 +160,7 @@ public class OrderProvider {
     qryDaemon.start();
   }
 
-  BlockingDeque<PendingRequest> getPendingRequests() {
+  RequestScheduler getPendingRequests() {
     return pendingReqs;
   }
 
@@ -146,8 +168,8 @@ public class OrderProvider {
     return msgWriter;
   }
 
-  CThostFtdcTraderApi getApi() {
-    return api;
+  TraderGateway getGateway() {
+    return gateway;
   }
 
   CRspUserLogin getLoginRsp() {
@@ -210,7 +232,7 @@ public class OrderProvider {
   }
 
   public boolean isInit() {
-    return api != null;
+    return gateway != null;
   }
 
   /**
@@ -220,15 +242,12 @@ public class OrderProvider {
     if (isInit()) {
       throw new IllegalStateException("trader duplicated init");
     }
-    this.api = CThostFtdcTraderApi
-            .CreateFtdcTraderApi(this.loginCfg.FlowDirectory);
-    this.spi = new JniTraderSpi(this, global);
+    this.gateway = global.getGatewayFactory()
+            .createTrader(this.loginCfg.FlowDirectory);
     for (var fa : this.loginCfg.FrontAddresses)
-      this.api.RegisterFront(fa);
-    this.api.SubscribePrivateTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
-    this.api.SubscribePublicTopic(THOST_TE_RESUME_TYPE.THOST_TERT_RESUME);
-    this.api.RegisterSpi(spi);
-    this.api.Init();
+      this.gateway.registerFront(fa);
+    this.gateway.registerSpi(this);
+    this.gateway.init();
   }
 
   /**
@@ -240,9 +259,8 @@ public class OrderProvider {
     setConnected(false);
     setWorkingState(WorkingState.STOPPED);
     // Release resources.
-    this.api.Release();
-    this.api = null;
-    this.spi = null;
+    this.gateway.release();
+    this.gateway = null;
   }
 
   /**
@@ -343,7 +361,7 @@ public class OrderProvider {
   }
 
   private boolean isOrderRefUnique(String orderRef) {
-    return this.mapper.getInputOrder(orderRef) == null;
+    return !this.mapper.containsRef(orderRef);
   }
 
   private void registerInitialOrderInsert(CInputOrder input, ActiveRequest active) {
@@ -418,8 +436,8 @@ public class OrderProvider {
     req.BrokerID = this.loginCfg.BrokerID;
     req.UserID = this.loginCfg.UserID;
     req.Password = this.loginCfg.Password;
-    var r = this.api.ReqUserLogin(
-            JNI.toJni(req),
+    var r = this.gateway.reqUserLogin(
+            req,
             Utils.getIncrementID());
     if (r != 0)
       this.global.getLogger().severe(
@@ -431,8 +449,8 @@ public class OrderProvider {
     var req = new CUserLogout();
     req.BrokerID = this.loginCfg.BrokerID;
     req.UserID = this.loginCfg.UserID;
-    var r = this.api.ReqUserLogout(
-            JNI.toJni(req),
+    var r = this.gateway.reqUserLogout(
+            req,
             Utils.getIncrementID());
     if (r != 0)
       this.global.getLogger().warning(
@@ -447,8 +465,8 @@ public class OrderProvider {
     req.BrokerID = this.loginCfg.BrokerID;
     req.UserID = this.loginCfg.UserID;
     req.UserProductInfo = this.loginCfg.UserProductInfo;
-    var r = api.ReqAuthenticate(
-            JNI.toJni(req),
+    var r = this.gateway.reqAuthenticate(
+            req,
             Utils.getIncrementID());
     if (r != 0) {
       global.getLogger().severe(Utils.formatLog("failed authentication",
@@ -471,8 +489,8 @@ public class OrderProvider {
     req.AccountID = this.loginCfg.UserID;
     req.InvestorID = this.loginCfg.UserID;
     req.CurrencyID = "CNY";
-    var r = this.api.ReqSettlementInfoConfirm(
-            JNI.toJni(req),
+    var r = this.gateway.reqSettlementInfoConfirm(
+            req,
             Utils.getIncrementID());
     if (r != 0)
       this.global.getLogger().severe(
@@ -571,6 +589,8 @@ public class OrderProvider {
       rtn.InsertDate = Utils.getDay(LocalDate.now(), null);
     try {
       active.updateRtnOrder(rtn);
+      if (this.risk != null)
+        this.risk.whenRtnOrder(active.getOriginOrder().UserID, rtn);
     } catch (Throwable th) {
       th.printStackTrace();
       this.global.getLogger().severe(
@@ -611,6 +631,7 @@ public class OrderProvider {
     // The writing method must follow the doXXX method because the fields are
     // rewritten with local IDs.
     this.msgWriter.writeRtn(trade);
+    this.mapper.register(trade);
   }
 
   protected void doQueryInstr() {
@@ -621,8 +642,8 @@ public class OrderProvider {
     this.activeInstruments.clear();
     // Send qry.
     var req = new CQryInstrument();
-    var r = this.api.ReqQryInstrument(
-            JNI.toJni(req),
+    var r = this.gateway.reqQryInstrument(
+            req,
             Utils.getIncrementID());
     if (r != 0)
       this.global.getLogger().warning(
@@ -635,10 +656,13 @@ public class OrderProvider {
     // Order status.
     cancel.OrderStatus = OrderStatusType.CANCELED;
     cancel.StatusMsg = info.ErrorMsg;
+    // Nothing is traded, all volume is canceled.
+    cancel.VolumeTotal = inputOrder.VolumeTotalOriginal;
     cancel.OrderSubmitStatus = OrderSubmitStatusType.CANCEL_SUBMITTED;
     doOrder(cancel);
   }
 
+  @Override
   public void whenFrontConnected() {
     setConnected(true);
     this.stateSignal.signal();
@@ -647,6 +671,7 @@ public class OrderProvider {
     }
   }
 
+  @Override
   public void whenFrontDisconnected(int reason) {
     setConnected(false);
     setConfirmed(false);
@@ -660,6 +685,7 @@ public class OrderProvider {
     // because it may disconnect in half way.
   }
 
+  @Override
   public void whenErrRtnOrderAction(COrderAction orderAction,
                                     CRspInfo rspInfo) {
     this.global.getLogger().warning(
@@ -672,11 +698,13 @@ public class OrderProvider {
     this.msgWriter.writeErr(orderAction, rspInfo);
   }
 
+  @Override
   public void whenErrRtnOrderInsert(CInputOrder inputOrder,
                                     CRspInfo rspInfo) {
-    // Process the error only once in rsp-order-insert.
+    doRejectOrder(inputOrder, rspInfo);
   }
 
+  @Override
   public void whenRspAuthenticate(
           CRspAuthenticate rspAuthenticateField,
           CRspInfo rspInfo, int requestId, boolean isLast) {
@@ -699,6 +727,7 @@ public class OrderProvider {
     }
   }
 
+  @Override
   public void whenRspError(CRspInfo rspInfo, int requestId,
                            boolean isLast) {
     this.msgWriter.writeErr(rspInfo);
@@ -707,15 +736,28 @@ public class OrderProvider {
                             rspInfo.ErrorID));
   }
 
+  @Override
   public void whenRspOrderAction(CInputOrderAction inputOrderAction,
                                  CRspInfo rspInfo, int requestId,
                                  boolean isLast) {
     // Process error only in err-rtn-order-action.
   }
 
+  @Override
   public void whenRspOrderInsert(CInputOrder inputOrder,
                                  CRspInfo rspInfo, int requestId,
                                  boolean isLast) {
+    doRejectOrder(inputOrder, rspInfo);
+  }
+
+  /*
+   Rejected order may get both rsp and err-rtn, process the one that arrives
+   first.
+   */
+  private void doRejectOrder(CInputOrder inputOrder, CRspInfo rspInfo) {
+    var rtn0 = this.mapper.getRtnOrder(inputOrder.OrderRef);
+    if (rtn0 != null && rtn0.OrderStatus == OrderStatusType.CANCELED)
+      return;
     this.global.getLogger().severe(
             Utils.formatLog("failed order insertion", inputOrder.OrderRef,
                             rspInfo.ErrorMsg, rspInfo.ErrorID));
@@ -723,8 +765,11 @@ public class OrderProvider {
     // Set order status msg to error message.
     cancelInputOrder(inputOrder, rspInfo);
     this.msgWriter.writeErr(inputOrder, rspInfo);
+    // Failed order gets no return order, free its pending slot.
+    this.reqTask.signalOrderRef(inputOrder.OrderRef);
   }
 
+  @Override
   public void whenRspQryInstrument(CInstrument instrument,
                                    CRspInfo rspInfo, int requestID,
                                    boolean isLast) {
@@ -767,7 +812,7 @@ public class OrderProvider {
         return;
       }
       for (var i : instruments) {
-        var c = Utils.deepCopy(commission);
+        var c = new CInstrumentCommissionRate(commission);
         c.InstrumentID = i;
         this.msgWriter.writeInfo(c);
         GlobalConfig.setCommissionConfig(c);
@@ -778,6 +823,7 @@ public class OrderProvider {
     }
   }
 
+  @Override
   public void whenRspQryInstrumentCommissionRate(
           CInstrumentCommissionRate instrumentCommissionRate,
           CRspInfo rspInfo, int requestID, boolean isLast) {
@@ -793,6 +839,7 @@ public class OrderProvider {
     this.qryTask.signalRequest(requestID);
   }
 
+  @Override
   public void whenRspQryInstrumentMarginRate(
           CInstrumentMarginRate instrumentMarginRate,
           CRspInfo rspInfo, int requestID, boolean isLast) {
@@ -809,6 +856,7 @@ public class OrderProvider {
     this.qryTask.signalRequest(requestID);
   }
 
+  @Override
   public void whenRspSettlementInfoConfirm(
           CSettlementInfoConfirm settlementInfoConfirm,
           CRspInfo rspInfo, int requestId, boolean isLast) {
@@ -829,6 +877,7 @@ public class OrderProvider {
     }
   }
 
+  @Override
   public void whenRspUserLogin(CRspUserLogin rspUserLogin,
                                CRspInfo rspInfo, int requestId,
                                boolean isLast) {
@@ -846,6 +895,7 @@ public class OrderProvider {
     }
   }
 
+  @Override
   public void whenRspUserLogout(CUserLogout userLogout,
                                 CRspInfo rspInfo, int requestId,
                                 boolean isLast) {
@@ -861,6 +911,7 @@ public class OrderProvider {
     }
   }
 
+  @Override
   public void whenRtnOrder(COrder order) {
     // Measure performance.
     var max = this.global.getPerformance().start("when.order.max");
@@ -872,6 +923,7 @@ public class OrderProvider {
     cur.end();
   }
 
+  @Override
   public void whenRtnTrade(CTrade trade) {
     // Measure performance.
     var max = this.global.getPerformance().start("when.trade.max");
@@ -133,8 +133,8 @@ class QueryTask implements Runnable {
     req.HedgeFlag = CombHedgeFlagType.SPECULATION;
     req.InstrumentID = ins;
     var reqID = Utils.getIncrementID();
-    int r = provider.getApi().ReqQryInstrumentMarginRate(
-        JNI.toJni(req),
+    int r = provider.getGateway().reqQryInstrumentMarginRate(
+        req,
         reqID);
     if (r != 0) {
       global.getLogger().warning(Utils.formatLog(
@@ -162,8 +162,8 @@ class QueryTask implements Runnable {
     req0.InvestorID = provider.getLoginCfg().UserID;
     req0.InstrumentID = ins;
     var reqID = Utils.getIncrementID();
-    var r = provider.getApi().ReqQryInstrumentCommissionRate(
-        JNI.toJni(req0),
+    var r = provider.getGateway().reqQryInstrumentCommissionRate(
+        req0,
         reqID);
     if (r != 0) {
       global.getLogger().warning(Utils.formatLog(
@@ -28,6 +28,7 @@
 
 package com.nabiki.centre.ctp;
 
+import com.nabiki.centre.config.FlowJournal;
 import com.nabiki.centre.config.Global;
 import com.nabiki.commons.ctpobj.*;
 import com.nabiki.commons.utils.Utils;
@@ -36,23 +37,26 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
+/**
+ * Writer of requests, return orders, trades and errors. They are appended to
+ * the flow journals of the day and written in background. Instrument, margin
+ * and commission are kept in separate files because they are loaded at
+ * start-up.
+ */
 public class ReqRspWriter {
   private final Global global;
   private final OrderMapper mapper;
-  private final Path reqDir, rtnDir, infoDir, errDir;
-  private final DateTimeFormatter formatter
-      = DateTimeFormatter.ofPattern("yyyyMMdd.HHmmss.SSS");
+  private final FlowJournal reqFlow, rtnFlow, errFlow;
+  private final Path infoDir;
 
   public ReqRspWriter(OrderMapper mapper, Global cfg) {
     this.mapper = mapper;
     this.global = cfg;
-    this.reqDir = getPath(cfg, "dir.flow.req");
-    this.rtnDir = getPath(cfg, "dir.flow.rtn");
+    this.reqFlow = cfg.getFlow("dir.flow.req");
+    this.rtnFlow = cfg.getFlow("dir.flow.rtn");
+    this.errFlow = cfg.getFlow("dir.flow.err");
     this.infoDir = getPath(cfg, "dir.flow.info");
-    this.errDir = getPath(cfg, "dir.flow.err");
   }
 
   private Path getPath(Global cfg, String key) {
@@ -86,7 +90,7 @@ public class ReqRspWriter {
   }
 
   private String getClientUserID(String orderRef) {
-    if (orderRef == null || orderRef.length() < 1)
+    if (this.mapper == null || orderRef == null || orderRef.length() < 1)
       return "null";
     var active = this.mapper.getActiveRequest(orderRef);
     if (active == null)
@@ -95,39 +99,25 @@ public class ReqRspWriter {
       return active.getUser().getUserID();
   }
 
-  private Path getClientDir(Path root, String orderRef) {
-    return Path.of(root.toString(), getClientUserID(orderRef));
-  }
-
-  private String getTimeStamp() {
-    // Add random string suffix to avoid sending requests between a very short
-    // time then files are over written.
-    return LocalDateTime.now().format(this.formatter) + "."
-        + Utils.getUID().substring(0, 8);
+  private void append(FlowJournal flow, String type, String orderRef,
+                      Object object) {
+    flow.append(type, getClientUserID(orderRef), orderRef, object);
   }
 
   public void writeRtn(COrder rtn) {
-    write(Utils.toJson(rtn), ensureFile(
-        getClientDir(this.rtnDir, rtn.OrderRef),
-        "Order." + getTimeStamp() + ".json"));
+    append(this.rtnFlow, "Order", rtn.OrderRef, rtn);
   }
 
   public void writeRtn(CTrade rtn) {
-    write(Utils.toJson(rtn), ensureFile(
-        getClientDir(this.rtnDir, rtn.OrderRef),
-        "Trade." + getTimeStamp() + ".json"));
+    append(this.rtnFlow, "Trade", rtn.OrderRef, rtn);
   }
 
   public void writeReq(CInputOrder req) {
-    write(Utils.toJson(req), ensureFile(
-        getClientDir(this.reqDir, req.OrderRef),
-        "InputOrder." + getTimeStamp() + ".json"));
+    append(this.reqFlow, "InputOrder", req.OrderRef, req);
   }
 
   public void writeReq(CInputOrderAction req) {
-    write(Utils.toJson(req), ensureFile(
-        getClientDir(this.reqDir, req.OrderRef),
-        "InputOrderAction." + getTimeStamp() + ".json"));
+    append(this.reqFlow, "InputOrderAction", req.OrderRef, req);
   }
 
   public void writeInfo(CInstrumentMarginRate rsp) {
@@ -149,35 +139,21 @@ public class ReqRspWriter {
   }
 
   public void writeErr(COrderAction err, CRspInfo info) {
-    write(Utils.toJson(err), ensureFile(
-        getClientDir(this.errDir, err.OrderRef),
-        "OrderAction." + getTimeStamp() + ".json"));
-    write(Utils.toJson(info), ensureFile(
-        getClientDir(this.errDir, err.OrderRef),
-        "RspInfo." + getTimeStamp() + ".json"));
+    append(this.errFlow, "OrderAction", err.OrderRef, err);
+    append(this.errFlow, "RspInfo", err.OrderRef, info);
   }
 
   public void writeErr(CInputOrderAction err, CRspInfo info) {
-    write(Utils.toJson(err), ensureFile(
-        getClientDir(this.errDir, err.OrderRef),
-        "InputOrderAction." + getTimeStamp() + ".json"));
-    write(Utils.toJson(info), ensureFile(
-        getClientDir(this.errDir, err.OrderRef),
-        "RspInfo." + getTimeStamp() + ".json"));
+    append(this.errFlow, "InputOrderAction", err.OrderRef, err);
+    append(this.errFlow, "RspInfo", err.OrderRef, info);
   }
 
   public void writeErr(CInputOrder err, CRspInfo info) {
-    write(Utils.toJson(err), ensureFile(
-        getClientDir(this.errDir, err.OrderRef),
-        "InputOrder." + getTimeStamp() + ".json"));
-    write(Utils.toJson(info), ensureFile(
-        getClientDir(this.errDir, err.OrderRef),
-        "RspInfo." + getTimeStamp() + ".json"));
+    append(this.errFlow, "InputOrder", err.OrderRef, err);
+    append(this.errFlow, "RspInfo", err.OrderRef, info);
   }
 
   public void writeErr(CRspInfo err) {
-    write(Utils.toJson(err),
-        ensureFile(getClientDir(this.errDir, ""),
-            "RspInfo." + getTimeStamp() + ".json"));
+    append(this.errFlow, "RspInfo", null, err);
   }
 }
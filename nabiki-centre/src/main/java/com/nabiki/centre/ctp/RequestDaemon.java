@@ -37,31 +37,44 @@ import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
 
 class RequestDaemon implements Runnable {
   private final OrderProvider provider;
   private final Global global;
   private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss");
   private final Map<String, LocalDateTime> usedOrderRef = new ConcurrentHashMap<>();
-  private final int MAX_REQ_PER_SEC = 5;
+  private final int DEFAULT_PENDING_ORDERS = 8;
+  private final int DEFAULT_REQ_PER_SEC = 5;
   private final int WAIT_RSP_SEC = 15;
-  private int sendCnt = 0;
   private final long threshold = TimeUnit.SECONDS.toMillis(1);
-  private long timeStamp = System.currentTimeMillis();
 
-  private final AtomicReference<String> lastOrderRef = new AtomicReference<>();
-  private final ReentrantLock lock = new ReentrantLock();
-  private final Condition cond = lock.newCondition();
-
-  private final Map<String, Object> refs = new ConcurrentHashMap<>();
+  private final int maxPendingOrders;
+  private final TokenBucket bucket;
+  /*
+  Order ref -> time in millis when the order is sent. Responses arrive in any
+  order, for example ref(14) arrives before ref(13), so each ref is removed
+  when its own response arrives.
+   */
+  private final Map<String, Long> pendingOrders = new ConcurrentHashMap<>();
 
   public RequestDaemon(OrderProvider provider, Global global) {
     this.provider = provider;
     this.global = global;
-    lastOrderRef.set("");
+    var cfg = global.getLoginConfigs().get("trader");
+    int pending = 0, rate = 0, burst = 0;
+    if (cfg != null) {
+      pending = cfg.MaxPendingOrders;
+      rate = cfg.MaxRequestsPerSecond;
+      burst = cfg.MaxRequestBurst;
+    }
+    if (pending <= 0)
+      pending = DEFAULT_PENDING_ORDERS;
+    if (rate <= 0)
+      rate = DEFAULT_REQ_PER_SEC;
+    if (burst <= 0)
+      burst = rate;
+    this.maxPendingOrders = pending;
+    this.bucket = new TokenBucket(rate, burst);
   }
 
   private boolean isOrderRefUsed(String orderRef) {
@@ -85,37 +98,44 @@ class RequestDaemon implements Runnable {
     usedOrderRef.clear();
   }
 
+  int getPendingOrderCount() {
+    return pendingOrders.size();
+  }
+
   void signalOrderRef(String ref) {
-    refs.put(ref, new Object());
-    lock.lock();
-    try {
-      cond.signal();
-    } finally {
-      lock.unlock();
-    }
+    // Return order arrives many times for one ref, only the first one frees
+    // the pending slot.
+    if (ref == null || pendingOrders.remove(ref) == null)
+      return;
+    provider.getPendingRequests().wakeUp();
   }
 
-  private boolean waitOrderRsp(int value, TimeUnit unit) {
-    if (lastOrderRef.get() == null || lastOrderRef.get().isEmpty()) {
-      return true;
-    }
-    var target = LocalDateTime.now().plus(value, unit.toChronoUnit());
-    while (!refs.containsKey(lastOrderRef.get())) {
-      var d = Duration.between(LocalDateTime.now(), target);
-      if (d.isNegative() || d.isZero()) {
-        break;
-      } else {
-        lock.lock();
-        try {
-          cond.await(d.toMillis(), TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-          e.printStackTrace();
-        } finally {
-          lock.unlock();
-        }
+  /*
+  Pipeline orders until the number of orders without response reaches the
+  window. The orders timed out waiting for response are removed.
+   */
+  private boolean canInsert() {
+    if (pendingOrders.size() >= maxPendingOrders)
+      removeTimeoutOrders();
+    return pendingOrders.size() < maxPendingOrders;
+  }
+
+  private int removeTimeoutOrders() {
+    var deadline = System.currentTimeMillis()
+        - TimeUnit.SECONDS.toMillis(WAIT_RSP_SEC);
+    int count = 0;
+    var iter = pendingOrders.entrySet().iterator();
+    while (iter.hasNext()) {
+      var entry = iter.next();
+      if (entry.getValue() < deadline) {
+        global.getLogger().warning(String.format(
+            "Order[%s] rsp timeout.",
+            entry.getKey()));
+        iter.remove();
+        ++count;
       }
     }
-    return refs.containsKey(lastOrderRef.get());
+    return count;
   }
 
   @Override
@@ -126,22 +146,10 @@ class RequestDaemon implements Runnable {
         // Pending request is not sent, enqueue the request for next
         // loop.
         if (pend != null) {
-          Thread.sleep(threshold);
-          // Don't change the order of requests in queue. The request is polled from
-          // the front of the queue, then reset it to the first.
-          provider.getPendingRequests().offerFirst(pend);
-        } else {
-          // Wait order rsp because async inserting order causes refs no auto-inc.
-          // For example, ref(14) arrives, and then ref(13) arrives.
-          if (!waitOrderRsp(WAIT_RSP_SEC, TimeUnit.SECONDS)) {
-            global.getLogger().warning(String.format(
-                "Order[%s] rsp timeout.",
-                lastOrderRef.get()));
-            // Didn't get signaled, need to clear old ref.
-            lastOrderRef.set(null);
-          }
-          // Control max number of requests sent per second.
-          trafficControl();
+          // Don't change the order of requests in lane. The request is put back
+          // to the front of its lane, and the lane waits while others go on.
+          provider.getPendingRequests().park(
+              pend, threshold, TimeUnit.MILLISECONDS);
         }
       } catch (InterruptedException e) {
         if (provider.getWorkingState() == WorkingState.STOPPING
@@ -158,33 +166,14 @@ class RequestDaemon implements Runnable {
     }
   }
 
-  private void trafficControl() throws InterruptedException {
-    long curTimeStamp = System.currentTimeMillis();
-    long diffTimeStamp = threshold - (curTimeStamp - timeStamp);
-    if (diffTimeStamp > 0) {
-      ++sendCnt;
-      // Sleep before next second.
-      if (sendCnt > MAX_REQ_PER_SEC) {
-        Thread.sleep(diffTimeStamp);
-        // Reset send count for next second.
-        sendCnt = 0;
-        timeStamp = System.currentTimeMillis();
-      }
-    } else {
-      sendCnt = 1;
-      timeStamp = System.currentTimeMillis();
-    }
-  }
-
   private PendingRequest trySendRequest() throws InterruptedException {
-    PendingRequest pend = null;
-    while (pend == null)
-      pend = provider.getPendingRequests().pollFirst(1, TimeUnit.DAYS);
-    // Await time out, or notified by new request.
+    var pend = provider.getPendingRequests().take(this::canInsert);
     // Instrument not trading.
     if (!canTrade(getInstrID(pend))) {
       return pend;
     }
+    // Control requests sent per second under the remote's flow control.
+    bucket.acquire();
     int r = 0;
     // Send order or action.
     // Fill and send order at first place so its fields are filled.
@@ -201,11 +190,15 @@ class RequestDaemon implements Runnable {
             ref,
             getPrevOrderDateTime(ref)));
       } else {
+        // Add before sending because rsp may arrive before send returns.
+        pendingOrders.put(ref, System.currentTimeMillis());
         r = fillAndSendOrder(pend.order);
         if (r == 0) {
-          // Remember the last order ref, wait for rsp.
-          lastOrderRef.set(ref);
           provider.getMsgWriter().writeReq(pend.order);
+        } else {
+          // Not sent, the request is retried with the same ref.
+          pendingOrders.remove(ref);
+          usedOrderRef.remove(ref);
         }
       }
     }
@@ -237,8 +230,8 @@ class RequestDaemon implements Runnable {
     input.StopPrice = 0;
     input.TimeCondition = TimeConditionType.GFD;
     input.VolumeCondition = VolumeConditionType.ANY_VOLUME;
-    var r = provider.getApi().ReqOrderInsert(
-        JNI.toJni(input),
+    var r = provider.getGateway().reqOrderInsert(
+        input,
         Utils.getIncrementID());
     global.getLogger().info(String.format(
         "Send order to %s on %s at %.1f, [%d].",
@@ -273,8 +266,8 @@ class RequestDaemon implements Runnable {
       action.ExchangeID = (instrInfo.Instrument != null)
           ? instrInfo.Instrument.ExchangeID : null;
     }
-    var r = provider.getApi().ReqOrderAction(
-        JNI.toJni(action),
+    var r = provider.getGateway().reqOrderAction(
+        action,
         Utils.getIncrementID());
     global.getLogger().info(String.format(
         "Send action to %s on %s, [%d].",
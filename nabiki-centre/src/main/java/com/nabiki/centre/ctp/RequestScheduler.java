@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.ctp;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/*
+Pending requests in lanes by instrument. Requests of one instrument are sent
+in order, but a parked lane doesn't block the others. Lanes take turns to
+send, and a cancel is sent ahead of the inserts in all lanes unless its own
+order is still waiting in the lane. Parked lanes wait on a timer wheel until
+they are ready again.
+ */
+class RequestScheduler {
+  private static class Lane {
+    final String instrID;
+    final Deque<PendingRequest> inserts = new LinkedList<>();
+    final Deque<PendingRequest> actions = new LinkedList<>();
+    final Set<String> insertRefs = new HashSet<>();
+    boolean parked = false;
+
+    Lane(String instrID) {
+      this.instrID = instrID;
+    }
+
+    boolean isEmpty() {
+      return this.inserts.isEmpty() && this.actions.isEmpty();
+    }
+
+    /*
+    The cancel can be sent before the inserts when its order is not waiting
+    in this lane.
+     */
+    boolean hasReadyAction() {
+      var a = this.actions.peekFirst();
+      return a != null && !this.insertRefs.contains(a.action.OrderRef);
+    }
+
+    PendingRequest poll() {
+      PendingRequest r;
+      if (hasReadyAction() || this.inserts.isEmpty())
+        r = this.actions.pollFirst();
+      else
+        r = this.inserts.pollFirst();
+      if (r != null && r.order != null)
+        this.insertRefs.remove(r.order.OrderRef);
+      return r;
+    }
+
+    void add(PendingRequest r, boolean first) {
+      var q = (r.order != null) ? this.inserts : this.actions;
+      if (first)
+        q.addFirst(r);
+      else
+        q.addLast(r);
+      if (r.order != null)
+        this.insertRefs.add(r.order.OrderRef);
+    }
+  }
+
+  private final static long TICK_MILLIS = 100;
+  private final static int WHEEL_SLOTS = 512;
+  private final static long MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final Map<String, Lane> lanes = new HashMap<>();
+  // Lanes having requests and not parked, in turn of sending.
+  private final Deque<Lane> ready = new LinkedList<>();
+  private final TimerWheel<Lane> wheel
+      = new TimerWheel<>(WHEEL_SLOTS, TICK_MILLIS, System.currentTimeMillis());
+  private int size = 0;
+
+  private static String getInstrID(PendingRequest r) {
+    String instrID = null;
+    if (r.action != null)
+      instrID = r.action.InstrumentID;
+    else if (r.order != null)
+      instrID = r.order.InstrumentID;
+    return (instrID == null) ? "" : instrID;
+  }
+
+  synchronized boolean offer(PendingRequest request) {
+    if (request == null || (request.order == null && request.action == null))
+      return false;
+    add(request, false);
+    notifyAll();
+    return true;
+  }
+
+  private void add(PendingRequest request, boolean first) {
+    var lane = this.lanes.computeIfAbsent(getInstrID(request), Lane::new);
+    var wasEmpty = lane.isEmpty();
+    lane.add(request, first);
+    ++this.size;
+    if (wasEmpty && !lane.parked)
+      this.ready.addLast(lane);
+  }
+
+  /*
+  Take the next request to send, wait until there is one. Inserts are taken
+  only when the supplier allows, cancels are always taken.
+   */
+  synchronized PendingRequest take(BooleanSupplier insertAllowed)
+      throws InterruptedException {
+    while (true) {
+      var now = System.currentTimeMillis();
+      this.wheel.advance(now, this::unpark);
+      var r = pollReady(insertAllowed.getAsBoolean());
+      if (r != null)
+        return r;
+      var wait = this.wheel.nextTickMillis(now);
+      if (wait < 0)
+        wait(MAX_WAIT_MILLIS);
+      else
+        wait(Math.max(1, Math.min(wait, MAX_WAIT_MILLIS)));
+    }
+  }
+
+  /*
+  Wake up the taker to check again, like when insert is allowed again.
+   */
+  synchronized void wakeUp() {
+    notifyAll();
+  }
+
+  private PendingRequest pollReady(boolean insertAllowed) {
+    Lane lane = null;
+    // Cancels go first.
+    for (var l : this.ready) {
+      if (l.hasReadyAction()) {
+        lane = l;
+        break;
+      }
+    }
+    if (lane != null)
+      this.ready.remove(lane);
+    else if (insertAllowed)
+      lane = this.ready.pollFirst();
+    if (lane == null)
+      return null;
+    var r = lane.poll();
+    --this.size;
+    if (lane.isEmpty())
+      this.lanes.remove(lane.instrID);
+    else
+      // Take turns with other lanes.
+      this.ready.addLast(lane);
+    return r;
+  }
+
+  /*
+  Put the request back to the front of its lane and park the lane for the
+  specified time. Other lanes are not affected.
+   */
+  synchronized void park(PendingRequest request, long delay, TimeUnit unit) {
+    add(request, true);
+    var lane = this.lanes.get(getInstrID(request));
+    if (!lane.parked) {
+      lane.parked = true;
+      this.ready.remove(lane);
+      var now = System.currentTimeMillis();
+      this.wheel.schedule(lane, unit.toMillis(delay), now);
+    }
+    notifyAll();
+  }
+
+  private void unpark(Lane lane) {
+    lane.parked = false;
+    // Lane may be cleared while it is parked.
+    if (!lane.isEmpty() && this.lanes.get(lane.instrID) == lane)
+      this.ready.addLast(lane);
+  }
+
+  synchronized int size() {
+    return this.size;
+  }
+
+  synchronized void clear() {
+    this.lanes.clear();
+    this.ready.clear();
+    this.wheel.clear();
+    this.size = 0;
+  }
+}
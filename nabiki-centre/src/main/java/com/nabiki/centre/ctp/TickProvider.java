@@ -36,7 +36,8 @@ import com.nabiki.centre.md.MarketDataRouter;
 import com.nabiki.commons.ctpobj.*;
 import com.nabiki.commons.utils.Signal;
 import com.nabiki.commons.utils.Utils;
-import com.nabiki.ctp4j.CThostFtdcMdApi;
+import com.nabiki.gateway.MdGateway;
+import com.nabiki.gateway.MdGatewaySpi;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -48,7 +49,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
-public class TickProvider {
+public class TickProvider implements MdGatewaySpi {
   private final Global global;
   private final LoginConfig loginCfg;
   private final MarketDataRouter router;
@@ -65,8 +66,7 @@ public class TickProvider {
   private final Signal stateSignal = new Signal();
 
   private String actionDay;
-  private CThostFtdcMdApi api;
-  private JniMdSpi spi;
+  private MdGateway gateway;
 
   public TickProvider(MarketDataRouter router, CandleEngine engine, Global global) {
     this.global = global;
@@ -156,31 +156,28 @@ public class TickProvider {
           sleep(1, TimeUnit.SECONDS);
       }
     }
-    // Setup durations.
-    setupDurations();
     // Wait for a while, then check subscription status.
     sleep(1, TimeUnit.MINUTES);
     checkSubscription();
   }
 
   public boolean isInit() {
-    return api != null;
+    return gateway != null;
   }
 
   public void init() {
     if (isInit()) {
       throw new IllegalStateException("md duplicated init");
     }
-    this.api = CThostFtdcMdApi.CreateFtdcMdApi(
+    this.gateway = global.getGatewayFactory().createMd(
         this.loginCfg.FlowDirectory,
         this.loginCfg.IsUsingUDP,
         this.loginCfg.IsMulticast);
-    this.spi = new JniMdSpi(this, global);
-    this.api.RegisterSpi(spi);
+    this.gateway.registerSpi(this);
     for (var addr : this.loginCfg.FrontAddresses) {
-      this.api.RegisterFront(addr);
+      this.gateway.registerFront(addr);
     }
-    this.api.Init();
+    this.gateway.init();
   }
 
   public void release() {
@@ -189,9 +186,8 @@ public class TickProvider {
     setConnected(false);
     setWorkingState(WorkingState.STOPPED);
     // Release resources.
-    this.api.Release();
-    this.api = null;
-    this.spi = null;
+    this.gateway.release();
+    this.gateway = null;
   }
 
   public void login() {
@@ -245,24 +241,20 @@ public class TickProvider {
   }
 
   private void subscribeBatch(String[] instr, int count) {
-    this.api.SubscribeMarketData(instr, count);
+    this.gateway.subscribeMarketData(instr, count);
   }
 
   private void registerInstrument(String instrID) {
     engine.addInstrument(instrID);
   }
 
-  private void setupDurations() {
-    engine.setupDurations();
-  }
-
   private void doLogin() {
     var req = new CReqUserLogin();
     req.BrokerID = this.loginCfg.BrokerID;
     req.UserID = this.loginCfg.UserID;
     req.Password = this.loginCfg.Password;
-    var r = this.api.ReqUserLogin(
-        JNI.toJni(req),
+    var r = this.gateway.reqUserLogin(
+        req,
         Utils.getIncrementID());
     if (r != 0)
       this.global.getLogger().severe(
@@ -274,8 +266,8 @@ public class TickProvider {
     var req = new CUserLogout();
     req.BrokerID = this.loginCfg.BrokerID;
     req.UserID = this.loginCfg.UserID;
-    var r = this.api.ReqUserLogout(
-        JNI.toJni(req),
+    var r = this.gateway.reqUserLogout(
+        req,
         Utils.getIncrementID());
     if (r != 0)
       this.global.getLogger().warning(
@@ -290,6 +282,7 @@ public class TickProvider {
     return keeper != null && keeper.contains(LocalTime.now());
   }
 
+  @Override
   public void whenFrontConnected() {
     setConnected(true);
     this.stateSignal.signal();
@@ -298,6 +291,7 @@ public class TickProvider {
     }
   }
 
+  @Override
   public void whenFrontDisconnected(int reason) {
     setLogin(false);
     setConnected(false);
@@ -307,6 +301,7 @@ public class TickProvider {
     }
   }
 
+  @Override
   public void whenRspError(CRspInfo rspInfo, int requestId,
                            boolean isLast) {
     this.msgWriter.writeErr(rspInfo);
@@ -315,6 +310,7 @@ public class TickProvider {
             rspInfo.ErrorID));
   }
 
+  @Override
   public void whenRspUserLogin(CRspUserLogin rspUserLogin,
                                CRspInfo rspInfo, int requestId,
                                boolean isLast) {
@@ -346,6 +342,7 @@ public class TickProvider {
     }
   }
 
+  @Override
   public void whenRspUserLogout(CUserLogout userLogout,
                                 CRspInfo rspInfo, int nRequestID,
                                 boolean isLast) {
@@ -391,6 +388,7 @@ public class TickProvider {
     this.subscribed.clear();
   }
 
+  @Override
   public void whenRspSubMarketData(
       CSpecificInstrument specificInstrument,
       CRspInfo rspInfo, int requestId, boolean isLast) {
@@ -404,6 +402,7 @@ public class TickProvider {
     }
   }
 
+  @Override
   public void whenRspUnSubMarketData(
       CSpecificInstrument specificInstrument,
       CRspInfo rspInfo, int nRequestID, boolean isLast) {
@@ -415,6 +414,7 @@ public class TickProvider {
     }
   }
 
+  @Override
   public void whenRtnDepthMarketData(CDepthMarketData depthMarketData) {
     // Set day.
     // CZCE's trading day is natural day, here unify them. No need to test the
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.ctp;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+Hashed timer wheel. Timeouts are put in the slot of their expire tick, and a
+timeout farther than one round waits for more rounds. Scheduling is O(1) and
+advancing visits only the slots passed. Not thread safe, the owner guards it.
+ */
+class TimerWheel<T> {
+  private static class Timeout<T> {
+    final T item;
+    long rounds;
+
+    Timeout(T item, long rounds) {
+      this.item = item;
+      this.rounds = rounds;
+    }
+  }
+
+  private final List<Timeout<T>>[] slots;
+  private final long tickMillis;
+  private long tick;
+  private int size = 0;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  TimerWheel(int slotCount, long tickMillis, long nowMillis) {
+    if (slotCount < 1 || tickMillis < 1)
+      throw new IllegalArgumentException("illegal wheel size or tick");
+    this.slots = new List[slotCount];
+    for (int i = 0; i < slotCount; ++i)
+      this.slots[i] = new LinkedList<>();
+    this.tickMillis = tickMillis;
+    this.tick = nowMillis / tickMillis;
+  }
+
+  void schedule(T item, long delayMillis, long nowMillis) {
+    // Expire at the end of the tick, never earlier than the delay.
+    long expire = (nowMillis + Math.max(0, delayMillis) + this.tickMillis - 1)
+        / this.tickMillis;
+    if (expire <= this.tick)
+      expire = this.tick + 1;
+    long ticks = expire - this.tick;
+    this.slots[(int) (expire % this.slots.length)].add(
+        new Timeout<>(item, (ticks - 1) / this.slots.length));
+    ++this.size;
+  }
+
+  /*
+  Advance the wheel to now and pass the expired items to the consumer.
+   */
+  void advance(long nowMillis, Consumer<T> expired) {
+    long now = nowMillis / this.tickMillis;
+    while (this.tick < now && this.size > 0) {
+      ++this.tick;
+      Iterator<Timeout<T>> iter
+          = this.slots[(int) (this.tick % this.slots.length)].iterator();
+      while (iter.hasNext()) {
+        var t = iter.next();
+        if (t.rounds > 0) {
+          --t.rounds;
+        } else {
+          iter.remove();
+          --this.size;
+          expired.accept(t.item);
+        }
+      }
+    }
+    if (this.size == 0)
+      this.tick = Math.max(this.tick, now);
+  }
+
+  /*
+  Milliseconds to the next tick, or -1 if there is no timeout.
+   */
+  long nextTickMillis(long nowMillis) {
+    if (this.size == 0)
+      return -1;
+    return (this.tick + 1) * this.tickMillis - nowMillis;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  void clear() {
+    for (var s : this.slots)
+      s.clear();
+    this.size = 0;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.ctp;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Token bucket that refills permits at a constant rate up to the burst size.
+ */
+class TokenBucket {
+  private final double permitsPerNano;
+  private final double burst;
+  private double permits;
+  private long lastRefill;
+
+  TokenBucket(int permitsPerSecond, int burst) {
+    if (permitsPerSecond < 1)
+      throw new IllegalArgumentException("illegal rate: " + permitsPerSecond);
+    if (burst < 1)
+      throw new IllegalArgumentException("illegal burst: " + burst);
+    this.permitsPerNano = permitsPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+    this.burst = burst;
+    this.permits = burst;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /*
+  Take a permit if there is one and return 0, or return the nanoseconds to
+  wait for the next permit.
+   */
+  synchronized long tryAcquire() {
+    var now = System.nanoTime();
+    this.permits = Math.min(
+        this.burst,
+        this.permits + (now - this.lastRefill) * this.permitsPerNano);
+    this.lastRefill = now;
+    if (this.permits >= 1.0D) {
+      this.permits -= 1.0D;
+      return 0;
+    } else {
+      return (long) Math.ceil((1.0D - this.permits) / this.permitsPerNano);
+    }
+  }
+
+  void acquire() throws InterruptedException {
+    long nanos;
+    while ((nanos = tryAcquire()) > 0)
+      TimeUnit.NANOSECONDS.sleep(nanos);
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.CandleKindType;
+
+/**
+ * Bar of one instrument that is completed by ticks instead of time. The candle
+ * engine updates the aggregator with every tick of the instrument on its writer
+ * thread, and routes the bar the update returns as a candle of the bar's kind.
+ * Subclass it and override {@link #isComplete()} to add a kind of bar.
+ */
+public abstract class BarAggregator {
+  protected final String instrumentID;
+  protected final double size;
+
+  protected double open, high, low, close, openInterest;
+  protected int volume, ticks;
+  private int baseVolume = 0;
+  private boolean started = false;
+
+  protected BarAggregator(String instrumentID, double size) {
+    if (instrumentID == null)
+      throw new NullPointerException("instrument ID null");
+    if (!(size > 0))
+      throw new IllegalArgumentException("illegal bar size: " + size);
+    this.instrumentID = instrumentID;
+    this.size = size;
+  }
+
+  /**
+   * Create bar aggregator of the specified kind.
+   *
+   * @param instrumentID instrument ID
+   * @param kind         volume, tick, range or renko
+   * @param size         volume, number of ticks or price range of a bar
+   * @return bar aggregator
+   * @throws IllegalArgumentException if kind is unknown or size is not positive
+   */
+  public static BarAggregator create(String instrumentID, String kind, double size) {
+    if (kind == null)
+      throw new IllegalArgumentException("bar kind null");
+    switch (kind.trim().toLowerCase()) {
+      case "volume":
+        return new VolumeBar(instrumentID, size);
+      case "tick":
+        return new TickBar(instrumentID, size);
+      case "range":
+        return new RangeBar(instrumentID, size);
+      case "renko":
+        return new RenkoBar(instrumentID, size);
+      default:
+        throw new IllegalArgumentException("unknown bar kind: " + kind);
+    }
+  }
+
+  /**
+   * Get kind of the bar defined in {@link CandleKindType}.
+   *
+   * @return kind of the bar
+   */
+  public abstract char getKind();
+
+  public double getSize() {
+    return this.size;
+  }
+
+  /**
+   * Check if the bar is completed by the last tick.
+   *
+   * @return {@code true} if the bar is completed
+   */
+  protected abstract boolean isComplete();
+
+  /**
+   * Update the bar with tick.
+   *
+   * @param md tick
+   * @return completed bar, or {@code null} if the bar is not completed yet
+   */
+  public CCandle update(CDepthMarketData md) {
+    // Same as time candles, base volume of previous trading day is reset.
+    if (this.baseVolume == 0 || this.baseVolume > md.Volume)
+      this.baseVolume = md.Volume;
+    var price = md.LastPrice;
+    if (!this.started) {
+      this.open = this.high = this.low = price;
+      this.ticks = 0;
+      this.started = true;
+    } else {
+      this.high = Math.max(this.high, price);
+      this.low = Math.min(this.low, price);
+    }
+    this.close = price;
+    this.openInterest = md.OpenInterest;
+    this.volume = md.Volume - this.baseVolume;
+    ++this.ticks;
+    if (!isComplete())
+      return null;
+    var c = toCandle(md);
+    this.baseVolume = md.Volume;
+    this.started = false;
+    return c;
+  }
+
+  protected CCandle toCandle(CDepthMarketData md) {
+    var c = new CCandle();
+    c.InstrumentID = this.instrumentID;
+    c.OpenPrice = this.open;
+    c.HighestPrice = this.high;
+    c.LowestPrice = this.low;
+    c.ClosePrice = this.close;
+    c.OpenInterest = this.openInterest;
+    c.Volume = this.volume;
+    c.Kind = (byte) getKind();
+    c.Size = this.size;
+    c.ActionDay = md.ActionDay;
+    c.UpdateTime = c.EndTime = md.UpdateTime;
+    return c;
+  }
+
+  static class VolumeBar extends BarAggregator {
+    VolumeBar(String instrumentID, double size) {
+      super(instrumentID, size);
+    }
+
+    @Override
+    public char getKind() {
+      return CandleKindType.VOLUME;
+    }
+
+    @Override
+    protected boolean isComplete() {
+      return this.volume >= this.size;
+    }
+  }
+
+  static class TickBar extends BarAggregator {
+    TickBar(String instrumentID, double size) {
+      super(instrumentID, size);
+    }
+
+    @Override
+    public char getKind() {
+      return CandleKindType.TICK;
+    }
+
+    @Override
+    protected boolean isComplete() {
+      return this.ticks >= this.size;
+    }
+  }
+
+  static class RangeBar extends BarAggregator {
+    RangeBar(String instrumentID, double size) {
+      super(instrumentID, size);
+    }
+
+    @Override
+    public char getKind() {
+      return CandleKindType.RANGE;
+    }
+
+    @Override
+    protected boolean isComplete() {
+      return this.high - this.low >= this.size;
+    }
+  }
+
+  /*
+  Brick opens at the close of previous brick and closes at the whole bricks the
+  price has moved, so the price may move more than one brick in a bar.
+   */
+  static class RenkoBar extends BarAggregator {
+    private double brick = Double.NaN;
+
+    RenkoBar(String instrumentID, double size) {
+      super(instrumentID, size);
+    }
+
+    @Override
+    public char getKind() {
+      return CandleKindType.RENKO;
+    }
+
+    @Override
+    protected boolean isComplete() {
+      if (Double.isNaN(this.brick))
+        this.brick = this.open;
+      return Math.abs(this.close - this.brick) >= this.size;
+    }
+
+    @Override
+    protected CCandle toCandle(CDepthMarketData md) {
+      var c = super.toCandle(md);
+      var n = (long) (Math.abs(this.close - this.brick) / this.size);
+      c.OpenPrice = this.brick;
+      c.ClosePrice = this.brick + Math.signum(this.close - this.brick) * n * this.size;
+      c.HighestPrice = Math.max(c.HighestPrice, Math.max(c.OpenPrice, c.ClosePrice));
+      c.LowestPrice = Math.min(c.LowestPrice, Math.min(c.OpenPrice, c.ClosePrice));
+      this.brick = c.ClosePrice;
+      return c;
+    }
+  }
+}
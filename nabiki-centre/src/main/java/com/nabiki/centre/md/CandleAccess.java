@@ -29,8 +29,10 @@
 package com.nabiki.centre.md;
 
 import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CandleKindType;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -46,7 +48,33 @@ public class CandleAccess {
   protected void write(File file, CCandle candle) {
     Objects.requireNonNull(file, "file null");
     Objects.requireNonNull(candle, "candle null");
-    var value = String.format("%s,%.2f,%.2f,%.2f,%.2f,%.2f,%.0f,%d,%d,%s,%s,%s,%s%n",
+    var value = format(candle);
+    try (FileWriter fw = new FileWriter(file, true)) {
+      if (file.length() == 0)
+        fw.write(header);
+      fw.write(value);
+      fw.flush();
+    } catch (Throwable th) {
+      th.printStackTrace();
+    }
+  }
+
+  protected void write(File file, List<CCandle> candles) {
+    Objects.requireNonNull(file, "file null");
+    Objects.requireNonNull(candles, "candles null");
+    try (var bw = new BufferedWriter(new FileWriter(file, true))) {
+      if (file.length() == 0)
+        bw.write(header);
+      for (var candle : candles)
+        bw.write(format(candle));
+      bw.flush();
+    } catch (Throwable th) {
+      th.printStackTrace();
+    }
+  }
+
+  private String format(CCandle candle) {
+    return String.format("%s,%.2f,%.2f,%.2f,%.2f,%.2f,%.0f,%d,%d,%s,%s,%s,%s%n",
         candle.InstrumentID,
         candle.OpenPrice,
         candle.HighestPrice,
@@ -60,14 +88,6 @@ public class CandleAccess {
         candle.ActionDay,
         candle.UpdateTime,
         candle.EndTime);
-    try (FileWriter fw = new FileWriter(file, true)) {
-      if (file.length() == 0)
-        fw.write(header);
-      fw.write(value);
-      fw.flush();
-    } catch (Throwable th) {
-      th.printStackTrace();
-    }
   }
 
   private CCandle parse(String line) {
@@ -88,6 +108,7 @@ public class CandleAccess {
     candle.ActionDay = vars[10];
     candle.UpdateTime = vars[11];
     candle.EndTime = vars[12];
+    candle.Kind = (byte) CandleKindType.TIME;
     return candle;
   }
 
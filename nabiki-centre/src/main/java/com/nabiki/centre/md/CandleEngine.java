@@ -29,34 +29,132 @@
 package com.nabiki.centre.md;
 
 import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.UncaughtWriter;
 import com.nabiki.commons.ctpobj.CCandle;
 import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.CandleKindType;
 import com.nabiki.commons.utils.Utils;
 
+import java.time.Clock;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalTime;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Candle engine keeps the candles in progress as primitive arrays indexed by a
+ * dense instrument index and the duration, {@code slot = index * durations +
+ * duration}. Ticks, new instruments and the minute pops are all queued to a
+ * single writer thread that owns the arrays, so updating a candle takes no
+ * lock and allocates nothing. Candle objects are created only when they are
+ * popped and routed. Bars configured for the product, such as volume or range
+ * bars, are updated by the same thread and routed as candles of their kind
+ * once a tick completes them.
+ *
+ * <p>With {@link CandleTiming#EVENT_TIME}, candles are closed by the update time
+ * of ticks instead of the timer. Each product keeps its own tick time, so a
+ * product, or an exchange, whose clock runs ahead doesn't close the candles of
+ * the others. Ticks are held until the watermark of their product, the latest
+ * tick time minus the allowed lateness, passes them, and are then applied in
+ * time order. A tick older than the candle already closed is dropped. The timer
+ * only closes the candles that have received no tick for a whole minute of the
+ * clock, for example the last candle of a session. Given a clock of its own,
+ * the engine can replay historical ticks as fast as they are fed. Call
+ * {@link #clearProducts()} between trading days so the tick time starts over.
+ */
 public class CandleEngine extends TimerTask {
   private final static long MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private final static long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private final static int DEFAULT_CAPACITY = 1 << 16;
+  private final static int INITIAL_INSTRUMENTS = 1024;
+  private final static Object CLEAR = new Object();
+  private final static long DAY = TimeUnit.DAYS.toMillis(1);
+  private final static long NONE = Long.MIN_VALUE;
+  private final static int MAX_CATCH_UP = 24 * 60;
 
   private final Global global;
-  private final Map<String, Product> products = new ConcurrentHashMap<>();
-  private final Map<String, Product> instrProducts = new ConcurrentHashMap<>();
   private final MarketDataRouter router;
+  private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm");
+  private final DateTimeFormatter secondFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+  private final CandleTiming timing;
+  private final long lateness;
+  private final Clock clock;
+  private final AtomicLong lateCount = new AtomicLong(0);
 
   private final AtomicBoolean working = new AtomicBoolean(false);
   private final AtomicBoolean recvTick = new AtomicBoolean(false);
 
+  private final RingBuffer<Object> queue = new RingBuffer<>(DEFAULT_CAPACITY);
+  private final Thread writer;
+  private volatile boolean parked = false;
+
+  // Below are only accessed by the writer thread.
+  private final Duration[] durations;
+  private final int[] minutes;
+  private final Map<String, Integer> index = new HashMap<>();
+  private final Map<String, Product> products = new HashMap<>();
+  private int count = 0;
+  // Per instrument.
+  private String[] instruments;
+  private Product[] owners;
+  private String[] updateTime;
+  private double[] lastPrice, openInterest;
+  private int[] volume;
+  // Per instrument and duration.
+  private double[] open, high, low;
+  private int[] baseVolume;
+  private boolean[] updated;
+  // Bars other than time candles per instrument, null if there is none.
+  private BarAggregator[][] bars;
+
   public CandleEngine(MarketDataRouter router, Global cfg) {
+    this(router, cfg, CandleTiming.WALL_CLOCK, Duration.ZERO,
+        Clock.systemDefaultZone());
+  }
+
+  /**
+   * Create candle engine.
+   *
+   * @param router   router to send the candles to
+   * @param cfg      global
+   * @param timing   what decides the boundaries of candles
+   * @param lateness how long a tick can be later than the latest tick and still
+   *                 fall in its own candle, only for event time
+   * @param clock    clock for the timer, and the day and time of candles that
+   *                 have no ticks
+   */
+  public CandleEngine(
+      MarketDataRouter router,
+      Global cfg,
+      CandleTiming timing,
+      Duration lateness,
+      Clock clock) {
+    if (timing == null)
+      throw new NullPointerException("candle timing null");
+    if (lateness == null || lateness.isNegative()
+        || lateness.compareTo(Duration.ofMillis(MILLIS)) >= 0)
+      throw new IllegalArgumentException("illegal lateness: " + lateness);
+    if (clock == null)
+      throw new NullPointerException("clock null");
     this.global = cfg;
     this.router = router;
+    this.timing = timing;
+    this.lateness = lateness.toMillis();
+    this.clock = clock;
+    this.durations = cfg.getDurations().clone();
+    this.minutes = new int[this.durations.length];
+    for (int d = 0; d < this.durations.length; ++d)
+      this.minutes[d] = (int) this.durations[d].toMinutes();
+    allocate(INITIAL_INSTRUMENTS);
+    this.writer = new Thread(this::write);
+    this.writer.setDaemon(true);
+    this.writer.setUncaughtExceptionHandler(UncaughtWriter.getDefault());
+    this.writer.start();
     prepare();
   }
 
@@ -83,30 +181,29 @@ public class CandleEngine extends TimerTask {
    * @param instrumentID instrument ID
    */
   public void addInstrument(String instrumentID) {
-    acquireMapProduct(instrumentID).acquireInstrument(instrumentID);
+    checkInstrument(instrumentID);
+    put(new Add(instrumentID));
   }
 
-  public void clearProducts() {
-    instrProducts.clear();
-    products.clear();
-    recvTick.set(false);
+  /**
+   * Get number of ticks dropped because the candles they fall in have been
+   * closed, only for event time.
+   *
+   * @return number of late ticks
+   */
+  public long getLateCount() {
+    return this.lateCount.get();
   }
 
-  public void setupDurations() {
-    for (var p : this.products.values()) {
-      for (var du : this.global.getDurations()) {
-        p.registerDuration(du);
-      }
-    }
+  public void clearProducts() {
+    recvTick.set(false);
+    put(CLEAR);
   }
 
-  private Product acquireMapProduct(String instrumentID) {
+  private void checkInstrument(String instrumentID) {
     if (instrumentID == null || instrumentID.length() == 0) {
       throw new IllegalArgumentException("illegal instrument ID");
     }
-    return instrProducts.computeIfAbsent(
-        instrumentID,
-        i -> products.computeIfAbsent(Utils.getProductID(i), p -> new Product()));
   }
 
   private void setTickRecv() {
@@ -117,7 +214,8 @@ public class CandleEngine extends TimerTask {
   }
 
   public void update(CDepthMarketData md) {
-    acquireMapProduct(md.InstrumentID).update(md);
+    checkInstrument(md.InstrumentID);
+    put(md);
     setTickRecv();
   }
 
@@ -135,30 +233,322 @@ public class CandleEngine extends TimerTask {
     if (!this.working.get() || !this.recvTick.get()) {
       return;
     }
-    var now = LocalTime.now();
+    var now = LocalTime.now(this.clock);
+    if (this.timing == CandleTiming.EVENT_TIME) {
+      // Close the candles that end at least a minute ago and have no ticks.
+      put(new Idle((int) Math.floorMod(now.toSecondOfDay() * 1000L - MILLIS, DAY)));
+      return;
+    }
     // Check now time stamp is precisely at the point of one minute.
     if (!checkNowOK(now)) {
       global.getLogger().warning("timer not precise: " + now.toString());
     }
-    // Working now.
-    now = getRoundTime(now, (int) TimeUnit.MILLISECONDS.toSeconds(MILLIS));
-    var hours = this.global.getAllTradingHour();
+    // Working now. Candles are popped by the writer after the ticks queued
+    // before this point.
+    put(new Pop(getRoundTime(now, (int) TimeUnit.MILLISECONDS.toSeconds(MILLIS))));
+  }
+
+  /*
+  Put the command into queue, wait if queue is full.
+   */
+  private void put(Object command) {
+    while (!this.queue.offer(command)) {
+      wakeUp();
+      Thread.yield();
+    }
+    wakeUp();
+  }
+
+  private void wakeUp() {
+    if (this.parked)
+      LockSupport.unpark(this.writer);
+  }
+
+  private void write() {
+    while (!Thread.interrupted()) {
+      try {
+        var command = this.queue.poll();
+        if (command != null)
+          apply(command);
+        else
+          idle();
+      } catch (Throwable th) {
+        th.printStackTrace();
+        global.getLogger().severe(th.getMessage());
+      }
+    }
+  }
+
+  private void idle() {
+    this.parked = true;
+    // Check again after setting the flag so a producer that didn't see the
+    // flag must have published the command before the check.
+    if (this.queue.size() == 0)
+      LockSupport.parkNanos(this, PARK_NANOS);
+    this.parked = false;
+  }
+
+  private void apply(Object command) {
+    if (command instanceof CDepthMarketData)
+      receive((CDepthMarketData) command);
+    else if (command instanceof Pop)
+      pop(this.products.values(), ((Pop) command).time,
+          Utils.getDay(LocalDate.now(this.clock), "yyyyMMdd"),
+          Utils.getTime(LocalTime.now(this.clock), "HH:mm:ss"));
+    else if (command instanceof Idle)
+      idle(((Idle) command).millis);
+    else if (command instanceof Add)
+      acquire(((Add) command).instrumentID);
+    else if (command == CLEAR)
+      clear();
+  }
+
+  private void allocate(int capacity) {
+    int slots = capacity * this.durations.length;
+    this.instruments = grow(this.instruments, capacity);
+    this.owners = this.owners == null
+        ? new Product[capacity] : Arrays.copyOf(this.owners, capacity);
+    this.updateTime = grow(this.updateTime, capacity);
+    this.lastPrice = this.lastPrice == null
+        ? new double[capacity] : Arrays.copyOf(this.lastPrice, capacity);
+    this.openInterest = this.openInterest == null
+        ? new double[capacity] : Arrays.copyOf(this.openInterest, capacity);
+    this.volume = this.volume == null
+        ? new int[capacity] : Arrays.copyOf(this.volume, capacity);
+    this.open = this.open == null
+        ? new double[slots] : Arrays.copyOf(this.open, slots);
+    this.high = this.high == null
+        ? new double[slots] : Arrays.copyOf(this.high, slots);
+    this.low = this.low == null
+        ? new double[slots] : Arrays.copyOf(this.low, slots);
+    this.baseVolume = this.baseVolume == null
+        ? new int[slots] : Arrays.copyOf(this.baseVolume, slots);
+    this.updated = this.updated == null
+        ? new boolean[slots] : Arrays.copyOf(this.updated, slots);
+    this.bars = this.bars == null
+        ? new BarAggregator[capacity][] : Arrays.copyOf(this.bars, capacity);
+  }
+
+  private String[] grow(String[] origin, int capacity) {
+    return origin == null ? new String[capacity] : Arrays.copyOf(origin, capacity);
+  }
+
+  private int acquire(String instrumentID) {
+    var i = this.index.get(instrumentID);
+    if (i != null)
+      return i;
+    if (this.count == this.instruments.length)
+      allocate(this.count << 1);
+    int n = this.count++;
+    this.instruments[n] = instrumentID;
+    this.updateTime[n] = null;
+    this.lastPrice[n] = this.openInterest[n] = 0.0D;
+    this.volume[n] = 0;
+    for (int s = n * this.durations.length, e = s + this.durations.length; s < e; ++s) {
+      this.open[s] = this.high[s] = this.low[s] = 0.0D;
+      this.baseVolume[s] = 0;
+      this.updated[s] = false;
+    }
+    var productID = Utils.getProductID(instrumentID);
+    this.bars[n] = createBars(instrumentID, productID);
+    this.index.put(instrumentID, n);
+    this.owners[n] = this.products.computeIfAbsent(productID, Product::new);
+    this.owners[n].add(n);
+    return n;
+  }
+
+  private BarAggregator[] createBars(String instrumentID, String productID) {
+    var configs = this.global.getBars(productID);
+    if (configs.size() == 0)
+      return null;
+    var r = new BarAggregator[configs.size()];
+    int n = 0;
+    for (var c : configs) {
+      try {
+        r[n++] = BarAggregator.create(instrumentID, c.Kind, c.Size);
+      } catch (IllegalArgumentException e) {
+        --n;
+        this.global.getLogger().warning(
+            Utils.formatLog("illegal bar", instrumentID, e.getMessage(), null));
+      }
+    }
+    return n == 0 ? null : Arrays.copyOf(r, n);
+  }
+
+  private void clear() {
+    // Tick time starts over with the products.
+    this.index.clear();
+    this.products.clear();
+    Arrays.fill(this.owners, 0, this.count, null);
+    this.count = 0;
+  }
+
+  private void receive(CDepthMarketData md) {
+    if (this.timing == CandleTiming.WALL_CLOCK) {
+      tick(md);
+      return;
+    }
+    var ofDay = parseMillis(md.UpdateTime, md.UpdateMillisec);
+    if (ofDay < 0) {
+      global.getLogger().warning(
+          Utils.formatLog("illegal update time", md.InstrumentID,
+              md.UpdateTime, null));
+      return;
+    }
+    var p = this.owners[acquire(md.InstrumentID)];
+    var t = p.toEventTime(ofDay);
+    if (this.lateness == 0) {
+      release(p, t, md);
+      return;
+    }
+    p.offer(t, md);
+    var watermark = p.maxEvent - this.lateness;
+    while (p.heapSize > 0 && p.heapTime[0] <= watermark)
+      release(p, p.heapTime[0], p.poll());
+  }
+
+  /*
+  Apply the tick after closing the candles of its product that end before it.
+   */
+  private void release(Product p, long time, CDepthMarketData md) {
+    if (p.closing == NONE) {
+      p.closing = (time / MILLIS + 1) * MILLIS;
+    } else if (time < p.closing - MILLIS) {
+      // Its candle is closed.
+      this.lateCount.incrementAndGet();
+      return;
+    } else {
+      advance(p, time);
+    }
+    if (md.ActionDay != null && md.ActionDay.length() > 0)
+      p.actionDay = md.ActionDay;
+    tick(md);
+  }
+
+  /*
+  Close the candles of the product that end at or before the specified tick
+  time.
+   */
+  private void advance(Product p, long time) {
+    int n = 0;
+    while (p.closing <= time) {
+      if (++n > MAX_CATCH_UP) {
+        // Too long a gap, skip the candles in between.
+        p.closing = (time / MILLIS + 1) * MILLIS;
+        break;
+      }
+      var end = LocalTime.ofSecondOfDay(
+          Math.floorMod(p.closing, DAY) / 1000);
+      if (this.working.get())
+        pop(Collections.singletonList(p), end, p.actionDay != null
+                ? p.actionDay
+                : Utils.getDay(LocalDate.now(this.clock), "yyyyMMdd"),
+            end.format(this.secondFormatter));
+      p.closing += MILLIS;
+    }
+  }
+
+  private void idle(int ofDay) {
+    for (var p : this.products.values()) {
+      if (p.maxEvent == NONE || p.closing == NONE)
+        continue;
+      // Don't move tick time, the clock only catches up with it.
+      var time = p.align(ofDay);
+      while (p.heapSize > 0 && p.heapTime[0] <= time)
+        release(p, p.heapTime[0], p.poll());
+      advance(p, time);
+    }
+  }
+
+  /*
+  Millis of day of the exchange update time, or -1 if it is illegal.
+   */
+  static int parseMillis(String updateTime, int millisec) {
+    if (updateTime == null || updateTime.length() != 8
+        || updateTime.charAt(2) != ':' || updateTime.charAt(5) != ':')
+      return -1;
+    int h = digits(updateTime, 0), m = digits(updateTime, 3),
+        s = digits(updateTime, 6);
+    if (h < 0 || h > 23 || m < 0 || m > 59 || s < 0 || s > 59
+        || millisec < 0 || millisec > 999)
+      return -1;
+    return ((h * 60 + m) * 60 + s) * 1000 + millisec;
+  }
+
+  private static int digits(String str, int from) {
+    var a = str.charAt(from) - '0';
+    var b = str.charAt(from + 1) - '0';
+    if (a < 0 || a > 9 || b < 0 || b > 9)
+      return -1;
+    return a * 10 + b;
+  }
+
+  private void tick(CDepthMarketData md) {
+    int i = acquire(md.InstrumentID);
+    var price = md.LastPrice;
+    for (int s = i * this.durations.length, e = s + this.durations.length; s < e; ++s) {
+      // If base volume is not set, set it to current volume.
+      // If base volume is bigger than current volume, which means it is
+      // probably total traded volume of previous trading day, set it.
+      if (this.baseVolume[s] == 0 || this.baseVolume[s] > md.Volume)
+        this.baseVolume[s] = md.Volume;
+      if (!this.updated[s]) {
+        this.open[s] = this.high[s] = this.low[s] = price;
+        this.updated[s] = true;
+      } else {
+        if (price > this.high[s])
+          this.high[s] = price;
+        if (price < this.low[s])
+          this.low[s] = price;
+      }
+    }
+    this.lastPrice[i] = price;
+    this.openInterest[i] = md.OpenInterest;
+    this.volume[i] = md.Volume;
+    this.updateTime[i] = md.UpdateTime;
+    if (this.bars[i] != null)
+      updateBars(this.bars[i], md);
+  }
+
+  private void updateBars(BarAggregator[] aggregators, CDepthMarketData md) {
+    for (var a : aggregators) {
+      var c = a.update(md);
+      if (c == null || !this.working.get())
+        continue;
+      c.TradingDay = this.global.getTradingDay();
+      try {
+        router.route(c);
+      } catch (Throwable th) {
+        th.printStackTrace();
+        global.getLogger().severe(th.getMessage());
+      }
+    }
+  }
+
+  private void pop(Collection<Product> products, LocalTime time,
+                   String actionDay, String idleTime) {
     // Measure performance.
     var max = global.getPerformance().start("candle.run.max");
     var cur = global.getPerformance().start("candle.run.cur");
+    var hours = this.global.getAllTradingHour();
+    // Strings shared by all candles of this pop.
+    var tradingDay = this.global.getTradingDay();
+    var endTime = time.format(this.formatter);
     // Generate candles.
-    for (var e : products.entrySet()) {
-      var h = hours.get(e.getKey());
+    for (var p : products) {
+      var h = hours.get(p.productID);
       if (h == null) {
         this.global.getLogger().warning(
-            Utils.formatLog("trading hour global null", e.getKey(),
+            Utils.formatLog("trading hour global null", p.productID,
                 null, null));
         continue;
       }
-      for (var du : global.getDurations()) {
-        if (h.contains(du, now))
+      for (int d = 0; d < this.durations.length; ++d) {
+        if (h.contains(this.durations[d], time))
           try {
-            router.route(e.getValue().pop(du));
+            for (int k = 0; k < p.size; ++k)
+              router.route(emit(p.members[k], d, tradingDay, actionDay,
+                  idleTime, endTime));
           } catch (Throwable th) {
             th.printStackTrace();
             global.getLogger().severe(th.getMessage());
@@ -170,60 +560,179 @@ public class CandleEngine extends TimerTask {
     cur.end();
   }
 
-  class Product {
-    private final Map<String, SingleCandle> candles = new ConcurrentHashMap<>();
+  private CCandle emit(
+      int i, int d, String tradingDay, String actionDay, String idleTime,
+      String endTime) {
+    int s = i * this.durations.length + d;
+    var c = new CCandle();
+    c.InstrumentID = this.instruments[i];
+    c.Minute = this.minutes[d];
+    c.ClosePrice = this.lastPrice[i];
+    c.OpenInterest = this.openInterest[i];
+    if (this.updated[s]) {
+      c.OpenPrice = this.open[s];
+      c.HighestPrice = this.high[s];
+      c.LowestPrice = this.low[s];
+      c.Volume = this.volume[i] - this.baseVolume[s];
+      c.UpdateTime = this.updateTime[i];
+      // Next candle starts from here.
+      this.baseVolume[s] = this.volume[i];
+      this.updated[s] = false;
+    } else {
+      // Not updated since last pop.
+      c.OpenPrice = c.HighestPrice = c.LowestPrice = this.lastPrice[i];
+      c.Volume = 0;
+      c.UpdateTime = idleTime;
+    }
+    c.TradingDay = tradingDay;
+    c.ActionDay = actionDay;
+    c.EndTime = endTime;
+    c.Kind = (byte) CandleKindType.TIME;
+    return c;
+  }
+
+  private static class Pop {
+    final LocalTime time;
+
+    Pop(LocalTime time) {
+      this.time = time;
+    }
+  }
+
+  private static class Idle {
+    final int millis;
+
+    Idle(int millis) {
+      this.millis = millis;
+    }
+  }
+
+  private static class Add {
+    final String instrumentID;
 
-    Product() {
+    Add(String instrumentID) {
+      this.instrumentID = instrumentID;
     }
+  }
 
-    public SingleCandle acquireInstrument(String instrID) {
-      return candles.computeIfAbsent(instrID, SingleCandle::new);
+  /*
+  Instruments of a product, and the tick time of the product for event time.
+   */
+  private static class Product {
+    final String productID;
+    int[] members = new int[8];
+    int size = 0;
+    // Tick time, millis from the start of the day of the first tick.
+    long dayBase = 0, maxEvent = NONE, closing = NONE;
+    String actionDay;
+    // Held ticks ordered by tick time and arrival sequence.
+    long[] heapTime, heapSeq;
+    CDepthMarketData[] heapTick;
+    int heapSize = 0;
+    long sequence = 0;
+
+    Product(String productID) {
+      this.productID = productID;
     }
 
-    public void removeInstrument(String instrID) {
-      this.candles.remove(instrID);
+    void add(int instrument) {
+      if (this.size == this.members.length)
+        this.members = Arrays.copyOf(this.members, this.size << 1);
+      this.members[this.size++] = instrument;
     }
 
-    public void registerDuration(Duration du) {
-      if (du == null) {
-        throw new NullPointerException("duration null");
+    /*
+    Put millis of day on the tick timeline, which is nearest to the latest tick
+    time so that a session crossing midnight keeps going forward.
+     */
+    long align(int ofDay) {
+      long t = this.dayBase + ofDay;
+      if (this.maxEvent != NONE) {
+        if (t < this.maxEvent - DAY / 2)
+          t += DAY;
+        else if (t > this.maxEvent + DAY / 2)
+          t -= DAY;
       }
-      synchronized (this.candles) {
-        for (var c : this.candles.values()) {
-          c.register(du);
-        }
+      return t;
+    }
+
+    long toEventTime(int ofDay) {
+      var t = align(ofDay);
+      if (this.maxEvent == NONE || t > this.maxEvent) {
+        this.maxEvent = t;
+        this.dayBase = t - ofDay;
       }
+      return t;
     }
 
-    public Set<CCandle> peak(Duration du) {
-      if (du == null) {
-        throw new NullPointerException("duration null");
+    /*
+    Binary heap of ticks ordered by tick time, and arrival for the same time so
+    ticks of one instrument keep their order.
+     */
+    void offer(long time, CDepthMarketData md) {
+      if (this.heapTick == null) {
+        this.heapTime = new long[64];
+        this.heapSeq = new long[64];
+        this.heapTick = new CDepthMarketData[64];
+      } else if (this.heapSize == this.heapTick.length) {
+        this.heapTime = Arrays.copyOf(this.heapTime, this.heapSize << 1);
+        this.heapSeq = Arrays.copyOf(this.heapSeq, this.heapSize << 1);
+        this.heapTick = Arrays.copyOf(this.heapTick, this.heapSize << 1);
       }
-      var r = new HashSet<CCandle>();
-      synchronized (this.candles) {
-        for (var c : this.candles.values()) {
-          r.add(c.peak(du, global.getTradingDay()));
-        }
+      var seq = this.sequence++;
+      int i = this.heapSize++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!before(time, seq, parent))
+          break;
+        move(parent, i);
+        i = parent;
       }
-      return r;
+      set(i, time, seq, md);
     }
 
-    public Set<CCandle> pop(Duration du) {
-      if (du == null) {
-        throw new IllegalArgumentException("duration null");
+    CDepthMarketData poll() {
+      var top = this.heapTick[0];
+      int n = --this.heapSize;
+      var time = this.heapTime[n];
+      var seq = this.heapSeq[n];
+      var md = this.heapTick[n];
+      this.heapTick[n] = null;
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= n)
+          break;
+        if (child + 1 < n && before(this.heapTime[child + 1],
+            this.heapSeq[child + 1], child))
+          ++child;
+        if (!before(this.heapTime[child], this.heapSeq[child], time, seq))
+          break;
+        move(child, i);
+        i = child;
       }
-      var r = new HashSet<CCandle>();
-      synchronized (this.candles) {
-        for (var c : this.candles.values()) {
-          var candle = c.pop(du, global.getTradingDay());
-          r.add(candle);
-        }
-      }
-      return r;
+      if (n > 0)
+        set(i, time, seq, md);
+      return top;
+    }
+
+    private boolean before(long time, long seq, int i) {
+      return before(time, seq, this.heapTime[i], this.heapSeq[i]);
+    }
+
+    private static boolean before(long time1, long seq1, long time2,
+                                  long seq2) {
+      return time1 < time2 || (time1 == time2 && seq1 < seq2);
+    }
+
+    private void move(int from, int to) {
+      set(to, this.heapTime[from], this.heapSeq[from], this.heapTick[from]);
     }
 
-    public void update(CDepthMarketData md) {
-      acquireInstrument(md.InstrumentID).update(md);
+    private void set(int i, long time, long seq, CDepthMarketData md) {
+      this.heapTime[i] = time;
+      this.heapSeq[i] = seq;
+      this.heapTick[i] = md;
     }
   }
 }
@@ -31,45 +31,37 @@ package com.nabiki.centre.md;
 import com.nabiki.centre.config.Global;
 import com.nabiki.commons.ctpobj.CCandle;
 import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.CandleKindType;
 import com.nabiki.commons.utils.Utils;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
 
+/**
+ * Candle reader and writer backed by {@link CandleStore}. Candles in CSV files
+ * of old data directories are imported and exported with
+ * {@link CandleRW#importCsv(Path)} and {@link CandleRW#exportCsv(Path)}.
+ *
+ * <p>Candles from router are appended on a writer thread of the instance, so
+ * the router doesn't wait for disk.
+ * </p>
+ */
 public class CandleRW extends CandleAccess implements MarketDataReceiver {
-  private final Path candleDir;
   private final Global global;
-  private final Map<String, Map<Integer, File>> files = new ConcurrentHashMap<>();
+  private final CandleStore store;
+  private final ExecutorService writer;
 
-  public CandleRW(Global cfg) {
+  public CandleRW(Global cfg) throws IOException {
     this.global = cfg;
-    this.candleDir = getPath(this.global);
-    loadInstrFiles();
-  }
-
-  private void loadInstrFiles() {
-    if (!Files.exists(this.candleDir))
-      return;
-    this.candleDir.toFile().listFiles(file -> {
-      var n = file.getName();
-      var ns = n.substring(0, n.indexOf(".csv")).split("_");
-      if (ns.length == 2) {
-        try {
-          getInstrFiles(ns[0]).put(Integer.parseInt(ns[1]), file);
-        } catch (Throwable th) {
-          th.printStackTrace();
-          global.getLogger().warning(
-              "incorrect candle file name: " + n);
-        }
-      }
-      return false;
+    this.store = new CandleStore(getPath(this.global));
+    this.writer = Executors.newSingleThreadExecutor(r -> {
+      var t = new Thread(r, "candle-writer");
+      t.setDaemon(true);
+      return t;
     });
   }
 
@@ -81,35 +73,103 @@ public class CandleRW extends CandleAccess implements MarketDataReceiver {
       return Path.of("");
   }
 
-  private Map<Integer, File> getInstrFiles(String instrumentID) {
-    var instrFiles = this.files.get(instrumentID);
-    if (instrFiles == null) {
-      instrFiles = new ConcurrentHashMap<>();
-      this.files.put(instrumentID, instrFiles);
+  public CandleStore getStore() {
+    return this.store;
+  }
+
+  public List<CCandle> queryCandle(String instrID) {
+    return this.store.query(instrID);
+  }
+
+  /**
+   * Import candles from CSV files named {@code <instrument>_<minute>.csv} in
+   * the directory. Candles of a file are sorted by time before appended.
+   *
+   * @param csvDir directory of CSV files
+   * @return number of imported candles
+   * @throws IOException fail listing directory or writing store
+   */
+  public int importCsv(Path csvDir) throws IOException {
+    int count = 0;
+    try (var files = Files.list(csvDir)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        if (!file.getFileName().toString().endsWith(".csv"))
+          continue;
+        var candles = new ArrayList<>(super.read(file.toFile()));
+        candles.sort((c1, c2) -> Long.compare(
+            CandleStore.toTime(c1.ActionDay, c1.UpdateTime),
+            CandleStore.toTime(c2.ActionDay, c2.UpdateTime)));
+        for (var c : candles) {
+          if (this.store.append(c))
+            ++count;
+        }
+      }
     }
-    return instrFiles;
+    this.store.flush();
+    return count;
   }
 
-  private File getFile(String instrumentID, int minute) throws IOException {
-    var instrFiles = getInstrFiles(instrumentID);
-    File file = instrFiles.get(minute);
-    if (file == null) {
-      var path = Path.of(this.candleDir.toString(),
-          instrumentID + "_" + minute + ".csv");
-      Utils.createFile(path, false);
-      file = path.toFile();
-      instrFiles.put(minute, file);
+  /**
+   * Export candles to CSV files named {@code <instrument>_<minute>.csv} in the
+   * directory.
+   *
+   * @param csvDir target directory
+   * @return number of exported candles
+   * @throws IOException fail creating directory
+   */
+  public int exportCsv(Path csvDir) throws IOException {
+    int count = 0;
+    Files.createDirectories(csvDir);
+    for (var instrID : this.store.getInstrumentIDs()) {
+      for (var minute : this.store.getMinutes(instrID)) {
+        var candles = this.store.query(instrID, minute, Long.MIN_VALUE,
+            Long.MAX_VALUE);
+        var file = Path.of(csvDir.toString(),
+            instrID + "_" + minute + ".csv").toFile();
+        Files.deleteIfExists(file.toPath());
+        super.write(file, candles);
+        count += candles.size();
+      }
     }
-    return file;
+    return count;
   }
 
-  public List<CCandle> queryCandle(String instrID) {
-    var candles = new LinkedList<CCandle>();
-    for (var f : getInstrFiles(instrID).values())
-      candles.addAll(super.read(f));
-    // Sort candles.
-    candles.sort(Comparator.comparing(c -> (c.ActionDay + c.UpdateTime)));
-    return candles;
+  /**
+   * Wait for the received candles to be appended, then force the store to
+   * disk.
+   *
+   * @param millis max milliseconds to wait
+   * @return {@code true} if the store is flushed, {@code false} if it times out
+   * @throws InterruptedException interrupted while waiting
+   */
+  public boolean flush(long millis) throws InterruptedException {
+    try {
+      var f = this.writer.submit(this.store::flush);
+      f.get(millis, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (RejectedExecutionException e) {
+      this.store.flush();
+      return true;
+    } catch (ExecutionException | TimeoutException e) {
+      this.global.getLogger().warning(Utils.formatLog(
+          "fail flushing candles", null, e.getMessage(), null));
+      return false;
+    }
+  }
+
+  /**
+   * Stop the writer after the received candles are appended, and force the
+   * store to disk. Candles received after close are dropped.
+   */
+  public void close() {
+    this.writer.shutdown();
+    try {
+      if (!this.writer.awaitTermination(1, TimeUnit.MINUTES))
+        this.global.getLogger().warning("candle writer close timeout");
+    } catch (InterruptedException e) {
+      this.global.getLogger().warning("candle writer close interrupted");
+    }
+    this.store.flush();
   }
 
   @Override
@@ -119,12 +179,27 @@ public class CandleRW extends CandleAccess implements MarketDataReceiver {
 
   @Override
   public void candleReceived(CCandle candle) {
+    // Store keeps time candles by minute, bars are only routed.
+    if (candle.Kind != 0 && candle.Kind != CandleKindType.TIME)
+      return;
+    try {
+      this.writer.execute(() -> append(candle));
+    } catch (RejectedExecutionException ignored) {
+      // Closed.
+    }
+  }
+
+  private void append(CCandle candle) {
     try {
-      super.write(getFile(candle.InstrumentID, candle.Minute), candle);
+      if (!this.store.append(candle))
+        this.global.getLogger().warning(Utils.formatLog(
+            "candle out of order", candle.InstrumentID,
+            candle.Minute + "m at " + candle.ActionDay + " "
+                + candle.UpdateTime, null));
     } catch (IOException e) {
-      global.getLogger().warning(
-          "fail writing candle " + candle.InstrumentID
-              + "(" + candle.Minute + ")");
+      this.global.getLogger().warning(Utils.formatLog(
+          "fail writing candle", candle.InstrumentID,
+          candle.Minute + "m, " + e.getMessage(), null));
     }
   }
 }
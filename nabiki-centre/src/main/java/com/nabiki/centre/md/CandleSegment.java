@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CandleKindType;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Memory-mapped columnar file of the candles of an instrument and a duration.
+
+ Layout: [header][column 0]...[column 11], each column has capacity slots.
+ Header: [int magic][int version][int count][int capacity]
+ Columns: time key, open, high, low, close, average, open interest, volume,
+ trading day, action day, update time and end time. Time key is
+ yyyyMMddHHmmss of action day and update time, and it is ascending so range
+ query is a binary search. Strings are kept in 8 ASCII bytes.
+
+ A segment never grows. When it is full, the store rolls to a new segment
+ file, so a mapped file is never replaced or remapped.
+ */
+class CandleSegment {
+  private static final int MAGIC = 0x4E43444C, VERSION = 1, HEADER = 16;
+  static final int CAPACITY = 4096;
+  private static final int TEXT = 8;
+  private static final int[] WIDTHS = {8, 8, 8, 8, 8, 8, 8, 4, TEXT, TEXT,
+      TEXT, TEXT};
+  private static final int KEY = 0, OPEN = 1, HIGH = 2, LOW = 3, CLOSE = 4,
+      AVERAGE = 5, OPEN_INTEREST = 6, VOLUME = 7, TRADING_DAY = 8,
+      ACTION_DAY = 9, UPDATE_TIME = 10, END_TIME = 11;
+
+  private final String instrumentID;
+  private final int minute;
+  private MappedByteBuffer buffer;
+  private int count, capacity;
+
+  CandleSegment(Path file, String instrumentID, int minute)
+      throws IOException {
+    this(file, instrumentID, minute, CAPACITY);
+  }
+
+  CandleSegment(Path file, String instrumentID, int minute, int capacity)
+      throws IOException {
+    this.instrumentID = instrumentID;
+    this.minute = minute;
+    if (Files.exists(file) && Files.size(file) >= HEADER) {
+      map(file, Files.size(file));
+      if (this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION)
+        throw new IOException("not a candle segment: " + file);
+      this.count = this.buffer.getInt(8);
+      this.capacity = this.buffer.getInt(12);
+    } else {
+      create(file, capacity);
+      map(file, size(capacity));
+      this.capacity = capacity;
+      this.count = 0;
+    }
+  }
+
+  static long toKey(String actionDay, String updateTime) {
+    return digits(actionDay, 8) * 1000000L + digits(updateTime, 6);
+  }
+
+  synchronized int size() {
+    return this.count;
+  }
+
+  synchronized long lastKey() {
+    return this.count == 0 ? Long.MIN_VALUE : getLong(KEY, this.count - 1);
+  }
+
+  synchronized boolean isFull() {
+    return this.count == this.capacity;
+  }
+
+  /*
+   Append candle at the end, or overwrite the last one if they have the same
+   time. The candle must not be earlier than the last one, and a full segment
+   only takes an overwrite.
+   */
+  synchronized boolean append(CCandle candle) {
+    var key = toKey(candle.ActionDay, candle.UpdateTime);
+    var last = lastKey();
+    if (key < last)
+      return false;
+    if (key == last) {
+      put(this.count - 1, key, candle);
+      return true;
+    }
+    if (this.count == this.capacity)
+      return false;
+    put(this.count, key, candle);
+    // Count is written after the row, so a crash doesn't leave a half row.
+    this.buffer.putInt(8, ++this.count);
+    return true;
+  }
+
+  private void put(int i, long key, CCandle candle) {
+    putLong(KEY, i, key);
+    putDouble(OPEN, i, candle.OpenPrice);
+    putDouble(HIGH, i, candle.HighestPrice);
+    putDouble(LOW, i, candle.LowestPrice);
+    putDouble(CLOSE, i, candle.ClosePrice);
+    putDouble(AVERAGE, i, candle.AveragePrice);
+    putDouble(OPEN_INTEREST, i, candle.OpenInterest);
+    this.buffer.putInt(offset(VOLUME, i), candle.Volume);
+    putText(TRADING_DAY, i, candle.TradingDay);
+    putText(ACTION_DAY, i, candle.ActionDay);
+    putText(UPDATE_TIME, i, candle.UpdateTime);
+    putText(END_TIME, i, candle.EndTime);
+  }
+
+  /*
+   Get candles whose time keys are in [from, to].
+   */
+  synchronized List<CCandle> query(long from, long to) {
+    return query(from, to, 0, Integer.MAX_VALUE);
+  }
+
+  /*
+   Get at most limit candles in [from, to], skipping the first offset ones.
+   */
+  synchronized List<CCandle> query(long from, long to, int offset, int limit) {
+    var r = new ArrayList<CCandle>(Math.min(limit, 1024));
+    for (int i = lowerBound(from) + offset; i < this.count && r.size() < limit;
+         ++i) {
+      if (getLong(KEY, i) > to)
+        break;
+      r.add(get(i));
+    }
+    return r;
+  }
+
+  /*
+   Count candles in [from, to].
+   */
+  synchronized int count(long from, long to) {
+    if (from > to)
+      return 0;
+    var end = to == Long.MAX_VALUE ? this.count : lowerBound(to + 1);
+    return Math.max(0, end - lowerBound(from));
+  }
+
+  synchronized void force() {
+    this.buffer.force();
+  }
+
+  private int lowerBound(long key) {
+    int lo = 0, hi = this.count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (getLong(KEY, mid) < key)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  private CCandle get(int i) {
+    var c = new CCandle();
+    c.InstrumentID = this.instrumentID;
+    c.Minute = this.minute;
+    c.Kind = (byte) CandleKindType.TIME;
+    c.OpenPrice = getDouble(OPEN, i);
+    c.HighestPrice = getDouble(HIGH, i);
+    c.LowestPrice = getDouble(LOW, i);
+    c.ClosePrice = getDouble(CLOSE, i);
+    c.AveragePrice = getDouble(AVERAGE, i);
+    c.OpenInterest = getDouble(OPEN_INTEREST, i);
+    c.Volume = this.buffer.getInt(offset(VOLUME, i));
+    c.TradingDay = getText(TRADING_DAY, i);
+    c.ActionDay = getText(ACTION_DAY, i);
+    c.UpdateTime = getText(UPDATE_TIME, i);
+    c.EndTime = getText(END_TIME, i);
+    return c;
+  }
+
+  private void map(Path path, long size) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  private static void create(Path path, int capacity) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      var header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          size(capacity));
+      header.putInt(0, MAGIC);
+      header.putInt(4, VERSION);
+      header.putInt(8, 0);
+      header.putInt(12, capacity);
+    }
+  }
+
+  private static long size(int capacity) {
+    long row = 0;
+    for (var w : WIDTHS)
+      row += w;
+    return HEADER + row * capacity;
+  }
+
+  private int offset(int column, int index) {
+    return offset(column, index, this.capacity);
+  }
+
+  private static int offset(int column, int index, int capacity) {
+    int off = HEADER;
+    for (int i = 0; i < column; ++i)
+      off += WIDTHS[i] * capacity;
+    return off + WIDTHS[column] * index;
+  }
+
+  private long getLong(int column, int index) {
+    return this.buffer.getLong(offset(column, index));
+  }
+
+  private void putLong(int column, int index, long value) {
+    this.buffer.putLong(offset(column, index), value);
+  }
+
+  private double getDouble(int column, int index) {
+    return this.buffer.getDouble(offset(column, index));
+  }
+
+  private void putDouble(int column, int index, double value) {
+    this.buffer.putDouble(offset(column, index), value);
+  }
+
+  private String getText(int column, int index) {
+    var bytes = new byte[TEXT];
+    var off = offset(column, index);
+    int n = 0;
+    while (n < TEXT && (bytes[n] = this.buffer.get(off + n)) != 0)
+      ++n;
+    return new String(bytes, 0, n, StandardCharsets.US_ASCII);
+  }
+
+  private void putText(int column, int index, String value) {
+    var off = offset(column, index);
+    var bytes = value == null ? new byte[0]
+        : value.getBytes(StandardCharsets.US_ASCII);
+    for (int n = 0; n < TEXT; ++n)
+      this.buffer.put(off + n, n < bytes.length ? bytes[n] : 0);
+  }
+
+  private static long digits(String s, int n) {
+    long r = 0;
+    int c = 0;
+    if (s != null) {
+      for (int i = 0; i < s.length() && c < n; ++i) {
+        var ch = s.charAt(i);
+        if (ch >= '0' && ch <= '9') {
+          r = r * 10 + (ch - '0');
+          ++c;
+        }
+      }
+    }
+    for (; c < n; ++c)
+      r *= 10;
+    return r;
+  }
+}
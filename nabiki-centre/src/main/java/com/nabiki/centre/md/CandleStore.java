@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.commons.ctpobj.CCandle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Binary candle store with memory-mapped columnar segments per instrument
+ * and duration in minutes. Candles are appended in time order, and range
+ * queries by time are binary searches on the segments.
+ *
+ * <p>Segments have fixed capacity. The first segment of an instrument and
+ * minute is file {@code <instrument>_<minute>.cdl}, and when it is full the
+ * store rolls to {@code <instrument>_<minute>_<n>.cdl} with n from 1.
+ * </p>
+ */
+public class CandleStore {
+  public static final String SUFFIX = ".cdl";
+
+  private final Path dir;
+  private final int capacity;
+  private final Map<String, Map<Integer, List<CandleSegment>>> segments
+      = new ConcurrentHashMap<>();
+
+  public CandleStore(Path dir) throws IOException {
+    this(dir, CandleSegment.CAPACITY);
+  }
+
+  CandleStore(Path dir, int capacity) throws IOException {
+    this.dir = dir;
+    this.capacity = capacity;
+    Files.createDirectories(dir);
+    load();
+  }
+
+  /**
+   * Append the candle to the segments of its instrument and minute. A candle
+   * of the same time as the last one overwrites it.
+   *
+   * @param candle candle
+   * @return {@code true} if the candle is appended, {@code false} if it is
+   * earlier than the last candle of the instrument and minute
+   * @throws IOException fail creating segment
+   */
+  public boolean append(CCandle candle) throws IOException {
+    var series = getSeries(candle.InstrumentID, candle.Minute);
+    synchronized (series) {
+      var last = series.get(series.size() - 1);
+      if (last.append(candle))
+        return true;
+      if (!last.isFull()
+          || CandleSegment.toKey(candle.ActionDay, candle.UpdateTime)
+          < last.lastKey())
+        return false;
+      var next = new CandleSegment(
+          getFile(candle.InstrumentID, candle.Minute, series.size()),
+          candle.InstrumentID, candle.Minute, this.capacity);
+      series.add(next);
+      return next.append(candle);
+    }
+  }
+
+  /**
+   * Get candles of the instrument and minute between the specified times,
+   * inclusive. The time is action day and update time, in yyyyMMddHHmmss.
+   *
+   * @param instrumentID instrument ID
+   * @param minute       duration of candle in minutes
+   * @param from         start time, inclusive
+   * @param to           end time, inclusive
+   * @return candles in ascending time
+   */
+  public List<CCandle> query(String instrumentID, int minute, long from,
+                             long to) {
+    return query(instrumentID, minute, from, to, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Get a page of candles of the instrument and minute between the specified
+   * times, inclusive.
+   *
+   * @param instrumentID instrument ID
+   * @param minute       duration of candle in minutes
+   * @param from         start time, inclusive
+   * @param to           end time, inclusive
+   * @param offset       number of candles to skip from start
+   * @param limit        max number of candles
+   * @return candles in ascending time
+   */
+  public List<CCandle> query(String instrumentID, int minute, long from,
+                             long to, int offset, int limit) {
+    var r = new ArrayList<CCandle>();
+    for (var segment : findSeries(instrumentID, minute)) {
+      if (r.size() >= limit)
+        break;
+      if (segment.lastKey() < from)
+        continue;
+      // Skip whole segments by count, so paging doesn't read them.
+      if (offset > 0) {
+        var n = segment.count(from, to);
+        if (offset >= n) {
+          offset -= n;
+          continue;
+        }
+      }
+      var page = segment.query(from, to, offset, limit - r.size());
+      if (page.isEmpty())
+        break;
+      r.addAll(page);
+      offset = 0;
+    }
+    return r;
+  }
+
+  /**
+   * Count candles of the instrument and minute between the specified times,
+   * inclusive.
+   *
+   * @param instrumentID instrument ID
+   * @param minute       duration of candle in minutes
+   * @param from         start time, inclusive
+   * @param to           end time, inclusive
+   * @return number of candles
+   */
+  public int count(String instrumentID, int minute, long from, long to) {
+    int count = 0;
+    for (var segment : findSeries(instrumentID, minute))
+      count += segment.count(from, to);
+    return count;
+  }
+
+  /**
+   * Get all candles of the instrument in ascending time.
+   *
+   * @param instrumentID instrument ID
+   * @return candles of all durations
+   */
+  public List<CCandle> query(String instrumentID) {
+    var r = new ArrayList<CCandle>();
+    for (var minute : getMinutes(instrumentID))
+      r.addAll(query(instrumentID, minute, Long.MIN_VALUE, Long.MAX_VALUE));
+    // Each segment is sorted, and the stable sort merges them.
+    r.sort(Comparator.comparingLong(
+        c -> CandleSegment.toKey(c.ActionDay, c.UpdateTime)));
+    return r;
+  }
+
+  /**
+   * Get the candle durations in minutes of the instrument.
+   *
+   * @param instrumentID instrument ID
+   * @return durations in minutes
+   */
+  public Set<Integer> getMinutes(String instrumentID) {
+    var instr = this.segments.get(instrumentID);
+    return instr == null ? new TreeSet<>() : new TreeSet<>(instr.keySet());
+  }
+
+  /**
+   * Get all instrument IDs in store.
+   *
+   * @return instrument IDs
+   */
+  public Set<String> getInstrumentIDs() {
+    return new TreeSet<>(this.segments.keySet());
+  }
+
+  /**
+   * Force all segments to disk.
+   */
+  public void flush() {
+    for (var instr : this.segments.values())
+      for (var series : instr.values())
+        for (var segment : series)
+          segment.force();
+  }
+
+  /**
+   * Get time of candle in yyyyMMddHHmmss from its action day and update time.
+   * Non-digit characters are ignored, and missing digits are zeros.
+   *
+   * @param actionDay  action day like 20201016
+   * @param updateTime update time like 09:30:00
+   * @return time in yyyyMMddHHmmss
+   */
+  public static long toTime(String actionDay, String updateTime) {
+    return CandleSegment.toKey(actionDay, updateTime);
+  }
+
+  private List<CandleSegment> findSeries(String instrumentID, int minute) {
+    var instr = this.segments.get(instrumentID);
+    var series = instr == null ? null : instr.get(minute);
+    return series == null ? Collections.emptyList() : series;
+  }
+
+  private List<CandleSegment> getSeries(String instrumentID, int minute)
+      throws IOException {
+    var instr = this.segments.computeIfAbsent(instrumentID,
+        k -> new ConcurrentHashMap<>());
+    var series = instr.get(minute);
+    if (series == null) {
+      synchronized (instr) {
+        series = instr.get(minute);
+        if (series == null) {
+          series = new CopyOnWriteArrayList<>();
+          series.add(new CandleSegment(getFile(instrumentID, minute, 0),
+              instrumentID, minute, this.capacity));
+          instr.put(minute, series);
+        }
+      }
+    }
+    return series;
+  }
+
+  private Path getFile(String instrumentID, int minute, int seq) {
+    var name = instrumentID + "_" + minute + (seq == 0 ? "" : "_" + seq);
+    return Path.of(this.dir.toString(), name + SUFFIX);
+  }
+
+  private void load() throws IOException {
+    var found = new HashMap<String, Map<Integer, TreeMap<Integer, Path>>>();
+    try (var files = Files.list(this.dir)) {
+      for (var file : (Iterable<Path>) files::iterator) {
+        var n = file.getFileName().toString();
+        if (!n.endsWith(SUFFIX))
+          continue;
+        var ns = n.substring(0, n.length() - SUFFIX.length()).split("_");
+        if (ns.length != 2 && ns.length != 3)
+          continue;
+        int minute, seq;
+        try {
+          minute = Integer.parseInt(ns[1]);
+          seq = ns.length == 3 ? Integer.parseInt(ns[2]) : 0;
+        } catch (NumberFormatException e) {
+          continue;
+        }
+        found.computeIfAbsent(ns[0], k -> new HashMap<>())
+            .computeIfAbsent(minute, k -> new TreeMap<>())
+            .put(seq, file);
+      }
+    }
+    // Segments are opened in sequence, so the last one takes appends.
+    for (var instr : found.entrySet()) {
+      for (var minute : instr.getValue().entrySet()) {
+        var series = new CopyOnWriteArrayList<CandleSegment>();
+        for (var file : minute.getValue().values())
+          series.add(new CandleSegment(file, instr.getKey(), minute.getKey(),
+              this.capacity));
+        this.segments.computeIfAbsent(instr.getKey(),
+            k -> new ConcurrentHashMap<>()).put(minute.getKey(), series);
+      }
+    }
+  }
+}
@@ -32,146 +32,345 @@ import com.nabiki.centre.config.UncaughtWriter;
 import com.nabiki.commons.ctpobj.CCandle;
 import com.nabiki.commons.ctpobj.CDepthMarketData;
 
-import java.util.*;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class MarketDataRouter implements Runnable {
-  private final Set<MarketDataReceiver> receivers = new HashSet<>();
-  private final Queue<CDepthMarketData> depths = new LinkedList<>();
-  private final Queue<CCandle> candles = new LinkedList<>();
+  /*
+  Depth not fitting in queue, routed after the consumer passes the queue
+  position at the time it overflowed, so it is never routed before the
+  earlier depths of the same instrument.
+   */
+  private static class Overflowed {
+    final CDepthMarketData depth;
+    final long position;
 
-  private final ReentrantLock lock = new ReentrantLock();
-  private final Condition cond = lock.newCondition();
+    Overflowed(CDepthMarketData depth, long position) {
+      this.depth = depth;
+      this.position = position;
+    }
+  }
+
+  public final static int DEFAULT_CAPACITY = 1 << 16;
+  private final static long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /*
+  Receivers getting all market data, like candle writer.
+   */
+  private final Set<MarketDataReceiver> receivers = new CopyOnWriteArraySet<>();
+  /*
+  Instrument ID -> receivers subscribing the instrument. Sets are copy-on-write
+  because ticks are routed far more often than sessions subscribe.
+   */
+  private final Map<String, Set<MarketDataReceiver>> subscribers
+      = new ConcurrentHashMap<>();
+  /*
+  Depths and candles in arrival order.
+   */
+  private final RingBuffer<Object> queue;
+  /*
+  Instrument ID -> latest depth that doesn't fit in the full queue.
+   */
+  private final Map<String, Overflowed> overflow
+      = new ConcurrentHashMap<>();
+  private final WaitStrategy waitStrategy;
+  private final OverflowPolicy overflowPolicy;
+  private final AtomicLong overflowCount = new AtomicLong(0),
+      droppedCount = new AtomicLong(0);
+  private volatile boolean parked = false;
+  private volatile int peakDepth = 0;
+  /*
+  Queue head at which the earliest overflowed depth becomes routable, only
+  accessed by the daemon.
+   */
+  private long nextDrain = 0;
 
   private final Thread daemon;
 
   public MarketDataRouter() {
+    this(DEFAULT_CAPACITY, WaitStrategy.PARK, OverflowPolicy.DROP_OLDEST);
+  }
+
+  public MarketDataRouter(
+      int capacity,
+      WaitStrategy waitStrategy,
+      OverflowPolicy overflowPolicy) {
+    if (waitStrategy == null)
+      throw new NullPointerException("wait strategy null");
+    if (overflowPolicy == null)
+      throw new NullPointerException("overflow policy null");
+    this.queue = new RingBuffer<>(capacity);
+    this.waitStrategy = waitStrategy;
+    this.overflowPolicy = overflowPolicy;
     daemon = new Thread(this);
     daemon.setUncaughtExceptionHandler(UncaughtWriter.getDefault());
     daemon.start();
   }
 
+  /**
+   * Add receiver that receives market data of all instruments.
+   *
+   * @param recv receiver
+   */
   public void addReceiver(MarketDataReceiver recv) {
     if (recv == null)
       throw new NullPointerException("receiver null");
-    synchronized (this.receivers) {
-      this.receivers.add(recv);
-    }
+    this.receivers.add(recv);
   }
 
+  /**
+   * Remove the receiver and all its subscriptions.
+   *
+   * @param recv receiver
+   */
   public void removeReceiver(MarketDataReceiver recv) {
     if (recv == null)
       throw new NullPointerException("receiver null");
-    synchronized (this.receivers) {
-      this.receivers.remove(recv);
-    }
+    this.receivers.remove(recv);
+    for (var instrID : this.subscribers.keySet())
+      unsubscribe(instrID, recv);
+  }
+
+  /**
+   * Subscribe market data of the specified instrument. The receiver only
+   * receives market data of the instruments it subscribes.
+   *
+   * @param instrID instrument ID
+   * @param recv    receiver
+   */
+  public void subscribe(String instrID, MarketDataReceiver recv) {
+    if (instrID == null)
+      throw new NullPointerException("instrument ID null");
+    if (recv == null)
+      throw new NullPointerException("receiver null");
+    // Add in compute so it doesn't race with removing an empty set.
+    this.subscribers.compute(instrID, (k, v) -> {
+      if (v == null)
+        v = new CopyOnWriteArraySet<>();
+      v.add(recv);
+      return v;
+    });
+  }
+
+  /**
+   * Unsubscribe market data of the specified instrument.
+   *
+   * @param instrID instrument ID
+   * @param recv    receiver
+   */
+  public void unsubscribe(String instrID, MarketDataReceiver recv) {
+    if (instrID == null)
+      throw new NullPointerException("instrument ID null");
+    if (recv == null)
+      throw new NullPointerException("receiver null");
+    this.subscribers.computeIfPresent(instrID, (k, v) -> {
+      v.remove(recv);
+      return v.isEmpty() ? null : v;
+    });
+  }
+
+  /**
+   * Get number of market data waiting to be routed.
+   *
+   * @return queue depth
+   */
+  public int getQueueDepth() {
+    return this.queue.size() + this.overflow.size();
+  }
+
+  /**
+   * Get the largest number of market data waiting in queue since the router
+   * starts.
+   *
+   * @return peak queue depth
+   */
+  public int getPeakQueueDepth() {
+    return this.peakDepth;
+  }
+
+  public int getCapacity() {
+    return this.queue.capacity();
+  }
+
+  /**
+   * Get number of times market data arrives at a full queue.
+   *
+   * @return overflow count
+   */
+  public long getOverflowCount() {
+    return this.overflowCount.get();
+  }
+
+  /**
+   * Get number of depths dropped because a later depth of the same
+   * instrument arrives before the queue drains.
+   *
+   * @return dropped count
+   */
+  public long getDroppedCount() {
+    return this.droppedCount.get();
   }
 
   public void route(CDepthMarketData depth) {
-    offerDepth(depth);
-    trySignal();
+    if (depth == null)
+      throw new NullPointerException("depth null");
+    if (this.overflowPolicy == OverflowPolicy.BLOCK) {
+      put(depth);
+      return;
+    }
+    // Once an instrument overflows, its later depths also go to overflow
+    // until it drains, or a later depth in queue would be routed first.
+    if (this.overflow.containsKey(depth.InstrumentID)
+        || !this.queue.offer(depth)) {
+      this.overflowCount.incrementAndGet();
+      var o = new Overflowed(depth, this.queue.tail());
+      if (this.overflow.put(depth.InstrumentID, o) != null)
+        this.droppedCount.incrementAndGet();
+    }
+    wakeUp();
   }
 
   public void route(CCandle candle) {
-    offerCandle(candle);
-    trySignal();
+    if (candle == null)
+      throw new NullPointerException("candle null");
+    put(candle);
   }
 
   public void route(Collection<CCandle> candles) {
-    offerCandle(candles);
-    trySignal();
+    if (candles == null || candles.size() == 0)
+      return;
+    for (var c : candles)
+      route(c);
   }
 
-  private void trySignal() {
-    if (this.lock.tryLock()) {
-      try {
-        this.cond.signal();
-      } finally {
-        this.lock.unlock();
-      }
+  /*
+  Put the market data into queue, wait if queue is full.
+   */
+  private void put(Object data) {
+    if (!this.queue.offer(data)) {
+      this.overflowCount.incrementAndGet();
+      do {
+        wakeUp();
+        Thread.yield();
+      } while (!this.queue.offer(data));
     }
+    wakeUp();
   }
 
-  private void offerDepth(CDepthMarketData depth) {
-    synchronized (this.depths) {
-      this.depths.add(depth);
-    }
+  private void wakeUp() {
+    if (this.parked)
+      LockSupport.unpark(this.daemon);
   }
 
-  private void offerCandle(CCandle candle) {
-    synchronized (this.candles) {
-      this.candles.add(candle);
+  private void idle() {
+    switch (this.waitStrategy) {
+      case BUSY_SPIN:
+        Thread.onSpinWait();
+        break;
+      case YIELD:
+        Thread.yield();
+        break;
+      default:
+        this.parked = true;
+        // Check again after setting the flag so a producer that didn't see
+        // the flag must have published data before the check.
+        if (this.queue.size() == 0 && this.overflow.isEmpty())
+          LockSupport.parkNanos(this, PARK_NANOS);
+        this.parked = false;
+        break;
     }
   }
 
-  private void offerCandle(Collection<CCandle> candles) {
-    if (candles == null || candles.size() == 0)
-      return;
-    synchronized (this.candles) {
-      this.candles.addAll(candles);
+  private void dispatch(Object data) {
+    if (data instanceof CDepthMarketData) {
+      var md = (CDepthMarketData) data;
+      for (var recv : this.receivers)
+        deliver(recv, md);
+      var subs = this.subscribers.get(md.InstrumentID);
+      if (subs != null)
+        for (var recv : subs)
+          deliver(recv, md);
+    } else {
+      var candle = (CCandle) data;
+      for (var recv : this.receivers)
+        deliver(recv, candle);
+      var subs = this.subscribers.get(candle.InstrumentID);
+      if (subs != null)
+        for (var recv : subs)
+          deliver(recv, candle);
     }
   }
 
-  private CDepthMarketData pollDepth() {
-    synchronized (this.depths) {
-      return this.depths.poll();
+  /*
+  Route the overflowed depths whose earlier data has left the queue. It runs
+  between queued data as soon as the head passes the earliest overflow, so an
+  overflowed instrument doesn't wait for the whole queue to drain.
+   */
+  private boolean drainOverflow() {
+    boolean routed = false;
+    long head = this.queue.head(), next = Long.MAX_VALUE;
+    for (var entry : this.overflow.entrySet()) {
+      var o = entry.getValue();
+      // Earlier data is still in queue.
+      if (o.position > head) {
+        next = Math.min(next, o.position);
+        continue;
+      }
+      // Producer may replace it with a later depth.
+      if (this.overflow.remove(entry.getKey(), o)) {
+        dispatch(o.depth);
+        routed = true;
+      }
     }
+    // Depths overflowing later have later positions, except when nothing is
+    // left, then check again on next round.
+    this.nextDrain = next == Long.MAX_VALUE ? 0 : next;
+    return routed;
   }
 
-  private CCandle pollCandle() {
-    synchronized (this.candles) {
-      return this.candles.poll();
-    }
+  private void updatePeak() {
+    var depth = this.queue.size();
+    if (depth > this.peakDepth)
+      this.peakDepth = depth;
   }
 
-  private boolean hasData() {
-    int mdCnt, cndCnt;
-    synchronized (this.depths) {
-      mdCnt = this.depths.size();
+  private void deliver(MarketDataReceiver recv, CDepthMarketData depth) {
+    try {
+      recv.depthReceived(depth);
+    } catch (Throwable th) {
+      th.printStackTrace();
     }
-    synchronized (this.candles) {
-      cndCnt = this.candles.size();
+  }
+
+  private void deliver(MarketDataReceiver recv, CCandle candle) {
+    try {
+      recv.candleReceived(candle);
+    } catch (Throwable th) {
+      th.printStackTrace();
     }
-    return mdCnt + cndCnt > 0;
   }
 
   @Override
   public void run() {
     while (!Thread.interrupted()) {
-      this.lock.lock();
       try {
-        while (!hasData())
-          this.cond.await(1, TimeUnit.SECONDS);
-        CCandle candle;
-        CDepthMarketData md;
-        // Depth.
-        while ((md = pollDepth()) != null)
-          synchronized (this.receivers) {
-            for (var recv : this.receivers) {
-              try {
-                recv.depthReceived(md);
-              } catch (Throwable th) {
-                th.printStackTrace();
-              }
-            }
-          }
-        // Candle.
-        while ((candle = pollCandle()) != null)
-          synchronized (this.receivers) {
-            for (var recv : this.receivers) {
-              try {
-                recv.candleReceived(candle);
-              } catch (Throwable th) {
-                th.printStackTrace();
-              }
-            }
-          }
+        boolean routed = false;
+        if (this.queue.head() >= this.nextDrain && !this.overflow.isEmpty())
+          routed = drainOverflow();
+        var data = this.queue.poll();
+        if (data != null) {
+          updatePeak();
+          dispatch(data);
+        } else if (!routed)
+          idle();
       } catch (Throwable th) {
         th.printStackTrace();
-      } finally {
-        this.lock.unlock();
       }
     }
   }
@@ -28,51 +28,15 @@
 
 package com.nabiki.centre.md;
 
-import com.nabiki.commons.ctpobj.CCandle;
-import com.nabiki.commons.ctpobj.CDepthMarketData;
-
-import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-public class SingleCandle {
-  private final Duration minuteDuration = Duration.ofMinutes(1);
-  private final String instrumentID;
-  private final Map<Duration, CandleProgress> progress = new ConcurrentHashMap<>();
-
-  SingleCandle(String instrumentID) {
-    this.instrumentID = instrumentID;
-  }
-
-  void update(CDepthMarketData md) {
-    if (md.InstrumentID.compareTo(instrumentID) != 0)
-      throw new IllegalArgumentException("wrong instrument");
-    for (var c : progress.values()) {
-      c.update(md);
-    }
-  }
-
-  void register(Duration du) {
-    progress.computeIfAbsent(
-        du,
-        d -> new CandleProgress(instrumentID, (int) d.dividedBy(minuteDuration)));
-  }
-
-  CCandle peak(Duration du, String tradingDay) {
-    synchronized (progress) {
-      if (progress.containsKey(du))
-        return progress.get(du).peak(tradingDay);
-      else
-        throw new IllegalArgumentException("duration not found");
-    }
-  }
-
-  CCandle pop(Duration du, String tradingDay) {
-    synchronized (progress) {
-      if (progress.containsKey(du))
-        return progress.get(du).pop(tradingDay);
-      else
-        throw new IllegalArgumentException("duration not found");
-    }
-  }
+/**
+ * What the router does when a depth arrives and its queue is full.
+ * <ul>
+ *   <li>DROP_OLDEST: keep only the latest depth of each instrument until the
+ *   queue drains, the older depths are dropped.</li>
+ *   <li>BLOCK: block the producer until the queue has space.</li>
+ * </ul>
+ * Candles are never dropped, they always block on a full queue.
+ */
+public enum OverflowPolicy {
+  DROP_OLDEST, BLOCK
 }
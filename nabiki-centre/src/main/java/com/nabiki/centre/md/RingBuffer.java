@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Bounded multi-producer single-consumer queue over a preallocated array. Each
+slot has a sequence telling whether it is free for the producer at a position
+or published for the consumer, so neither side takes a lock.
+ */
+class RingBuffer<T> {
+  private final Object[] slots;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong(0);
+  private volatile long head = 0;
+
+  RingBuffer(int capacity) {
+    if (capacity < 2)
+      throw new IllegalArgumentException("capacity too small: " + capacity);
+    // Round up to power of two.
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    if (size <= 0)
+      throw new IllegalArgumentException("capacity too large: " + capacity);
+    this.slots = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    this.mask = size - 1;
+    for (int i = 0; i < size; ++i)
+      this.sequences.set(i, i);
+  }
+
+  /*
+  Put the element at tail, return false if the queue is full.
+   */
+  boolean offer(T element) {
+    if (element == null)
+      throw new NullPointerException("element null");
+    long t;
+    int idx;
+    while (true) {
+      t = this.tail.get();
+      idx = (int) (t & this.mask);
+      long dif = this.sequences.get(idx) - t;
+      if (dif == 0) {
+        if (this.tail.compareAndSet(t, t + 1))
+          break;
+      } else if (dif < 0) {
+        // Consumer has not freed the slot of previous round.
+        return false;
+      }
+      // Else another producer took the position, retry.
+    }
+    this.slots[idx] = element;
+    // Publish to consumer.
+    this.sequences.lazySet(idx, t + 1);
+    return true;
+  }
+
+  /*
+  Take the element at head, return null if nothing is published. Only called
+  by the single consumer thread.
+   */
+  @SuppressWarnings("unchecked")
+  T poll() {
+    long h = this.head;
+    int idx = (int) (h & this.mask);
+    if (this.sequences.get(idx) != h + 1)
+      return null;
+    var element = (T) this.slots[idx];
+    this.slots[idx] = null;
+    // Free the slot for the producer of next round.
+    this.sequences.lazySet(idx, h + this.slots.length);
+    this.head = h + 1;
+    return element;
+  }
+
+  /*
+  Number of positions ever taken by producers.
+   */
+  long tail() {
+    return this.tail.get();
+  }
+
+  /*
+  Number of elements ever taken by the consumer.
+   */
+  long head() {
+    return this.head;
+  }
+
+  int size() {
+    long s = this.tail.get() - this.head;
+    return (int) Math.max(0, Math.min(s, this.slots.length));
+  }
+
+  int capacity() {
+    return this.slots.length;
+  }
+}
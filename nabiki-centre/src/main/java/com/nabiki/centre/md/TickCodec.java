@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+Delta encoding of ticks of one instrument. Fields are ordered by name, every
+field is written as its difference from the same field of previous tick:
+- double: price scaled by 10^4 and written as zig-zag var-long delta with the
+  lowest bit 0, or 1 followed by the 8 raw bytes if the value can't be scaled,
+  like the max double CTP uses for empty price.
+- int: zig-zag var-int delta.
+- String: var-int tag, 0 for same as previous, 1 for null, 2 followed by
+  zig-zag var-int delta of second of day for time like HH:mm:ss, otherwise
+  3 + length of UTF-8 bytes followed by the bytes.
+A codec keeps the previous tick, so it encodes or decodes a single sequence of
+ticks, and is reset at the start of every block.
+ */
+class TickCodec {
+  private final static double SCALE = 10000.0D;
+  private final static double MAX_SCALED = 1.0E14;
+  private final static Field[] doubles, ints, strings;
+
+  static {
+    var fields = CDepthMarketData.class.getFields();
+    Arrays.sort(fields, Comparator.comparing(Field::getName));
+    doubles = select(fields, double.class);
+    ints = select(fields, int.class);
+    strings = select(fields, String.class);
+    if (doubles.length + ints.length + strings.length != countInstance(fields))
+      throw new IllegalStateException("unsupported field in depth market data");
+  }
+
+  private final long[] prevDouble = new long[doubles.length];
+  private final int[] prevInt = new int[ints.length];
+  private final String[] prevString = new String[strings.length];
+  private final int[] prevSecond = new int[strings.length];
+
+  private static Field[] select(Field[] fields, Class<?> type) {
+    return Arrays.stream(fields)
+        .filter(f -> !Modifier.isStatic(f.getModifiers()) && f.getType() == type)
+        .toArray(Field[]::new);
+  }
+
+  private static int countInstance(Field[] fields) {
+    return (int) Arrays.stream(fields)
+        .filter(f -> !Modifier.isStatic(f.getModifiers()))
+        .count();
+  }
+
+  void reset() {
+    Arrays.fill(this.prevDouble, 0L);
+    Arrays.fill(this.prevInt, 0);
+    Arrays.fill(this.prevString, null);
+    Arrays.fill(this.prevSecond, 0);
+  }
+
+  void encode(CDepthMarketData md, Output out) {
+    try {
+      for (int i = 0; i < doubles.length; ++i)
+        writeDouble(i, doubles[i].getDouble(md), out);
+      for (int i = 0; i < ints.length; ++i) {
+        var v = ints[i].getInt(md);
+        out.writeVarLong(zigzag((long) v - this.prevInt[i]));
+        this.prevInt[i] = v;
+      }
+      for (int i = 0; i < strings.length; ++i)
+        writeString(i, (String) strings[i].get(md), out);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  CDepthMarketData decode(ByteBuffer in) {
+    var md = new CDepthMarketData();
+    try {
+      for (int i = 0; i < doubles.length; ++i)
+        doubles[i].setDouble(md, readDouble(i, in));
+      for (int i = 0; i < ints.length; ++i) {
+        this.prevInt[i] = (int) (this.prevInt[i] + unzigzag(readVarLong(in)));
+        ints[i].setInt(md, this.prevInt[i]);
+      }
+      for (int i = 0; i < strings.length; ++i)
+        strings[i].set(md, readString(i, in));
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+    return md;
+  }
+
+  private void writeDouble(int i, double v, Output out) {
+    var scaled = Math.round(v * SCALE);
+    if (Math.abs(v) < MAX_SCALED && scaled / SCALE == v) {
+      out.writeVarLong(zigzag(scaled - this.prevDouble[i]) << 1);
+      this.prevDouble[i] = scaled;
+    } else {
+      out.writeVarLong(1);
+      out.writeLong(Double.doubleToRawLongBits(v));
+    }
+  }
+
+  private double readDouble(int i, ByteBuffer in) {
+    var tag = readVarLong(in);
+    if ((tag & 1) != 0)
+      return Double.longBitsToDouble(in.getLong());
+    this.prevDouble[i] += unzigzag(tag >>> 1);
+    return this.prevDouble[i] / SCALE;
+  }
+
+  private void writeString(int i, String s, Output out) {
+    if (s == null) {
+      out.writeVarLong(this.prevString[i] == null ? 0 : 1);
+    } else if (s.equals(this.prevString[i])) {
+      out.writeVarLong(0);
+    } else {
+      var millis = CandleEngine.parseMillis(s, 0);
+      if (millis >= 0) {
+        var second = millis / 1000;
+        out.writeVarLong(2);
+        out.writeVarLong(zigzag(second - this.prevSecond[i]));
+        this.prevSecond[i] = second;
+      } else {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeVarLong(3 + bytes.length);
+        out.writeBytes(bytes);
+      }
+    }
+    this.prevString[i] = s;
+  }
+
+  private String readString(int i, ByteBuffer in) {
+    var tag = readVarLong(in);
+    String s;
+    if (tag == 0) {
+      s = this.prevString[i];
+    } else if (tag == 1) {
+      s = null;
+    } else if (tag == 2) {
+      this.prevSecond[i] += (int) unzigzag(readVarLong(in));
+      var sec = this.prevSecond[i];
+      s = new String(new char[]{
+          digit(sec / 36000), digit(sec / 3600 % 10), ':',
+          digit(sec / 600 % 6), digit(sec / 60 % 10), ':',
+          digit(sec / 10 % 6), digit(sec % 10)});
+    } else {
+      var bytes = new byte[(int) (tag - 3)];
+      in.get(bytes);
+      s = new String(bytes, StandardCharsets.UTF_8);
+    }
+    this.prevString[i] = s;
+    return s;
+  }
+
+  private static char digit(int d) {
+    return (char) ('0' + d);
+  }
+
+  private static long zigzag(long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  private static long unzigzag(long v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  private static long readVarLong(ByteBuffer in) {
+    long r = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      var b = in.get();
+      r |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return r;
+    }
+    throw new BufferUnderflowException();
+  }
+
+  /*
+  Growable byte buffer reused for the blocks of a segment.
+   */
+  static class Output {
+    private byte[] bytes = new byte[4096];
+    private int size = 0;
+
+    private void ensure(int more) {
+      if (this.size + more > this.bytes.length)
+        this.bytes = Arrays.copyOf(this.bytes,
+            Math.max(this.bytes.length << 1, this.size + more));
+    }
+
+    void writeVarLong(long v) {
+      ensure(10);
+      while ((v & ~0x7FL) != 0) {
+        this.bytes[this.size++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      this.bytes[this.size++] = (byte) v;
+    }
+
+    void writeLong(long v) {
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8)
+        this.bytes[this.size++] = (byte) (v >>> shift);
+    }
+
+    void writeBytes(byte[] b) {
+      ensure(b.length);
+      System.arraycopy(b, 0, this.bytes, this.size, b.length);
+      this.size += b.length;
+    }
+
+    byte[] array() {
+      return this.bytes;
+    }
+
+    int size() {
+      return this.size;
+    }
+
+    void clear() {
+      this.size = 0;
+    }
+  }
+}
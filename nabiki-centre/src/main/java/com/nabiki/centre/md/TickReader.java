@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Sequential reader of a tick file written by {@link TickRecorder}. Ticks are
+ * returned in the order they were recorded. A block cut off at the end of file,
+ * by a crash for example, ends the reading.
+ */
+public class TickReader implements Closeable {
+  private final DataInputStream in;
+  private final TickCodec codec = new TickCodec();
+  private final Inflater inflater = new Inflater();
+  private byte[] compressed = new byte[4096], raw = new byte[4096];
+  private ByteBuffer block = ByteBuffer.allocate(0);
+  private int remaining = 0;
+
+  public TickReader(Path path) throws IOException {
+    this.in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+  }
+
+  /**
+   * Read next tick.
+   *
+   * @return next tick, or {@code null} if there is no more tick
+   * @throws IOException if fail reading the file or the file is corrupted
+   */
+  public CDepthMarketData next() throws IOException {
+    while (this.remaining == 0)
+      if (!readBlock())
+        return null;
+    try {
+      var md = this.codec.decode(this.block);
+      --this.remaining;
+      return md;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("corrupted tick block", e);
+    }
+  }
+
+  private boolean readBlock() throws IOException {
+    int magic, count, rawLength, length;
+    try {
+      magic = this.in.readInt();
+      count = this.in.readInt();
+      rawLength = this.in.readInt();
+      length = this.in.readInt();
+      if (magic != TickRecorder.MAGIC || count < 0 || rawLength < 0 || length < 0)
+        throw new IOException("corrupted tick block header");
+      if (this.compressed.length < length)
+        this.compressed = new byte[length];
+      this.in.readFully(this.compressed, 0, length);
+    } catch (EOFException e) {
+      return false;
+    }
+    if (this.raw.length < rawLength)
+      this.raw = new byte[rawLength];
+    try {
+      this.inflater.reset();
+      this.inflater.setInput(this.compressed, 0, length);
+      if (this.inflater.inflate(this.raw, 0, rawLength) != rawLength)
+        throw new IOException("corrupted tick block");
+    } catch (DataFormatException e) {
+      throw new IOException("corrupted tick block", e);
+    }
+    this.block = ByteBuffer.wrap(this.raw, 0, rawLength);
+    this.codec.reset();
+    this.remaining = count;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.inflater.end();
+    this.in.close();
+  }
+}
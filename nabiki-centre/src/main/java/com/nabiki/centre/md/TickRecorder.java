@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.UncaughtWriter;
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.utils.Utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+/**
+ * Tick recorder keeps every tick routed by {@link MarketDataRouter} in files
+ * {@code <trading day>/<instrument>.tik} under the tick directory. Ticks are
+ * queued to a writer thread, so the router thread never waits for disk. If the
+ * queue is full the tick is dropped and counted.
+ *
+ * <p>The writer delta-encodes the ticks of an instrument into blocks of at most
+ * {@link #BLOCK_TICKS} ticks, and appends a block to the file compressed once it
+ * is full or older than {@link #FLUSH_MILLIS}. Every block starts with a fresh
+ * delta state, so a file is read block by block with {@link TickReader}.
+ * </p>
+ *
+ * <p>Call {@link #close(long)} on shutdown to write the ticks still in the
+ * writer and stop it.
+ * </p>
+ */
+public class TickRecorder implements MarketDataReceiver {
+  public final static int DEFAULT_CAPACITY = 1 << 16;
+  public final static int BLOCK_TICKS = 1024;
+  public final static long FLUSH_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  final static int MAGIC = 0x4E544B31;
+  final static int HEADER_SIZE = 16;
+
+  private final static String SUFFIX = ".tik";
+  private final static long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private final static long SCAN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final Global global;
+  private final Path root;
+  private final RingBuffer<Object> queue;
+  private final AtomicLong droppedCount = new AtomicLong(0);
+  private final Thread writer;
+  private volatile boolean closed = false;
+
+  // Below are only accessed by the writer thread.
+  private final Map<String, Segment> segments = new HashMap<>();
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+  private byte[] compressed = new byte[4096];
+  private long lastScan = 0;
+
+  public TickRecorder(Global cfg) {
+    this(cfg, getPath(cfg), DEFAULT_CAPACITY);
+  }
+
+  public TickRecorder(Global cfg, Path root, int capacity) {
+    this.global = cfg;
+    this.root = root;
+    this.queue = new RingBuffer<>(capacity);
+    this.writer = new Thread(this::write);
+    this.writer.setDaemon(true);
+    this.writer.setUncaughtExceptionHandler(UncaughtWriter.getDefault());
+    this.writer.start();
+  }
+
+  private static Path getPath(Global cfg) {
+    var dirs = cfg.getRootDirectory().recursiveGet("dir.tick");
+    if (dirs.size() > 0)
+      return dirs.iterator().next().path();
+    else
+      return Path.of("");
+  }
+
+  @Override
+  public void depthReceived(CDepthMarketData depth) {
+    if (this.closed || !this.queue.offer(depth))
+      this.droppedCount.incrementAndGet();
+  }
+
+  @Override
+  public void candleReceived(CCandle candle) {
+  }
+
+  /**
+   * Get number of ticks dropped because the writer queue is full.
+   *
+   * @return number of dropped ticks
+   */
+  public long getDroppedCount() {
+    return this.droppedCount.get();
+  }
+
+  /**
+   * Write all ticks received so far to files and wait for the writer to finish.
+   *
+   * @param timeout max milliseconds to wait
+   * @return {@code true} if the writer finishes in time, {@code false} if it
+   * times out or the recorder is closed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean flush(long timeout) throws InterruptedException {
+    if (this.closed)
+      return false;
+    var command = new Flush();
+    while (!this.queue.offer(command)) {
+      if (this.closed)
+        return false;
+      Thread.yield();
+    }
+    return command.latch.await(timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Write all ticks received so far to files, then stop the writer and release
+   * its compressor. Ticks received after close are dropped.
+   *
+   * @param timeout max milliseconds to wait for each of flush and stop
+   * @return {@code true} if the writer flushes and stops in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean close(long timeout) throws InterruptedException {
+    if (this.closed)
+      return !this.writer.isAlive();
+    var flushed = flush(timeout);
+    this.closed = true;
+    this.writer.interrupt();
+    this.writer.join(timeout);
+    return flushed && !this.writer.isAlive();
+  }
+
+  /**
+   * Get trading days that have ticks recorded, in ascending order.
+   *
+   * @return trading days
+   * @throws IOException if fail listing the tick directory
+   */
+  public Set<String> getDays() throws IOException {
+    var r = new TreeSet<String>();
+    if (!Files.isDirectory(this.root))
+      return r;
+    try (var s = Files.list(this.root)) {
+      s.filter(Files::isDirectory)
+          .forEach(p -> r.add(p.getFileName().toString()));
+    }
+    return r;
+  }
+
+  /**
+   * Get instruments that have ticks recorded on the trading day.
+   *
+   * @param day trading day
+   * @return instrument IDs
+   * @throws IOException if fail listing the directory of the day
+   */
+  public Set<String> getInstrumentIDs(String day) throws IOException {
+    var r = new TreeSet<String>();
+    var dir = this.root.resolve(day);
+    if (!Files.isDirectory(dir))
+      return r;
+    try (var s = Files.list(dir)) {
+      s.map(p -> p.getFileName().toString())
+          .filter(n -> n.endsWith(SUFFIX))
+          .forEach(n -> r.add(n.substring(0, n.length() - SUFFIX.length())));
+    }
+    return r;
+  }
+
+  /**
+   * Open ticks of the instrument on the trading day for sequential reading. The
+   * ticks still in the writer are not read, {@link #flush(long)} before opening
+   * to read them.
+   *
+   * @param day          trading day
+   * @param instrumentID instrument ID
+   * @return tick reader
+   * @throws IOException if fail opening the file
+   */
+  public TickReader open(String day, String instrumentID) throws IOException {
+    return new TickReader(getFile(day, instrumentID));
+  }
+
+  private Path getFile(String day, String instrumentID) {
+    return this.root.resolve(day).resolve(instrumentID + SUFFIX);
+  }
+
+  private void write() {
+    try {
+      while (!Thread.interrupted()) {
+        try {
+          var command = this.queue.poll();
+          if (command instanceof CDepthMarketData) {
+            record((CDepthMarketData) command);
+          } else if (command instanceof Flush) {
+            flushAll();
+            ((Flush) command).latch.countDown();
+          } else {
+            scan();
+            LockSupport.parkNanos(this, PARK_NANOS);
+          }
+        } catch (Throwable th) {
+          global.getLogger().severe(
+              Utils.formatLog("tick recorder", null, th.getMessage(), null));
+        }
+      }
+    } finally {
+      // The deflater is only used by the writer, so it ends here.
+      this.deflater.end();
+    }
+  }
+
+  private void record(CDepthMarketData md) {
+    if (md.InstrumentID == null || md.InstrumentID.length() == 0)
+      return;
+    var day = md.TradingDay;
+    if (day == null || day.length() == 0)
+      day = this.global.getTradingDay();
+    if (day == null || day.length() == 0)
+      day = Utils.getDay(LocalDate.now(), "yyyyMMdd");
+    var key = day + "/" + md.InstrumentID;
+    var s = this.segments.get(key);
+    if (s == null) {
+      s = new Segment(getFile(day, md.InstrumentID));
+      this.segments.put(key, s);
+    }
+    var now = System.currentTimeMillis();
+    if (s.count == 0) {
+      s.codec.reset();
+      s.created = now;
+    }
+    s.codec.encode(md, s.out);
+    s.updated = now;
+    if (++s.count >= BLOCK_TICKS)
+      flush(s);
+  }
+
+  /*
+  Flush blocks older than flush period, and forget the segments not updated for
+  a while, like those of the previous trading day.
+   */
+  private void scan() {
+    var now = System.currentTimeMillis();
+    if (now - this.lastScan < SCAN_MILLIS)
+      return;
+    this.lastScan = now;
+    var iter = this.segments.values().iterator();
+    while (iter.hasNext()) {
+      var s = iter.next();
+      if (s.count > 0 && now - s.created >= FLUSH_MILLIS)
+        flush(s);
+      else if (s.count == 0 && now - s.updated >= 10 * FLUSH_MILLIS)
+        iter.remove();
+    }
+  }
+
+  private void flushAll() {
+    for (var s : this.segments.values())
+      flush(s);
+    this.segments.clear();
+  }
+
+  private void flush(Segment s) {
+    if (s.count == 0)
+      return;
+    try {
+      var length = compress(s.out);
+      this.header.clear();
+      this.header.putInt(MAGIC)
+          .putInt(s.count)
+          .putInt(s.out.size())
+          .putInt(length)
+          .flip();
+      Files.createDirectories(s.path.getParent());
+      try (var ch = FileChannel.open(s.path, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+        var body = ByteBuffer.wrap(this.compressed, 0, length);
+        while (this.header.hasRemaining() || body.hasRemaining())
+          ch.write(new ByteBuffer[]{this.header, body});
+      }
+    } catch (IOException e) {
+      global.getLogger().warning(
+          Utils.formatLog("fail writing ticks", s.path.toString(),
+              e.getMessage(), null));
+    } finally {
+      // Drop the block on failure, or it fails again with more ticks.
+      s.out.clear();
+      s.count = 0;
+    }
+  }
+
+  private int compress(TickCodec.Output out) {
+    this.deflater.reset();
+    this.deflater.setInput(out.array(), 0, out.size());
+    this.deflater.finish();
+    int length = 0;
+    while (!this.deflater.finished()) {
+      if (length == this.compressed.length)
+        this.compressed = Arrays.copyOf(this.compressed, length << 1);
+      length += this.deflater.deflate(this.compressed, length,
+          this.compressed.length - length);
+    }
+    return length;
+  }
+
+  private static class Segment {
+    final Path path;
+    final TickCodec codec = new TickCodec();
+    final TickCodec.Output out = new TickCodec.Output();
+    int count = 0;
+    long created, updated;
+
+    Segment(Path path) {
+      this.path = path;
+    }
+  }
+
+  private static class Flush {
+    final CountDownLatch latch = new CountDownLatch(1);
+  }
+}
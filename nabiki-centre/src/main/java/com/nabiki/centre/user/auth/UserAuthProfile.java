@@ -34,12 +34,24 @@ public class UserAuthProfile {
   public static class InstrumentAuth {
     public String InstrumentID;
     public OrderOffset AllowOffset;
+    // Max volume to open in a trading day, zero for no limit.
+    public int MaxOpenVolume;
+  }
+
+  public static class RiskLimit {
+    // Max volume of an order, zero for no limit.
+    public int MaxOrderVolume;
+    // Max orders inserted in a second, zero for no limit.
+    public int MaxOrderPerSecond;
+    // Reject order that crosses the user's own working order.
+    public boolean CheckSelfTrade;
   }
 
   public String UserID;
   public String Password;
   public boolean CanLogin;
   public List<InstrumentAuth> InstrumentAuths;
+  public RiskLimit Limit;
 
   public UserAuthProfile() {
   }
@@ -35,17 +35,21 @@ import com.nabiki.centre.user.core.plain.UserState;
 import com.nabiki.commons.ctpobj.*;
 import com.nabiki.commons.utils.Utils;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ActiveRequest {
-  private final Map<String, FrozenAccount> frozenAccount = new HashMap<>();
-  private final Map<String, FrozenPositionDetail> frozenPosition = new HashMap<>();
+  // Written by user's writer and read by queries.
+  private final Map<String, FrozenAccount> frozenAccount
+      = new ConcurrentHashMap<>();
+  private final Map<String, FrozenPositionDetail> frozenPosition
+      = new ConcurrentHashMap<>();
   private final String uuid = Utils.getUID();
   private final User user;
+  private final UserWriter writer;
   private final OrderProvider orderProvider;
   private final Global global;
   private final CInputOrder order;
@@ -58,25 +62,29 @@ public class ActiveRequest {
   ActiveRequest(
       CInputOrder order,
       User user,
+      UserWriter writer,
       OrderProvider provider,
       Global cfg) {
     this.user = user;
+    this.writer = writer;
     this.orderProvider = provider;
     this.global = cfg;
-    this.order = Utils.deepCopy(order);
+    this.order = new CInputOrder(order);
     this.action = null;
   }
 
   ActiveRequest(
       CInputOrderAction action,
       User user,
+      UserWriter writer,
       OrderProvider mgr,
       Global cfg) {
     this.user = user;
+    this.writer = writer;
     this.orderProvider = mgr;
     this.global = cfg;
     this.order = null;
-    this.action = Utils.deepCopy(action);
+    this.action = new CInputOrderAction(action);
   }
 
   public boolean isAction() {
@@ -96,9 +104,7 @@ public class ActiveRequest {
   }
 
   Map<String, FrozenPositionDetail> getFrozenPosition() {
-    synchronized (this.user) {
-      return this.frozenPosition;
-    }
+    return this.frozenPosition;
   }
 
   public User getUser() {
@@ -106,17 +112,19 @@ public class ActiveRequest {
   }
 
   FrozenAccount getFrozenAccount() {
-    synchronized (this.user) {
-      if (this.frozenAccount.size() == 0)
-        return null;
-      return this.frozenAccount.values().iterator().next();
-    }
+    var itr = this.frozenAccount.values().iterator();
+    return itr.hasNext() ? itr.next() : null;
   }
 
+  /**
+   * Execute the order on user's writer and wait until it is done, so the
+   * execution response is ready on return.
+   */
   void execOrder() {
-    synchronized (this.user) {
+    this.writer.call(() -> {
       directExecOrder();
-    }
+      return null;
+    });
   }
 
   private void directExecOrder() {
@@ -142,7 +150,7 @@ public class ActiveRequest {
     } else {
       switch (this.order.CombOffsetFlag) {
         case CombOffsetFlagType.OFFSET_OPEN:
-          insertOpen(Utils.deepCopy(this.order), instrInfo);
+          insertOpen(new CInputOrder(this.order), instrInfo);
           break;
         case CombOffsetFlagType.OFFSET_CLOSE:
         case CombOffsetFlagType.OFFSET_CLOSE_TODAY:
@@ -150,7 +158,7 @@ public class ActiveRequest {
         case CombOffsetFlagType.OFFSET_FORCE_CLOSE:
         case CombOffsetFlagType.OFFSET_FORCE_OFF:
         case CombOffsetFlagType.OFFSET_LOCAL_FORCE_CLOSE:
-          insertClose(Utils.deepCopy(this.order), instrInfo);
+          insertClose(new CInputOrder(this.order), instrInfo);
           break;
         default:
           this.global.getLogger().warning("unknown offset flag: "
@@ -161,9 +169,10 @@ public class ActiveRequest {
   }
 
   void execAction() {
-    synchronized (this.user) {
+    this.writer.call(() -> {
       directExecAction();
-    }
+      return null;
+    });
   }
 
   private void directExecAction() {
@@ -183,8 +192,7 @@ public class ActiveRequest {
     }
     boolean hasSent = false;
     for (var ref : refs) {
-      var realAction = Utils.deepCopy(this.action);
-      Objects.requireNonNull(realAction, "action deep copy null");
+      var realAction = new CInputOrderAction(this.action);
       // Check order return.
       var rtn = mapper.getRtnOrder(ref);
       if (rtn != null && (rtn.OrderStatus == OrderStatusType.CANCELED
@@ -318,14 +326,11 @@ public class ActiveRequest {
   }
 
   public CRspInfo getExecRsp() {
-    synchronized (this.user) {
-      return this.execRsp;
-    }
+    return this.execRsp;
   }
 
   private CInputOrder toCloseOrder(FrozenPositionDetail pd) {
-    var cls = Utils.deepCopy(getOriginOrder());
-    Objects.requireNonNull(cls, "failed deep copy");
+    var cls = new CInputOrder(getOriginOrder());
     cls.VolumeTotalOriginal = (int) pd.getFrozenVolume();
     if (pd.getSingleFrozenPosition().TradingDay
         .compareTo(this.global.getTradingDay()) != 0) {
@@ -342,17 +347,15 @@ public class ActiveRequest {
    * Update return order. The only flag it cares is {@code CANCEL} because
    * canceling an order affects the position and frozen money.
    *
+   * <p>The update is queued to user's writer and the method returns at once,
+   * so the caller is not blocked by other requests of the user.
+   * </p>
+   *
    * @param rtn return order
    */
   public void updateRtnOrder(COrder rtn) {
-    synchronized (this.user) {
-      try {
-        directUpdateRtnOrder(rtn);
-      } catch (Throwable th) {
-        th.printStackTrace();
-        global.getLogger().warning(th.getMessage());
-      }
-    }
+    var copy = new COrder(rtn);
+    this.writer.run(() -> directUpdateRtnOrder(copy));
   }
 
   private void directUpdateRtnOrder(COrder rtn) {
@@ -438,9 +441,17 @@ public class ActiveRequest {
    * current position.
    * </p>
    *
+   * <p>The update is queued to user's writer and the method returns at once.
+   * </p>
+   *
    * @param trade trade response
    */
   public void updateTrade(CTrade trade) {
+    var copy = new CTrade(trade);
+    this.writer.run(() -> checkUpdateTrade(copy));
+  }
+
+  private void checkUpdateTrade(CTrade trade) {
     if (order == null) {
       global.getLogger().severe(Utils.formatLog(
           "null original input order",
@@ -464,14 +475,7 @@ public class ActiveRequest {
       global.getLogger().severe(String.format(
           "update an canceled order. [%s][%s]", trade.OrderRef, getRequestUUID()));
     } else {
-      synchronized (this.user) {
-        try {
-          directUpdateTrade(trade);
-        } catch (Throwable th) {
-          th.printStackTrace();
-          global.getLogger().warning(th.getMessage());
-        }
-      }
+      directUpdateTrade(trade);
     }
   }
 
@@ -36,9 +36,12 @@ import com.nabiki.commons.utils.Utils;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class ActiveUser {
   private final User user;
+  private final UserWriter writer;
   private final Global global;
   private final OrderProvider orderProvider;
   private final Map<String, ActiveRequest> requests = new ConcurrentHashMap<>();
@@ -47,6 +50,7 @@ public class ActiveUser {
     this.user = user;
     this.global = cfg;
     this.orderProvider = orderProvider;
+    this.writer = new UserWriter(user, cfg);
   }
 
   public CRspInfo getExecRsp(String uuid) {
@@ -58,9 +62,25 @@ public class ActiveUser {
   }
 
   public String insertOrder(CInputOrder order) {
-    var active = new ActiveRequest(order, this.user, this.orderProvider,
+    return insertOrder(order, null);
+  }
+
+  /**
+   * Insert order and give its UUID to the specified callback before the order
+   * is sent, so states keyed by the UUID are ready when the first return order
+   * arrives.
+   *
+   * @param order      order to insert
+   * @param beforeSend callback of order UUID, or {@code null}
+   * @return order UUID
+   */
+  public String insertOrder(CInputOrder order, Consumer<String> beforeSend) {
+    var active = new ActiveRequest(order, this.user, this.writer,
+        this.orderProvider,
         this.global);
     this.requests.put(active.getRequestUUID(), active);
+    if (beforeSend != null)
+      beforeSend.accept(active.getRequestUUID());
     try {
       active.execOrder();
     } catch (Throwable th) {
@@ -73,7 +93,8 @@ public class ActiveUser {
   }
 
   public String orderAction(CInputOrderAction action) {
-    var active = new ActiveRequest(action, this.user, this.orderProvider,
+    var active = new ActiveRequest(action, this.user, this.writer,
+        this.orderProvider,
         this.global);
     this.requests.put(active.getRequestUUID(), active);
     try {
@@ -118,156 +139,60 @@ public class ActiveUser {
       return null;
   }
 
+  /*
+   Queries read the latest snapshot published by user's writer, so they never
+   wait for the orders and trades being applied.
+   */
   public CTradingAccount getTradingAccount() {
-    // Call user's method directly, sync here.
-    synchronized (this.user) {
-      CTradingAccount account = this.user.getTradingAccount();
-      account.TradingDay = this.global.getTradingDay();
-      return account;
-    }
+    CTradingAccount account = this.writer.getSnapshot().getTradingAccount();
+    account.TradingDay = this.global.getTradingDay();
+    return account;
   }
 
   public List<CInvestorPositionDetail> getPositionDetail(String instrID) {
-    // Manipulate user's internal data, so sync here.
-    synchronized (this.user) {
-      if (instrID == null || instrID.length() == 0) {
-        var ret = new LinkedList<CInvestorPositionDetail>();
-        for (var instr : this.user.getUserPosition().getPositionMap().keySet())
-          ret.addAll(getInstrPositionDetail(instr));
-        return ret;
-      } else
-        return getInstrPositionDetail(instrID);
-    }
+    return this.writer.getSnapshot().getPositionDetail(instrID);
   }
 
   public List<CInvestorPosition> getPosition(String instrID) {
-    // Manipulate user's internal data, so sync here.
-    synchronized (this.user) {
-      if (instrID == null || instrID.length() == 0) {
-        var ret = new LinkedList<CInvestorPosition>();
-        for (var instr : this.user.getUserPosition().getPositionMap().keySet())
-          ret.addAll(getInstrPosition(instr));
-        return ret;
-      } else
-        return getInstrPosition(instrID);
-    }
+    return this.writer.getSnapshot().getPosition(instrID);
   }
 
-  void settle() {
-    // Call user's method directly, sync here.
-    synchronized (this.user) {
-      this.user.updateTradingDay(global.getTradingDay());
-      this.user.settle(prepare());
-    }
-  }
-
-  private List<CInvestorPositionDetail> getInstrPositionDetail(String instrID) {
-    var r = new LinkedList<CInvestorPositionDetail>();
-    var spec = this.user.getUserPosition().getSpecificPosition(instrID);
-    for (var d : spec)
-      r.add(d.copyRawPosition());
-    return r;
-  }
-
-  private List<CInvestorPosition> getInstrPosition(String instrID) {
-    var ret = new LinkedList<CInvestorPosition>();
-    if (instrID == null || instrID.length() == 0)
-      return ret;
-    var usrPos = this.user.getUserPosition().getSpecificPosition(instrID);
-    if (usrPos == null || usrPos.size() == 0)
-      return ret;
-    var tradingDay = this.global.getTradingDay();
-    if (tradingDay == null || tradingDay.length() == 0)
-      throw new IllegalArgumentException("trading day null");
-    CInvestorPosition lp = null, sp = null;
-    for (var p : usrPos) {
-      var sum = p.getInvestorPosition(tradingDay);
-      if (sum.PosiDirection == PosiDirectionType.LONG) {
-        // Long position.
-        if (lp == null)
-          lp = sum;
-        else
-          lp = add(lp, sum);
-      } else {
-        // Short position.
-        if (sp == null)
-          sp = sum;
-        else
-          sp = add(sp, sum);
-      }
-    }
-    // Add to result set.
-    if (lp != null) {
-      lp.TradingDay = this.global.getTradingDay();
-      ret.add(lp);
-    }
-    if (sp != null) {
-      sp.TradingDay = this.global.getTradingDay();
-      ret.add(sp);
-    }
-    return ret;
+  /**
+   * Settle the user on its writer after the queued updates. The method returns
+   * at once, so users are settled at the same time.
+   *
+   * @param prep settlement information shared by all users
+   * @return future of the settlement
+   */
+  Future<?> settle(SettlementPreparation prep) {
+    return this.writer.submit(() -> {
+      for (var msg : this.user.checkAggregates())
+        this.global.getLogger().warning(String.format(
+            "inconsistent aggregate of user %s: %s",
+            this.user.getUserID(), msg));
+      this.user.updateTradingDay(prep.getTradingDay());
+      this.user.settle(prep);
+      return null;
+    });
   }
 
-  private CInvestorPosition add(
-      CInvestorPosition a,
-      CInvestorPosition b) {
-    a.CloseAmount += b.CloseAmount;
-    a.CloseProfit += b.CloseProfit;
-    a.CloseProfitByDate += b.CloseProfitByDate;
-    a.CloseProfitByTrade += b.CloseProfitByTrade;
-    a.CloseVolume += b.CloseVolume;
-    a.Commission += b.Commission;
-    a.ExchangeMargin += b.ExchangeMargin;
-    a.FrozenCash += b.FrozenCash;
-    a.FrozenCommission += b.FrozenCommission;
-    a.FrozenMargin += b.FrozenMargin;
-    a.LongFrozen += b.LongFrozen;
-    a.LongFrozenAmount += b.LongFrozenAmount;
-    a.OpenAmount += b.OpenAmount;
-    a.OpenVolume += b.OpenVolume;
-    a.OpenCost += b.OpenCost;
-    a.Position += b.Position;
-    a.PositionCost += b.PositionCost;
-    a.PositionProfit += b.PositionProfit;
-    a.PreMargin += b.PreMargin;
-    a.ShortFrozen += b.ShortFrozen;
-    a.ShortFrozenAmount += b.ShortFrozenAmount;
-    a.TodayPosition += b.TodayPosition;
-    a.UseMargin += b.UseMargin;
-    a.YdPosition += b.YdPosition;
-    return Utils.deepCopy(a);
+  /**
+   * Write the user to files on its writer after the queued updates.
+   *
+   * @param mgr user manager that owns the files
+   * @return future of the writing
+   */
+  Future<?> write(UserManager mgr) {
+    return this.writer.read(() -> {
+      mgr.writeUser(this.user);
+      return null;
+    });
   }
 
-  private SettlementPreparation prepare() {
-    SettlementPreparation prep = new SettlementPreparation();
-    prep.prepare(this.global.getTradingDay());
-    for (var i : this.global.getAllInstrInfo()) {
-      // There may be some info missing, but it doesn't matter if we don't
-      // have that position.
-      // It is possible for some instruments that don't have trade for whole
-      // day whose depth md is null. Need to catch exception here and keep
-      // settlement going.
-      try {
-        prep.prepare(i.Instrument);
-        prep.prepare(i.Commission);
-        prep.prepare(i.Margin);
-        var depth = this.global.getDepthMarketData(i.Instrument.InstrumentID);
-        Objects.requireNonNull(depth, "depth null");
-        if (Utils.validPrice(depth.SettlementPrice))
-          prep.prepare(depth);
-        else
-          this.global.getLogger()
-              .warning("no settlement price("
-                  + depth.SettlementPrice + "): "
-                  + i.Instrument.InstrumentID);
-      } catch (Throwable th) {
-        if (i != null && i.Instrument != null)
-          this.global.getLogger()
-              .warning("can't prepare settlement: "
-                  + i.Instrument.InstrumentID
-                  + ", " + th.getMessage());
-      }
-    }
-    return prep;
+  /**
+   * Stop the user's writer. Updates queued before are still applied.
+   */
+  void close() {
+    this.writer.close();
   }
 }
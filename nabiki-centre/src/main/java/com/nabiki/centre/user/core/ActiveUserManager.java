@@ -30,10 +30,16 @@ package com.nabiki.centre.user.core;
 
 import com.nabiki.centre.config.Global;
 import com.nabiki.centre.ctp.OrderProvider;
+import com.nabiki.centre.user.core.plain.SettlementPreparation;
+import com.nabiki.commons.utils.Utils;
 
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class ActiveUserManager {
   private final OrderProvider provider;
@@ -44,7 +50,7 @@ public class ActiveUserManager {
   public ActiveUserManager(OrderProvider provider, Global cfg, Path dataDir) {
     this.provider = provider;
     this.global = cfg;
-    this.userMgr = UserManager.create(dataDir);
+    this.userMgr = UserManager.create(dataDir, cfg);
   }
 
   private void createActive() {
@@ -63,15 +69,98 @@ public class ActiveUserManager {
   }
 
   public void renew() throws Exception {
+    for (var active : this.users.values())
+      active.close();
     this.users.clear();
     this.userMgr.load();
     createActive();
   }
 
+  /**
+   * Settle all users. Settlement information is prepared once and shared by
+   * all users, and users are settled on their writers at the same time. Time
+   * of each step is measured in {@link Global#getPerformance()}.
+   *
+   * @throws Exception if any user fails settlement or users can't be written
+   */
   public void settle() throws Exception {
-    for (var active : this.users.values()) {
-      active.settle();
+    var perf = this.global.getPerformance();
+    var total = perf.start("settle.total");
+    var step = perf.start("settle.prepare");
+    var prep = prepare();
+    step.end();
+    // Settle users in parallel.
+    step = perf.start("settle.users");
+    var futures = new HashMap<String, Future<?>>();
+    for (var entry : this.users.entrySet())
+      futures.put(entry.getKey(), entry.getValue().settle(prep));
+    await(futures, "failed settling user");
+    step.end();
+    // Write users on their writers, so the live users are only read there.
+    step = perf.start("settle.flush");
+    futures.clear();
+    for (var entry : this.users.entrySet())
+      futures.put(entry.getKey(), entry.getValue().write(this.userMgr));
+    await(futures, "failed writing user");
+    step.end();
+    total.end();
+  }
+
+  /*
+   Wait for the tasks of all users, and throw the first error after all are
+   done.
+   */
+  private void await(Map<String, Future<?>> futures, String hint)
+      throws Exception {
+    Exception error = null;
+    for (var entry : futures.entrySet()) {
+      try {
+        entry.getValue().get();
+      } catch (ExecutionException e) {
+        var cause = e.getCause();
+        this.global.getLogger().severe(Utils.formatLog(
+            hint, entry.getKey(), cause.getMessage(), null));
+        if (error == null)
+          error = cause instanceof Exception ? (Exception) cause : e;
+      }
+    }
+    if (error != null)
+      throw error;
+  }
+
+  /*
+   Build settlement information once for all users.
+   */
+  private SettlementPreparation prepare() {
+    SettlementPreparation prep = new SettlementPreparation();
+    prep.prepare(this.global.getTradingDay());
+    for (var i : this.global.getAllInstrInfo()) {
+      // There may be some info missing, but it doesn't matter if we don't
+      // have that position.
+      // It is possible for some instruments that don't have trade for whole
+      // day whose depth md is null. Need to catch exception here and keep
+      // settlement going.
+      try {
+        prep.prepare(i.Instrument);
+        prep.prepare(i.Commission);
+        prep.prepare(i.Margin);
+        var depth = this.global.getDepthMarketData(i.Instrument.InstrumentID);
+        Objects.requireNonNull(depth, "depth null");
+        if (Utils.validPrice(depth.SettlementPrice))
+          prep.prepare(depth);
+        else
+          this.global.getLogger()
+              .warning("no settlement price("
+                  + depth.SettlementPrice + "): "
+                  + i.Instrument.InstrumentID);
+      } catch (Throwable th) {
+        if (i != null && i.Instrument != null)
+          this.global.getLogger()
+              .warning("can't prepare settlement: "
+                  + i.Instrument.InstrumentID
+                  + ", " + th.getMessage());
+      }
     }
-    this.userMgr.flush();
+    return prep;
   }
 }
@@ -77,7 +77,11 @@ public class FrozenAccount {
    * Cancel an open order whose frozen account is also canceled.
    */
   void cancel() {
+    if (this.stage == ProcessStage.CANCELED)
+      return;
+    var volume = getFrozenVolume();
     this.stage = ProcessStage.CANCELED;
+    this.parent.releaseFrozenAccount(this, volume);
   }
 
   /**
@@ -98,6 +102,7 @@ public class FrozenAccount {
       throw new IllegalStateException("not enough frozen shares");
     this.tradedCount += trade.Volume;
     // Update parent.
+    this.parent.releaseFrozenAccount(this, trade.Volume);
     this.parent.applyTrade(trade, instr, comm);
   }
 }
@@ -35,7 +35,6 @@ import com.nabiki.commons.ctpobj.CInstrument;
 import com.nabiki.commons.ctpobj.CInvestorPositionDetail;
 import com.nabiki.commons.ctpobj.CTrade;
 import com.nabiki.commons.ctpobj.DirectionType;
-import com.nabiki.commons.utils.Utils;
 
 public class FrozenPositionDetail {
   // The original position that own this frozen position.
@@ -94,14 +93,19 @@ public class FrozenPositionDetail {
     this.tradedCount += trade.Volume;
     // Update parent.
     var single = toSingleTradedCash(this.frozenSinglePosition, trade, instr);
-    this.parent.closePosition(single, trade.Volume);
+    this.parent.closePosition(this, single, trade.Volume);
+    this.parent.releaseFrozenPosition(this, trade.Volume);
   }
 
   /**
    * Cancel a close order whose frozen volume is all released.
    */
   void cancel() {
+    if (this.stage == ProcessStage.CANCELED)
+      return;
+    var volume = getFrozenVolume();
     this.stage = ProcessStage.CANCELED;
+    this.parent.releaseFrozenPosition(this, volume);
   }
 
   /**
@@ -112,7 +116,7 @@ public class FrozenPositionDetail {
    * @return pre-calculated closed position detail for 1 volume.
    */
   CInvestorPositionDetail getSingleFrozenPosition() {
-    return Utils.deepCopy(this.frozenSinglePosition);
+    return new CInvestorPositionDetail(this.frozenSinglePosition);
   }
 
   /**
@@ -124,7 +128,7 @@ public class FrozenPositionDetail {
   }
 
   AccountFrozenCash getSingleFrozenCash() {
-    return Utils.deepCopy(this.frozenSingleCash);
+    return new AccountFrozenCash(this.frozenSingleCash);
   }
 
   private PositionTradedCash toSingleTradedCash(
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+Field layout of a plain class in the ledger. The schema is written before the
+records it describes, so a record is read back by field name and type after
+fields are added, removed or reordered in the class. Fields no longer in the
+class are skipped and new fields keep their defaults.
+ */
+class LedgerSchema<T> {
+  private static final byte STRING = 1, DOUBLE = 2, INT = 3, BYTE = 4, LONG = 5,
+      BOOLEAN = 6, CHAR = 7;
+
+  private final Class<T> clz;
+  private final String[] names;
+  private final byte[] types;
+  // Field of the class for each entry, null if the class doesn't have it.
+  private final Field[] fields;
+
+  private LedgerSchema(Class<T> clz, String[] names, byte[] types) {
+    this.clz = clz;
+    this.names = names;
+    this.types = types;
+    this.fields = new Field[names.length];
+    for (int i = 0; i < names.length; ++i) {
+      try {
+        var f = clz.getField(names[i]);
+        if (!Modifier.isStatic(f.getModifiers()) && typeOf(f) == types[i])
+          this.fields[i] = f;
+      } catch (NoSuchFieldException ignored) {
+      }
+    }
+  }
+
+  /*
+   Schema of the class as it is now.
+   */
+  static <T> LedgerSchema<T> of(Class<T> clz) {
+    var fs = Arrays.stream(clz.getFields())
+        .filter(f -> !Modifier.isStatic(f.getModifiers()) && typeOf(f) != 0)
+        .sorted(Comparator.comparing(Field::getName))
+        .toArray(Field[]::new);
+    var names = new String[fs.length];
+    var types = new byte[fs.length];
+    for (int i = 0; i < fs.length; ++i) {
+      names[i] = fs[i].getName();
+      types[i] = typeOf(fs[i]);
+    }
+    return new LedgerSchema<>(clz, names, types);
+  }
+
+  /*
+   Schema written in ledger, bound to the class as it is now.
+   */
+  static <T> LedgerSchema<T> read(DataInputStream in, Class<T> clz)
+      throws IOException {
+    int count = in.readInt();
+    if (count < 0 || count > 4096)
+      throw new IOException("bad schema field count " + count);
+    var names = new String[count];
+    var types = new byte[count];
+    for (int i = 0; i < count; ++i) {
+      names[i] = in.readUTF();
+      types[i] = in.readByte();
+      if (types[i] < STRING || types[i] > CHAR)
+        throw new IOException("bad schema field type " + types[i]);
+    }
+    return new LedgerSchema<>(clz, names, types);
+  }
+
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(this.names.length);
+    for (int i = 0; i < this.names.length; ++i) {
+      out.writeUTF(this.names[i]);
+      out.writeByte(this.types[i]);
+    }
+  }
+
+  void writeObject(DataOutputStream out, T obj) throws IOException {
+    try {
+      for (int i = 0; i < this.names.length; ++i) {
+        var f = this.fields[i];
+        switch (this.types[i]) {
+          case STRING:
+            var s = (String) f.get(obj);
+            out.writeBoolean(s != null);
+            if (s != null)
+              out.writeUTF(s);
+            break;
+          case DOUBLE:
+            out.writeDouble(f.getDouble(obj));
+            break;
+          case INT:
+            out.writeInt(f.getInt(obj));
+            break;
+          case BYTE:
+            out.writeByte(f.getByte(obj));
+            break;
+          case LONG:
+            out.writeLong(f.getLong(obj));
+            break;
+          case BOOLEAN:
+            out.writeBoolean(f.getBoolean(obj));
+            break;
+          default:
+            out.writeChar(f.getChar(obj));
+            break;
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new IOException("can't read field of " + this.clz.getName(), e);
+    }
+  }
+
+  T readObject(DataInputStream in) throws IOException {
+    try {
+      var obj = this.clz.getConstructor().newInstance();
+      for (int i = 0; i < this.names.length; ++i) {
+        Object value;
+        switch (this.types[i]) {
+          case STRING:
+            value = in.readBoolean() ? in.readUTF() : null;
+            break;
+          case DOUBLE:
+            value = in.readDouble();
+            break;
+          case INT:
+            value = in.readInt();
+            break;
+          case BYTE:
+            value = in.readByte();
+            break;
+          case LONG:
+            value = in.readLong();
+            break;
+          case BOOLEAN:
+            value = in.readBoolean();
+            break;
+          default:
+            value = in.readChar();
+            break;
+        }
+        if (this.fields[i] != null)
+          this.fields[i].set(obj, value);
+      }
+      return obj;
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("can't create " + this.clz.getName(), e);
+    }
+  }
+
+  private static byte typeOf(Field f) {
+    var type = f.getType();
+    if (type == String.class)
+      return STRING;
+    else if (type == double.class)
+      return DOUBLE;
+    else if (type == int.class)
+      return INT;
+    else if (type == byte.class)
+      return BYTE;
+    else if (type == long.class)
+      return LONG;
+    else if (type == boolean.class)
+      return BOOLEAN;
+    else if (type == char.class)
+      return CHAR;
+    else
+      return 0;
+  }
+}
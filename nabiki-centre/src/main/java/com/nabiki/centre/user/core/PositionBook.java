@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.commons.ctpobj.CInvestorPosition;
+import com.nabiki.commons.ctpobj.DirectionType;
+import com.nabiki.commons.ctpobj.PosiDirectionType;
+
+import java.util.*;
+
+/**
+ * Index of position details by instrument, direction and trading day. Each
+ * trading day keeps its lots in open order with running totals, so freezing a
+ * close order only visits the lots that still have available volume, and a
+ * position query sums the trading days instead of all details.
+ */
+class PositionBook {
+  // Instrument ID -> long and short sides.
+  private final Map<String, Side[]> sides = new HashMap<>();
+  // Instruments changed since last drain, null if all are changed.
+  private Set<String> dirty = null;
+
+  /*
+   Lots opened on the same trading day, same instrument and direction.
+   */
+  static class Lots {
+    final String tradingDay;
+    // Details that still have volume, in open order.
+    final Set<UserPositionDetail> open = new LinkedHashSet<>();
+    long volume = 0, closeVolume = 0, frozenVolume = 0;
+    double margin = 0, positionProfit = 0, closeProfit = 0;
+
+    Lots(String tradingDay) {
+      this.tradingDay = tradingDay;
+    }
+
+    long getAvailableVolume() {
+      return this.volume - this.frozenVolume;
+    }
+  }
+
+  /*
+   Position of one instrument and direction.
+   */
+  private static class Side {
+    // Trading day -> lots, yesterday comes before today.
+    final TreeMap<String, Lots> lots = new TreeMap<>();
+    // First detail provides the common fields of position report.
+    final UserPositionDetail first;
+
+    Side(UserPositionDetail first) {
+      this.first = first;
+    }
+  }
+
+  void clear() {
+    this.sides.clear();
+    this.dirty = null;
+  }
+
+  void add(UserPositionDetail p) {
+    var side = side(p, true);
+    var lots = side.lots.computeIfAbsent(p.getTradingDay(), Lots::new);
+    var raw = p.copyRawPosition();
+    lots.volume += raw.Volume;
+    lots.closeVolume += raw.CloseVolume;
+    lots.frozenVolume += p.getFrozenVolume();
+    lots.margin += raw.Margin;
+    lots.positionProfit += raw.PositionProfitByDate;
+    lots.closeProfit += raw.CloseProfitByDate;
+    if (raw.Volume > 0)
+      lots.open.add(p);
+    markDirty(raw.InstrumentID);
+  }
+
+  void changeFrozen(UserPositionDetail p, long volume) {
+    var lots = lots(p);
+    if (lots == null)
+      return;
+    lots.frozenVolume += volume;
+    markDirty(p.getInstrumentID());
+  }
+
+  void changeClosed(UserPositionDetail p, long volume, double margin,
+                    double closeProfit) {
+    var lots = lots(p);
+    if (lots == null)
+      return;
+    lots.volume -= volume;
+    lots.closeVolume += volume;
+    lots.margin -= margin;
+    lots.closeProfit += closeProfit;
+    if (p.getVolume() <= 0)
+      lots.open.remove(p);
+    markDirty(p.getInstrumentID());
+  }
+
+  /**
+   * Get lots of the instrument and direction that have available volume to
+   * close, earlier trading day first.
+   *
+   * @param instrID   instrument ID
+   * @param direction direction of the position, not the close order
+   * @return lots with available volume
+   */
+  List<Lots> getAvailableLots(String instrID, byte direction) {
+    var r = new LinkedList<Lots>();
+    var s = this.sides.get(instrID);
+    if (s == null || s[index(direction)] == null)
+      return r;
+    for (var lots : s[index(direction)].lots.values())
+      if (lots.getAvailableVolume() > 0)
+        r.add(lots);
+    return r;
+  }
+
+  /**
+   * Get long and short positions of the instrument.
+   *
+   * @param instrID    instrument ID
+   * @param tradingDay today's trading day
+   * @return positions, empty if the instrument has no position
+   */
+  List<CInvestorPosition> getPosition(String instrID, String tradingDay) {
+    var r = new LinkedList<CInvestorPosition>();
+    var s = this.sides.get(instrID);
+    if (s == null)
+      return r;
+    for (var side : s)
+      if (side != null)
+        r.add(toPosition(side, tradingDay));
+    return r;
+  }
+
+  Set<String> getInstrumentID() {
+    return this.sides.keySet();
+  }
+
+  /*
+   Get instruments changed since last call, or null if all instruments are
+   changed.
+   */
+  Set<String> drainDirty() {
+    var r = this.dirty;
+    this.dirty = new HashSet<>();
+    return r;
+  }
+
+  private void markDirty(String instrID) {
+    if (this.dirty != null)
+      this.dirty.add(instrID);
+  }
+
+  private CInvestorPosition toPosition(Side side, String tradingDay) {
+    var r = side.first.getInvestorPosition(tradingDay);
+    r.YdPosition = 0;
+    r.Position = 0;
+    r.TodayPosition = 0;
+    r.CloseVolume = 0;
+    r.LongFrozen = 0;
+    r.ShortFrozen = 0;
+    r.PositionProfit = 0;
+    r.CloseProfit = 0;
+    long frozen = 0;
+    for (var lots : side.lots.values()) {
+      r.Position += lots.volume;
+      r.CloseVolume += lots.closeVolume;
+      if (lots.tradingDay.compareTo(tradingDay) != 0)
+        r.YdPosition += lots.volume + lots.closeVolume;
+      else
+        r.TodayPosition += lots.volume;
+      r.PositionProfit += lots.positionProfit;
+      r.CloseProfit += lots.closeProfit;
+      frozen += lots.frozenVolume;
+    }
+    if (r.PosiDirection == PosiDirectionType.LONG)
+      r.LongFrozen = (int) frozen;
+    else
+      r.ShortFrozen = (int) frozen;
+    r.TradingDay = tradingDay;
+    return r;
+  }
+
+  private Lots lots(UserPositionDetail p) {
+    var s = side(p, false);
+    if (s == null)
+      return null;
+    return s.lots.get(p.getTradingDay());
+  }
+
+  private Side side(UserPositionDetail p, boolean create) {
+    var s = this.sides.get(p.getInstrumentID());
+    if (s == null) {
+      if (!create)
+        return null;
+      s = new Side[2];
+      this.sides.put(p.getInstrumentID(), s);
+    }
+    var i = index(p.getDirection());
+    if (s[i] == null && create)
+      s[i] = new Side(p);
+    return s[i];
+  }
+
+  private static int index(byte direction) {
+    return direction == DirectionType.DIRECTION_BUY ? 0 : 1;
+  }
+}
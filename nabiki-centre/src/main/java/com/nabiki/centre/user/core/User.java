@@ -33,6 +33,7 @@ import com.nabiki.centre.user.core.plain.UserState;
 import com.nabiki.commons.ctpobj.CRspInfo;
 import com.nabiki.commons.ctpobj.CTradingAccount;
 
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -43,6 +44,7 @@ public class User {
   private final CRspInfo panicReason = new CRspInfo();
 
   private UserState state = UserState.RENEW;
+  private UserLedger ledger = UserLedger.disabled();
 
   User(CTradingAccount rawAccount,
        Map<String, List<UserPositionDetail>> positions) {
@@ -84,6 +86,15 @@ public class User {
     return total;
   }
 
+  UserLedger getLedger() {
+    return this.ledger;
+  }
+
+  void setLedger(UserLedger ledger) {
+    this.ledger = ledger;
+    ledger.setUser(this);
+  }
+
   void updateTradingDay(String tradingDay) {
     this.userAccount.setTradingDay(tradingDay);
   }
@@ -110,6 +121,45 @@ public class User {
     return this.userAccount;
   }
 
+  /**
+   * Check the running totals of account and position against the sums walked
+   * from their details. The totals are maintained on every freeze, trade and
+   * cancel, so any difference means a bug in the bookkeeping.
+   *
+   * @return messages of the inconsistent totals, empty if all are consistent
+   */
+  List<String> checkAggregates() {
+    var r = new LinkedList<String>();
+    var acc = this.userAccount.getAccountFrozenCash();
+    var accSum = this.userAccount.sumAccountFrozenCash();
+    compare(r, "FrozenCash", acc.FrozenCash, accSum.FrozenCash);
+    compare(r, "FrozenCommission(account)", acc.FrozenCommission,
+        accSum.FrozenCommission);
+    var frz = this.userPosition.getPositionFrozenCash();
+    var frzSum = this.userPosition.sumPositionFrozenCash();
+    compare(r, "FrozenMargin", frz.FrozenMargin, frzSum.FrozenMargin);
+    compare(r, "FrozenCommission(position)", frz.FrozenCommission,
+        frzSum.FrozenCommission);
+    var mny = this.userPosition.getMoneyAfterTrade();
+    var mnySum = this.userPosition.sumMoneyAfterTrade();
+    compare(r, "Margin", mny.Margin, mnySum.Margin);
+    compare(r, "CloseProfitByDate", mny.CloseProfitByDate,
+        mnySum.CloseProfitByDate);
+    compare(r, "CloseProfitByTrade", mny.CloseProfitByTrade,
+        mnySum.CloseProfitByTrade);
+    compare(r, "PositionProfitByDate", mny.PositionProfitByDate,
+        mnySum.PositionProfitByDate);
+    compare(r, "PositionProfitByTrade", mny.PositionProfitByTrade,
+        mnySum.PositionProfitByTrade);
+    return r;
+  }
+
+  private static void compare(List<String> r, String name, double total,
+                              double sum) {
+    if (Math.abs(total - sum) > 1E-6 * Math.max(1.0D, Math.abs(sum)))
+      r.add(String.format("%s total %f, sum %f", name, total, sum));
+  }
+
   void settle(SettlementPreparation prep) {
     // Need calculate profit and margin of the existing position.
     // Before settling position, all frozen positions are canceled.
@@ -117,5 +167,6 @@ public class User {
     // Cancel all frozen cash.
     this.userAccount.cancel();
     this.state = UserState.SETTLED;
+    this.ledger.settle(prep.getTradingDay());
   }
 }
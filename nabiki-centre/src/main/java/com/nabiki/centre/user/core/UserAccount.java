@@ -31,19 +31,22 @@ package com.nabiki.centre.user.core;
 import com.nabiki.centre.user.core.plain.AccountFrozenCash;
 import com.nabiki.centre.user.core.plain.AccountTradedCash;
 import com.nabiki.commons.ctpobj.*;
-import com.nabiki.commons.utils.Utils;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Set;
 
 public class UserAccount {
   private final User parent;
   private final CTradingAccount raw;
-  private final List<FrozenAccount> frozenAccount = new LinkedList<>();
+  // Frozen accounts that still have frozen volume.
+  private final Set<FrozenAccount> frozenAccount = new LinkedHashSet<>();
+  // Running totals of the frozen accounts, so account query needn't walk them.
+  private double frozenCash = 0, frozenCommission = 0;
 
   UserAccount(CTradingAccount raw, User parent) {
-    this.raw = Utils.deepCopy(raw);
+    this.raw = new CTradingAccount(raw);
     this.parent = parent;
   }
 
@@ -57,7 +60,7 @@ public class UserAccount {
   }
 
   CTradingAccount copyRawAccount() {
-    return Utils.deepCopy(this.raw);
+    return new CTradingAccount(this.raw);
   }
 
   /**
@@ -72,14 +75,17 @@ public class UserAccount {
                   CInstrumentCommissionRate comm) {
     var cash = toTradedCash(trade, instr, comm);
     this.raw.Commission += cash.Commission;
+    this.parent.getLedger().commission(cash.Commission);
   }
 
   /**
    * Cancel an open order and release all frozen cashes and commission.
    */
   void cancel() {
-    for (var acc : this.frozenAccount)
+    for (var acc : new ArrayList<>(this.frozenAccount))
       acc.cancel();
+    this.frozenAccount.clear();
+    setFrozen(0, 0);
   }
 
   void setTradingDay(String tradingDay) {
@@ -87,7 +93,18 @@ public class UserAccount {
   }
 
   AccountFrozenCash getAccountFrozenCash() {
-    var r = new com.nabiki.centre.user.core.plain.AccountFrozenCash();
+    var r = new AccountFrozenCash();
+    r.FrozenCash = this.frozenCash;
+    r.FrozenCommission = this.frozenCommission;
+    return r;
+  }
+
+  /*
+   Sum frozen cash from all frozen accounts. It walks the frozen accounts and is
+   only used to check the running totals.
+   */
+  AccountFrozenCash sumAccountFrozenCash() {
+    var r = new AccountFrozenCash();
     r.FrozenCash = 0;
     r.FrozenCommission = 0;
     for (var c : this.frozenAccount) {
@@ -104,7 +121,42 @@ public class UserAccount {
    * @param frz new frozen account
    */
   void addFrozenAccount(FrozenAccount frz) {
-    this.frozenAccount.add(frz);
+    var volume = frz.getFrozenVolume();
+    if (volume <= 0 || !this.frozenAccount.add(frz))
+      return;
+    var single = frz.getSingleFrozenCash();
+    this.parent.getLedger().freeze(UserLedger.FROZEN_ACCOUNT, (long) volume,
+        volume * single.FrozenCash, volume * single.FrozenCommission);
+    setFrozen(this.frozenCash + volume * single.FrozenCash,
+        this.frozenCommission + volume * single.FrozenCommission);
+  }
+
+  /**
+   * Release frozen volume of the frozen account when its order is traded or
+   * canceled. The frozen account is removed after all its volume is released.
+   *
+   * @param frz    frozen account
+   * @param volume released volume
+   */
+  void releaseFrozenAccount(FrozenAccount frz, double volume) {
+    if (!this.frozenAccount.contains(frz))
+      return;
+    if (frz.getFrozenVolume() <= 0)
+      this.frozenAccount.remove(frz);
+    var single = frz.getSingleFrozenCash();
+    this.parent.getLedger().release(UserLedger.FROZEN_ACCOUNT, (long) volume,
+        volume * single.FrozenCash, volume * single.FrozenCommission);
+    setFrozen(this.frozenCash - volume * single.FrozenCash,
+        this.frozenCommission - volume * single.FrozenCommission);
+  }
+
+  private void setFrozen(double cash, double commission) {
+    // Reset rounding error when nothing is frozen.
+    if (this.frozenAccount.isEmpty()) {
+      cash = commission = 0;
+    }
+    this.frozenCash = cash;
+    this.frozenCommission = commission;
   }
 
   FrozenAccount getOpenFrozenAccount(
@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.centre.config.FlowJournal;
+import com.nabiki.centre.config.Global;
+import com.nabiki.commons.ctpobj.CInvestorPositionDetail;
+import com.nabiki.commons.ctpobj.CTradingAccount;
+import com.nabiki.commons.utils.Utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of a user's account and position events with compact
+ * snapshots. Each event is appended when it is applied to the user, so the
+ * intraday state survives a restart: recovery loads the latest snapshot and
+ * replays the journal after it.
+ *
+ * <p>Open, close and commission events carry the changes to the raw account
+ * and position details, so they replay without instrument information. Close
+ * events find their position detail by instrument, open date, trade ID and
+ * direction. Freeze and release events are kept for audit only. The requests
+ * owning the frozen cash and positions are not persisted, so their frozen
+ * state is not recovered.
+ * </p>
+ *
+ * <p>Snapshot and journal start with the {@link LedgerSchema} of the classes
+ * they keep, so they are read by field name after the classes change. The
+ * journal is forced to disk as the sync policy says. With batch policy, the
+ * events written by a batch of updates are forced once by {@link #sync()},
+ * and freeze and release events don't need a force of their own.
+ * </p>
+ *
+ * <p>The ledger is only called on the user's writer.
+ * </p>
+ */
+class UserLedger {
+  static final byte OPEN = 1, CLOSE = 2, COMMISSION = 3, FREEZE = 4,
+      RELEASE = 5, SETTLE = 6;
+  static final byte FROZEN_ACCOUNT = 1, FROZEN_POSITION = 2;
+
+  private static final int MAGIC = 0x4E4C4447; // NLDG
+  private static final int FORMAT = 2;
+  // Write snapshot and truncate journal after so many events.
+  private static final int SNAPSHOT_INTERVAL = 10000;
+  private static final long SYNC_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final Path dir;
+  private final Global global;
+  private final FlowJournal.SyncPolicy sync;
+  private final int snapshotInterval;
+  private final LedgerSchema<CTradingAccount> accountSchema
+      = LedgerSchema.of(CTradingAccount.class);
+  private final LedgerSchema<CInvestorPositionDetail> positionSchema
+      = LedgerSchema.of(CInvestorPositionDetail.class);
+  private User user;
+  private FileChannel journal;
+  private long seq = 0, lastSync = 0;
+  private int sinceSnapshot = 0;
+  private boolean broken = false, unsynced = false;
+
+  /**
+   * State loaded from snapshot and journal.
+   */
+  static class State {
+    CTradingAccount account;
+    // Instrument ID -> position details in open order.
+    final Map<String, List<CInvestorPositionDetail>> positions
+        = new LinkedHashMap<>();
+    // Snapshot is taken at settlement.
+    boolean settled;
+    long seq;
+  }
+
+  UserLedger(Path dir, FlowJournal.SyncPolicy sync, Global global) {
+    this(dir, sync, SNAPSHOT_INTERVAL, global);
+  }
+
+  UserLedger(Path dir, FlowJournal.SyncPolicy sync, int snapshotInterval,
+             Global global) {
+    this.dir = dir;
+    this.global = global;
+    this.sync = sync == null ? FlowJournal.SyncPolicy.BATCH : sync;
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  /*
+   Ledger that writes nothing.
+   */
+  static UserLedger disabled() {
+    return new UserLedger(null, FlowJournal.SyncPolicy.NONE, null);
+  }
+
+  void setUser(User user) {
+    this.user = user;
+  }
+
+  /**
+   * Read the latest snapshot.
+   *
+   * @return state in snapshot, or {@code null} if there is no snapshot
+   * @throws IOException if the snapshot is broken
+   */
+  State readSnapshot() throws IOException {
+    if (this.dir == null || !Files.exists(snapshotFile()))
+      return null;
+    var file = snapshotFile();
+    try (var in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+        throw new IOException("not a ledger snapshot: " + file);
+      var state = new State();
+      state.settled = in.readBoolean();
+      state.seq = in.readLong();
+      var accounts = LedgerSchema.read(in, CTradingAccount.class);
+      var positions = LedgerSchema.read(in, CInvestorPositionDetail.class);
+      state.account = accounts.readObject(in);
+      int count = in.readInt();
+      for (int i = 0; i < count; ++i) {
+        var p = positions.readObject(in);
+        state.positions.computeIfAbsent(p.InstrumentID, k -> new LinkedList<>())
+            .add(p);
+      }
+      return state;
+    }
+  }
+
+  /**
+   * Replay the journal after the snapshot onto the state and open the journal
+   * for new events. A torn record at the end of journal is cut off.
+   *
+   * @param state state from snapshot
+   * @throws IOException if the journal can't be read or doesn't match the
+   *                     snapshot
+   */
+  void replay(State state) throws IOException {
+    this.seq = state.seq;
+    if (this.dir == null)
+      return;
+    var file = journalFile();
+    long valid = 0;
+    if (Files.exists(file) && Files.size(file) > 0) {
+      var bytes = Files.readAllBytes(file);
+      var header = new ByteArrayInputStream(bytes);
+      var in = new DataInputStream(header);
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+        throw new IOException("not a ledger journal: " + file);
+      var positions = LedgerSchema.read(in, CInvestorPositionDetail.class);
+      var buffer = ByteBuffer.wrap(bytes);
+      buffer.position(bytes.length - header.available());
+      valid = buffer.position();
+      while (buffer.remaining() >= 8) {
+        int len = buffer.getInt();
+        int crc = buffer.getInt();
+        if (len < 9 || len > buffer.remaining())
+          break;
+        var body = new byte[len];
+        buffer.get(body);
+        if (crc != crc(body))
+          break;
+        apply(state, ByteBuffer.wrap(body), positions);
+        valid = buffer.position();
+        ++this.sinceSnapshot;
+      }
+    }
+    openJournal(valid);
+  }
+
+  /**
+   * Write the state as the new snapshot and clear the journal.
+   *
+   * @param state state to write
+   */
+  void reset(State state) {
+    writeSnapshot(state.account, state.positions, state.settled);
+  }
+
+  void open(CInvestorPositionDetail p) {
+    append(OPEN, out -> this.positionSchema.writeObject(out, p));
+  }
+
+  /**
+   * Record a close of the position detail identified by the instrument, open
+   * date, trade ID and direction in the change.
+   *
+   * @param change key of the position detail, closed volume, amount, profits
+   *               and released margins
+   */
+  void close(CInvestorPositionDetail change) {
+    append(CLOSE, out -> {
+      out.writeUTF(change.InstrumentID);
+      writeString(out, change.OpenDate);
+      writeString(out, change.TradeID);
+      out.writeByte(change.Direction);
+      out.writeInt(change.CloseVolume);
+      out.writeDouble(change.CloseAmount);
+      out.writeDouble(change.CloseProfitByDate);
+      out.writeDouble(change.CloseProfitByTrade);
+      out.writeDouble(change.Margin);
+      out.writeDouble(change.ExchMargin);
+    });
+  }
+
+  void commission(double commission) {
+    append(COMMISSION, out -> out.writeDouble(commission));
+  }
+
+  void freeze(byte kind, long volume, double cash, double commission) {
+    append(FREEZE, out -> {
+      out.writeByte(kind);
+      out.writeLong(volume);
+      out.writeDouble(cash);
+      out.writeDouble(commission);
+    });
+  }
+
+  void release(byte kind, long volume, double cash, double commission) {
+    append(RELEASE, out -> {
+      out.writeByte(kind);
+      out.writeLong(volume);
+      out.writeDouble(cash);
+      out.writeDouble(commission);
+    });
+  }
+
+  /**
+   * Record settlement and write the settled state as snapshot.
+   *
+   * @param tradingDay settled trading day
+   */
+  void settle(String tradingDay) {
+    append(SETTLE, out -> out.writeUTF(tradingDay == null ? "" : tradingDay));
+    snapshot(true);
+  }
+
+  private void snapshot(boolean settled) {
+    if (this.user == null)
+      return;
+    var positions = new LinkedHashMap<String, List<CInvestorPositionDetail>>();
+    for (var entry : this.user.getUserPosition().getPositionMap().entrySet()) {
+      var lst = new LinkedList<CInvestorPositionDetail>();
+      for (var p : entry.getValue())
+        lst.add(p.copyRawPosition());
+      positions.put(entry.getKey(), lst);
+    }
+    writeSnapshot(this.user.getUserAccount().copyRawAccount(), positions,
+        settled);
+  }
+
+  private void writeSnapshot(CTradingAccount account,
+                             Map<String, List<CInvestorPositionDetail>> positions,
+                             boolean settled) {
+    if (this.dir == null)
+      return;
+    try {
+      Files.createDirectories(this.dir);
+      var tmp = this.dir.resolve("snapshot.tmp");
+      try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeBoolean(settled);
+        out.writeLong(this.seq);
+        this.accountSchema.write(out);
+        this.positionSchema.write(out);
+        this.accountSchema.writeObject(out, account);
+        int count = 0;
+        for (var lst : positions.values())
+          count += lst.size();
+        out.writeInt(count);
+        for (var lst : positions.values())
+          for (var p : lst)
+            this.positionSchema.writeObject(out, p);
+        out.flush();
+        channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+        channel.force(true);
+      }
+      Files.move(tmp, snapshotFile(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      // Events in journal are all in snapshot now.
+      openJournal(0);
+      this.sinceSnapshot = 0;
+      this.broken = false;
+    } catch (IOException e) {
+      warn("can't write ledger snapshot", e.getMessage());
+    }
+  }
+
+  private interface Payload {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private void append(byte type, Payload payload) {
+    if (this.journal == null || this.broken)
+      return;
+    try {
+      var bytes = new ByteArrayOutputStream(64);
+      var out = new DataOutputStream(bytes);
+      out.writeByte(type);
+      out.writeLong(++this.seq);
+      payload.write(out);
+      out.flush();
+      var body = bytes.toByteArray();
+      var buffer = ByteBuffer.allocate(8 + body.length);
+      buffer.putInt(body.length);
+      buffer.putInt(crc(body));
+      buffer.put(body);
+      buffer.flip();
+      while (buffer.hasRemaining())
+        this.journal.write(buffer);
+      // Freeze and release are not replayed, so they wait for other events.
+      if (type != FREEZE && type != RELEASE) {
+        this.unsynced = true;
+        if (this.sync == FlowJournal.SyncPolicy.INTERVAL)
+          force(false);
+      }
+    } catch (IOException e) {
+      // Stop journaling until next snapshot, or replay goes wrong.
+      this.broken = true;
+      warn("can't write ledger journal", e.getMessage());
+      return;
+    }
+    if (++this.sinceSnapshot >= this.snapshotInterval && type != SETTLE)
+      snapshot(false);
+  }
+
+  /**
+   * Force the events written since last force. User's writer calls it after
+   * a batch of updates, so the events of a batch are forced together.
+   */
+  void sync() {
+    if (!this.unsynced || this.sync != FlowJournal.SyncPolicy.BATCH)
+      return;
+    try {
+      force(true);
+    } catch (IOException e) {
+      warn("can't force ledger journal", e.getMessage());
+    }
+  }
+
+  /*
+   Force the journal as the sync policy says. With interval policy, events
+   written within a second of the last force are forced with the next event
+   or on close.
+   */
+  private void force(boolean always) throws IOException {
+    if (this.journal == null || this.sync == FlowJournal.SyncPolicy.NONE)
+      return;
+    var now = System.currentTimeMillis();
+    if (always || now - this.lastSync >= SYNC_MILLIS) {
+      this.journal.force(false);
+      this.lastSync = now;
+      this.unsynced = false;
+    }
+  }
+
+  private void apply(State state, ByteBuffer in,
+                     LedgerSchema<CInvestorPositionDetail> positions)
+      throws IOException {
+    var type = in.get();
+    var s = in.getLong();
+    if (s <= state.seq)
+      return; // Already in snapshot.
+    this.seq = state.seq = s;
+    var data = new DataInputStream(new ByteArrayInputStream(
+        in.array(), in.position(), in.remaining()));
+    switch (type) {
+      case OPEN:
+        var p = positions.readObject(data);
+        state.positions.computeIfAbsent(p.InstrumentID, k -> new LinkedList<>())
+            .add(p);
+        break;
+      case CLOSE:
+        var instrID = data.readUTF();
+        var openDate = readString(data);
+        var tradeID = readString(data);
+        var direction = data.readByte();
+        var d = find(state.positions.get(instrID), openDate, tradeID,
+            direction);
+        if (d == null)
+          throw new IOException("journal doesn't match snapshot: "
+              + instrID + ", " + openDate + ", " + tradeID);
+        int volume = data.readInt();
+        d.CloseVolume += volume;
+        d.Volume -= volume;
+        d.CloseAmount += data.readDouble();
+        d.CloseProfitByDate += data.readDouble();
+        d.CloseProfitByTrade += data.readDouble();
+        d.Margin -= data.readDouble();
+        d.ExchMargin -= data.readDouble();
+        break;
+      case COMMISSION:
+        state.account.Commission += data.readDouble();
+        break;
+      case FREEZE:
+      case RELEASE:
+        break;
+      case SETTLE:
+        warn("ledger settled without snapshot", data.readUTF());
+        break;
+      default:
+        throw new IOException("unknown ledger event " + type);
+    }
+  }
+
+  private static CInvestorPositionDetail find(
+      List<CInvestorPositionDetail> lst, String openDate, String tradeID,
+      byte direction) {
+    if (lst == null)
+      return null;
+    for (var p : lst)
+      if (p.Direction == direction && Objects.equals(p.TradeID, tradeID)
+          && Objects.equals(p.OpenDate, openDate))
+        return p;
+    return null;
+  }
+
+  private void openJournal(long size) throws IOException {
+    if (this.dir == null)
+      return;
+    Files.createDirectories(this.dir);
+    if (this.journal != null)
+      this.journal.close();
+    this.journal = FileChannel.open(journalFile(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    this.journal.truncate(size);
+    this.journal.position(size);
+    if (size == 0) {
+      // Header tells how to read the positions in journal.
+      var bytes = new ByteArrayOutputStream();
+      var out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      this.positionSchema.write(out);
+      out.flush();
+      var buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining())
+        this.journal.write(buffer);
+      force(true);
+    }
+  }
+
+  void close() {
+    try {
+      force(true);
+      if (this.journal != null)
+        this.journal.close();
+    } catch (IOException e) {
+      warn("can't close ledger journal", e.getMessage());
+    }
+    this.journal = null;
+  }
+
+  private void warn(String hint, String msg) {
+    if (this.global != null)
+      this.global.getLogger().warning(Utils.formatLog(hint,
+          this.dir == null ? null : this.dir.toString(), msg, null));
+  }
+
+  private Path snapshotFile() {
+    return this.dir.resolve("snapshot.bin");
+  }
+
+  private Path journalFile() {
+    return this.dir.resolve("journal.bin");
+  }
+
+  private static int crc(byte[] bytes) {
+    var crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    out.writeUTF(s == null ? "" : s);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    var s = in.readUTF();
+    return s.length() == 0 ? null : s;
+  }
+}
@@ -28,6 +28,8 @@
 
 package com.nabiki.centre.user.core;
 
+import com.nabiki.centre.config.FlowJournal;
+import com.nabiki.centre.config.Global;
 import com.nabiki.commons.ctpobj.CInvestorPositionDetail;
 import com.nabiki.commons.ctpobj.CTradingAccount;
 import com.nabiki.commons.utils.Utils;
@@ -42,19 +44,25 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class UserManager {
+  private static final String LEDGER_DIR = "ledger";
+
   private final Map<String, User> users = new ConcurrentHashMap<>();
   private final Path dataDir;
+  private final Global global;
+  private final FlowJournal.SyncPolicy ledgerSync;
 
   private static UserManager singleton;
 
-  UserManager(Path dataDir) {
+  UserManager(Path dataDir, Global global) {
     Objects.requireNonNull(dataDir, "user data directory null");
     this.dataDir = dataDir;
+    this.global = global;
+    this.ledgerSync = global.getLedgerSync();
   }
 
-  static UserManager create(Path dataDir) {
+  static UserManager create(Path dataDir, Global global) {
     if (singleton == null)
-      singleton = new UserManager(dataDir);
+      singleton = new UserManager(dataDir, global);
     return singleton;
   }
 
@@ -77,7 +85,8 @@ public class UserManager {
   private File findLatestDir(Path userDir) {
     final File[] r = {null};
     userDir.toFile().listFiles(file -> {
-      if (file.isDirectory()) {
+      // Skip ledger, the others are named by day.
+      if (file.isDirectory() && !file.getName().equals(LEDGER_DIR)) {
         if (r[0] == null)
           r[0] = file;
         else if (file.getName().compareTo(r[0].getName()) > 0)
@@ -89,40 +98,97 @@ public class UserManager {
   }
 
   private User readUser(Path userDir) {
-    final var account = new CTradingAccount[1];
+    var userID = userDir.getFileName().toString();
+    var ledger = new UserLedger(Path.of(userDir.toString(), LEDGER_DIR),
+        this.ledgerSync, this.global);
+    UserLedger.State state = null;
+    try {
+      state = ledger.readSnapshot();
+    } catch (IOException e) {
+      this.global.getLogger().warning(Utils.formatLog(
+          "can't read ledger snapshot", userID, e.getMessage(), null));
+    }
+    if (state == null) {
+      // No ledger yet, start it from the settled files.
+      state = readLatest(userDir);
+      ledger.reset(state);
+    } else {
+      if (state.settled)
+        renew(state);
+      try {
+        ledger.replay(state);
+      } catch (IOException e) {
+        this.global.getLogger().warning(Utils.formatLog(
+            "can't replay ledger journal", userID, e.getMessage(), null));
+        // Keep the events replayed so far and restart the journal from them.
+        ledger.reset(state);
+      }
+    }
     var positions = new ConcurrentHashMap<String, List<UserPositionDetail>>();
+    for (var entry : state.positions.entrySet()) {
+      var lst = new LinkedList<UserPositionDetail>();
+      for (var pos : entry.getValue())
+        lst.add(new UserPositionDetail(pos));
+      positions.put(entry.getKey(), lst);
+    }
+    var user = new User(state.account, positions);
+    user.setLedger(ledger);
+    return user;
+  }
+
+  private UserLedger.State readLatest(Path userDir) {
+    var state = new UserLedger.State();
     findLatestDir(userDir).listFiles(file -> {
       var name = file.getName();
       try {
         if (name.startsWith("account.") && name.endsWith(".json")) {
-          if (account[0] != null)
+          if (state.account != null)
             throw new IOException("ambiguous account");
-          account[0] = Utils.fromJson(
+          state.account = Utils.fromJson(
               Utils.readText(file, StandardCharsets.UTF_8),
               CTradingAccount.class);
-          // Get account ready for today's trading.
-          renewAccount(account[0]);
         }
+        if (name.equals("positions.json")) {
+          var positions = Utils.fromJson(Utils.readText(
+              file, StandardCharsets.UTF_8),
+              CInvestorPositionDetail[].class);
+          for (var pos : positions)
+            state.positions
+                .computeIfAbsent(pos.InstrumentID, k -> new LinkedList<>())
+                .add(pos);
+        }
+        // Position files of the one-file-per-detail layout.
         if (name.startsWith("position.") && name.endsWith(".json")) {
           var pos = Utils.fromJson(Utils.readText(
               file, StandardCharsets.UTF_8),
               CInvestorPositionDetail.class);
-          // Filter out position that is completely closed.
-          if (pos.Volume > 0) {
-            // Get position ready for today's trading.
-            renewPosition(pos);
-            positions
-                .computeIfAbsent(pos.InstrumentID, k -> new LinkedList<>())
-                .add(new UserPositionDetail((pos)));
-          }
+          state.positions
+              .computeIfAbsent(pos.InstrumentID, k -> new LinkedList<>())
+              .add(pos);
         }
       } catch (IOException e) {
-        System.err.println(e.getMessage());
-        e.printStackTrace();
+        this.global.getLogger().warning(Utils.formatLog(
+            "can't read user file", file.toString(), e.getMessage(), null));
       }
       return false;
     });
-    return new User(account[0], positions);
+    renew(state);
+    return state;
+  }
+
+  private void renew(UserLedger.State state) {
+    // Get account ready for today's trading.
+    if (state.account != null)
+      renewAccount(state.account);
+    for (var lst : state.positions.values()) {
+      // Filter out position that is completely closed.
+      lst.removeIf(pos -> pos.Volume <= 0);
+      // Get position ready for today's trading.
+      for (var pos : lst)
+        renewPosition(pos);
+    }
+    state.positions.values().removeIf(List::isEmpty);
+    state.settled = false;
   }
 
   private void renewAccount(CTradingAccount account) {
@@ -156,14 +222,12 @@ public class UserManager {
     position.SettlementPrice = 0;
   }
 
-  private void write(Path dir) throws IOException {
-    for (var user : this.users.values()) {
-      var userDir = Path.of(dir.toString(), user.getUserID());
-      writeUser(userDir, user);
-    }
-  }
-
-  private void writeUser(Path userDir, User user) throws IOException {
+  /*
+   Write the user into its own directory. It reads the live user, so it must
+   be called on the user's writer.
+   */
+  void writeUser(User user) throws IOException {
+    var userDir = Path.of(this.dataDir.toString(), user.getUserID());
     var todayDir = Path.of(userDir.toString(),
         Utils.getDay(LocalDate.now(), null));
     Utils.createFile(todayDir, true);
@@ -171,25 +235,29 @@ public class UserManager {
     var account = user.getTradingAccount();
     var path = Path.of(todayDir.toString(),
         "account." + account.AccountID + ".json");
-    Utils.createFile(path, false);
     Utils.writeText(Utils.toJson(account),
         Utils.createFile(path, false),
         StandardCharsets.UTF_8, false);
-    // Write positions.
-    int count = 0;
-    for (var positions : user.getUserPosition().getPositionMap().values()) {
-      for (var pos : positions) {
-        // Don't filter all-closed position here, because need to save
-        // the trades of this day. And when reloading information, it will
-        // check the volume and filter out all-closed position.
-        path = Path.of(todayDir.toString(),
-            "position." + (++count) + ".json");
-        Utils.writeText(Utils.toJson(pos.copyRawPosition()),
-            Utils.createFile(path, false),
-            StandardCharsets.UTF_8,
-            false);
-      }
-    }
+    // Write all positions into one file.
+    // Don't filter all-closed position here, because need to save
+    // the trades of this day. And when reloading information, it will
+    // check the volume and filter out all-closed position.
+    var positions = new LinkedList<CInvestorPositionDetail>();
+    for (var lst : user.getUserPosition().getPositionMap().values())
+      for (var pos : lst)
+        positions.add(pos.copyRawPosition());
+    path = Path.of(todayDir.toString(), "positions.json");
+    Utils.writeText(Utils.toJson(positions),
+        Utils.createFile(path, false),
+        StandardCharsets.UTF_8, false);
+    // Remove position files of the old one-file-per-detail layout, or they
+    // are loaded twice.
+    todayDir.toFile().listFiles(file -> {
+      var name = file.getName();
+      if (name.startsWith("position.") && name.endsWith(".json"))
+        file.delete();
+      return false;
+    });
   }
 
   User getUser(String userID) {
@@ -197,11 +265,9 @@ public class UserManager {
   }
 
   void load() throws Exception {
+    for (var user : this.users.values())
+      user.getLedger().close();
     this.users.clear();
     init(this.dataDir);
   }
-
-  void flush() throws Exception {
-    write(this.dataDir);
-  }
 }
@@ -43,10 +43,16 @@ public class UserPosition {
   // Instrument ID -> Position detail.
   private final Map<String, List<UserPositionDetail>> positionMap
       = new ConcurrentHashMap<>();
+  // Running totals of all position details, so account query needn't walk them.
+  private final PositionFrozenCash frozenCash = new PositionFrozenCash();
+  private final PositionTradedCash tradedCash = new PositionTradedCash();
+  // Index of the details for close-freezing and position query.
+  private final PositionBook book = new PositionBook();
 
   UserPosition(Map<String, List<UserPositionDetail>> map, User parent) {
     this.positionMap.putAll(map);
     this.parent = parent;
+    resetTotals();
   }
 
   /**
@@ -64,19 +70,49 @@ public class UserPosition {
     return this.positionMap;
   }
 
+  PositionBook getPositionBook() {
+    return this.book;
+  }
+
   PositionFrozenCash getPositionFrozenCash() {
+    var r = new PositionFrozenCash();
+    r.FrozenCommission = this.frozenCash.FrozenCommission;
+    r.FrozenMargin = this.frozenCash.FrozenMargin;
+    return r;
+  }
+
+  PositionTradedCash getMoneyAfterTrade() {
+    var r = new PositionTradedCash();
+    r.Margin = this.tradedCash.Margin;
+    r.CloseProfitByDate = this.tradedCash.CloseProfitByDate;
+    r.CloseProfitByTrade = this.tradedCash.CloseProfitByTrade;
+    r.PositionProfitByDate = this.tradedCash.PositionProfitByDate;
+    r.PositionProfitByTrade = this.tradedCash.PositionProfitByTrade;
+    return r;
+  }
+
+  /*
+   Sum frozen cash from all frozen positions of all position details. It is only
+   used to check the running totals.
+   */
+  PositionFrozenCash sumPositionFrozenCash() {
     var r = new PositionFrozenCash();
     r.FrozenCommission = 0;
     r.FrozenMargin = 0;
     for (var lst : this.positionMap.values())
       for (var p : lst) {
-        r.FrozenCommission += p.getFrozenCommission();
-        r.FrozenMargin += p.getFrozenMargin();
+        var c = p.sumFrozenCash();
+        r.FrozenCommission += c.FrozenCommission;
+        r.FrozenMargin += c.FrozenMargin;
       }
     return r;
   }
 
-  PositionTradedCash getMoneyAfterTrade() {
+  /*
+   Sum money from all position details. It is only used to check the running
+   totals.
+   */
+  PositionTradedCash sumMoneyAfterTrade() {
     var r = new PositionTradedCash();
     r.Margin = 0.;
     r.CloseProfitByTrade = 0.;
@@ -99,8 +135,88 @@ public class UserPosition {
                       CInstrument instr,
                       CInstrumentMarginRate margin,
                       double preSettlementPrice) {
-    getSpecificPosition(trade.InstrumentID)
-        .add(toUserPosition(trade, instr, margin, preSettlementPrice));
+    var p = toUserPosition(trade, instr, margin, preSettlementPrice);
+    var lst = getSpecificPosition(trade.InstrumentID);
+    lst.add(p);
+    addTotals(p);
+    this.parent.getLedger().open(p.copyRawPosition());
+  }
+
+  /**
+   * Change the frozen cash totals. Position detail calls the method when its
+   * frozen position is added, traded or canceled.
+   *
+   * @param p          position detail
+   * @param volume     change of frozen volume
+   * @param margin     change of frozen margin
+   * @param commission change of frozen commission
+   */
+  void changeFrozenCash(UserPositionDetail p, long volume, double margin,
+                        double commission) {
+    this.book.changeFrozen(p, volume);
+    if (volume > 0)
+      this.parent.getLedger().freeze(UserLedger.FROZEN_POSITION, volume,
+          margin, commission);
+    else if (volume < 0)
+      this.parent.getLedger().release(UserLedger.FROZEN_POSITION, -volume,
+          -margin, -commission);
+    this.frozenCash.FrozenMargin += margin;
+    this.frozenCash.FrozenCommission += commission;
+  }
+
+  /**
+   * Change the traded cash totals. Position detail calls the method when it is
+   * closed.
+   *
+   * @param p                  position detail
+   * @param volume             closed volume
+   * @param margin             change of margin
+   * @param closeProfitByDate  change of close profit by date
+   * @param closeProfitByTrade change of close profit by trade
+   */
+  void changeTradedCash(UserPositionDetail p, long volume, double margin,
+                        double closeProfitByDate, double closeProfitByTrade) {
+    this.book.changeClosed(p, volume, -margin, closeProfitByDate);
+    this.tradedCash.Margin += margin;
+    this.tradedCash.CloseProfitByDate += closeProfitByDate;
+    this.tradedCash.CloseProfitByTrade += closeProfitByTrade;
+  }
+
+  /**
+   * Write the change of a closed position detail to ledger.
+   *
+   * @param change key of the position detail, closed volume, amount, profits
+   *               and released margins
+   */
+  void journalClose(CInvestorPositionDetail change) {
+    this.parent.getLedger().close(change);
+  }
+
+  private void resetTotals() {
+    this.frozenCash.FrozenMargin = 0;
+    this.frozenCash.FrozenCommission = 0;
+    this.tradedCash.Margin = 0;
+    this.tradedCash.CloseProfitByDate = 0;
+    this.tradedCash.CloseProfitByTrade = 0;
+    this.tradedCash.PositionProfitByDate = 0;
+    this.tradedCash.PositionProfitByTrade = 0;
+    this.book.clear();
+    for (var lst : this.positionMap.values())
+      for (var p : lst)
+        addTotals(p);
+  }
+
+  private void addTotals(UserPositionDetail p) {
+    p.setOwner(this);
+    this.book.add(p);
+    var raw = p.copyRawPosition();
+    this.frozenCash.FrozenMargin += p.getFrozenMargin();
+    this.frozenCash.FrozenCommission += p.getFrozenCommission();
+    this.tradedCash.Margin += raw.Margin;
+    this.tradedCash.CloseProfitByDate += raw.CloseProfitByDate;
+    this.tradedCash.CloseProfitByTrade += raw.CloseProfitByTrade;
+    this.tradedCash.PositionProfitByDate += raw.PositionProfitByDate;
+    this.tradedCash.PositionProfitByTrade += raw.PositionProfitByTrade;
   }
 
   /**
@@ -119,57 +235,32 @@ public class UserPosition {
       CInstrument instr,
       CInstrumentCommissionRate comm,
       String tradingDay) {
-    // Get position details.
-    var avail = getSpecificPosition(order.InstrumentID);
-    if (avail == null || avail.size() == 0)
+    // Buy open -> sell close, sell open -> buy close.
+    // The directions must be different.
+    byte posDirection;
+    if (order.Direction == DirectionType.DIRECTION_BUY)
+      posDirection = DirectionType.DIRECTION_SELL;
+    else
+      posDirection = DirectionType.DIRECTION_BUY;
+    var avail = this.book.getAvailableLots(order.InstrumentID, posDirection);
+    if (avail.size() == 0)
       return null;
     // Trading day not null.
     Objects.requireNonNull(tradingDay, "trading day null");
     // Calculate frozen position detail.
     int volume = order.VolumeTotalOriginal;
     var r = new LinkedList<FrozenPositionDetail>();
-    for (var a : avail) {
-      // Calculate shares.
-      // No need to calculate close profits and amount. They will be updated
-      // on return trade.
-      var rawPos = a.copyRawPosition();
-      // Must check current volume of the position detail. If it is ZERO,
-      // any value divided by ZERO will cause NaN.
-      if (rawPos.Direction == order.Direction || rawPos.Volume == 0)
-        continue;
-      // Buy open -> sell close, sell open -> buy close.
-      // The directions must be different.
-      rawPos.ExchMargin /= 1.0D * rawPos.Volume;
-      rawPos.Margin /= 1.0D * rawPos.Volume;
-      rawPos.Volume = rawPos.CloseVolume = 1;
-      // Commission.
-      var frzCash = new AccountFrozenCash();
-      if (rawPos.TradingDay.compareTo(tradingDay) == 0) {
-        // Today position.
-        if (comm.CloseTodayRatioByMoney > 0)
-          frzCash.FrozenCommission = order.LimitPrice
-              * instr.VolumeMultiple * comm.CloseTodayRatioByMoney;
-        else
-          frzCash.FrozenCommission = comm.CloseTodayRatioByVolume;
-      } else {
-        // YD position.
-        if (comm.CloseRatioByMoney > 0)
-          frzCash.FrozenCommission = order.LimitPrice
-              * instr.VolumeMultiple * comm.CloseRatioByMoney;
-        else
-          frzCash.FrozenCommission = comm.CloseRatioByVolume;
+    for (var lots : avail) {
+      for (var a : lots.open) {
+        if (a.getAvailableVolume() <= 0)
+          continue;
+        var frz = toFrozenPosition(a, order, instr, comm, tradingDay, volume);
+        r.add(frz);
+        // Reduce volume to zero.
+        if ((volume -= frz.getFrozenVolume()) <= 0)
+          break;
       }
-      // Keep frozen position.
-      // If volume to freeze is zero or negative, then it would cause
-      // the close order has an invalid volume-total-original,
-      // being zero or negative.
-      long vol = Math.min(a.getAvailableVolume(), volume);
-      if (vol > 0)
-        r.add(new FrozenPositionDetail(a, rawPos, frzCash, vol));
-      else if (vol < 0)
-        throw new IllegalStateException("negative frozen volume");
-      // Reduce volume to zero.
-      if ((volume -= vol) <= 0)
+      if (volume <= 0)
         break;
     }
     if (volume > 0)
@@ -178,6 +269,44 @@ public class UserPosition {
       return r;
   }
 
+  private FrozenPositionDetail toFrozenPosition(
+      UserPositionDetail a,
+      CInputOrder order,
+      CInstrument instr,
+      CInstrumentCommissionRate comm,
+      String tradingDay,
+      int volume) {
+    // Calculate shares.
+    // No need to calculate close profits and amount. They will be updated
+    // on return trade.
+    var rawPos = a.copyRawPosition();
+    rawPos.ExchMargin /= 1.0D * rawPos.Volume;
+    rawPos.Margin /= 1.0D * rawPos.Volume;
+    rawPos.Volume = rawPos.CloseVolume = 1;
+    // Commission.
+    var frzCash = new AccountFrozenCash();
+    if (rawPos.TradingDay.compareTo(tradingDay) == 0) {
+      // Today position.
+      if (comm.CloseTodayRatioByMoney > 0)
+        frzCash.FrozenCommission = order.LimitPrice
+            * instr.VolumeMultiple * comm.CloseTodayRatioByMoney;
+      else
+        frzCash.FrozenCommission = comm.CloseTodayRatioByVolume;
+    } else {
+      // YD position.
+      if (comm.CloseRatioByMoney > 0)
+        frzCash.FrozenCommission = order.LimitPrice
+            * instr.VolumeMultiple * comm.CloseRatioByMoney;
+      else
+        frzCash.FrozenCommission = comm.CloseRatioByVolume;
+    }
+    // Keep frozen position.
+    // The lot has available volume, so the close order always has a
+    // positive volume-total-original.
+    long vol = Math.min(a.getAvailableVolume(), volume);
+    return new FrozenPositionDetail(a, rawPos, frzCash, vol);
+  }
+
   /**
    * Settle position.
    *
@@ -211,6 +340,7 @@ public class UserPosition {
     }
     this.positionMap.clear();
     this.positionMap.putAll(settledPos);
+    resetTotals();
   }
 
   /**
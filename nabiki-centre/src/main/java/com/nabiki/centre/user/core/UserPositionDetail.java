@@ -28,15 +28,16 @@
 
 package com.nabiki.centre.user.core;
 
+import com.nabiki.centre.user.core.plain.PositionFrozenCash;
 import com.nabiki.centre.user.core.plain.PositionTradedCash;
 import com.nabiki.commons.ctpobj.CInvestorPosition;
 import com.nabiki.commons.ctpobj.CInvestorPositionDetail;
 import com.nabiki.commons.ctpobj.DirectionType;
 import com.nabiki.commons.ctpobj.PosiDirectionType;
-import com.nabiki.commons.utils.Utils;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class UserPositionDetail {
   /**
@@ -46,56 +47,79 @@ public class UserPositionDetail {
    * {@code Volume}.
    */
   private final CInvestorPositionDetail raw;
-  private final List<FrozenPositionDetail> frozenPosition = new LinkedList<>();
+  // Frozen positions that still have frozen volume.
+  private final Set<FrozenPositionDetail> frozenPosition = new LinkedHashSet<>();
+  // Running totals of the frozen positions.
+  private long frozenVolume = 0;
+  private double frozenMargin = 0, frozenCommission = 0;
+  private UserPosition owner;
 
   UserPositionDetail(CInvestorPositionDetail raw) {
-    this.raw = Utils.deepCopy(raw);
+    this.raw = new CInvestorPositionDetail(raw);
+  }
+
+  /**
+   * Set the user position that keeps this detail. Changes of frozen cash and
+   * traded cash are reported to the owner.
+   *
+   * @param owner user position
+   */
+  void setOwner(UserPosition owner) {
+    this.owner = owner;
   }
 
   /**
    * Close frozen position. The method updates the fields in original position
    * mainly the closeXXXX info and margin.
    *
+   * @param frz      frozen position that is closed
    * @param single   close info for 1 volume
    * @param tradeCnt closed volume
    */
-  void closePosition(PositionTradedCash single,
+  void closePosition(FrozenPositionDetail frz,
+                     PositionTradedCash single,
                      long tradeCnt) {
+    var closeProfitByDate = single.CloseProfitByDate * tradeCnt;
+    var closeProfitByTrade = single.CloseProfitByTrade * tradeCnt;
+    var margin = frz.getSingleFrozenPosition().Margin * tradeCnt;
     this.raw.CloseAmount += single.CloseAmount * tradeCnt;
-    this.raw.CloseProfitByDate += single.CloseProfitByDate * tradeCnt;
-    this.raw.CloseProfitByTrade += single.CloseProfitByTrade * tradeCnt;
+    this.raw.CloseProfitByDate += closeProfitByDate;
+    this.raw.CloseProfitByTrade += closeProfitByTrade;
     this.raw.CloseVolume += single.CloseVolume * tradeCnt;
     // Reduce margin and volume.
     this.raw.Volume -= single.CloseVolume * tradeCnt;
-    this.raw.ExchMargin -= getSingleExchMargin() * tradeCnt;
-    this.raw.Margin -= getSingleMargin() * tradeCnt;
-  }
-
-  private double getSingleMargin() {
-    if (this.frozenPosition.size() == 0)
-      throw new IllegalStateException("no frozen position to close");
-    return this.frozenPosition.iterator().next().getSingleFrozenPosition().Margin;
-  }
-
-  private double getSingleExchMargin() {
-    if (this.frozenPosition.size() == 0)
-      throw new IllegalStateException("no frozen position to close");
-    return this.frozenPosition.iterator().next().getSingleFrozenPosition().ExchMargin;
+    this.raw.ExchMargin -= frz.getSingleFrozenPosition().ExchMargin * tradeCnt;
+    this.raw.Margin -= margin;
+    if (this.owner != null) {
+      // Keys of the detail and the changes.
+      var change = new CInvestorPositionDetail();
+      change.InstrumentID = this.raw.InstrumentID;
+      change.OpenDate = this.raw.OpenDate;
+      change.TradeID = this.raw.TradeID;
+      change.Direction = this.raw.Direction;
+      change.CloseVolume = (int) (single.CloseVolume * tradeCnt);
+      change.CloseAmount = single.CloseAmount * tradeCnt;
+      change.CloseProfitByDate = closeProfitByDate;
+      change.CloseProfitByTrade = closeProfitByTrade;
+      change.Margin = margin;
+      change.ExchMargin = frz.getSingleFrozenPosition().ExchMargin * tradeCnt;
+      this.owner.journalClose(change);
+    }
+    if (this.owner != null)
+      this.owner.changeTradedCash(this, single.CloseVolume * tradeCnt, -margin,
+          closeProfitByDate, closeProfitByTrade);
   }
 
   /**
    * Cancel an close order whose frozen volume is released.
    */
   void cancel() {
-    for (var frz : this.frozenPosition)
+    for (var frz : new ArrayList<>(this.frozenPosition))
       frz.cancel();
   }
 
   int getFrozenVolume() {
-    int frozen = 0;
-    for (var pd : frozenPosition)
-      frozen += pd.getFrozenVolume();
-    return frozen;
+    return (int) this.frozenVolume;
   }
 
   /**
@@ -107,27 +131,51 @@ public class UserPositionDetail {
     return this.raw.Volume - getFrozenVolume();
   }
 
+  String getInstrumentID() {
+    return this.raw.InstrumentID;
+  }
+
+  byte getDirection() {
+    return this.raw.Direction;
+  }
+
+  String getTradingDay() {
+    return this.raw.TradingDay;
+  }
+
+  int getVolume() {
+    return this.raw.Volume;
+  }
+
   double getFrozenMargin() {
-    double frz = 0.0D;
-    for (var c : this.frozenPosition)
-      frz += c.getFrozenVolume() * c.getSingleFrozenPosition().Margin;
-    return frz;
+    return this.frozenMargin;
   }
 
   double getFrozenCommission() {
-    double frz = 0.0D;
-    for (var c : this.frozenPosition)
-      frz += c.getFrozenVolume() * c.getSingleFrozenCash().FrozenCommission;
-    return frz;
+    return this.frozenCommission;
+  }
+
+  /*
+   Sum frozen margin and commission from all frozen positions. It is only used
+   to check the running totals.
+   */
+  PositionFrozenCash sumFrozenCash() {
+    var r = new PositionFrozenCash();
+    for (var c : this.frozenPosition) {
+      r.FrozenMargin += c.getFrozenVolume() * c.getSingleFrozenPosition().Margin;
+      r.FrozenCommission += c.getFrozenVolume()
+          * c.getSingleFrozenCash().FrozenCommission;
+    }
+    return r;
   }
 
   /**
-   * Get a deep copy of the original position detail.
+   * Get a copy of the original position detail.
    *
-   * @return a deep copy of original position detail
+   * @return a copy of original position detail
    */
   CInvestorPositionDetail copyRawPosition() {
-    return Utils.deepCopy(this.raw);
+    return new CInvestorPositionDetail(this.raw);
   }
 
   /**
@@ -179,6 +227,46 @@ public class UserPositionDetail {
    * @param frzPosition new frozen position
    */
   void addFrozenPosition(FrozenPositionDetail frzPosition) {
-    this.frozenPosition.add(frzPosition);
+    var volume = frzPosition.getFrozenVolume();
+    if (volume <= 0 || !this.frozenPosition.add(frzPosition))
+      return;
+    setFrozen(this.frozenVolume + volume,
+        this.frozenMargin
+            + volume * frzPosition.getSingleFrozenPosition().Margin,
+        this.frozenCommission
+            + volume * frzPosition.getSingleFrozenCash().FrozenCommission);
+  }
+
+  /**
+   * Release frozen volume of the frozen position when its order is traded or
+   * canceled. The frozen position is removed after all its volume is released.
+   *
+   * @param frzPosition frozen position
+   * @param volume      released volume
+   */
+  void releaseFrozenPosition(FrozenPositionDetail frzPosition, long volume) {
+    if (!this.frozenPosition.contains(frzPosition))
+      return;
+    if (frzPosition.getFrozenVolume() <= 0)
+      this.frozenPosition.remove(frzPosition);
+    setFrozen(this.frozenVolume - volume,
+        this.frozenMargin
+            - volume * frzPosition.getSingleFrozenPosition().Margin,
+        this.frozenCommission
+            - volume * frzPosition.getSingleFrozenCash().FrozenCommission);
+  }
+
+  private void setFrozen(long volume, double margin, double commission) {
+    // Reset rounding error when nothing is frozen.
+    if (this.frozenPosition.isEmpty()) {
+      volume = 0;
+      margin = commission = 0;
+    }
+    if (this.owner != null)
+      this.owner.changeFrozenCash(this, volume - this.frozenVolume,
+          margin - this.frozenMargin, commission - this.frozenCommission);
+    this.frozenVolume = volume;
+    this.frozenMargin = margin;
+    this.frozenCommission = commission;
   }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.commons.ctpobj.CInvestorPosition;
+import com.nabiki.commons.ctpobj.CInvestorPositionDetail;
+import com.nabiki.commons.ctpobj.CTradingAccount;
+
+import java.util.*;
+
+/**
+ * Immutable view of a user's account and positions at some version. It is
+ * built by the user's writer after each update, so queries read it without
+ * touching the live user data.
+ */
+class UserSnapshot {
+  private final long version;
+  private final String tradingDay;
+  private final CTradingAccount account;
+  // Instrument ID -> position details.
+  private final Map<String, List<CInvestorPositionDetail>> details;
+  // Instrument ID -> long and short positions, null if no trading day.
+  private final Map<String, List<CInvestorPosition>> positions;
+
+  private UserSnapshot(long version, String tradingDay, CTradingAccount account,
+                       Map<String, List<CInvestorPositionDetail>> details,
+                       Map<String, List<CInvestorPosition>> positions) {
+    this.version = version;
+    this.tradingDay = tradingDay;
+    this.account = account;
+    this.details = details;
+    this.positions = positions;
+  }
+
+  /*
+   Build snapshot from the live user. Instruments not changed since the
+   previous snapshot share its lists. Must be called on the user's writer.
+   */
+  static UserSnapshot of(User user, long version, String tradingDay,
+                         UserSnapshot previous) {
+    var account = user.getTradingAccount();
+    account.TradingDay = tradingDay;
+    var hasDay = tradingDay != null && tradingDay.length() > 0;
+    var book = user.getUserPosition().getPositionBook();
+    var dirty = book.drainDirty();
+    Map<String, List<CInvestorPositionDetail>> details;
+    Map<String, List<CInvestorPosition>> positions;
+    Collection<String> changed;
+    if (dirty == null || previous == null || previous.positions == null
+        || !Objects.equals(previous.tradingDay, tradingDay)) {
+      details = new HashMap<>();
+      positions = new HashMap<>();
+      changed = book.getInstrumentID();
+    } else {
+      details = new HashMap<>(previous.details);
+      positions = new HashMap<>(previous.positions);
+      changed = dirty;
+    }
+    var positionMap = user.getUserPosition().getPositionMap();
+    for (var instrID : changed) {
+      var lst = positionMap.get(instrID);
+      if (lst == null || lst.size() == 0) {
+        details.remove(instrID);
+        positions.remove(instrID);
+        continue;
+      }
+      var d = new ArrayList<CInvestorPositionDetail>(lst.size());
+      for (var p : lst)
+        d.add(p.copyRawPosition());
+      details.put(instrID, Collections.unmodifiableList(d));
+      if (hasDay)
+        positions.put(instrID, Collections.unmodifiableList(
+            book.getPosition(instrID, tradingDay)));
+    }
+    return new UserSnapshot(version, tradingDay, account,
+        Collections.unmodifiableMap(details),
+        hasDay ? Collections.unmodifiableMap(positions) : null);
+  }
+
+  long getVersion() {
+    return this.version;
+  }
+
+  String getTradingDay() {
+    return this.tradingDay;
+  }
+
+  CTradingAccount getTradingAccount() {
+    return new CTradingAccount(this.account);
+  }
+
+  /*
+   Get copies of position details of the instrument, or all instruments if the
+   instrument ID is null or empty.
+   */
+  List<CInvestorPositionDetail> getPositionDetail(String instrID) {
+    var r = new LinkedList<CInvestorPositionDetail>();
+    if (instrID == null || instrID.length() == 0) {
+      for (var lst : this.details.values())
+        for (var d : lst)
+          r.add(new CInvestorPositionDetail(d));
+    } else {
+      var lst = this.details.get(instrID);
+      if (lst != null)
+        for (var d : lst)
+          r.add(new CInvestorPositionDetail(d));
+    }
+    return r;
+  }
+
+  /*
+   Get copies of positions of the instrument, or all instruments if the
+   instrument ID is null or empty.
+   */
+  List<CInvestorPosition> getPosition(String instrID) {
+    var r = new LinkedList<CInvestorPosition>();
+    if (this.positions == null)
+      throw new IllegalArgumentException("trading day null");
+    if (instrID == null || instrID.length() == 0) {
+      for (var lst : this.positions.values())
+        for (var p : lst)
+          r.add(new CInvestorPosition(p));
+    } else {
+      var lst = this.positions.get(instrID);
+      if (lst != null)
+        for (var p : lst)
+          r.add(new CInvestorPosition(p));
+    }
+    return r;
+  }
+}
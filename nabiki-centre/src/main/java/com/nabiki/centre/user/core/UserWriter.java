@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.commons.utils.Utils;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single writer of a user. Orders, actions, return orders, trades and
+ * settlement are applied to the user one by one on the writer's thread, so
+ * they need no lock. Updates are only counted, and the next query builds a
+ * new {@link UserSnapshot} on the writer after the queued updates, so a burst
+ * of updates costs one snapshot.
+ */
+class UserWriter {
+  private final User user;
+  private final Global global;
+  private final ExecutorService executor;
+  private final AtomicLong version = new AtomicLong(0);
+  private volatile Thread thread;
+  private volatile UserSnapshot snapshot;
+  // Updates queued, counted before they are queued.
+  private final AtomicLong queued = new AtomicLong(0);
+  // Updates applied, and applied when the snapshot is built. Writer only.
+  private volatile long applied = 0, published = 0;
+
+  UserWriter(User user, Global global) {
+    this.user = user;
+    this.global = global;
+    this.executor = Executors.newSingleThreadExecutor(r -> {
+      var t = new Thread(r, "user-writer-" + user.getUserID());
+      t.setDaemon(true);
+      this.thread = t;
+      return t;
+    });
+    publish();
+  }
+
+  /**
+   * Apply the update on writer and wait for its result. If it is called on
+   * writer, the update is applied directly.
+   *
+   * @param task update
+   * @param <T>  type of result
+   * @return result of the update
+   */
+  <T> T call(Callable<T> task) {
+    var t = updating(task);
+    try {
+      return await(t);
+    } catch (RejectedExecutionException e) {
+      this.queued.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Apply the update on writer and return its future without waiting.
+   *
+   * @param task update
+   * @param <T>  type of result
+   * @return future of the update
+   */
+  <T> Future<T> submit(Callable<T> task) {
+    var t = updating(task);
+    try {
+      return this.executor.submit(t);
+    } catch (RejectedExecutionException e) {
+      this.queued.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Apply the update on writer without waiting. Error is logged.
+   *
+   * @param task update
+   */
+  void run(Runnable task) {
+    this.queued.incrementAndGet();
+    try {
+      this.executor.execute(() -> {
+        try {
+          task.run();
+        } catch (Throwable th) {
+          this.global.getLogger().warning(Utils.formatLog(
+              "failed user update", this.user.getUserID(),
+              th.getMessage(), null));
+        } finally {
+          applied();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      this.queued.decrementAndGet();
+      this.global.getLogger().warning(
+          "user writer closed: " + this.user.getUserID());
+    }
+  }
+
+  /**
+   * Read the user on writer after the queued updates, without marking it
+   * changed. It is for the tasks that read the live user, like writing it to
+   * files.
+   *
+   * @param task reading task
+   * @param <T>  type of result
+   * @return future of the task
+   */
+  <T> Future<T> read(Callable<T> task) {
+    return this.executor.submit(task);
+  }
+
+  /**
+   * Get the latest snapshot. If updates are queued or trading day has changed
+   * since the snapshot was built, a new snapshot is built on writer after the
+   * queued updates.
+   *
+   * @return latest snapshot
+   */
+  UserSnapshot getSnapshot() {
+    var s = this.snapshot;
+    if (this.published < this.queued.get()
+        || !sameDay(s.getTradingDay(), this.global.getTradingDay())) {
+      try {
+        s = await(this::refresh);
+      } catch (RejectedExecutionException e) {
+        // Writer is closed, keep the last snapshot.
+      }
+    }
+    return s;
+  }
+
+  void close() {
+    this.executor.shutdown();
+  }
+
+  private <T> Callable<T> updating(Callable<T> task) {
+    this.queued.incrementAndGet();
+    return () -> {
+      try {
+        return task.call();
+      } finally {
+        applied();
+      }
+    };
+  }
+
+  /*
+  Count the applied update on writer, and force the ledger after the last
+  queued update, so a batch of updates is forced once.
+   */
+  private void applied() {
+    if (++this.applied >= this.queued.get())
+      this.user.getLedger().sync();
+  }
+
+  private <T> T await(Callable<T> task) {
+    if (Thread.currentThread() == this.thread) {
+      try {
+        return task.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
+    try {
+      return this.executor.submit(task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted waiting for user writer", e);
+    } catch (ExecutionException e) {
+      var cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IllegalStateException(cause.getMessage(), cause);
+    }
+  }
+
+  /*
+  Build snapshot on writer if it is out of date. All updates queued before the
+  call have been applied here.
+   */
+  private UserSnapshot refresh() {
+    if (this.published < this.applied
+        || !sameDay(this.snapshot.getTradingDay(), this.global.getTradingDay()))
+      publish();
+    return this.snapshot;
+  }
+
+  private void publish() {
+    this.published = this.applied;
+    try {
+      this.snapshot = UserSnapshot.of(this.user,
+          this.version.incrementAndGet(), this.global.getTradingDay(),
+          this.snapshot);
+    } catch (Throwable th) {
+      // Keep the last snapshot.
+      this.global.getLogger().warning(Utils.formatLog(
+          "failed user snapshot", this.user.getUserID(),
+          th.getMessage(), null));
+    }
+  }
+
+  private static boolean sameDay(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
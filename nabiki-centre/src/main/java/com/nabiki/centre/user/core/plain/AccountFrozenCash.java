@@ -34,4 +34,9 @@ public class AccountFrozenCash implements java.io.Serializable {
 
   public AccountFrozenCash() {
   }
+
+  public AccountFrozenCash(AccountFrozenCash other) {
+    FrozenCash = other.FrozenCash;
+    FrozenCommission = other.FrozenCommission;
+  }
 }
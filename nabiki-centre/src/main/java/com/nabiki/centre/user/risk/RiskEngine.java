@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.risk;
+
+import com.nabiki.centre.user.auth.UserAuthManager;
+import com.nabiki.commons.ctpobj.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pre-trade risk checks of order insertion. Allowed instruments and offsets
+ * are indexed per user from the auth profile, and limits are kept in atomic
+ * counters, so a check is a few hash lookups and can run on the I/O thread.
+ *
+ * <p>The checks are:
+ * <ul>
+ *   <li>instrument and offset allowed by auth profile</li>
+ *   <li>max volume of an order</li>
+ *   <li>max orders per second</li>
+ *   <li>max open volume of an instrument in a trading day</li>
+ *   <li>order crossing the user's own working order</li>
+ * </ul>
+ * Rejections are counted by reason.
+ * </p>
+ */
+public class RiskEngine {
+  public static final String NO_TRADING_RIGHT = "NO_TRADING_RIGHT",
+      OVER_ORDER_VOLUME = "OVER_ORDER_VOLUME",
+      OVER_ORDER_RATE = "OVER_ORDER_RATE",
+      OVER_OPEN_VOLUME = "OVER_OPEN_VOLUME",
+      SELF_TRADE = "SELF_TRADE";
+
+  private final UserAuthManager authMgr;
+  private final Map<String, UserRisk> users = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> rejects = new ConcurrentHashMap<>();
+
+  public RiskEngine(UserAuthManager authMgr) {
+    this.authMgr = authMgr;
+  }
+
+  /**
+   * Check the order and reserve its open volume if it passes. If the order is
+   * rejected later, call {@link RiskEngine#release(CInputOrder)} to give the
+   * volume back.
+   *
+   * @param order order to insert
+   * @return {@code null} if the order passes, or the reason of rejection
+   */
+  public CRspInfo check(CInputOrder order) {
+    return check(order, System.currentTimeMillis());
+  }
+
+  /*
+   Check the order at the specified time. Open volume is reserved before the
+   rate slot is taken, and given back if the rate is over limit, so a rejected
+   order takes neither of them.
+   */
+  CRspInfo check(CInputOrder order, long nowMillis) {
+    var risk = getRisk(order.UserID);
+    if (risk == null || !risk.isAllowed(order.InstrumentID,
+        order.CombOffsetFlag))
+      return reject(NO_TRADING_RIGHT, ErrorCodes.NO_TRADING_RIGHT);
+    if (!risk.isValidVolume(order.VolumeTotalOriginal))
+      return reject(OVER_ORDER_VOLUME, ErrorCodes.BAD_FIELD);
+    if (risk.isSelfTrade(order))
+      return reject(SELF_TRADE, ErrorCodes.BAD_FIELD);
+    var isOpen = order.CombOffsetFlag == CombOffsetFlagType.OFFSET_OPEN;
+    if (isOpen
+        && !risk.reserveOpen(order.InstrumentID, order.VolumeTotalOriginal))
+      return reject(OVER_OPEN_VOLUME, ErrorCodes.CLOSE_ONLY);
+    if (!risk.acquireRate(nowMillis)) {
+      if (isOpen)
+        risk.releaseOpen(order.InstrumentID, order.VolumeTotalOriginal);
+      return reject(OVER_ORDER_RATE, ErrorCodes.CFFEX_OVER_REQUEST_PER_SECOND);
+    }
+    return null;
+  }
+
+  /**
+   * Give back the open volume reserved by an order that is rejected after
+   * check.
+   *
+   * @param order rejected order
+   */
+  public void release(CInputOrder order) {
+    var risk = getRisk(order.UserID);
+    if (risk != null && order.CombOffsetFlag == CombOffsetFlagType.OFFSET_OPEN)
+      risk.releaseOpen(order.InstrumentID, order.VolumeTotalOriginal);
+  }
+
+  /**
+   * Keep the accepted order as working until it is traded or canceled. Call it
+   * before the order is sent so its return orders always find it, and call
+   * {@link RiskEngine#reject(String, CInputOrder)} if the insertion fails.
+   *
+   * @param uuid  order UUID
+   * @param order accepted order
+   */
+  public void accept(String uuid, CInputOrder order) {
+    var risk = getRisk(order.UserID);
+    if (risk != null)
+      risk.addWorking(uuid, order);
+  }
+
+  /**
+   * Remove the working order whose insertion fails and give back its reserved
+   * open volume.
+   *
+   * @param uuid  order UUID
+   * @param order rejected order
+   */
+  public void reject(String uuid, CInputOrder order) {
+    var risk = getRisk(order.UserID);
+    if (risk != null)
+      risk.removeWorking(uuid);
+    release(order);
+  }
+
+  /**
+   * Update working order with its return order.
+   *
+   * @param userID user ID of the order
+   * @param rtn    return order with local ID set to order UUID
+   */
+  public void whenRtnOrder(String userID, COrder rtn) {
+    if (userID == null || rtn == null || rtn.OrderLocalID == null)
+      return;
+    var risk = this.users.get(userID);
+    if (risk != null)
+      risk.updateWorking(rtn);
+  }
+
+  /**
+   * Get count of rejections by reason.
+   *
+   * @return reason -> count
+   */
+  public Map<String, Long> getRejectStatistics() {
+    var r = new HashMap<String, Long>();
+    for (var entry : this.rejects.entrySet())
+      r.put(entry.getKey(), entry.getValue().sum());
+    return r;
+  }
+
+  /*
+   Get risk state of the user. The state is rebuilt when auth profiles are
+   reloaded, so daily counters start over with the new profile.
+   */
+  private UserRisk getRisk(String userID) {
+    if (userID == null)
+      return null;
+    var profile = this.authMgr.getAuthProfile(userID);
+    if (profile == null)
+      return null;
+    var risk = this.users.get(userID);
+    if (risk != null && risk.getProfile() == profile)
+      return risk;
+    return this.users.compute(userID, (k, v) ->
+        v == null || v.getProfile() != profile ? new UserRisk(profile) : v);
+  }
+
+  private CRspInfo reject(String reason, int errorCode) {
+    this.rejects.computeIfAbsent(reason, k -> new LongAdder()).increment();
+    var r = new CRspInfo();
+    r.ErrorID = errorCode;
+    r.ErrorMsg = reason;
+    return r;
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.risk;
+
+import com.nabiki.centre.user.auth.OrderOffset;
+import com.nabiki.centre.user.auth.UserAuthProfile;
+import com.nabiki.commons.ctpobj.CInputOrder;
+import com.nabiki.commons.ctpobj.COrder;
+import com.nabiki.commons.ctpobj.CombOffsetFlagType;
+import com.nabiki.commons.ctpobj.DirectionType;
+import com.nabiki.commons.ctpobj.OrderStatusType;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ Risk state of a user built from its auth profile. Allowed instruments and
+ limits are indexed once and never change, counters are atomic so checks
+ from different sessions need no lock.
+ */
+class UserRisk {
+  private final UserAuthProfile profile;
+  // Instrument ID -> allowed offset.
+  private final Map<String, OrderOffset> offsets = new HashMap<>();
+  // Instrument ID -> max open volume of the day.
+  private final Map<String, Integer> maxOpen = new HashMap<>();
+  // Instrument ID -> open volume accepted today.
+  private final Map<String, AtomicLong> opened = new ConcurrentHashMap<>();
+  // Instrument ID -> working orders, only kept for self-trade check.
+  private final Map<String, Working> working = new ConcurrentHashMap<>();
+  // Order UUID -> working order.
+  private final Map<String, WorkingOrder> orders = new ConcurrentHashMap<>();
+  private final int maxOrderVolume, maxOrderPerSecond;
+  private final boolean checkSelfTrade;
+  // Second in high 32 bits and count of orders in it in low 32 bits.
+  private final AtomicLong rate = new AtomicLong(0);
+
+  UserRisk(UserAuthProfile profile) {
+    this.profile = profile;
+    if (profile.InstrumentAuths != null)
+      for (var auth : profile.InstrumentAuths) {
+        if (auth == null || auth.InstrumentID == null
+            || auth.AllowOffset == null)
+          continue;
+        // Keep the widest right if an instrument is listed more than once.
+        this.offsets.merge(auth.InstrumentID, auth.AllowOffset,
+            (a, b) -> a.ordinal() <= b.ordinal() ? a : b);
+        if (auth.MaxOpenVolume > 0)
+          this.maxOpen.put(auth.InstrumentID, auth.MaxOpenVolume);
+      }
+    var limit = profile.Limit;
+    this.maxOrderVolume = limit == null ? 0 : limit.MaxOrderVolume;
+    this.maxOrderPerSecond = limit == null ? 0 : limit.MaxOrderPerSecond;
+    this.checkSelfTrade = limit != null && limit.CheckSelfTrade;
+  }
+
+  UserAuthProfile getProfile() {
+    return this.profile;
+  }
+
+  boolean isAllowed(String instrID, byte offset) {
+    var allow = this.offsets.get(instrID);
+    if (allow == null)
+      return false;
+    return allow == OrderOffset.OPEN_CLOSE || (allow == OrderOffset.ONLY_CLOSE
+        && offset != CombOffsetFlagType.OFFSET_OPEN);
+  }
+
+  boolean isValidVolume(int volume) {
+    return this.maxOrderVolume <= 0 || volume <= this.maxOrderVolume;
+  }
+
+  /*
+   Count the order in current second. Return false if the count is over
+   limit.
+   */
+  boolean acquireRate(long nowMillis) {
+    if (this.maxOrderPerSecond <= 0)
+      return true;
+    long second = nowMillis / 1000;
+    while (true) {
+      long old = this.rate.get();
+      long count = (old >>> 32) == second ? (old & 0xFFFFFFFFL) : 0;
+      if (count >= this.maxOrderPerSecond)
+        return false;
+      if (this.rate.compareAndSet(old, (second << 32) | (count + 1)))
+        return true;
+    }
+  }
+
+  /*
+   Reserve open volume of the instrument. Return false if the volume is over
+   limit.
+   */
+  boolean reserveOpen(String instrID, int volume) {
+    var max = this.maxOpen.get(instrID);
+    var counter = this.opened.computeIfAbsent(instrID, k -> new AtomicLong(0));
+    if (max == null) {
+      counter.addAndGet(volume);
+      return true;
+    }
+    while (true) {
+      long old = counter.get();
+      if (old + volume > max)
+        return false;
+      if (counter.compareAndSet(old, old + volume))
+        return true;
+    }
+  }
+
+  void releaseOpen(String instrID, int volume) {
+    var counter = this.opened.get(instrID);
+    if (counter != null && volume > 0)
+      counter.addAndGet(-volume);
+  }
+
+  boolean isSelfTrade(CInputOrder order) {
+    if (!this.checkSelfTrade)
+      return false;
+    var w = this.working.get(order.InstrumentID);
+    return w != null && w.crosses(order.Direction, order.LimitPrice);
+  }
+
+  void addWorking(String uuid, CInputOrder order) {
+    var o = new WorkingOrder(order.InstrumentID, order.Direction,
+        order.LimitPrice, order.VolumeTotalOriginal,
+        order.CombOffsetFlag == CombOffsetFlagType.OFFSET_OPEN);
+    this.orders.put(uuid, o);
+    if (this.checkSelfTrade)
+      this.working.computeIfAbsent(order.InstrumentID, k -> new Working())
+          .add(o.direction, o.price);
+  }
+
+  void removeWorking(String uuid) {
+    var o = this.orders.remove(uuid);
+    if (o == null)
+      return;
+    var w = this.working.get(o.instrID);
+    if (w != null)
+      w.remove(o.direction, o.price);
+  }
+
+  /*
+   Update working order with its return. A sub-order that is traded or
+   canceled is removed from the remaining volume, and the canceled volume of an
+   open order is given back to the open limit.
+   */
+  void updateWorking(COrder rtn) {
+    var o = this.orders.get(rtn.OrderLocalID);
+    if (o == null)
+      return;
+    boolean canceled = rtn.OrderStatus == OrderStatusType.CANCELED;
+    if (!canceled && rtn.OrderStatus != OrderStatusType.ALL_TRADED)
+      return;
+    if (canceled && o.isOpen)
+      releaseOpen(o.instrID, rtn.VolumeTotal);
+    if (o.release(rtn.VolumeTotalOriginal)) {
+      this.orders.remove(rtn.OrderLocalID);
+      var w = this.working.get(o.instrID);
+      if (w != null)
+        w.remove(o.direction, o.price);
+    }
+  }
+
+  private static class WorkingOrder {
+    final String instrID;
+    final byte direction;
+    final double price;
+    final boolean isOpen;
+    private int remaining;
+
+    WorkingOrder(String instrID, byte direction, double price, int volume,
+                 boolean isOpen) {
+      this.instrID = instrID;
+      this.direction = direction;
+      this.price = price;
+      this.remaining = volume;
+      this.isOpen = isOpen;
+    }
+
+    /*
+     Return true when all volume is done. Only true once.
+     */
+    synchronized boolean release(int volume) {
+      if (this.remaining <= 0)
+        return false;
+      this.remaining -= volume;
+      return this.remaining <= 0;
+    }
+  }
+
+  /*
+   Prices of working orders of an instrument.
+   */
+  private static class Working {
+    private final TreeMap<Double, Integer> buys = new TreeMap<>();
+    private final TreeMap<Double, Integer> sells = new TreeMap<>();
+
+    synchronized void add(byte direction, double price) {
+      book(direction).merge(price, 1, Integer::sum);
+    }
+
+    synchronized void remove(byte direction, double price) {
+      book(direction).computeIfPresent(price, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    /*
+     Buy crosses own sell at or below its price, and sell crosses own buy at
+     or above its price.
+     */
+    synchronized boolean crosses(byte direction, double price) {
+      if (direction == DirectionType.DIRECTION_BUY)
+        return !this.sells.isEmpty() && this.sells.firstKey() <= price;
+      else
+        return !this.buys.isEmpty() && this.buys.lastKey() >= price;
+    }
+
+    private TreeMap<Double, Integer> book(byte direction) {
+      return direction == DirectionType.DIRECTION_BUY ? this.buys : this.sells;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.chain;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.centre.md.CandleRW;
+import com.nabiki.centre.md.CandleStore;
+import com.nabiki.centre.md.MarketDataReceiver;
+import com.nabiki.centre.md.MarketDataRouter;
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.CInstrument;
+import com.nabiki.commons.ctpobj.CSubMarketData;
+import com.nabiki.commons.iop.MessageType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/*
+Paged replay sends a new message per candle, numbered in order and merged in
+time across durations, a stalled session doesn't hold back the replays of
+others, and replay frames in flight don't hold back live market data.
+ */
+public class CandleReplayTest {
+  static final String INSTR = "c2105";
+
+  private static Global global;
+  private static CandleStore store;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-replay")
+        .toString();
+    global = GlobalConfig.config();
+    var instr = new CInstrument();
+    instr.InstrumentID = INSTR;
+    instr.ProductID = "c";
+    GlobalConfig.setInstrumentConfig(instr);
+    store = new CandleStore(Files.createTempDirectory("candle"));
+    for (var minute : new int[]{1, 5})
+      for (int i = 0; i < (minute == 1 ? 250 : 40); ++i) {
+        var c = new CCandle();
+        c.InstrumentID = INSTR;
+        c.Minute = minute;
+        c.ActionDay = "20210104";
+        c.UpdateTime = String.format("%02d:%02d:00", 9 + i * minute / 60,
+            i * minute % 60);
+        c.Volume = i;
+        assertTrue(store.append(c));
+      }
+  }
+
+  private static void waitSent(FakeSession session, int count)
+      throws InterruptedException {
+    for (int i = 0; i < 250 && session.sent.size() < count; ++i) {
+      // Remote reads what is written so far.
+      session.written();
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+    session.written();
+    assertEquals(count, session.sent.size());
+  }
+
+  @Test
+  public void paged_replay_in_order() throws InterruptedException {
+    // Durations merged in time, the same time in ascending duration.
+    var expected = new ArrayList<CCandle>();
+    for (var minute : new int[]{1, 5})
+      expected.addAll(store.query(INSTR, minute, Long.MIN_VALUE,
+          Long.MAX_VALUE));
+    expected.sort(Comparator.comparingLong(
+        c -> CandleStore.toTime(c.ActionDay, c.UpdateTime)));
+    // Pages wait for the session to catch up.
+    var replay = new CandleReplay(store, global, 50,
+        TimeUnit.SECONDS.toMillis(5));
+    var session = new FakeSession();
+    replay.replay(session, MessageType.RSP_QRY_CANDLE, "req", INSTR, 0,
+        Long.MIN_VALUE, Long.MAX_VALUE, 100, false);
+    waitSent(session, 290);
+    for (int i = 0; i < 290; ++i) {
+      var m = session.sent.get(i);
+      if (i > 0)
+        assertNotSame(session.sent.get(i - 1), m);
+      assertEquals(i + 1, m.CurrentCount);
+      assertEquals(290, m.TotalCount);
+      assertEquals("req", m.RequestID);
+      var c = (CCandle) m.Body;
+      assertEquals(expected.get(i).Minute, c.Minute);
+      assertEquals(expected.get(i).UpdateTime, c.UpdateTime);
+      assertEquals(expected.get(i).Volume, c.Volume);
+    }
+    // Both durations at 09:00, 1 minute first.
+    assertEquals(1, ((CCandle) session.sent.get(0).Body).Minute);
+    assertEquals(5, ((CCandle) session.sent.get(1).Body).Minute);
+    assertEquals(0, CandleReplay.getPendingReplays(session));
+  }
+
+  @Test
+  public void stalled_sessions_dont_block() throws InterruptedException {
+    var replay = new CandleReplay(store, global, 50,
+        TimeUnit.SECONDS.toMillis(5));
+    // Sessions that never read their first pages.
+    var stalled = new ArrayList<FakeSession>();
+    for (int i = 0; i < 4; ++i) {
+      var s = new FakeSession();
+      stalled.add(s);
+      replay.replay(s, MessageType.RSP_QRY_CANDLE, "req", INSTR, 1,
+          Long.MIN_VALUE, Long.MAX_VALUE, 100, false);
+    }
+    var session = new FakeSession();
+    replay.replay(session, MessageType.RSP_QRY_CANDLE, "req", INSTR, 1,
+        Long.MIN_VALUE, Long.MAX_VALUE, 100, false);
+    waitSent(session, 250);
+    for (var s : stalled)
+      assertEquals(100, s.sent.size());
+  }
+
+  @Test
+  public void replay_not_live_pending() throws Exception {
+    var adaptor = new SubscriptionAdaptor(new MarketDataRouter(),
+        new CandleRW(global), global, 4, 8, 0, SlowConsumerAction.DISCONNECT);
+    var session = new FakeSession();
+    var sub = new CSubMarketData();
+    sub.InstrumentID = new String[]{INSTR};
+    adaptor.doSubDepthMarketData(session, sub, "", 1, 1);
+    var recv = (MarketDataReceiver) session.getAttribute(
+        SubscriptionAdaptor.FRONT_MDRECEIVER_KEY);
+    // Replay frames are in flight and not read yet.
+    var replay = new CandleReplay(store, global, 1000,
+        TimeUnit.SECONDS.toMillis(5));
+    replay.replay(session, MessageType.RSP_QRY_CANDLE, "req", INSTR, 5,
+        Long.MIN_VALUE, Long.MAX_VALUE, 100, false);
+    for (int i = 0; i < 250 && CandleReplay.getPendingReplays(session) < 40;
+         ++i)
+      TimeUnit.MILLISECONDS.sleep(20);
+    assertEquals(40, CandleReplay.getPendingReplays(session));
+    var depth = new CDepthMarketData();
+    depth.InstrumentID = INSTR;
+    recv.depthReceived(depth);
+    // Sent at once, the slow consumer check never starts.
+    assertEquals(0, adaptor.getQueueDepth(session));
+    TimeUnit.MILLISECONDS.sleep(300);
+    assertFalse(session.isClosed());
+    session.written();
+    assertEquals(0, CandleReplay.getPendingReplays(session));
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.chain;
+
+import com.nabiki.commons.iop.EncodedMessage;
+import com.nabiki.commons.iop.Message;
+import com.nabiki.commons.iop.ServerSession;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+Server session that keeps the sent messages in memory and reports the pending
+writes set by test. Messages sent with a callback stay pending until the test
+calls written().
+ */
+class FakeSession implements ServerSession {
+  final List<Message> sent = new CopyOnWriteArrayList<>();
+  final Map<String, Object> attributes = new ConcurrentHashMap<>();
+  volatile int pendingWrites = 0;
+  volatile boolean closed = false;
+  private final Queue<Runnable> writing = new ConcurrentLinkedQueue<>();
+
+  @Override
+  public void done() {
+  }
+
+  @Override
+  public void sendResponse(Message message) {
+    this.sent.add(message);
+  }
+
+  @Override
+  public synchronized void sendResponse(Message message, Runnable written) {
+    this.sent.add(message);
+    ++this.pendingWrites;
+    this.writing.add(written);
+  }
+
+  synchronized void written() {
+    Runnable r;
+    while ((r = this.writing.poll()) != null) {
+      --this.pendingWrites;
+      r.run();
+    }
+  }
+
+  @Override
+  public void sendResponse(EncodedMessage message) {
+    this.sent.add(message.getMessage());
+  }
+
+  @Override
+  public void close() {
+    this.closed = true;
+  }
+
+  @Override
+  public boolean isClosed() {
+    return this.closed;
+  }
+
+  @Override
+  public void fix() {
+  }
+
+  @Override
+  public void sendLogin(Message message) {
+    this.sent.add(message);
+  }
+
+  @Override
+  public void sendHeartbeat(String heartbeatID) {
+  }
+
+  @Override
+  public void setCoalesce(boolean coalesce) {
+  }
+
+  @Override
+  public void setAttribute(String key, Object attribute) {
+    this.attributes.put(key, attribute);
+  }
+
+  @Override
+  public void removeAttribute(String key) {
+    this.attributes.remove(key);
+  }
+
+  @Override
+  public Object getAttribute(String key) {
+    return this.attributes.get(key);
+  }
+
+  @Override
+  public InetSocketAddress getRemoteAddress() {
+    return new InetSocketAddress("localhost", 0);
+  }
+
+  @Override
+  public long getLag() {
+    return 0;
+  }
+
+  @Override
+  public int getPendingWrites() {
+    return this.pendingWrites;
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.chain;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.centre.md.CandleRW;
+import com.nabiki.centre.md.MarketDataReceiver;
+import com.nabiki.centre.md.MarketDataRouter;
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.CInstrument;
+import com.nabiki.commons.ctpobj.CQryCandle;
+import com.nabiki.commons.ctpobj.CSubMarketData;
+import com.nabiki.commons.ctpobj.ErrorCodes;
+import com.nabiki.commons.iop.MessageType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SubscriptionAdaptorTest {
+  private static Global global;
+  private static MarketDataRouter router;
+  private static CandleRW rw;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-sub")
+        .toString();
+    global = GlobalConfig.config();
+    for (var id : new String[]{"c2105", "m2105"}) {
+      var instr = new CInstrument();
+      instr.InstrumentID = id;
+      instr.ProductID = id.substring(0, 1);
+      GlobalConfig.setInstrumentConfig(instr);
+    }
+    router = new MarketDataRouter();
+    rw = new CandleRW(global);
+  }
+
+  private static MarketDataReceiver subscribe(
+      SubscriptionAdaptor adaptor,
+      FakeSession session) {
+    var sub = new CSubMarketData();
+    sub.InstrumentID = new String[]{"c2105", "m2105"};
+    adaptor.doSubDepthMarketData(session, sub, "", 1, 1);
+    return (MarketDataReceiver) session.getAttribute(
+        SubscriptionAdaptor.FRONT_MDRECEIVER_KEY);
+  }
+
+  private static CDepthMarketData depth(String instrID, int volume) {
+    var d = new CDepthMarketData();
+    d.InstrumentID = instrID;
+    d.Volume = volume;
+    return d;
+  }
+
+  private static CCandle candle(String instrID, int volume) {
+    var c = new CCandle();
+    c.InstrumentID = instrID;
+    c.Minute = 1;
+    c.Volume = volume;
+    return c;
+  }
+
+  private static List<Object> sentBodies(FakeSession session, MessageType type) {
+    var r = new LinkedList<>();
+    for (var m : session.sent)
+      if (m.Type == type)
+        r.add(m.Body);
+    return r;
+  }
+
+  private static void waitDrained(
+      SubscriptionAdaptor adaptor,
+      FakeSession session) throws InterruptedException {
+    for (int i = 0; i < 100 && adaptor.getQueueDepth(session) > 0; ++i)
+      TimeUnit.MILLISECONDS.sleep(20);
+    assertEquals(0, adaptor.getQueueDepth(session));
+  }
+
+  @Test
+  public void candles_kept_when_queue_full() throws InterruptedException {
+    var adaptor = new SubscriptionAdaptor(router, rw, global, 4, 8,
+        TimeUnit.MINUTES.toMillis(1), SlowConsumerAction.WARN);
+    var session = new FakeSession();
+    var recv = subscribe(adaptor, session);
+    session.pendingWrites = 8;
+    for (int i = 0; i < 10; ++i) {
+      recv.depthReceived(depth("c2105", i));
+      recv.depthReceived(depth("m2105", i));
+      recv.candleReceived(candle("c2105", i));
+    }
+    // Depths are evicted to keep candles over capacity.
+    assertEquals(10, adaptor.getQueueDepth(session));
+    assertEquals(20, adaptor.getDroppedCount(session));
+    // The latest depth is still queued.
+    recv.depthReceived(depth("m2105", 10));
+    assertEquals(11, adaptor.getQueueDepth(session));
+    // Session catches up.
+    session.pendingWrites = 0;
+    waitDrained(adaptor, session);
+    var candles = sentBodies(session, MessageType.FLOW_CANDLE);
+    assertEquals(10, candles.size());
+    for (int i = 0; i < candles.size(); ++i)
+      assertEquals(i, ((CCandle) candles.get(i)).Volume);
+    var depths = sentBodies(session, MessageType.FLOW_DEPTH);
+    assertEquals(1, depths.size());
+    assertEquals("m2105", ((CDepthMarketData) depths.get(0)).InstrumentID);
+    assertEquals(10, ((CDepthMarketData) depths.get(0)).Volume);
+  }
+
+  @Test
+  public void depth_conflated_per_instrument() throws InterruptedException {
+    var adaptor = new SubscriptionAdaptor(router, rw, global, 4, 8,
+        TimeUnit.MINUTES.toMillis(1), SlowConsumerAction.WARN);
+    var session = new FakeSession();
+    var recv = subscribe(adaptor, session);
+    session.pendingWrites = 8;
+    for (int i = 0; i < 10; ++i) {
+      recv.depthReceived(depth("c2105", i));
+      recv.depthReceived(depth("m2105", i));
+    }
+    assertEquals(2, adaptor.getQueueDepth(session));
+    assertEquals(18, adaptor.getDroppedCount(session));
+    session.pendingWrites = 0;
+    waitDrained(adaptor, session);
+    var depths = sentBodies(session, MessageType.FLOW_DEPTH);
+    assertEquals(2, depths.size());
+    for (var d : depths)
+      assertEquals(9, ((CDepthMarketData) d).Volume);
+  }
+
+  @Test
+  public void conflated_depth_sent_after_queued_candle()
+      throws InterruptedException {
+    var adaptor = new SubscriptionAdaptor(router, rw, global, 4, 8,
+        TimeUnit.MINUTES.toMillis(1), SlowConsumerAction.WARN);
+    var session = new FakeSession();
+    var recv = subscribe(adaptor, session);
+    session.pendingWrites = 8;
+    recv.depthReceived(depth("c2105", 0));
+    recv.candleReceived(candle("c2105", 1));
+    recv.depthReceived(depth("c2105", 2));
+    assertEquals(2, adaptor.getQueueDepth(session));
+    assertEquals(2, adaptor.getQueueDepth());
+    session.pendingWrites = 0;
+    waitDrained(adaptor, session);
+    // The last tick follows the candle it comes after.
+    var sent = new LinkedList<MessageType>();
+    for (var m : session.sent)
+      if (m.Type == MessageType.FLOW_CANDLE || m.Type == MessageType.FLOW_DEPTH)
+        sent.add(m.Type);
+    assertEquals(List.of(MessageType.FLOW_CANDLE, MessageType.FLOW_DEPTH), sent);
+    var depths = sentBodies(session, MessageType.FLOW_DEPTH);
+    assertEquals(2, ((CDepthMarketData) depths.get(0)).Volume);
+  }
+
+  @Test
+  public void slow_consumer_warned_by_default() throws InterruptedException {
+    var adaptor = new SubscriptionAdaptor(router, rw, global, 4, 8, 0,
+        SlowConsumerAction.WARN);
+    var session = new FakeSession();
+    var recv = subscribe(adaptor, session);
+    session.pendingWrites = 8;
+    recv.depthReceived(depth("c2105", 0));
+    recv.candleReceived(candle("c2105", 0));
+    TimeUnit.MILLISECONDS.sleep(300);
+    assertFalse(session.isClosed());
+    assertEquals(2, adaptor.getQueueDepth(session));
+  }
+
+  @Test
+  public void slow_consumer_disconnected() throws InterruptedException {
+    var adaptor = new SubscriptionAdaptor(router, rw, global, 4, 8, 0,
+        SlowConsumerAction.DISCONNECT);
+    var session = new FakeSession();
+    var recv = subscribe(adaptor, session);
+    session.pendingWrites = 8;
+    recv.depthReceived(depth("c2105", 0));
+    recv.candleReceived(candle("c2105", 0));
+    TimeUnit.MILLISECONDS.sleep(300);
+    assertTrue(session.isClosed());
+    assertEquals(0, adaptor.getQueueDepth(session));
+  }
+
+  private static int qryCandle(SubscriptionAdaptor adaptor, String instrumentID)
+      throws InterruptedException {
+    var session = new FakeSession();
+    var query = new CQryCandle();
+    query.InstrumentID = instrumentID;
+    query.Minute = 1;
+    query.From = "19990101";
+    query.To = "19990102";
+    adaptor.doQryCandle(session, query, "req", 1, 1);
+    for (int i = 0; i < 250 && session.sent.isEmpty(); ++i)
+      TimeUnit.MILLISECONDS.sleep(20);
+    assertEquals(1, session.sent.size());
+    var rsp = session.sent.get(0);
+    assertEquals(MessageType.RSP_QRY_CANDLE, rsp.Type);
+    assertEquals(1, rsp.TotalCount);
+    assertNotNull(rsp.Body);
+    return rsp.RspInfo.ErrorID;
+  }
+
+  @Test
+  public void qry_candle_not_found() throws InterruptedException {
+    var adaptor = new SubscriptionAdaptor(router, rw, global);
+    assertEquals(ErrorCodes.INSTRUMENT_NOT_FOUND, qryCandle(adaptor, ""));
+    assertEquals(ErrorCodes.INSTRUMENT_NOT_FOUND, qryCandle(adaptor, "x9999"));
+    // Known instrument without candles in range.
+    assertEquals(ErrorCodes.NONE, qryCandle(adaptor, "m2105"));
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.config;
+
+import com.nabiki.commons.ctpobj.COrder;
+import com.nabiki.commons.ctpobj.CRspInfo;
+import com.nabiki.commons.iop.Message;
+import com.nabiki.commons.iop.MessageType;
+import com.nabiki.commons.utils.Utils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/*
+Appended objects are copied in caller's thread and encoded by the daemon, so
+changes after append don't reach the journal. Records are found through the
+index across segments, exported per message, and filed under the trading day.
+ */
+public class FlowJournalTest {
+  static final String DAY = "20210105";
+
+  private static FlowJournal journal(Path dir, long segmentSize) {
+    return new FlowJournal(dir, FlowJournal.SyncPolicy.NONE,
+        FlowJournal.OverflowPolicy.BLOCK, 64, segmentSize, () -> DAY);
+  }
+
+  private static COrder order(String ref, int volume) {
+    var order = new COrder();
+    order.OrderRef = ref;
+    order.VolumeTotalOriginal = volume;
+    return order;
+  }
+
+  @Test
+  public void snapshot_copies_message_and_body() {
+    var order = new COrder();
+    order.OrderRef = "1";
+    order.VolumeTotalOriginal = 3;
+    var m = new Message();
+    m.Type = MessageType.RTN_ORDER;
+    m.RequestID = "req";
+    m.Body = order;
+    m.RspInfo = new CRspInfo();
+    m.RspInfo.ErrorID = 1;
+    var copy = (Message) FlowJournal.snapshot(m);
+    assertNotSame(m, copy);
+    assertNotSame(order, copy.Body);
+    assertNotSame(m.RspInfo, copy.RspInfo);
+    assertEquals(1, copy.RspInfo.ErrorID);
+    assertEquals(MessageType.RTN_ORDER, copy.Type);
+    assertEquals("req", copy.RequestID);
+    assertEquals(3, ((COrder) copy.Body).VolumeTotalOriginal);
+    // No copy constructor, encoded in caller's thread.
+    assertNull(FlowJournal.snapshot(new ArrayList<>()));
+    m.Body = new ArrayList<>();
+    assertNull(FlowJournal.snapshot(m));
+  }
+
+  @Test
+  public void changes_after_append_not_written() throws Exception {
+    var dir = Files.createTempDirectory("flow");
+    // No trading day, files are named by today.
+    var journal = new FlowJournal(dir, FlowJournal.SyncPolicy.NONE,
+        FlowJournal.OverflowPolicy.BLOCK, 4, FlowJournal.DEFAULT_SEGMENT_SIZE,
+        () -> null);
+    var order = new COrder();
+    for (int i = 0; i < 16; ++i) {
+      order.OrderRef = String.valueOf(i);
+      journal.append("Order", "user", order.OrderRef, order);
+    }
+    journal.close();
+    var day = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+    var records = journal.find(day, "user", null);
+    assertEquals(16, records.size());
+    for (int i = 0; i < 16; ++i)
+      assertEquals(String.valueOf(i),
+          Utils.fromJson(records.get(i).Json, COrder.class).OrderRef);
+    assertEquals(0, journal.getDropped());
+  }
+
+  @Test
+  public void segment_roll() throws Exception {
+    var dir = Files.createTempDirectory("flow");
+    // Segment rolls after it reaches the size.
+    var journal = journal(dir, 512);
+    for (int i = 0; i < 20; ++i)
+      journal.append("Order", "user", String.valueOf(i), order(
+          String.valueOf(i), i));
+    journal.close();
+    var segments = Arrays.stream(list(dir))
+        .map(p -> p.getFileName().toString())
+        .filter(n -> n.endsWith(".flow"))
+        .collect(Collectors.toSet());
+    assertTrue(segments.size() > 2);
+    for (int i = 0; i < segments.size(); ++i) {
+      assertTrue(segments.contains(DAY + "." + i + ".flow"));
+      if (i < segments.size() - 1)
+        assertTrue(Files.size(dir.resolve(DAY + "." + i + ".flow")) >= 512);
+    }
+    var records = journal.find(DAY, null, null);
+    assertEquals(20, records.size());
+    for (int i = 0; i < 20; ++i)
+      assertEquals(i, Utils.fromJson(records.get(i).Json, COrder.class)
+          .VolumeTotalOriginal);
+    // Reopened journal goes on with the last segment.
+    journal = journal(dir, 512);
+    journal.append("Order", "user", "20", order("20", 20));
+    journal.close();
+    assertEquals(21, journal.find(DAY, null, null).size());
+  }
+
+  @Test
+  public void index_find() throws Exception {
+    var dir = Files.createTempDirectory("flow");
+    var journal = journal(dir, 256);
+    for (int i = 0; i < 12; ++i)
+      journal.append("Order", "user" + (i % 3), String.valueOf(i % 4),
+          order(String.valueOf(i), i));
+    journal.close();
+    var byUser = journal.find(DAY, "user1", null);
+    assertEquals(4, byUser.size());
+    for (var r : byUser)
+      assertEquals("user1", r.UserID);
+    var byRef = journal.find(DAY, null, "2");
+    assertEquals(3, byRef.size());
+    for (var r : byRef)
+      assertEquals("2", r.OrderRef);
+    // Both user and ref: only i = 10 is user1 with ref 2.
+    var both = journal.find(DAY, "user1", "2");
+    assertEquals(1, both.size());
+    assertEquals(10, Utils.fromJson(both.get(0).Json, COrder.class)
+        .VolumeTotalOriginal);
+    assertTrue(journal.find("20210106", null, null).isEmpty());
+  }
+
+  @Test
+  public void export() throws Exception {
+    var dir = Files.createTempDirectory("flow");
+    var journal = journal(dir, FlowJournal.DEFAULT_SEGMENT_SIZE);
+    journal.append("Order", "user0", "1", order("1", 1));
+    journal.append("Trade", "user1", "2", order("2", 2));
+    journal.append("Order", null, null, order("3", 3));
+    journal.close();
+    var target = Files.createTempDirectory("export");
+    assertEquals(3, journal.export(DAY, target));
+    assertEquals(1, list(target.resolve("user0")).length);
+    var trade = list(target.resolve("user1"));
+    assertEquals(1, trade.length);
+    assertTrue(trade[0].getFileName().toString().startsWith("Trade."));
+    assertEquals(2, Utils.fromJson(Files.readString(trade[0],
+        StandardCharsets.UTF_8), COrder.class).VolumeTotalOriginal);
+    // Record without user goes to null directory.
+    assertEquals(1, list(target.resolve("null")).length);
+  }
+
+  @Test
+  public void trading_day_rollover() throws Exception {
+    var dir = Files.createTempDirectory("flow");
+    var day = new AtomicReference<>("20210104");
+    var journal = new FlowJournal(dir, FlowJournal.SyncPolicy.NONE,
+        FlowJournal.OverflowPolicy.BLOCK, 64, FlowJournal.DEFAULT_SEGMENT_SIZE,
+        day::get);
+    journal.append("Order", "user", "1", order("1", 1));
+    waitFound(journal, "20210104", 1);
+    // Night session of next trading day, calendar day is the same.
+    day.set("20210105");
+    journal.append("Order", "user", "2", order("2", 2));
+    journal.close();
+    assertEquals(1, journal.find("20210104", null, null).size());
+    var next = journal.find("20210105", null, null);
+    assertEquals(1, next.size());
+    assertEquals("2", next.get(0).OrderRef);
+    assertTrue(Files.exists(dir.resolve("20210105.0.flow")));
+  }
+
+  private static void waitFound(FlowJournal journal, String day, int count)
+      throws Exception {
+    for (int i = 0; i < 250; ++i) {
+      if (journal.find(day, null, null).size() >= count)
+        return;
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+    fail("records not written");
+  }
+
+  private static Path[] list(Path dir) throws IOException {
+    try (var files = Files.list(dir)) {
+      return files.toArray(Path[]::new);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.ctp;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.centre.user.core.ActiveUser;
+import com.nabiki.centre.user.core.TestUsers;
+import com.nabiki.commons.ctpobj.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/*
+Completed orders move to the archive only after their trades are all counted,
+are still found by ref and UUID there, and are read back from the archive file
+written at settlement.
+ */
+public class OrderMapperTest {
+  static final String INSTR = "c2205", TODAY = "20210105";
+
+  private static Global global;
+  private OrderProvider provider;
+  private OrderMapper mapper;
+  private ActiveUser user;
+  private int tradeID = 0;
+
+  @Before
+  public void setup() throws Exception {
+    if (global == null) {
+      GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-order")
+          .toString();
+      global = GlobalConfig.config();
+    }
+    GlobalConfig.setTradingDay(TODAY);
+    var instr = new CInstrument();
+    instr.InstrumentID = INSTR;
+    instr.ProductID = "c";
+    instr.VolumeMultiple = 10;
+    instr.MinLimitOrderVolume = 1;
+    instr.MaxLimitOrderVolume = 1000;
+    GlobalConfig.setInstrumentConfig(instr);
+    var margin = new CInstrumentMarginRate();
+    margin.InstrumentID = INSTR;
+    margin.LongMarginRatioByMoney = 0.1;
+    GlobalConfig.setMarginConfig(margin);
+    var comm = new CInstrumentCommissionRate();
+    comm.InstrumentID = INSTR;
+    GlobalConfig.setCommissionConfig(comm);
+    var depth = new CDepthMarketData();
+    depth.InstrumentID = INSTR;
+    depth.PreSettlementPrice = 2000.0D;
+    depth.UpperLimitPrice = 2200.0D;
+    depth.LowerLimitPrice = 1800.0D;
+    GlobalConfig.setDepthMarketData(depth);
+    // No API, so orders wait in the provider and are never sent.
+    provider = new OrderProvider(null, global);
+    mapper = provider.getMapper();
+    user = TestUsers.activeUser("0001", 1E8, provider, global);
+  }
+
+  private String insert(int volume) {
+    var o = new CInputOrder();
+    o.UserID = "0001";
+    o.InstrumentID = INSTR;
+    o.Direction = DirectionType.DIRECTION_BUY;
+    o.CombOffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    o.LimitPrice = 2000.0D;
+    o.VolumeTotalOriginal = volume;
+    var uuid = user.insertOrder(o);
+    assertEquals(0, user.getExecRsp(uuid).ErrorID);
+    return uuid;
+  }
+
+  private String ref(String uuid) {
+    var refs = mapper.getOrderRef(uuid);
+    assertEquals(1, refs.size());
+    return refs.iterator().next();
+  }
+
+  private COrder rtn(String ref, char status, int volume, int traded) {
+    var rtn = new COrder();
+    rtn.InstrumentID = INSTR;
+    rtn.OrderRef = ref;
+    rtn.Direction = DirectionType.DIRECTION_BUY;
+    rtn.CombOffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    rtn.OrderStatus = (byte) status;
+    rtn.VolumeTotalOriginal = volume;
+    rtn.VolumeTraded = traded;
+    rtn.VolumeTotal = volume - traded;
+    return rtn;
+  }
+
+  private CTrade trade(String ref, int volume) {
+    var t = new CTrade();
+    t.InstrumentID = INSTR;
+    t.OrderRef = ref;
+    t.Direction = DirectionType.DIRECTION_BUY;
+    t.OffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    t.Price = 2000.0D;
+    t.Volume = volume;
+    t.TradingDay = TODAY;
+    t.TradeID = "td" + (++tradeID);
+    return t;
+  }
+
+  @Test
+  public void evicted_after_trades() {
+    var uuid = insert(3);
+    var ref = ref(uuid);
+    // Return order arrives before the trades.
+    provider.doOrder(rtn(ref, OrderStatusType.ALL_TRADED, 3, 3));
+    assertNotNull(mapper.getActiveRequest(ref));
+    provider.doTrade(trade(ref, 2));
+    assertNotNull(mapper.getActiveRequest(ref));
+    provider.doTrade(trade(ref, 1));
+    // All traded volume is counted, active request is released.
+    assertNull(mapper.getActiveRequest(ref));
+    assertNull(mapper.getInputOrder(ref));
+    assertTrue(mapper.containsRef(ref));
+    var archived = mapper.getRtnOrder(ref);
+    assertNotNull(archived);
+    assertEquals(OrderStatusType.ALL_TRADED, archived.OrderStatus);
+    assertEquals(3, archived.VolumeTraded);
+    assertTrue(mapper.getOrderRef(uuid).contains(ref));
+    assertEquals(1, user.getRtnOrder(uuid).size());
+  }
+
+  @Test
+  public void canceled_without_trade_evicted() {
+    var uuid = insert(2);
+    var ref = ref(uuid);
+    provider.doOrder(rtn(ref, OrderStatusType.CANCELED, 2, 0));
+    assertNull(mapper.getActiveRequest(ref));
+    assertEquals(OrderStatusType.CANCELED, mapper.getRtnOrder(ref).OrderStatus);
+    assertTrue(mapper.getOrderRef(uuid).contains(ref));
+  }
+
+  @Test
+  public void archive_read_back() throws IOException {
+    var traded = insert(1);
+    var tradedRef = ref(traded);
+    provider.doOrder(rtn(tradedRef, OrderStatusType.ALL_TRADED, 1, 1));
+    provider.doTrade(trade(tradedRef, 1));
+    var working = insert(2);
+    var workingRef = ref(working);
+    var file = Files.createTempDirectory("archive").resolve(TODAY + ".bin");
+    mapper.settle(file);
+    assertFalse(mapper.containsRef(workingRef));
+    var orders = OrderMapper.readArchive(file);
+    assertEquals(2, orders.size());
+    assertEquals(OrderStatusType.ALL_TRADED,
+        orders.get(tradedRef).OrderStatus);
+    // Unfilled order is canceled at settlement.
+    assertEquals(OrderStatusType.CANCELED, orders.get(workingRef).OrderStatus);
+    var archive = OrderArchive.read(file);
+    assertTrue(archive.getOrderRef(traded).contains(tradedRef));
+    assertTrue(archive.getOrderRef(working).contains(workingRef));
+    assertEquals(working, archive.getRtnOrder(workingRef).OrderLocalID);
+  }
+
+  @Test(expected = IOException.class)
+  public void archive_without_header() throws IOException {
+    var file = Files.createTempFile("archive", ".bin");
+    Files.write(file, new byte[]{0, 0, 0, 1, 0, 0, 0, 1});
+    OrderMapper.readArchive(file);
+  }
+}
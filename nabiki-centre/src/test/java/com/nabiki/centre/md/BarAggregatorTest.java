@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.CandleKindType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/*
+Each kind of bar closes on its own rule, volume bars count from the cumulative
+volume of the first tick, and renko bricks may move more than one brick in a
+bar.
+ */
+public class BarAggregatorTest {
+  private int second = 0;
+
+  private CDepthMarketData tick(double price, int volume) {
+    var md = new CDepthMarketData();
+    md.InstrumentID = "c2105";
+    md.ActionDay = "20210105";
+    md.UpdateTime = String.format("09:%02d:%02d", this.second / 60,
+        this.second % 60);
+    ++this.second;
+    md.LastPrice = price;
+    md.Volume = volume;
+    md.OpenInterest = 1000 + volume;
+    return md;
+  }
+
+  private static void assertBar(CCandle c, char kind, double open, double high,
+                                double low, double close, int volume) {
+    assertNotNull(c);
+    assertEquals("c2105", c.InstrumentID);
+    assertEquals(kind, (char) c.Kind);
+    assertEquals(open, c.OpenPrice, 0.0D);
+    assertEquals(high, c.HighestPrice, 0.0D);
+    assertEquals(low, c.LowestPrice, 0.0D);
+    assertEquals(close, c.ClosePrice, 0.0D);
+    assertEquals(volume, c.Volume);
+  }
+
+  @Test
+  public void volume_bar() {
+    var bar = BarAggregator.create("c2105", "volume", 100);
+    // Volume of tick is cumulative for the day, the first tick is the base.
+    assertNull(bar.update(tick(2000, 50000)));
+    assertNull(bar.update(tick(2003, 50040)));
+    assertNull(bar.update(tick(1998, 50099)));
+    var c = bar.update(tick(2001, 50130));
+    assertBar(c, CandleKindType.VOLUME, 2000, 2003, 1998, 2001, 130);
+    assertEquals(100, c.Size, 0.0D);
+    assertEquals("09:00:03", c.UpdateTime);
+    // Next bar counts from the close of the last one.
+    assertNull(bar.update(tick(2002, 50200)));
+    assertBar(bar.update(tick(2004, 50230)), CandleKindType.VOLUME, 2002,
+        2004, 2002, 2004, 100);
+    // Volume of previous trading day resets the base.
+    assertNull(bar.update(tick(2010, 20)));
+    assertBar(bar.update(tick(2011, 120)), CandleKindType.VOLUME, 2010, 2011,
+        2010, 2011, 100);
+  }
+
+  @Test
+  public void tick_bar() {
+    var bar = BarAggregator.create("c2105", "tick", 3);
+    assertNull(bar.update(tick(2000, 10)));
+    assertNull(bar.update(tick(1999, 20)));
+    assertBar(bar.update(tick(2002, 30)), CandleKindType.TICK, 2000, 2002,
+        1999, 2002, 20);
+    assertNull(bar.update(tick(2003, 35)));
+    assertNull(bar.update(tick(2001, 40)));
+    assertBar(bar.update(tick(2001, 41)), CandleKindType.TICK, 2003, 2003,
+        2001, 2001, 11);
+  }
+
+  @Test
+  public void range_bar() {
+    var bar = BarAggregator.create("c2105", "range", 5);
+    assertNull(bar.update(tick(2000, 10)));
+    assertNull(bar.update(tick(2003, 20)));
+    assertNull(bar.update(tick(1999, 30)));
+    // High minus low reaches the range.
+    assertBar(bar.update(tick(1998, 40)), CandleKindType.RANGE, 2000, 2003,
+        1998, 1998, 30);
+    assertNull(bar.update(tick(1999, 45)));
+    assertBar(bar.update(tick(2004, 50)), CandleKindType.RANGE, 1999, 2004,
+        1999, 2004, 10);
+  }
+
+  @Test
+  public void renko_bar() {
+    var bar = BarAggregator.create("c2105", "renko", 10);
+    assertNull(bar.update(tick(100, 10)));
+    assertNull(bar.update(tick(108, 20)));
+    // Three bricks up in one bar, closing at the last whole brick.
+    assertBar(bar.update(tick(135, 30)), CandleKindType.RENKO, 100, 135, 100,
+        130, 20);
+    // Next brick opens at the close of the last one, not at the next tick.
+    assertNull(bar.update(tick(128, 40)));
+    assertNull(bar.update(tick(121, 50)));
+    assertBar(bar.update(tick(118, 60)), CandleKindType.RENKO, 130, 130, 118,
+        120, 30);
+    // Two bricks down.
+    assertBar(bar.update(tick(97, 70)), CandleKindType.RENKO, 120, 120, 97,
+        100, 10);
+  }
+
+  @Test
+  public void illegal_bar() {
+    assertThrows(IllegalArgumentException.class,
+        () -> BarAggregator.create("c2105", "second", 10));
+    assertThrows(IllegalArgumentException.class,
+        () -> BarAggregator.create("c2105", "volume", 0));
+    assertEquals(CandleKindType.RENKO,
+        BarAggregator.create("c2105", " Renko ", 1).getKind());
+  }
+}
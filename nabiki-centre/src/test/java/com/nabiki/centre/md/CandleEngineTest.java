@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.centre.config.plain.TradingHourConfig;
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.time.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/*
+Event time candles are closed by the watermark of their product, late ticks
+are dropped, the tick time keeps going across midnight and starts over for a
+new trading day, and the clock closes the candles that get no more ticks.
+ */
+public class CandleEngineTest {
+  private static Global global;
+
+  private final TestClock clock = new TestClock();
+  private final BlockingQueue<CCandle> candles = new LinkedBlockingQueue<>();
+  private final List<CandleEngine> engines = new ArrayList<>();
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-candle")
+        .toString();
+    global = GlobalConfig.config();
+    GlobalConfig.setTradingDay("20210105");
+    GlobalConfig.setTradingHour(hours(List.of("c", "m"),
+        LocalTime.of(9, 0), LocalTime.of(10, 15)));
+    GlobalConfig.setTradingHour(hours(List.of("ag"),
+        LocalTime.of(21, 0), LocalTime.of(2, 30)));
+  }
+
+  private static TradingHourConfig hours(List<String> products, LocalTime from,
+                                         LocalTime to) {
+    var hour = new TradingHourConfig.SingleTradingHour();
+    hour.From = from;
+    hour.To = to;
+    var c = new TradingHourConfig();
+    c.ProductID = products;
+    c.TradingHour = List.of(hour);
+    return c;
+  }
+
+  @After
+  public void tearDown() {
+    for (var e : this.engines)
+      e.cancel();
+  }
+
+  private CandleEngine engine(long latenessMillis) {
+    var router = new MarketDataRouter();
+    router.addReceiver(new MarketDataReceiver() {
+      @Override
+      public void depthReceived(CDepthMarketData depth) {
+      }
+
+      @Override
+      public void candleReceived(CCandle candle) {
+        if (candle.Minute == 1)
+          candles.add(candle);
+      }
+    });
+    var engine = new CandleEngine(router, global, CandleTiming.EVENT_TIME,
+        Duration.ofMillis(latenessMillis), this.clock);
+    engine.setWorking(true);
+    this.engines.add(engine);
+    return engine;
+  }
+
+  private static CDepthMarketData tick(String instrumentID, String actionDay,
+                                       String updateTime, double price,
+                                       int volume) {
+    var md = new CDepthMarketData();
+    md.InstrumentID = instrumentID;
+    md.TradingDay = "20210105";
+    md.ActionDay = actionDay;
+    md.UpdateTime = updateTime;
+    md.UpdateMillisec = 0;
+    md.LastPrice = price;
+    md.Volume = volume;
+    md.OpenInterest = 1000;
+    return md;
+  }
+
+  private CCandle next() throws InterruptedException {
+    var c = this.candles.poll(5, TimeUnit.SECONDS);
+    assertNotNull("no candle", c);
+    return c;
+  }
+
+  private void assertNone() throws InterruptedException {
+    assertNull(this.candles.poll(300, TimeUnit.MILLISECONDS));
+  }
+
+  private static void assertCandle(CCandle c, String instrumentID,
+                                   String actionDay, String endTime,
+                                   double open, double high, double low,
+                                   double close) {
+    assertEquals(instrumentID, c.InstrumentID);
+    assertEquals(actionDay, c.ActionDay);
+    assertEquals(endTime, c.EndTime);
+    assertEquals(open, c.OpenPrice, 0.0D);
+    assertEquals(high, c.HighestPrice, 0.0D);
+    assertEquals(low, c.LowestPrice, 0.0D);
+    assertEquals(close, c.ClosePrice, 0.0D);
+  }
+
+  private static void awaitLate(CandleEngine engine, long count)
+      throws InterruptedException {
+    var deadline = System.currentTimeMillis() + 5000;
+    while (engine.getLateCount() != count
+        && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertEquals(count, engine.getLateCount());
+  }
+
+  @Test
+  public void watermark_advance() throws Exception {
+    this.clock.set(LocalDateTime.of(2021, 1, 5, 8, 0));
+    var engine = engine(5000);
+    engine.update(tick("c2105", "20210105", "09:00:10", 100, 10));
+    engine.update(tick("c2105", "20210105", "09:00:50", 102, 20));
+    engine.update(tick("c2105", "20210105", "09:01:02", 99, 30));
+    // Watermark 09:00:57 doesn't pass the tick of the next candle.
+    assertNone();
+    // Later than the latest but within lateness, it is still in its candle.
+    engine.update(tick("c2105", "20210105", "09:00:58", 101, 25));
+    assertNone();
+    // Watermark 09:01:03 releases the held ticks in time order.
+    engine.update(tick("c2105", "20210105", "09:01:08", 98, 40));
+    var c = next();
+    assertCandle(c, "c2105", "20210105", "09:01", 100, 102, 100, 101);
+    assertEquals("09:00:58", c.UpdateTime);
+    assertEquals(15, c.Volume);
+    assertEquals(0, engine.getLateCount());
+    assertNone();
+  }
+
+  @Test
+  public void late_tick_dropped() throws Exception {
+    this.clock.set(LocalDateTime.of(2021, 1, 5, 8, 0));
+    var engine = engine(2000);
+    engine.update(tick("c2105", "20210105", "09:00:10", 100, 10));
+    engine.update(tick("c2105", "20210105", "09:01:10", 101, 20));
+    engine.update(tick("c2105", "20210105", "09:01:20", 103, 30));
+    assertCandle(next(), "c2105", "20210105", "09:01", 100, 100, 100, 100);
+    // Later than the lateness, and its candle is closed.
+    engine.update(tick("c2105", "20210105", "09:00:30", 200, 35));
+    awaitLate(engine, 1);
+    engine.update(tick("c2105", "20210105", "09:02:30", 102, 40));
+    engine.update(tick("c2105", "20210105", "09:02:40", 104, 50));
+    assertCandle(next(), "c2105", "20210105", "09:02", 101, 103, 101, 103);
+    assertEquals(1, engine.getLateCount());
+  }
+
+  @Test
+  public void watermark_per_product() throws Exception {
+    this.clock.set(LocalDateTime.of(2021, 1, 5, 8, 0));
+    var engine = engine(2000);
+    // One product runs minutes ahead of the other.
+    engine.update(tick("c2105", "20210105", "09:05:00", 100, 10));
+    engine.update(tick("c2105", "20210105", "09:05:10", 101, 20));
+    engine.update(tick("m2105", "20210105", "09:00:30", 3000, 10));
+    engine.update(tick("m2105", "20210105", "09:00:40", 3002, 20));
+    engine.update(tick("m2105", "20210105", "09:01:05", 3001, 30));
+    engine.update(tick("m2105", "20210105", "09:01:10", 3003, 40));
+    assertCandle(next(), "m2105", "20210105", "09:01", 3000, 3002, 3000,
+        3002);
+    assertEquals(0, engine.getLateCount());
+    assertNone();
+  }
+
+  @Test
+  public void midnight_and_trading_day() throws Exception {
+    this.clock.set(LocalDateTime.of(2021, 1, 4, 20, 0));
+    var engine = engine(0);
+    engine.update(tick("ag2106", "20210104", "23:59:30", 10, 10));
+    engine.update(tick("ag2106", "20210105", "00:00:10", 11, 20));
+    assertCandle(next(), "ag2106", "20210104", "00:00", 10, 10, 10, 10);
+    engine.update(tick("ag2106", "20210105", "00:01:05", 12, 30));
+    assertCandle(next(), "ag2106", "20210105", "00:01", 11, 11, 11, 11);
+    // Next trading day starts over, no candles for the gap.
+    engine.clearProducts();
+    engine.update(tick("ag2106", "20210105", "21:00:10", 20, 5));
+    engine.update(tick("ag2106", "20210105", "21:01:02", 21, 8));
+    var c = next();
+    assertCandle(c, "ag2106", "20210105", "21:01", 20, 20, 20, 20);
+    assertEquals(0, c.Volume);
+    assertEquals(0, engine.getLateCount());
+    assertNone();
+  }
+
+  @Test
+  public void idle_close() throws Exception {
+    this.clock.set(LocalDateTime.of(2021, 1, 5, 8, 0));
+    var engine = engine(5000);
+    engine.update(tick("c2105", "20210105", "09:00:10", 100, 10));
+    engine.update(tick("c2105", "20210105", "09:00:20", 102, 20));
+    assertNone();
+    // No more ticks, the clock releases the held ticks and closes the candle
+    // a minute after its end.
+    this.clock.set(LocalDateTime.of(2021, 1, 5, 9, 1, 30));
+    engine.run();
+    assertNone();
+    this.clock.set(LocalDateTime.of(2021, 1, 5, 9, 2));
+    engine.run();
+    var c = next();
+    assertCandle(c, "c2105", "20210105", "09:01", 100, 102, 100, 102);
+    assertEquals(10, c.Volume);
+    assertNone();
+  }
+
+  private static class TestClock extends Clock {
+    private volatile Instant now = Instant.EPOCH;
+
+    void set(LocalDateTime time) {
+      this.now = time.toInstant(ZoneOffset.UTC);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return this.now;
+    }
+  }
+}
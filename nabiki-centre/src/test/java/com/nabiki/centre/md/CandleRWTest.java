@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.commons.ctpobj.CCandle;
+import com.nabiki.commons.ctpobj.CandleKindType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/*
+Routed bars are not time candles, so they stay out of the candle store and the
+CSV export.
+ */
+public class CandleRWTest {
+  private static Global global;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-rw")
+        .toString();
+    global = GlobalConfig.config();
+  }
+
+  private static CCandle candle(char kind, int minute, String updateTime) {
+    var c = new CCandle();
+    c.InstrumentID = "y2109";
+    c.Kind = (byte) kind;
+    c.Minute = minute;
+    c.TradingDay = c.ActionDay = "20210105";
+    c.UpdateTime = updateTime;
+    c.EndTime = updateTime.substring(0, 5);
+    c.OpenPrice = c.HighestPrice = c.LowestPrice = c.ClosePrice = 8000;
+    c.Volume = 10;
+    return c;
+  }
+
+  @Test
+  public void bars_not_stored() throws Exception {
+    var rw = new CandleRW(global);
+    rw.candleReceived(candle(CandleKindType.TIME, 1, "09:01:00"));
+    rw.candleReceived(candle(CandleKindType.VOLUME, 0, "09:01:10"));
+    rw.candleReceived(candle(CandleKindType.RENKO, 0, "09:01:20"));
+    rw.candleReceived(candle(CandleKindType.TIME, 1, "09:02:00"));
+    rw.candleReceived(candle(CandleKindType.RANGE, 1, "09:02:30"));
+    assertTrue(rw.flush(5000));
+    var store = rw.getStore();
+    assertEquals(Set.of(1), store.getMinutes("y2109"));
+    var stored = rw.queryCandle("y2109");
+    assertEquals(2, stored.size());
+    for (var c : stored)
+      assertEquals(CandleKindType.TIME, (char) c.Kind);
+    // Export has only the file of time candles.
+    var dir = Files.createTempDirectory("nabiki-csv");
+    rw.exportCsv(dir);
+    Set<String> files;
+    try (var s = Files.list(dir)) {
+      files = s.map(Path::getFileName).map(Path::toString)
+          .filter(n -> n.startsWith("y2109")).collect(Collectors.toSet());
+    }
+    assertEquals(Set.of("y2109_1.csv"), files);
+    rw.close();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.commons.ctpobj.CCandle;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/*
+Range queries and counts are inclusive on both bounds, pages add up to the
+whole range, and a reopened store gives the same results. A full segment rolls
+to a new file, and a candle of the last time overwrites the last candle.
+ */
+public class CandleStoreTest {
+  static final String INSTR = "c2105";
+
+  /*
+   One-minute candles from 21:00 on 20210104, across midnight into 20210105.
+   More than the capacity of a segment, so it rolls.
+   */
+  private static List<CCandle> candles(int n) {
+    var r = new ArrayList<CCandle>(n);
+    for (int i = 0; i < n; ++i) {
+      var minute = (21 * 60 + i) % (24 * 60);
+      var c = new CCandle();
+      c.InstrumentID = INSTR;
+      c.Minute = 1;
+      c.TradingDay = "20210105";
+      c.ActionDay = 21 * 60 + i < 24 * 60 ? "20210104"
+          : String.valueOf(20210104 + (21 * 60 + i) / (24 * 60));
+      c.UpdateTime = String.format("%02d:%02d:00", minute / 60, minute % 60);
+      c.EndTime = String.format("%02d:%02d:00", (minute + 1) / 60 % 24,
+          (minute + 1) % 60);
+      c.OpenPrice = 2000 + i % 13;
+      c.HighestPrice = c.OpenPrice + 2;
+      c.LowestPrice = c.OpenPrice - 2;
+      c.ClosePrice = c.OpenPrice + 1;
+      c.AveragePrice = c.OpenPrice + 0.5D;
+      c.OpenInterest = 100000 + i;
+      c.Volume = i;
+      r.add(c);
+    }
+    return r;
+  }
+
+  private static long time(CCandle c) {
+    return CandleStore.toTime(c.ActionDay, c.UpdateTime);
+  }
+
+  private static void assertCandles(List<CCandle> expected,
+                                    List<CCandle> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      var e = expected.get(i);
+      var a = actual.get(i);
+      assertEquals(e.InstrumentID, a.InstrumentID);
+      assertEquals(e.Minute, a.Minute);
+      assertEquals(e.TradingDay, a.TradingDay);
+      assertEquals(e.ActionDay, a.ActionDay);
+      assertEquals(e.UpdateTime, a.UpdateTime);
+      assertEquals(e.EndTime, a.EndTime);
+      assertEquals(e.OpenPrice, a.OpenPrice, 0.0D);
+      assertEquals(e.HighestPrice, a.HighestPrice, 0.0D);
+      assertEquals(e.LowestPrice, a.LowestPrice, 0.0D);
+      assertEquals(e.ClosePrice, a.ClosePrice, 0.0D);
+      assertEquals(e.AveragePrice, a.AveragePrice, 0.0D);
+      assertEquals(e.OpenInterest, a.OpenInterest, 0.0D);
+      assertEquals(e.Volume, a.Volume);
+    }
+  }
+
+  private static void checkRange(CandleStore store, List<CCandle> all,
+                                 int first, int last) {
+    var from = time(all.get(first));
+    var to = time(all.get(last));
+    var expected = all.subList(first, last + 1);
+    assertCandles(expected, store.query(INSTR, 1, from, to));
+    assertEquals(expected.size(), store.count(INSTR, 1, from, to));
+    // Bounds between candles exclude the candles outside.
+    assertEquals(Math.max(0, expected.size() - 2),
+        store.count(INSTR, 1, from + 1, to - 1));
+    // Pages of 100 add up to the range.
+    var pages = new ArrayList<CCandle>();
+    for (int offset = 0; ; offset += 100) {
+      var page = store.query(INSTR, 1, from, to, offset, 100);
+      if (page.isEmpty())
+        break;
+      assertTrue(page.size() <= 100);
+      pages.addAll(page);
+    }
+    assertCandles(expected, pages);
+  }
+
+  @Test
+  public void query_and_count() throws Exception {
+    var dir = Files.createTempDirectory("candle");
+    var all = candles(5000);
+    var store = new CandleStore(dir);
+    for (var c : all)
+      assertTrue(store.append(c));
+    // Earlier than the last is refused.
+    assertFalse(store.append(all.get(10)));
+    assertEquals(all.size(),
+        store.count(INSTR, 1, Long.MIN_VALUE, Long.MAX_VALUE));
+    checkRange(store, all, 0, all.size() - 1);
+    // Across midnight and the roll of segment.
+    checkRange(store, all, 150, 4200);
+    checkRange(store, all, 4095, 4097);
+    // Single candle and nothing.
+    checkRange(store, all, 7, 7);
+    var last = time(all.get(all.size() - 1));
+    assertTrue(store.query(INSTR, 1, last + 1, Long.MAX_VALUE).isEmpty());
+    assertEquals(0, store.count(INSTR, 1, last, last - 1));
+    assertTrue(store.query(INSTR, 1, 0, last, all.size(), 10).isEmpty());
+    assertTrue(store.query("m2105", 1, 0, last).isEmpty());
+    assertEquals(0, store.count(INSTR, 5, 0, last));
+    store.flush();
+    // Reopen from files.
+    var reopened = new CandleStore(dir);
+    assertEquals(Set.of(1), reopened.getMinutes(INSTR));
+    checkRange(reopened, all, 0, all.size() - 1);
+    checkRange(reopened, all, 1000, 3000);
+  }
+
+  @Test
+  public void roll_segments() throws Exception {
+    var dir = Files.createTempDirectory("candle");
+    var all = candles(250);
+    var store = new CandleStore(dir, 100);
+    for (var c : all)
+      assertTrue(store.append(c));
+    for (var n : List.of("c2105_1.cdl", "c2105_1_1.cdl", "c2105_1_2.cdl"))
+      assertTrue(n, Files.exists(dir.resolve(n)));
+    assertFalse(Files.exists(dir.resolve("c2105_1_3.cdl")));
+    // Earlier than the last is refused after roll.
+    assertFalse(store.append(all.get(150)));
+    checkRange(store, all, 0, all.size() - 1);
+    checkRange(store, all, 99, 100);
+    checkRange(store, all, 42, 217);
+    store.flush();
+    var reopened = new CandleStore(dir, 100);
+    checkRange(reopened, all, 0, all.size() - 1);
+    // Appends go to the last segment after reopen.
+    var more = candles(260);
+    for (var c : more.subList(250, 260))
+      assertTrue(reopened.append(c));
+    checkRange(reopened, more, 0, more.size() - 1);
+  }
+
+  @Test
+  public void overwrite_last() throws Exception {
+    var dir = Files.createTempDirectory("candle");
+    var all = candles(100);
+    var store = new CandleStore(dir, 100);
+    for (var c : all)
+      assertTrue(store.append(c));
+    // The full segment takes an update of its last candle without rolling.
+    var last = candles(100).get(99);
+    last.ClosePrice = 1999;
+    last.Volume = 12345;
+    assertTrue(store.append(last));
+    assertFalse(Files.exists(dir.resolve("c2105_1_1.cdl")));
+    all.set(99, last);
+    checkRange(store, all, 0, all.size() - 1);
+    assertEquals(all.size(),
+        store.count(INSTR, 1, Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+}
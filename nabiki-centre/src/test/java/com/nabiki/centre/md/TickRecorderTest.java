@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.md;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/*
+Ticks come back from the codec and the recorder field by field, across
+blocks, flushes, days and the midnight of night session.
+ */
+public class TickRecorderTest {
+  private static Global global;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-tick")
+        .toString();
+    global = GlobalConfig.config();
+  }
+
+  /*
+   Ticks from 23:50:00 across midnight, two a second, with empty prices,
+   null strings and prices going up and down.
+   */
+  private static List<CDepthMarketData> ticks(String instrumentID,
+                                              String tradingDay, int n,
+                                              long seed) {
+    var random = new Random(seed);
+    var r = new ArrayList<CDepthMarketData>(n);
+    double price = 2000.0D;
+    int volume = 0;
+    for (int i = 0; i < n; ++i) {
+      var md = new CDepthMarketData();
+      md.InstrumentID = instrumentID;
+      md.TradingDay = tradingDay;
+      md.ExchangeID = i % 7 == 0 ? null : "DCE";
+      var second = (23 * 3600 + 50 * 60 + i / 2) % 86400;
+      md.ActionDay = second < 23 * 3600 ? "20210105" : "20210104";
+      md.UpdateTime = String.format("%02d:%02d:%02d", second / 3600,
+          second / 60 % 60, second % 60);
+      md.UpdateMillisec = i % 2 * 500;
+      price += (random.nextInt(11) - 5) * 0.5D;
+      volume += random.nextInt(20);
+      md.LastPrice = price;
+      md.Volume = volume;
+      md.Turnover = volume * price * 10;
+      md.OpenInterest = 100000 + random.nextInt(1000);
+      md.BidPrice1 = price - 0.5D;
+      md.BidVolume1 = random.nextInt(100);
+      md.AskPrice1 = i % 5 == 0 ? Double.MAX_VALUE : price + 0.5D;
+      md.AskVolume1 = random.nextInt(100);
+      md.PreSettlementPrice = 1999.0D;
+      md.UpperLimitPrice = 2099.0D;
+      md.LowerLimitPrice = 1899.0D;
+      md.SettlementPrice = Double.MAX_VALUE;
+      r.add(md);
+    }
+    return r;
+  }
+
+  private static void assertTick(CDepthMarketData expected,
+                                 CDepthMarketData actual) throws Exception {
+    assertNotNull(actual);
+    for (var f : CDepthMarketData.class.getFields()) {
+      if (Modifier.isStatic(f.getModifiers()))
+        continue;
+      if (f.getType() == double.class)
+        assertEquals(f.getName(), f.getDouble(expected), f.getDouble(actual),
+            1E-9);
+      else
+        assertEquals(f.getName(), f.get(expected), f.get(actual));
+    }
+  }
+
+  @Test
+  public void codec_round_trip() throws Exception {
+    var ticks = ticks("c2105", "20210105", 3000, 1);
+    var encoder = new TickCodec();
+    var out = new TickCodec.Output();
+    for (var md : ticks)
+      encoder.encode(md, out);
+    var in = ByteBuffer.wrap(out.array(), 0, out.size());
+    var decoder = new TickCodec();
+    for (var md : ticks)
+      assertTick(md, decoder.decode(in));
+    assertFalse(in.hasRemaining());
+  }
+
+  @Test
+  public void recorder_round_trip() throws Exception {
+    var root = Files.createTempDirectory("tick");
+    var recorder = new TickRecorder(global, root, 1 << 14);
+    // Two full blocks and a part, then a flush in the middle of a block and
+    // more ticks appended to the same file.
+    var c1 = ticks("c2105", "20210105", 2 * TickRecorder.BLOCK_TICKS + 17, 2);
+    var m1 = ticks("m2105", "20210105", 100, 3);
+    var c2 = ticks("c2105", "20210106", TickRecorder.BLOCK_TICKS + 1, 4);
+    var half = c1.size() / 2;
+    for (int i = 0; i < half; ++i) {
+      recorder.depthReceived(c1.get(i));
+      if (i < m1.size())
+        recorder.depthReceived(m1.get(i));
+    }
+    assertTrue(recorder.flush(5000));
+    for (int i = half; i < c1.size(); ++i)
+      recorder.depthReceived(c1.get(i));
+    // Next trading day starts while the last day's block is open.
+    for (var md : c2)
+      recorder.depthReceived(md);
+    assertTrue(recorder.flush(5000));
+    assertEquals(0, recorder.getDroppedCount());
+    assertEquals(Set.of("20210105", "20210106"), recorder.getDays());
+    assertEquals(Set.of("c2105", "m2105"), recorder.getInstrumentIDs("20210105"));
+    assertEquals(Set.of("c2105"), recorder.getInstrumentIDs("20210106"));
+    check(recorder, "20210105", "c2105", c1);
+    check(recorder, "20210105", "m2105", m1);
+    check(recorder, "20210106", "c2105", c2);
+  }
+
+  @Test
+  public void close_writes_and_stops() throws Exception {
+    var root = Files.createTempDirectory("tick");
+    var recorder = new TickRecorder(global, root, 1 << 14);
+    var c1 = ticks("c2105", "20210105", TickRecorder.BLOCK_TICKS / 2, 5);
+    for (var md : c1)
+      recorder.depthReceived(md);
+    // The open block is written on close, without an explicit flush.
+    assertTrue(recorder.close(5000));
+    check(recorder, "20210105", "c2105", c1);
+    assertEquals(0, recorder.getDroppedCount());
+    // Closed, ticks are dropped and flush doesn't wait.
+    recorder.depthReceived(c1.get(0));
+    assertEquals(1, recorder.getDroppedCount());
+    assertFalse(recorder.flush(100));
+    assertTrue(recorder.close(5000));
+  }
+
+  private static void check(TickRecorder recorder, String day,
+                            String instrumentID, List<CDepthMarketData> ticks)
+      throws Exception {
+    try (var reader = recorder.open(day, instrumentID)) {
+      for (var md : ticks)
+        assertTick(md, reader.next());
+      assertNull(reader.next());
+    }
+  }
+}
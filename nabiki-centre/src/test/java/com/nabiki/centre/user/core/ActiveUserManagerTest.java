@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.centre.ctp.OrderProvider;
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.utils.Utils;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/*
+Users are settled on their own writers at the same time against the settlement
+prices prepared once, and each is written to its own directory.
+ */
+public class ActiveUserManagerTest {
+  static final String INSTR = "c2109", TODAY = "20210105",
+      YESTERDAY = "20210104";
+  static final double PRE_SETTLEMENT = 2000.0D, SETTLEMENT = 2050.0D;
+  static final int USERS = 8, MULTIPLE = 10;
+
+  private Global setup() throws Exception {
+    GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-settle")
+        .toString();
+    var global = GlobalConfig.config();
+    GlobalConfig.setTradingDay(TODAY);
+    var instr = new CInstrument();
+    instr.InstrumentID = INSTR;
+    instr.ProductID = "c";
+    instr.VolumeMultiple = MULTIPLE;
+    GlobalConfig.setInstrumentConfig(instr);
+    var margin = new CInstrumentMarginRate();
+    margin.InstrumentID = INSTR;
+    margin.LongMarginRatioByMoney = 0.1;
+    margin.ShortMarginRatioByMoney = 0.1;
+    GlobalConfig.setMarginConfig(margin);
+    var comm = new CInstrumentCommissionRate();
+    comm.InstrumentID = INSTR;
+    GlobalConfig.setCommissionConfig(comm);
+    var depth = new CDepthMarketData();
+    depth.InstrumentID = INSTR;
+    depth.PreSettlementPrice = PRE_SETTLEMENT;
+    depth.SettlementPrice = SETTLEMENT;
+    GlobalConfig.setDepthMarketData(depth);
+    return global;
+  }
+
+  /*
+   User i holds i lots long from yesterday, and the last user is short.
+   */
+  private static void writeUser(Path dataDir, int i) throws Exception {
+    var userID = String.format("%04d", i);
+    var dayDir = Files.createDirectories(dataDir.resolve(userID)
+        .resolve(YESTERDAY));
+    var account = new CTradingAccount();
+    account.AccountID = userID;
+    account.Balance = 1E7;
+    account.TradingDay = YESTERDAY;
+    Utils.writeText(Utils.toJson(account),
+        dayDir.resolve("account." + userID + ".json").toFile(),
+        StandardCharsets.UTF_8, false);
+    var p = new CInvestorPositionDetail();
+    p.InstrumentID = INSTR;
+    p.Direction = (byte) (i == USERS ? DirectionType.DIRECTION_SELL
+        : DirectionType.DIRECTION_BUY);
+    p.Volume = i;
+    p.OpenPrice = 1990.0D;
+    p.SettlementPrice = PRE_SETTLEMENT;
+    p.MarginRateByMoney = 0.1;
+    p.TradingDay = YESTERDAY;
+    p.OpenDate = YESTERDAY;
+    p.TradeID = "td" + i;
+    Utils.writeText(Utils.toJson(List.of(p)),
+        dayDir.resolve("positions.json").toFile(),
+        StandardCharsets.UTF_8, false);
+  }
+
+  @Test
+  public void settle_users_at_once() throws Exception {
+    var global = setup();
+    var dataDir = Files.createTempDirectory("nabiki-users");
+    for (int i = 1; i <= USERS; ++i)
+      writeUser(dataDir, i);
+    var mgr = new ActiveUserManager(new OrderProvider(null, global), global,
+        dataDir);
+    mgr.renew();
+    mgr.settle();
+    var today = Utils.getDay(LocalDate.now(), null);
+    for (int i = 1; i <= USERS; ++i) {
+      var userID = String.format("%04d", i);
+      var token = i == USERS ? -1.0D : 1.0D;
+      var details = mgr.getActiveUser(userID).getPositionDetail(INSTR);
+      assertEquals(1, details.size());
+      var p = details.get(0);
+      assertEquals(i, p.Volume);
+      assertEquals(SETTLEMENT, p.SettlementPrice, 1E-6);
+      assertEquals(i * SETTLEMENT * MULTIPLE * 0.1, p.Margin, 1E-6);
+      assertEquals(token * i * (SETTLEMENT - PRE_SETTLEMENT) * MULTIPLE,
+          p.PositionProfitByDate, 1E-6);
+      // Settled user is written to its own directory.
+      var written = Utils.fromJson(Utils.readText(
+          dataDir.resolve(userID).resolve(today).resolve("positions.json")
+              .toFile(), StandardCharsets.UTF_8),
+          CInvestorPositionDetail[].class);
+      assertEquals(1, written.length);
+      assertEquals(SETTLEMENT, written[0].SettlementPrice, 1E-6);
+      assertEquals(p.Margin, written[0].Margin, 1E-6);
+    }
+  }
+}
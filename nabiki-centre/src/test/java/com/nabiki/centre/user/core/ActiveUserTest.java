@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.centre.config.Global;
+import com.nabiki.centre.config.GlobalConfig;
+import com.nabiki.centre.ctp.OrderProvider;
+import com.nabiki.commons.ctpobj.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/*
+Return orders and trades are queued to user's writer and applied in the order
+they come, and the next query sees all of them.
+ */
+public class ActiveUserTest {
+  static final String INSTR = "c2105", TODAY = "20210105";
+  static final double PRE_SETTLEMENT = 2000.0D;
+
+  private static Global global;
+  private static OrderProvider provider;
+  private int tradeID = 0;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    GlobalConfig.ROOT_PATH = Files.createTempDirectory("nabiki-user")
+        .toString();
+    global = GlobalConfig.config();
+    GlobalConfig.setTradingDay(TODAY);
+    var instr = new CInstrument();
+    instr.InstrumentID = INSTR;
+    instr.ProductID = "c";
+    instr.VolumeMultiple = 10;
+    instr.MinLimitOrderVolume = 1;
+    instr.MaxLimitOrderVolume = 1000;
+    GlobalConfig.setInstrumentConfig(instr);
+    var margin = new CInstrumentMarginRate();
+    margin.InstrumentID = INSTR;
+    margin.LongMarginRatioByMoney = 0.1;
+    margin.ShortMarginRatioByMoney = 0.1;
+    GlobalConfig.setMarginConfig(margin);
+    var comm = new CInstrumentCommissionRate();
+    comm.InstrumentID = INSTR;
+    comm.OpenRatioByMoney = 0.0001;
+    comm.CloseRatioByMoney = 0.0001;
+    comm.CloseTodayRatioByMoney = 0.0001;
+    GlobalConfig.setCommissionConfig(comm);
+    var depth = new CDepthMarketData();
+    depth.InstrumentID = INSTR;
+    depth.PreSettlementPrice = PRE_SETTLEMENT;
+    depth.UpperLimitPrice = 2200.0D;
+    depth.LowerLimitPrice = 1800.0D;
+    GlobalConfig.setDepthMarketData(depth);
+    // No API, so orders wait in the provider and are never sent.
+    provider = new OrderProvider(null, global);
+  }
+
+  private ActiveUser user() {
+    return TestUsers.activeUser("0001", 1E8, provider, global);
+  }
+
+  private CInputOrder open(int volume) {
+    var o = new CInputOrder();
+    o.UserID = "0001";
+    o.InstrumentID = INSTR;
+    o.Direction = DirectionType.DIRECTION_BUY;
+    o.CombOffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    o.LimitPrice = 2000.0D;
+    o.VolumeTotalOriginal = volume;
+    return o;
+  }
+
+  private CTrade trade(String orderRef, double price, int volume) {
+    var t = new CTrade();
+    t.InstrumentID = INSTR;
+    t.OrderRef = orderRef;
+    t.Direction = DirectionType.DIRECTION_BUY;
+    t.OffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    t.Price = price;
+    t.Volume = volume;
+    t.TradingDay = TODAY;
+    t.TradeDate = TODAY;
+    t.TradeID = "td" + (++tradeID);
+    return t;
+  }
+
+  private COrder canceled(String orderRef) {
+    var rtn = new COrder();
+    rtn.InstrumentID = INSTR;
+    rtn.OrderRef = orderRef;
+    rtn.CombOffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    rtn.OrderStatus = OrderStatusType.CANCELED;
+    return rtn;
+  }
+
+  private static int volume(ActiveUser user) {
+    int volume = 0;
+    for (var p : user.getPositionDetail(INSTR))
+      volume += p.Volume;
+    return volume;
+  }
+
+  @Test
+  public void trades_applied_in_order() {
+    var user = user();
+    var uuid = user.insertOrder(open(4));
+    assertEquals(0, user.getExecRsp(uuid).ErrorID);
+    var frozen = user.getTradingAccount().FrozenCash;
+    assertTrue(frozen > 0);
+    var ref = user.getRtnOrder(uuid).iterator().next().OrderRef;
+    // Queue all trades without waiting, then query once.
+    var request = provider.getMapper().getActiveRequest(ref);
+    var prices = new double[]{2001.0D, 2002.0D, 2003.0D, 2004.0D};
+    for (var price : prices)
+      request.updateTrade(trade(ref, price, 1));
+    var details = user.getPositionDetail(INSTR);
+    assertEquals(4, details.size());
+    for (int i = 0; i < prices.length; ++i)
+      assertEquals(prices[i], details.get(i).OpenPrice, 1E-6);
+    var account = user.getTradingAccount();
+    assertEquals(0.0D, account.FrozenCash, 1E-6);
+    assertTrue(account.CurrMargin > 0);
+  }
+
+  @Test
+  public void cancel_applied_between_trades() {
+    var user = user();
+    var uuid = user.insertOrder(open(4));
+    var ref = user.getRtnOrder(uuid).iterator().next().OrderRef;
+    var request = provider.getMapper().getActiveRequest(ref);
+    request.updateTrade(trade(ref, 2001.0D, 1));
+    request.updateRtnOrder(canceled(ref));
+    // Trade after cancel is dropped by the writer.
+    request.updateTrade(trade(ref, 2002.0D, 1));
+    assertEquals(1, volume(user));
+    var account = user.getTradingAccount();
+    assertEquals(0.0D, account.FrozenCash, 1E-6);
+    assertEquals(0.0D, account.FrozenMargin, 1E-6);
+    assertTrue(request.isCanceled());
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.commons.ctpobj.*;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/*
+Drive freeze, trade, cancel and close on a user the way ActiveRequest does, and
+check the running totals against the sums walked from the details after every
+step.
+ */
+public class UserAggregatesTest extends UserFixture {
+  @Test
+  public void freeze_trade_cancel_open() {
+    check();
+    var frz = freezeOpen(DirectionType.DIRECTION_BUY, 2005.0D, 4);
+    check();
+    assertTrue(user.getTradingAccount().FrozenCash > 0);
+    tradeOpen(frz, DirectionType.DIRECTION_BUY, 2004.0D, 1);
+    check();
+    tradeOpen(frz, DirectionType.DIRECTION_BUY, 2003.0D, 2);
+    check();
+    frz.cancel();
+    check();
+    var acc = user.getTradingAccount();
+    assertEquals(0.0D, acc.FrozenCash, 1E-6);
+    assertEquals(0.0D, acc.FrozenCommission, 1E-6);
+    assertTrue(acc.CurrMargin > 0);
+  }
+
+  @Test
+  public void freeze_trade_cancel_close() {
+    // Close more than the first detail so the frozen spans two lots.
+    var today = freezeOpen(DirectionType.DIRECTION_BUY, 2005.0D, 2);
+    tradeOpen(today, DirectionType.DIRECTION_BUY, 2005.0D, 2);
+    check();
+    var pds = freezeClose(DirectionType.DIRECTION_SELL, 2020.0D, 6);
+    assertFalse(pds.isEmpty());
+    check();
+    tradeClose(pds.get(0), 2021.0D, 2);
+    check();
+    tradeClose(pds.get(0), 2022.0D, (int) pds.get(0).getFrozenVolume());
+    check();
+    for (var p : pds)
+      p.cancel();
+    check();
+    var acc = user.getTradingAccount();
+    assertEquals(0.0D, acc.FrozenMargin, 1E-6);
+    assertTrue(acc.CloseProfit != 0.0D);
+    // Close all short position.
+    pds = freezeClose(DirectionType.DIRECTION_BUY, 1995.0D, 3);
+    check();
+    for (var p : pds)
+      tradeClose(p, 1995.0D, (int) p.getFrozenVolume());
+    check();
+    assertTrue(freezeClose(DirectionType.DIRECTION_BUY, 1995.0D, 1).isEmpty());
+  }
+
+  @Test
+  public void random_sequence() {
+    randomSteps(new Random(7), 2000);
+    var acc = user.getTradingAccount();
+    assertEquals(0.0D, acc.FrozenCash, 1E-6);
+    assertEquals(0.0D, acc.FrozenMargin, 1E-6);
+    assertEquals(0.0D, acc.FrozenCommission, 1E-6);
+  }
+}
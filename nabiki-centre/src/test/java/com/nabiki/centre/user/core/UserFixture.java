@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.commons.ctpobj.*;
+import org.junit.Before;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/*
+User with yesterday's positions on both sides, and the steps ActiveRequest
+takes to freeze, trade and cancel on it.
+ */
+public abstract class UserFixture {
+  static final String INSTR = "c2105", TODAY = "20210105", YESTERDAY = "20210104";
+  static final double PRE_SETTLEMENT = 2000.0D;
+
+  CInstrument instr;
+  CInstrumentMarginRate margin;
+  CInstrumentCommissionRate comm;
+  User user;
+  private int tradeID = 0;
+
+  @Before
+  public void setup() {
+    instr = new CInstrument();
+    instr.InstrumentID = INSTR;
+    instr.VolumeMultiple = 10;
+    margin = new CInstrumentMarginRate();
+    margin.InstrumentID = INSTR;
+    margin.LongMarginRatioByMoney = 0.1;
+    margin.ShortMarginRatioByMoney = 0.12;
+    comm = new CInstrumentCommissionRate();
+    comm.InstrumentID = INSTR;
+    comm.OpenRatioByMoney = 0.0001;
+    comm.CloseRatioByMoney = 0.0001;
+    comm.CloseTodayRatioByMoney = 0.0002;
+    var account = new CTradingAccount();
+    account.AccountID = "0001";
+    account.PreBalance = 1E8;
+    account.TradingDay = TODAY;
+    var positions = new HashMap<String, List<UserPositionDetail>>();
+    var lst = new LinkedList<UserPositionDetail>();
+    lst.add(position(DirectionType.DIRECTION_BUY, 1990.0D, 5));
+    lst.add(position(DirectionType.DIRECTION_SELL, 2010.0D, 3));
+    positions.put(INSTR, lst);
+    user = new User(account, positions);
+  }
+
+  UserPositionDetail position(char direction, double price, int volume) {
+    var d = new CInvestorPositionDetail();
+    d.InstrumentID = INSTR;
+    d.Direction = (byte) direction;
+    d.OpenPrice = price;
+    d.LastSettlementPrice = PRE_SETTLEMENT;
+    d.Volume = volume;
+    d.TradingDay = YESTERDAY;
+    d.OpenDate = YESTERDAY;
+    d.TradeID = "yd" + (++tradeID);
+    d.MarginRateByMoney = 0.1;
+    d.Margin = d.ExchMargin = volume * PRE_SETTLEMENT * instr.VolumeMultiple
+        * d.MarginRateByMoney;
+    return new UserPositionDetail(d);
+  }
+
+  CInputOrder order(char direction, char offset, double price,
+                            int volume) {
+    var o = new CInputOrder();
+    o.InstrumentID = INSTR;
+    o.Direction = (byte) direction;
+    o.CombOffsetFlag = (byte) offset;
+    o.LimitPrice = price;
+    o.VolumeTotalOriginal = volume;
+    return o;
+  }
+
+  CTrade trade(char direction, char offset, double price, int volume) {
+    var t = new CTrade();
+    t.InstrumentID = INSTR;
+    t.Direction = (byte) direction;
+    t.OffsetFlag = (byte) offset;
+    t.Price = price;
+    t.Volume = volume;
+    t.TradingDay = TODAY;
+    t.TradeDate = TODAY;
+    t.TradeID = "td" + (++tradeID);
+    return t;
+  }
+
+  FrozenAccount freezeOpen(char direction, double price, int volume) {
+    var frz = user.getUserAccount().getOpenFrozenAccount(
+        order(direction, CombOffsetFlagType.OFFSET_OPEN, price, volume),
+        instr, margin, comm);
+    assertNotNull(frz);
+    frz.setFrozen();
+    return frz;
+  }
+
+  void tradeOpen(FrozenAccount frz, char direction, double price,
+                         int volume) {
+    var t = trade(direction, CombOffsetFlagType.OFFSET_OPEN, price, volume);
+    frz.applyOpenTrade(t, instr, comm);
+    user.getUserPosition().applyOpenTrade(t, instr, margin, PRE_SETTLEMENT);
+  }
+
+  List<FrozenPositionDetail> freezeClose(char direction, double price,
+                                                 int volume) {
+    var pds = user.getUserPosition().peakCloseFrozen(
+        order(direction, CombOffsetFlagType.OFFSET_CLOSE, price, volume),
+        instr, comm, TODAY);
+    if (pds == null)
+      return Collections.emptyList();
+    for (var p : pds)
+      p.setFrozen();
+    return pds;
+  }
+
+  void tradeClose(FrozenPositionDetail p, double price, int volume) {
+    var single = p.getSingleFrozenPosition();
+    var direction = single.Direction == DirectionType.DIRECTION_BUY
+        ? DirectionType.DIRECTION_SELL : DirectionType.DIRECTION_BUY;
+    var offset = TODAY.equals(single.TradingDay)
+        ? CombOffsetFlagType.OFFSET_CLOSE_TODAY
+        : CombOffsetFlagType.OFFSET_CLOSE_YESTERDAY;
+    var t = trade(direction, offset, price, volume);
+    p.applyCloseTrade(t, instr);
+    user.getUserAccount().applyTrade(t, instr, comm);
+  }
+
+  void check() {
+    assertEquals(Collections.emptyList(), user.checkAggregates());
+  }
+
+  void randomSteps(Random random, int steps) {
+    var opens = new ArrayList<FrozenAccount>();
+    var openDirections = new HashMap<FrozenAccount, Character>();
+    var closes = new ArrayList<FrozenPositionDetail>();
+    for (int step = 0; step < steps; ++step) {
+      var price = 1950.0D + random.nextInt(100);
+      switch (random.nextInt(6)) {
+        case 0: {
+          var direction = random.nextBoolean()
+              ? DirectionType.DIRECTION_BUY : DirectionType.DIRECTION_SELL;
+          var frz = freezeOpen(direction, price, 1 + random.nextInt(5));
+          opens.add(frz);
+          openDirections.put(frz, direction);
+          break;
+        }
+        case 1: {
+          if (opens.isEmpty())
+            break;
+          var frz = opens.get(random.nextInt(opens.size()));
+          var volume = 1 + random.nextInt((int) frz.getFrozenVolume());
+          tradeOpen(frz, openDirections.get(frz), price, volume);
+          if (frz.getFrozenVolume() == 0)
+            opens.remove(frz);
+          break;
+        }
+        case 2: {
+          if (opens.isEmpty())
+            break;
+          opens.remove(random.nextInt(opens.size())).cancel();
+          break;
+        }
+        case 3: {
+          var direction = random.nextBoolean()
+              ? DirectionType.DIRECTION_BUY : DirectionType.DIRECTION_SELL;
+          closes.addAll(freezeClose(direction, price, 1 + random.nextInt(3)));
+          break;
+        }
+        case 4: {
+          if (closes.isEmpty())
+            break;
+          var p = closes.get(random.nextInt(closes.size()));
+          var volume = 1 + random.nextInt((int) p.getFrozenVolume());
+          tradeClose(p, price, volume);
+          if (p.getFrozenVolume() == 0)
+            closes.remove(p);
+          break;
+        }
+        default: {
+          if (closes.isEmpty())
+            break;
+          closes.remove(random.nextInt(closes.size())).cancel();
+          break;
+        }
+      }
+      check();
+    }
+    // Cancel what is left, nothing should stay frozen.
+    for (var frz : opens)
+      frz.cancel();
+    for (var p : closes)
+      p.cancel();
+    check();
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.core;
+
+import com.nabiki.centre.config.FlowJournal;
+import com.nabiki.commons.ctpobj.CInvestorPositionDetail;
+import com.nabiki.commons.ctpobj.DirectionType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/*
+Steps on a user are written to its ledger and recovered from the snapshot and
+the journal after it. A torn or corrupt record at the journal tail is cut off
+with the records after it.
+ */
+public class UserLedgerTest extends UserFixture {
+  @Test
+  public void ledger_replay() throws IOException {
+    var dir = Files.createTempDirectory("ledger");
+    // Small interval so the steps span several snapshots and a journal tail.
+    var ledger = new UserLedger(dir, FlowJournal.SyncPolicy.BATCH, 37, null);
+    ledger.reset(state(user));
+    user.setLedger(ledger);
+    randomSteps(new Random(11), 500);
+    ledger.close();
+    assertTrue(Files.size(dir.resolve("journal.bin")) > 0);
+    // Recovery starts from a snapshot taken in the middle.
+    var snapshot = new UserLedger(dir, FlowJournal.SyncPolicy.NONE, null)
+        .readSnapshot();
+    assertNotNull(snapshot);
+    assertTrue(snapshot.seq > 0);
+    var recovered = recover(dir);
+    assertTrue(recovered.seq > snapshot.seq);
+    assertState(state(user), recovered);
+  }
+
+  @Test
+  public void truncated_tail() throws IOException {
+    var dir = Files.createTempDirectory("ledger");
+    var tail = lastStep(dir);
+    // Length of the first record of last step is torn.
+    try (var channel = FileChannel.open(dir.resolve("journal.bin"),
+        StandardOpenOption.WRITE)) {
+      channel.truncate(tail.size + 3);
+    }
+    assertState(tail.before, recover(dir));
+    // Torn bytes are cut, so events appended later are read.
+    assertEquals(tail.size, Files.size(dir.resolve("journal.bin")));
+  }
+
+  @Test
+  public void corrupt_tail() throws IOException {
+    var dir = Files.createTempDirectory("ledger");
+    var tail = lastStep(dir);
+    assertState(tail.after, recover(dir));
+    // Flip a byte in the body of the first record of last step, and the
+    // records after it are dropped too.
+    try (var channel = FileChannel.open(dir.resolve("journal.bin"),
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      var b = ByteBuffer.allocate(1);
+      channel.read(b, tail.size + 12);
+      b.put(0, (byte) (b.get(0) ^ 0x5A));
+      b.flip();
+      channel.write(b, tail.size + 12);
+    }
+    assertState(tail.before, recover(dir));
+  }
+
+  @Test
+  public void recover_then_append() throws IOException {
+    var dir = Files.createTempDirectory("ledger");
+    var ledger = new UserLedger(dir, FlowJournal.SyncPolicy.BATCH, null);
+    ledger.reset(state(user));
+    user.setLedger(ledger);
+    var frz = freezeOpen(DirectionType.DIRECTION_BUY, 2005.0D, 2);
+    tradeOpen(frz, DirectionType.DIRECTION_BUY, 2004.0D, 1);
+    ledger.close();
+    // Recovered ledger goes on with the journal.
+    ledger = new UserLedger(dir, FlowJournal.SyncPolicy.BATCH, null);
+    ledger.replay(ledger.readSnapshot());
+    user.setLedger(ledger);
+    tradeOpen(frz, DirectionType.DIRECTION_BUY, 2003.0D, 1);
+    ledger.close();
+    assertState(state(user), recover(dir));
+  }
+
+  /*
+   Journal size and user states before and after the last step.
+   */
+  private static class Tail {
+    long size;
+    UserLedger.State before, after;
+  }
+
+  private Tail lastStep(Path dir) throws IOException {
+    var ledger = new UserLedger(dir, FlowJournal.SyncPolicy.BATCH, null);
+    ledger.reset(state(user));
+    user.setLedger(ledger);
+    var frz = freezeOpen(DirectionType.DIRECTION_BUY, 2005.0D, 3);
+    tradeOpen(frz, DirectionType.DIRECTION_BUY, 2004.0D, 1);
+    var tail = new Tail();
+    tail.size = Files.size(dir.resolve("journal.bin"));
+    tail.before = state(user);
+    tradeOpen(frz, DirectionType.DIRECTION_BUY, 2003.0D, 2);
+    ledger.close();
+    tail.after = state(user);
+    assertTrue(Files.size(dir.resolve("journal.bin")) > tail.size);
+    return tail;
+  }
+
+  private static UserLedger.State recover(Path dir) throws IOException {
+    var ledger = new UserLedger(dir, FlowJournal.SyncPolicy.NONE, null);
+    var state = ledger.readSnapshot();
+    assertNotNull(state);
+    ledger.replay(state);
+    ledger.close();
+    return state;
+  }
+
+  private static UserLedger.State state(User user) {
+    var state = new UserLedger.State();
+    state.account = user.getUserAccount().copyRawAccount();
+    for (var entry : user.getUserPosition().getPositionMap().entrySet()) {
+      var lst = new LinkedList<CInvestorPositionDetail>();
+      for (var p : entry.getValue())
+        lst.add(p.copyRawPosition());
+      state.positions.put(entry.getKey(), lst);
+    }
+    return state;
+  }
+
+  private static void assertState(UserLedger.State expected,
+                                  UserLedger.State actual) {
+    assertEquals(expected.account.Commission, actual.account.Commission, 1E-6);
+    assertEquals(expected.positions.keySet(), actual.positions.keySet());
+    for (var entry : expected.positions.entrySet()) {
+      var lst = actual.positions.get(entry.getKey());
+      assertEquals(entry.getValue().size(), lst.size());
+      var iter = lst.iterator();
+      for (var e : entry.getValue()) {
+        var a = iter.next();
+        assertEquals(e.TradeID, a.TradeID);
+        assertEquals(e.OpenDate, a.OpenDate);
+        assertEquals(e.Direction, a.Direction);
+        assertEquals(e.Volume, a.Volume);
+        assertEquals(e.CloseVolume, a.CloseVolume);
+        assertEquals(e.OpenPrice, a.OpenPrice, 1E-6);
+        assertEquals(e.CloseAmount, a.CloseAmount, 1E-6);
+        assertEquals(e.CloseProfitByDate, a.CloseProfitByDate, 1E-6);
+        assertEquals(e.CloseProfitByTrade, a.CloseProfitByTrade, 1E-6);
+        assertEquals(e.Margin, a.Margin, 1E-6);
+        assertEquals(e.ExchMargin, a.ExchMargin, 1E-6);
+      }
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.centre.user.risk;
+
+import com.nabiki.centre.user.auth.OrderOffset;
+import com.nabiki.centre.user.auth.UserAuthManager;
+import com.nabiki.centre.user.auth.UserAuthProfile;
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.utils.Utils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/*
+Each rule rejects with its own error, working orders are kept before they are
+sent, and rejected orders give back their open volume and leave the self-trade
+book.
+ */
+public class RiskEngineTest {
+  static final String USER = "0001", INSTR = "c2105", CLOSE_ONLY = "c2109";
+  static final long NOW = 1609894800000L;
+
+  private RiskEngine risk;
+
+  @Before
+  public void setup() throws Exception {
+    var limit = new UserAuthProfile.RiskLimit();
+    limit.CheckSelfTrade = true;
+    risk = engine(limit);
+  }
+
+  /*
+   Open and close the first instrument with at most 5 lots opened a day, and
+   only close the second.
+   */
+  private static RiskEngine engine(UserAuthProfile.RiskLimit limit)
+      throws Exception {
+    var auth = new UserAuthProfile.InstrumentAuth();
+    auth.InstrumentID = INSTR;
+    auth.AllowOffset = OrderOffset.OPEN_CLOSE;
+    auth.MaxOpenVolume = 5;
+    var closeOnly = new UserAuthProfile.InstrumentAuth();
+    closeOnly.InstrumentID = CLOSE_ONLY;
+    closeOnly.AllowOffset = OrderOffset.ONLY_CLOSE;
+    var profile = new UserAuthProfile();
+    profile.UserID = USER;
+    profile.InstrumentAuths = List.of(auth, closeOnly);
+    profile.Limit = limit;
+    var dir = Files.createTempDirectory("auth");
+    var userDir = Files.createDirectories(dir.resolve(USER));
+    Utils.writeText(Utils.toJson(profile),
+        Path.of(userDir.toString(), "auth." + USER + ".json").toFile(),
+        StandardCharsets.UTF_8, false);
+    var authMgr = new UserAuthManager(dir);
+    authMgr.load();
+    return new RiskEngine(authMgr);
+  }
+
+  private static void assertRejected(CRspInfo rsp, int errorID, String msg) {
+    assertNotNull(rsp);
+    assertEquals(errorID, rsp.ErrorID);
+    assertEquals(msg, rsp.ErrorMsg);
+  }
+
+  private CInputOrder order(char direction, double price, int volume) {
+    var o = new CInputOrder();
+    o.UserID = USER;
+    o.InstrumentID = INSTR;
+    o.Direction = (byte) direction;
+    o.CombOffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    o.LimitPrice = price;
+    o.VolumeTotalOriginal = volume;
+    return o;
+  }
+
+  private CInputOrder order(String instrID, char offset, int volume) {
+    var o = order(DirectionType.DIRECTION_BUY, 2000.0D, volume);
+    o.InstrumentID = instrID;
+    o.CombOffsetFlag = (byte) offset;
+    return o;
+  }
+
+  private COrder canceled(String uuid, CInputOrder order) {
+    var rtn = new COrder();
+    rtn.OrderLocalID = uuid;
+    rtn.OrderStatus = OrderStatusType.CANCELED;
+    rtn.VolumeTotalOriginal = order.VolumeTotalOriginal;
+    rtn.VolumeTotal = order.VolumeTotalOriginal;
+    return rtn;
+  }
+
+  @Test
+  public void canceled_rtn_releases_working() {
+    var buy = order(DirectionType.DIRECTION_BUY, 2000.0D, 5);
+    assertNull(risk.check(buy));
+    risk.accept("1", buy);
+    // Open limit is used up and the buy crosses a sell below it.
+    assertNotNull(risk.check(order(DirectionType.DIRECTION_BUY, 2000.0D, 1)));
+    assertNotNull(risk.check(order(DirectionType.DIRECTION_SELL, 1990.0D, 1)));
+    // Rejected by counter, it comes back canceled.
+    risk.whenRtnOrder(USER, canceled("1", buy));
+    assertNull(risk.check(order(DirectionType.DIRECTION_SELL, 1990.0D, 5)));
+  }
+
+  @Test
+  public void rejected_insert_releases_working() {
+    var buy = order(DirectionType.DIRECTION_BUY, 2000.0D, 5);
+    assertNull(risk.check(buy));
+    risk.accept("1", buy);
+    risk.reject("1", buy);
+    assertNull(risk.check(order(DirectionType.DIRECTION_SELL, 1990.0D, 5)));
+    // Later return of the removed order changes nothing.
+    risk.whenRtnOrder(USER, canceled("1", buy));
+    assertNotNull(risk.check(order(DirectionType.DIRECTION_BUY, 2000.0D, 1)));
+  }
+
+  @Test
+  public void trading_right() {
+    assertRejected(risk.check(order("c2201", CombOffsetFlagType.OFFSET_OPEN,
+        1)), ErrorCodes.NO_TRADING_RIGHT, RiskEngine.NO_TRADING_RIGHT);
+    assertRejected(risk.check(order(CLOSE_ONLY, CombOffsetFlagType.OFFSET_OPEN,
+        1)), ErrorCodes.NO_TRADING_RIGHT, RiskEngine.NO_TRADING_RIGHT);
+    assertNull(risk.check(order(CLOSE_ONLY, CombOffsetFlagType.OFFSET_CLOSE,
+        1)));
+    assertNull(risk.check(order(CLOSE_ONLY,
+        CombOffsetFlagType.OFFSET_CLOSE_TODAY, 1)));
+    var unknown = order(INSTR, CombOffsetFlagType.OFFSET_OPEN, 1);
+    unknown.UserID = "0002";
+    assertRejected(risk.check(unknown), ErrorCodes.NO_TRADING_RIGHT,
+        RiskEngine.NO_TRADING_RIGHT);
+    assertEquals(Long.valueOf(3),
+        risk.getRejectStatistics().get(RiskEngine.NO_TRADING_RIGHT));
+  }
+
+  @Test
+  public void max_volume() throws Exception {
+    var limit = new UserAuthProfile.RiskLimit();
+    limit.MaxOrderVolume = 3;
+    risk = engine(limit);
+    assertRejected(risk.check(order(CLOSE_ONLY, CombOffsetFlagType.OFFSET_CLOSE,
+        4)), ErrorCodes.BAD_FIELD, RiskEngine.OVER_ORDER_VOLUME);
+    assertNull(risk.check(order(CLOSE_ONLY, CombOffsetFlagType.OFFSET_CLOSE,
+        3)));
+  }
+
+  @Test
+  public void rate_limit() throws Exception {
+    var limit = new UserAuthProfile.RiskLimit();
+    limit.MaxOrderPerSecond = 2;
+    risk = engine(limit);
+    var close = order(CLOSE_ONLY, CombOffsetFlagType.OFFSET_CLOSE, 1);
+    assertNull(risk.check(close, NOW));
+    assertNull(risk.check(close, NOW + 10));
+    assertRejected(risk.check(close, NOW + 20),
+        ErrorCodes.CFFEX_OVER_REQUEST_PER_SECOND, RiskEngine.OVER_ORDER_RATE);
+    // Rejected open order doesn't keep its open volume.
+    assertRejected(risk.check(order(INSTR, CombOffsetFlagType.OFFSET_OPEN, 5),
+        NOW + 30), ErrorCodes.CFFEX_OVER_REQUEST_PER_SECOND,
+        RiskEngine.OVER_ORDER_RATE);
+    // Next second.
+    assertNull(risk.check(order(INSTR, CombOffsetFlagType.OFFSET_OPEN, 5),
+        NOW + 1000));
+  }
+
+  @Test
+  public void open_limit() throws Exception {
+    var limit = new UserAuthProfile.RiskLimit();
+    limit.MaxOrderPerSecond = 2;
+    risk = engine(limit);
+    assertNull(risk.check(order(INSTR, CombOffsetFlagType.OFFSET_OPEN, 3),
+        NOW));
+    assertRejected(risk.check(order(INSTR, CombOffsetFlagType.OFFSET_OPEN, 3),
+        NOW + 10), ErrorCodes.CLOSE_ONLY, RiskEngine.OVER_OPEN_VOLUME);
+    // Rejected by open limit, it doesn't take a rate slot.
+    assertNull(risk.check(order(INSTR, CombOffsetFlagType.OFFSET_OPEN, 2),
+        NOW + 20));
+    // Close is not limited by open volume.
+    assertRejected(risk.check(order(INSTR, CombOffsetFlagType.OFFSET_CLOSE, 1),
+        NOW + 30), ErrorCodes.CFFEX_OVER_REQUEST_PER_SECOND,
+        RiskEngine.OVER_ORDER_RATE);
+    assertNull(risk.check(order(INSTR, CombOffsetFlagType.OFFSET_CLOSE, 1),
+        NOW + 1000));
+  }
+
+  @Test
+  public void self_trade() {
+    var sell = order(DirectionType.DIRECTION_SELL, 2000.0D, 1);
+    assertNull(risk.check(sell));
+    risk.accept("1", sell);
+    assertRejected(risk.check(order(DirectionType.DIRECTION_BUY, 2000.0D, 1)),
+        ErrorCodes.BAD_FIELD, RiskEngine.SELF_TRADE);
+    assertRejected(risk.check(order(DirectionType.DIRECTION_BUY, 2001.0D, 1)),
+        ErrorCodes.BAD_FIELD, RiskEngine.SELF_TRADE);
+    // Buy below own sell doesn't cross, and sell on the same side is fine.
+    assertNull(risk.check(order(DirectionType.DIRECTION_BUY, 1999.0D, 1)));
+    assertNull(risk.check(order(DirectionType.DIRECTION_SELL, 1990.0D, 1)));
+  }
+}
@@ -76,4 +76,6 @@ public interface TradeClient {
   Response<CInstrumentMarginRate> queryMargin(CQryInstrumentMarginRate query) throws Exception;
 
   Response<CInstrumentCommissionRate> queryCommission(CQryInstrumentCommissionRate query) throws Exception;
+
+  Response<CCandle> queryCandle(CQryCandle query) throws Exception;
 }
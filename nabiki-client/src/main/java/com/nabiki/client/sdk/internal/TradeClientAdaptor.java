@@ -220,6 +220,17 @@ class TradeClientAdaptor extends ClientMessageAdaptor {
     doRsp(rsp, info, requestID, current, total);
   }
 
+  @Override
+  public void doRspQryCandle(
+      CCandle rsp,
+      CRspInfo info,
+      String requestID,
+      String responseID,
+      int current,
+      int total) {
+    doRsp(rsp, info, requestID, current, total);
+  }
+
   @Override
   public void doRspSubscribeMarketData(
       CSpecificInstrument rsp,
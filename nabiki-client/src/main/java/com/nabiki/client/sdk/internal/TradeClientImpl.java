@@ -245,6 +245,17 @@ class TradeClientImpl implements TradeClient {
         COrder.class);
   }
 
+  @Override
+  public Response<CCandle> queryCandle(
+      CQryCandle query) throws Exception {
+    requireLogin();
+    return send(
+        MessageType.QRY_CANDLE,
+        query,
+        Utils.getUID(),
+        CCandle.class);
+  }
+
   @Override
   public Response<CSpecificInstrument> subscribeMarketData(
       CSubMarketData subscription) throws Exception {
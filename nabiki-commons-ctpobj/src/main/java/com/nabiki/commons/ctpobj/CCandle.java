@@ -42,7 +42,27 @@ public class CCandle implements java.io.Serializable {
   public String ActionDay;
   public String UpdateTime;
   public String EndTime;
+  public byte Kind;
+  public double Size;
 
   public CCandle() {
   }
+
+  public CCandle(CCandle other) {
+    InstrumentID = other.InstrumentID;
+    OpenPrice = other.OpenPrice;
+    HighestPrice = other.HighestPrice;
+    LowestPrice = other.LowestPrice;
+    ClosePrice = other.ClosePrice;
+    AveragePrice = other.AveragePrice;
+    OpenInterest = other.OpenInterest;
+    Volume = other.Volume;
+    Minute = other.Minute;
+    TradingDay = other.TradingDay;
+    ActionDay = other.ActionDay;
+    UpdateTime = other.UpdateTime;
+    EndTime = other.EndTime;
+    Kind = other.Kind;
+    Size = other.Size;
+  }
 }
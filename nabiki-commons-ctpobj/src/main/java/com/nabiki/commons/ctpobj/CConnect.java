@@ -33,4 +33,7 @@ import java.io.Serializable;
 public class CConnect implements Serializable {
   public CConnect() {
   }
+
+  public CConnect(CConnect other) {
+  }
 }
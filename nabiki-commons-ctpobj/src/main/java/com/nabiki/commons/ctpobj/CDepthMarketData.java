@@ -78,4 +78,51 @@ public class CDepthMarketData implements Serializable {
 
   public CDepthMarketData() {
   }
+
+  public CDepthMarketData(CDepthMarketData other) {
+    TradingDay = other.TradingDay;
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+    ExchangeInstID = other.ExchangeInstID;
+    LastPrice = other.LastPrice;
+    PreSettlementPrice = other.PreSettlementPrice;
+    PreClosePrice = other.PreClosePrice;
+    PreOpenInterest = other.PreOpenInterest;
+    OpenPrice = other.OpenPrice;
+    HighestPrice = other.HighestPrice;
+    LowestPrice = other.LowestPrice;
+    Volume = other.Volume;
+    Turnover = other.Turnover;
+    OpenInterest = other.OpenInterest;
+    ClosePrice = other.ClosePrice;
+    SettlementPrice = other.SettlementPrice;
+    UpperLimitPrice = other.UpperLimitPrice;
+    LowerLimitPrice = other.LowerLimitPrice;
+    PreDelta = other.PreDelta;
+    CurrDelta = other.CurrDelta;
+    UpdateTime = other.UpdateTime;
+    UpdateMillisec = other.UpdateMillisec;
+    BidPrice1 = other.BidPrice1;
+    BidVolume1 = other.BidVolume1;
+    AskPrice1 = other.AskPrice1;
+    AskVolume1 = other.AskVolume1;
+    BidPrice2 = other.BidPrice2;
+    BidVolume2 = other.BidVolume2;
+    AskPrice2 = other.AskPrice2;
+    AskVolume2 = other.AskVolume2;
+    BidPrice3 = other.BidPrice3;
+    BidVolume3 = other.BidVolume3;
+    AskPrice3 = other.AskPrice3;
+    AskVolume3 = other.AskVolume3;
+    BidPrice4 = other.BidPrice4;
+    BidVolume4 = other.BidVolume4;
+    AskPrice4 = other.AskPrice4;
+    AskVolume4 = other.AskVolume4;
+    BidPrice5 = other.BidPrice5;
+    BidVolume5 = other.BidVolume5;
+    AskPrice5 = other.AskPrice5;
+    AskVolume5 = other.AskVolume5;
+    AveragePrice = other.AveragePrice;
+    ActionDay = other.ActionDay;
+  }
 }
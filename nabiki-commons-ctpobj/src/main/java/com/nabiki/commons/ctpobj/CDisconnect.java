@@ -35,4 +35,8 @@ public class CDisconnect implements Serializable {
 
   public CDisconnect() {
   }
+
+  public CDisconnect(CDisconnect other) {
+    Reason = other.Reason;
+  }
 }
@@ -64,4 +64,37 @@ public class CInputOrder implements Serializable {
 
   public CInputOrder() {
   }
+
+  public CInputOrder(CInputOrder other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    OrderRef = other.OrderRef;
+    UserID = other.UserID;
+    OrderPriceType = other.OrderPriceType;
+    Direction = other.Direction;
+    CombOffsetFlag = other.CombOffsetFlag;
+    CombHedgeFlag = other.CombHedgeFlag;
+    LimitPrice = other.LimitPrice;
+    VolumeTotalOriginal = other.VolumeTotalOriginal;
+    TimeCondition = other.TimeCondition;
+    GTDDate = other.GTDDate;
+    VolumeCondition = other.VolumeCondition;
+    MinVolume = other.MinVolume;
+    ContingentCondition = other.ContingentCondition;
+    StopPrice = other.StopPrice;
+    ForceCloseReason = other.ForceCloseReason;
+    IsAutoSuspend = other.IsAutoSuspend;
+    BusinessUnit = other.BusinessUnit;
+    RequestID = other.RequestID;
+    UserForceClose = other.UserForceClose;
+    IsSwapOrder = other.IsSwapOrder;
+    ExchangeID = other.ExchangeID;
+    InvestUnitID = other.InvestUnitID;
+    AccountID = other.AccountID;
+    CurrencyID = other.CurrencyID;
+    ClientID = other.ClientID;
+    IPAddress = other.IPAddress;
+    MacAddress = other.MacAddress;
+  }
 }
@@ -51,4 +51,24 @@ public class CInputOrderAction implements Serializable {
 
   public CInputOrderAction() {
   }
+
+  public CInputOrderAction(CInputOrderAction other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    OrderActionRef = other.OrderActionRef;
+    OrderRef = other.OrderRef;
+    RequestID = other.RequestID;
+    FrontID = other.FrontID;
+    SessionID = other.SessionID;
+    ExchangeID = other.ExchangeID;
+    OrderSysID = other.OrderSysID;
+    ActionFlag = other.ActionFlag;
+    LimitPrice = other.LimitPrice;
+    VolumeChange = other.VolumeChange;
+    UserID = other.UserID;
+    InstrumentID = other.InstrumentID;
+    InvestUnitID = other.InvestUnitID;
+    IPAddress = other.IPAddress;
+    MacAddress = other.MacAddress;
+  }
 }
@@ -65,4 +65,38 @@ public class CInstrument implements Serializable {
 
   public CInstrument() {
   }
+
+  public CInstrument(CInstrument other) {
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+    InstrumentName = other.InstrumentName;
+    ExchangeInstID = other.ExchangeInstID;
+    ProductID = other.ProductID;
+    ProductClass = other.ProductClass;
+    DeliveryYear = other.DeliveryYear;
+    DeliveryMonth = other.DeliveryMonth;
+    MaxMarketOrderVolume = other.MaxMarketOrderVolume;
+    MinMarketOrderVolume = other.MinMarketOrderVolume;
+    MaxLimitOrderVolume = other.MaxLimitOrderVolume;
+    MinLimitOrderVolume = other.MinLimitOrderVolume;
+    VolumeMultiple = other.VolumeMultiple;
+    PriceTick = other.PriceTick;
+    CreateDate = other.CreateDate;
+    OpenDate = other.OpenDate;
+    ExpireDate = other.ExpireDate;
+    StartDelivDate = other.StartDelivDate;
+    EndDelivDate = other.EndDelivDate;
+    InstLifePhase = other.InstLifePhase;
+    IsTrading = other.IsTrading;
+    PositionType = other.PositionType;
+    PositionDateType = other.PositionDateType;
+    LongMarginRatio = other.LongMarginRatio;
+    ShortMarginRatio = other.ShortMarginRatio;
+    MaxMarginSideAlgorithm = other.MaxMarginSideAlgorithm;
+    UnderlyingInstrID = other.UnderlyingInstrID;
+    StrikePrice = other.StrikePrice;
+    OptionsType = other.OptionsType;
+    UnderlyingMultiple = other.UnderlyingMultiple;
+    CombinationType = other.CombinationType;
+  }
 }
@@ -47,4 +47,20 @@ public class CInstrumentCommissionRate implements Serializable {
 
   public CInstrumentCommissionRate() {
   }
+
+  public CInstrumentCommissionRate(CInstrumentCommissionRate other) {
+    InstrumentID = other.InstrumentID;
+    InvestorRange = other.InvestorRange;
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    OpenRatioByMoney = other.OpenRatioByMoney;
+    OpenRatioByVolume = other.OpenRatioByVolume;
+    CloseRatioByMoney = other.CloseRatioByMoney;
+    CloseRatioByVolume = other.CloseRatioByVolume;
+    CloseTodayRatioByMoney = other.CloseTodayRatioByMoney;
+    CloseTodayRatioByVolume = other.CloseTodayRatioByVolume;
+    ExchangeID = other.ExchangeID;
+    BizType = other.BizType;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
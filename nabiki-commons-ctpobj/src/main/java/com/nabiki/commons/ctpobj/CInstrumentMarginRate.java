@@ -46,4 +46,19 @@ public class CInstrumentMarginRate implements Serializable {
 
   public CInstrumentMarginRate() {
   }
+
+  public CInstrumentMarginRate(CInstrumentMarginRate other) {
+    InstrumentID = other.InstrumentID;
+    InvestorRange = other.InvestorRange;
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    HedgeFlag = other.HedgeFlag;
+    LongMarginRatioByMoney = other.LongMarginRatioByMoney;
+    LongMarginRatioByVolume = other.LongMarginRatioByVolume;
+    ShortMarginRatioByMoney = other.ShortMarginRatioByMoney;
+    ShortMarginRatioByVolume = other.ShortMarginRatioByVolume;
+    IsRelative = other.IsRelative;
+    ExchangeID = other.ExchangeID;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
@@ -79,4 +79,54 @@ public class CInvestorPosition implements java.io.Serializable {
 
   public CInvestorPosition() {
   }
+
+  public CInvestorPosition(CInvestorPosition other) {
+    InstrumentID = other.InstrumentID;
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    PosiDirection = other.PosiDirection;
+    HedgeFlag = other.HedgeFlag;
+    PositionDate = other.PositionDate;
+    YdPosition = other.YdPosition;
+    Position = other.Position;
+    LongFrozen = other.LongFrozen;
+    ShortFrozen = other.ShortFrozen;
+    LongFrozenAmount = other.LongFrozenAmount;
+    ShortFrozenAmount = other.ShortFrozenAmount;
+    OpenVolume = other.OpenVolume;
+    CloseVolume = other.CloseVolume;
+    OpenAmount = other.OpenAmount;
+    CloseAmount = other.CloseAmount;
+    PositionCost = other.PositionCost;
+    PreMargin = other.PreMargin;
+    UseMargin = other.UseMargin;
+    FrozenMargin = other.FrozenMargin;
+    FrozenCash = other.FrozenCash;
+    FrozenCommission = other.FrozenCommission;
+    CashIn = other.CashIn;
+    Commission = other.Commission;
+    CloseProfit = other.CloseProfit;
+    PositionProfit = other.PositionProfit;
+    PreSettlementPrice = other.PreSettlementPrice;
+    SettlementPrice = other.SettlementPrice;
+    TradingDay = other.TradingDay;
+    SettlementID = other.SettlementID;
+    OpenCost = other.OpenCost;
+    ExchangeMargin = other.ExchangeMargin;
+    CombPosition = other.CombPosition;
+    CombLongFrozen = other.CombLongFrozen;
+    CombShortFrozen = other.CombShortFrozen;
+    CloseProfitByDate = other.CloseProfitByDate;
+    CloseProfitByTrade = other.CloseProfitByTrade;
+    TodayPosition = other.TodayPosition;
+    MarginRateByMoney = other.MarginRateByMoney;
+    MarginRateByVolume = other.MarginRateByVolume;
+    StrikeFrozen = other.StrikeFrozen;
+    StrikeFrozenAmount = other.StrikeFrozenAmount;
+    AbandonFrozen = other.AbandonFrozen;
+    ExchangeID = other.ExchangeID;
+    YdStrikeFrozen = other.YdStrikeFrozen;
+    InvestUnitID = other.InvestUnitID;
+    PositionCostOffset = other.PositionCostOffset;
+  }
 }
@@ -62,4 +62,35 @@ public class CInvestorPositionDetail implements Serializable {
 
   public CInvestorPositionDetail() {
   }
+
+  public CInvestorPositionDetail(CInvestorPositionDetail other) {
+    InstrumentID = other.InstrumentID;
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    HedgeFlag = other.HedgeFlag;
+    Direction = other.Direction;
+    OpenDate = other.OpenDate;
+    TradeID = other.TradeID;
+    Volume = other.Volume;
+    OpenPrice = other.OpenPrice;
+    TradingDay = other.TradingDay;
+    SettlementID = other.SettlementID;
+    TradeType = other.TradeType;
+    CombInstrumentID = other.CombInstrumentID;
+    ExchangeID = other.ExchangeID;
+    CloseProfitByDate = other.CloseProfitByDate;
+    CloseProfitByTrade = other.CloseProfitByTrade;
+    PositionProfitByDate = other.PositionProfitByDate;
+    PositionProfitByTrade = other.PositionProfitByTrade;
+    Margin = other.Margin;
+    ExchMargin = other.ExchMargin;
+    MarginRateByMoney = other.MarginRateByMoney;
+    MarginRateByVolume = other.MarginRateByVolume;
+    LastSettlementPrice = other.LastSettlementPrice;
+    SettlementPrice = other.SettlementPrice;
+    CloseVolume = other.CloseVolume;
+    CloseAmount = other.CloseAmount;
+    TimeFirstVolume = other.TimeFirstVolume;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
@@ -97,4 +97,70 @@ public class COrder implements Serializable {
 
   public COrder() {
   }
+
+  public COrder(COrder other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    OrderRef = other.OrderRef;
+    UserID = other.UserID;
+    OrderPriceType = other.OrderPriceType;
+    Direction = other.Direction;
+    CombOffsetFlag = other.CombOffsetFlag;
+    CombHedgeFlag = other.CombHedgeFlag;
+    LimitPrice = other.LimitPrice;
+    VolumeTotalOriginal = other.VolumeTotalOriginal;
+    TimeCondition = other.TimeCondition;
+    GTDDate = other.GTDDate;
+    VolumeCondition = other.VolumeCondition;
+    MinVolume = other.MinVolume;
+    ContingentCondition = other.ContingentCondition;
+    StopPrice = other.StopPrice;
+    ForceCloseReason = other.ForceCloseReason;
+    IsAutoSuspend = other.IsAutoSuspend;
+    BusinessUnit = other.BusinessUnit;
+    RequestID = other.RequestID;
+    OrderLocalID = other.OrderLocalID;
+    ExchangeID = other.ExchangeID;
+    ParticipantID = other.ParticipantID;
+    ClientID = other.ClientID;
+    ExchangeInstID = other.ExchangeInstID;
+    TraderID = other.TraderID;
+    InstallID = other.InstallID;
+    OrderSubmitStatus = other.OrderSubmitStatus;
+    NotifySequence = other.NotifySequence;
+    TradingDay = other.TradingDay;
+    SettlementID = other.SettlementID;
+    OrderSysID = other.OrderSysID;
+    OrderSource = other.OrderSource;
+    OrderStatus = other.OrderStatus;
+    OrderType = other.OrderType;
+    VolumeTraded = other.VolumeTraded;
+    VolumeTotal = other.VolumeTotal;
+    InsertDate = other.InsertDate;
+    InsertTime = other.InsertTime;
+    ActiveTime = other.ActiveTime;
+    SuspendTime = other.SuspendTime;
+    UpdateTime = other.UpdateTime;
+    CancelTime = other.CancelTime;
+    ActiveTraderID = other.ActiveTraderID;
+    ClearingPartID = other.ClearingPartID;
+    SequenceNo = other.SequenceNo;
+    FrontID = other.FrontID;
+    SessionID = other.SessionID;
+    UserProductInfo = other.UserProductInfo;
+    StatusMsg = other.StatusMsg;
+    UserForceClose = other.UserForceClose;
+    ActiveUserID = other.ActiveUserID;
+    BrokerOrderSeq = other.BrokerOrderSeq;
+    RelativeOrderSysID = other.RelativeOrderSysID;
+    ZCETotalTradedVolume = other.ZCETotalTradedVolume;
+    IsSwapOrder = other.IsSwapOrder;
+    BranchID = other.BranchID;
+    InvestUnitID = other.InvestUnitID;
+    AccountID = other.AccountID;
+    CurrencyID = other.CurrencyID;
+    IPAddress = other.IPAddress;
+    MacAddress = other.MacAddress;
+  }
 }
@@ -63,4 +63,36 @@ public class COrderAction implements Serializable {
 
   public COrderAction() {
   }
+
+  public COrderAction(COrderAction other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    OrderActionRef = other.OrderActionRef;
+    OrderRef = other.OrderRef;
+    RequestID = other.RequestID;
+    FrontID = other.FrontID;
+    SessionID = other.SessionID;
+    ExchangeID = other.ExchangeID;
+    OrderSysID = other.OrderSysID;
+    ActionFlag = other.ActionFlag;
+    LimitPrice = other.LimitPrice;
+    VolumeChange = other.VolumeChange;
+    ActionDate = other.ActionDate;
+    ActionTime = other.ActionTime;
+    TraderID = other.TraderID;
+    InstallID = other.InstallID;
+    OrderLocalID = other.OrderLocalID;
+    ActionLocalID = other.ActionLocalID;
+    ParticipantID = other.ParticipantID;
+    ClientID = other.ClientID;
+    BusinessUnit = other.BusinessUnit;
+    OrderActionStatus = other.OrderActionStatus;
+    UserID = other.UserID;
+    StatusMsg = other.StatusMsg;
+    InstrumentID = other.InstrumentID;
+    BranchID = other.BranchID;
+    InvestUnitID = other.InvestUnitID;
+    IPAddress = other.IPAddress;
+    MacAddress = other.MacAddress;
+  }
 }
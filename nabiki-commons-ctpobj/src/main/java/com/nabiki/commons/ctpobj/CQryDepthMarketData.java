@@ -34,4 +34,9 @@ public class CQryDepthMarketData {
 
   public CQryDepthMarketData() {
   }
+
+  public CQryDepthMarketData(CQryDepthMarketData other) {
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+  }
 }
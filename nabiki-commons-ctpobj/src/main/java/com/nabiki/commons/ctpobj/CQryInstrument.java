@@ -38,4 +38,11 @@ public class CQryInstrument implements Serializable {
 
   public CQryInstrument() {
   }
+
+  public CQryInstrument(CQryInstrument other) {
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+    ExchangeInstID = other.ExchangeInstID;
+    ProductID = other.ProductID;
+  }
 }
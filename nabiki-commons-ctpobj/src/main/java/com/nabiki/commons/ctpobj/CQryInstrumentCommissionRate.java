@@ -39,4 +39,12 @@ public class CQryInstrumentCommissionRate implements Serializable {
 
   public CQryInstrumentCommissionRate() {
   }
+
+  public CQryInstrumentCommissionRate(CQryInstrumentCommissionRate other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
@@ -40,4 +40,13 @@ public class CQryInstrumentMarginRate implements Serializable {
 
   public CQryInstrumentMarginRate() {
   }
+
+  public CQryInstrumentMarginRate(CQryInstrumentMarginRate other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    HedgeFlag = other.HedgeFlag;
+    ExchangeID = other.ExchangeID;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
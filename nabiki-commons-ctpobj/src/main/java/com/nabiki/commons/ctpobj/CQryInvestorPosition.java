@@ -37,4 +37,12 @@ public class CQryInvestorPosition implements java.io.Serializable {
 
   public CQryInvestorPosition() {
   }
+
+  public CQryInvestorPosition(CQryInvestorPosition other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
@@ -39,4 +39,12 @@ public class CQryInvestorPositionDetail implements Serializable {
 
   public CQryInvestorPositionDetail() {
   }
+
+  public CQryInvestorPositionDetail(CQryInvestorPositionDetail other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
@@ -40,4 +40,15 @@ public class CQryOrder implements java.io.Serializable {
 
   public CQryOrder() {
   }
+
+  public CQryOrder(CQryOrder other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    ExchangeID = other.ExchangeID;
+    OrderSysID = other.OrderSysID;
+    InsertTimeStart = other.InsertTimeStart;
+    InsertTimeEnd = other.InsertTimeEnd;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
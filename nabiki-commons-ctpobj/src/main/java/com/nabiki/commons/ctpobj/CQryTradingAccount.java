@@ -39,4 +39,12 @@ public class CQryTradingAccount implements Serializable {
 
   public CQryTradingAccount() {
   }
+
+  public CQryTradingAccount(CQryTradingAccount other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    CurrencyID = other.CurrencyID;
+    BizType = other.BizType;
+    AccountID = other.AccountID;
+  }
 }
@@ -39,4 +39,12 @@ public class CReqAuthenticate implements Serializable {
 
   public CReqAuthenticate() {
   }
+
+  public CReqAuthenticate(CReqAuthenticate other) {
+    BrokerID = other.BrokerID;
+    UserID = other.UserID;
+    UserProductInfo = other.UserProductInfo;
+    AuthCode = other.AuthCode;
+    AppID = other.AppID;
+  }
 }
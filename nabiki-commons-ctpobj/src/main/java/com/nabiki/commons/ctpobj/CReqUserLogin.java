@@ -46,4 +46,19 @@ public class CReqUserLogin implements Serializable {
 
   public CReqUserLogin() {
   }
+
+  public CReqUserLogin(CReqUserLogin other) {
+    TradingDay = other.TradingDay;
+    BrokerID = other.BrokerID;
+    UserID = other.UserID;
+    Password = other.Password;
+    UserProductInfo = other.UserProductInfo;
+    InterfaceProductInfo = other.InterfaceProductInfo;
+    ProtocolInfo = other.ProtocolInfo;
+    MacAddress = other.MacAddress;
+    OneTimePassword = other.OneTimePassword;
+    ClientIPAddress = other.ClientIPAddress;
+    LoginRemark = other.LoginRemark;
+    ClientIPPort = other.ClientIPPort;
+  }
 }
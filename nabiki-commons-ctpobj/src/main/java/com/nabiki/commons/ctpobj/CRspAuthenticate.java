@@ -39,4 +39,12 @@ public class CRspAuthenticate implements Serializable {
 
   public CRspAuthenticate() {
   }
+
+  public CRspAuthenticate(CRspAuthenticate other) {
+    BrokerID = other.BrokerID;
+    UserID = other.UserID;
+    UserProductInfo = other.UserProductInfo;
+    AppID = other.AppID;
+    AppType = other.AppType;
+  }
 }
@@ -36,4 +36,9 @@ public class CRspInfo implements Serializable {
 
   public CRspInfo() {
   }
+
+  public CRspInfo(CRspInfo other) {
+    ErrorID = other.ErrorID;
+    ErrorMsg = other.ErrorMsg;
+  }
 }
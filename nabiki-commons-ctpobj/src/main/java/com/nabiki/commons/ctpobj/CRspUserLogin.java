@@ -47,4 +47,20 @@ public class CRspUserLogin implements Serializable {
 
   public CRspUserLogin() {
   }
+
+  public CRspUserLogin(CRspUserLogin other) {
+    TradingDay = other.TradingDay;
+    LoginTime = other.LoginTime;
+    BrokerID = other.BrokerID;
+    UserID = other.UserID;
+    SystemName = other.SystemName;
+    FrontID = other.FrontID;
+    SessionID = other.SessionID;
+    MaxOrderRef = other.MaxOrderRef;
+    SHFETime = other.SHFETime;
+    DCETime = other.DCETime;
+    CZCETime = other.CZCETime;
+    FFEXTime = other.FFEXTime;
+    INETime = other.INETime;
+  }
 }
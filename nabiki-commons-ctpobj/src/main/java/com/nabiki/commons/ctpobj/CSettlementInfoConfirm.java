@@ -41,4 +41,14 @@ public class CSettlementInfoConfirm implements Serializable {
 
   public CSettlementInfoConfirm() {
   }
+
+  public CSettlementInfoConfirm(CSettlementInfoConfirm other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    ConfirmDate = other.ConfirmDate;
+    ConfirmTime = other.ConfirmTime;
+    SettlementID = other.SettlementID;
+    AccountID = other.AccountID;
+    CurrencyID = other.CurrencyID;
+  }
 }
@@ -35,4 +35,8 @@ public class CSpecificInstrument implements Serializable {
 
   public CSpecificInstrument() {
   }
+
+  public CSpecificInstrument(CSpecificInstrument other) {
+    InstrumentID = other.InstrumentID;
+  }
 }
@@ -33,4 +33,8 @@ public class CSubMarketData implements java.io.Serializable {
 
   public CSubMarketData() {
   }
+
+  public CSubMarketData(CSubMarketData other) {
+    InstrumentID = other.InstrumentID != null ? other.InstrumentID.clone() : null;
+  }
 }
@@ -65,4 +65,38 @@ public class CTrade implements Serializable {
 
   public CTrade() {
   }
+
+  public CTrade(CTrade other) {
+    BrokerID = other.BrokerID;
+    InvestorID = other.InvestorID;
+    InstrumentID = other.InstrumentID;
+    OrderRef = other.OrderRef;
+    UserID = other.UserID;
+    ExchangeID = other.ExchangeID;
+    TradeID = other.TradeID;
+    Direction = other.Direction;
+    OrderSysID = other.OrderSysID;
+    ParticipantID = other.ParticipantID;
+    ClientID = other.ClientID;
+    TradingRole = other.TradingRole;
+    ExchangeInstID = other.ExchangeInstID;
+    OffsetFlag = other.OffsetFlag;
+    HedgeFlag = other.HedgeFlag;
+    Price = other.Price;
+    Volume = other.Volume;
+    TradeDate = other.TradeDate;
+    TradeTime = other.TradeTime;
+    TradeType = other.TradeType;
+    PriceSource = other.PriceSource;
+    TraderID = other.TraderID;
+    OrderLocalID = other.OrderLocalID;
+    ClearingPartID = other.ClearingPartID;
+    BusinessUnit = other.BusinessUnit;
+    SequenceNo = other.SequenceNo;
+    TradingDay = other.TradingDay;
+    SettlementID = other.SettlementID;
+    BrokerOrderSeq = other.BrokerOrderSeq;
+    TradeSource = other.TradeSource;
+    InvestUnitID = other.InvestUnitID;
+  }
 }
@@ -83,4 +83,56 @@ public class CTradingAccount implements Serializable {
 
   public CTradingAccount() {
   }
+
+  public CTradingAccount(CTradingAccount other) {
+    BrokerID = other.BrokerID;
+    AccountID = other.AccountID;
+    PreMortgage = other.PreMortgage;
+    PreCredit = other.PreCredit;
+    PreDeposit = other.PreDeposit;
+    PreBalance = other.PreBalance;
+    PreMargin = other.PreMargin;
+    InterestBase = other.InterestBase;
+    Interest = other.Interest;
+    Deposit = other.Deposit;
+    Withdraw = other.Withdraw;
+    FrozenMargin = other.FrozenMargin;
+    FrozenCash = other.FrozenCash;
+    FrozenCommission = other.FrozenCommission;
+    CurrMargin = other.CurrMargin;
+    CashIn = other.CashIn;
+    Commission = other.Commission;
+    CloseProfit = other.CloseProfit;
+    PositionProfit = other.PositionProfit;
+    Balance = other.Balance;
+    Available = other.Available;
+    WithdrawQuota = other.WithdrawQuota;
+    Reserve = other.Reserve;
+    TradingDay = other.TradingDay;
+    SettlementID = other.SettlementID;
+    Credit = other.Credit;
+    Mortgage = other.Mortgage;
+    ExchangeMargin = other.ExchangeMargin;
+    DeliveryMargin = other.DeliveryMargin;
+    ExchangeDeliveryMargin = other.ExchangeDeliveryMargin;
+    ReserveBalance = other.ReserveBalance;
+    CurrencyID = other.CurrencyID;
+    PreFundMortgageIn = other.PreFundMortgageIn;
+    PreFundMortgageOut = other.PreFundMortgageOut;
+    FundMortgageIn = other.FundMortgageIn;
+    FundMortgageOut = other.FundMortgageOut;
+    FundMortgageAvailable = other.FundMortgageAvailable;
+    MortgageableFund = other.MortgageableFund;
+    SpecProductMargin = other.SpecProductMargin;
+    SpecProductFrozenMargin = other.SpecProductFrozenMargin;
+    SpecProductCommission = other.SpecProductCommission;
+    SpecProductFrozenCommission = other.SpecProductFrozenCommission;
+    SpecProductPositionProfit = other.SpecProductPositionProfit;
+    SpecProductCloseProfit = other.SpecProductCloseProfit;
+    SpecProductPositionProfitByAlg = other.SpecProductPositionProfitByAlg;
+    SpecProductExchangeMargin = other.SpecProductExchangeMargin;
+    BizType = other.BizType;
+    FrozenSwap = other.FrozenSwap;
+    RemainSwap = other.RemainSwap;
+  }
 }
@@ -33,4 +33,8 @@ public class CUnsubMarketData implements java.io.Serializable {
 
   public CUnsubMarketData() {
   }
+
+  public CUnsubMarketData(CUnsubMarketData other) {
+    InstrumentID = other.InstrumentID != null ? other.InstrumentID.clone() : null;
+  }
 }
@@ -36,4 +36,9 @@ public class CUserLogout implements Serializable {
 
   public CUserLogout() {
   }
+
+  public CUserLogout(CUserLogout other) {
+    BrokerID = other.BrokerID;
+    UserID = other.UserID;
+  }
 }
@@ -273,4 +273,13 @@ public abstract class ClientMessageAdaptor {
       int current,
       int total) {
   }
+
+  public void doRspQryCandle(
+      CCandle rsp,
+      CRspInfo info,
+      String requestID,
+      String responseID,
+      int current,
+      int total) {
+  }
 }
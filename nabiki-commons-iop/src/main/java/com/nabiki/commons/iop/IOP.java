@@ -28,6 +28,7 @@
 
 package com.nabiki.commons.iop;
 
+import com.nabiki.commons.iop.internal.EncodedMessageImpl;
 import com.nabiki.commons.iop.internal.IOPClientImpl;
 import com.nabiki.commons.iop.internal.IOPServerImpl;
 
@@ -49,4 +50,16 @@ public class IOP {
   public static IOPClient createClient() {
     return new IOPClientImpl();
   }
+
+  /**
+   * Encode the message once for sending to many server sessions by
+   * {@link ServerSession#sendResponse(EncodedMessage)}. The message must not be
+   * changed after it is encoded.
+   *
+   * @param message message to encode
+   * @return encoded message
+   */
+  public static EncodedMessage encode(Message message) {
+    return new EncodedMessageImpl(message);
+  }
 }
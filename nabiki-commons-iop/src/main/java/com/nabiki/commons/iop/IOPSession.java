@@ -41,6 +41,14 @@ public interface IOPSession {
 
   void sendHeartbeat(String heartbeatID);
 
+  /**
+   * Coalesce small frames written while the previous write is still in flight
+   * into one socket write. It is disabled by default.
+   *
+   * @param coalesce {@code true} to coalesce frames
+   */
+  void setCoalesce(boolean coalesce);
+
   void setAttribute(String key, Object attribute);
 
   void removeAttribute(String key);
@@ -50,4 +58,13 @@ public interface IOPSession {
   InetSocketAddress getRemoteAddress();
 
   long getLag();
+
+  /**
+   * Get number of frames written to the session but not yet sent to the
+   * remote. A growing number means the remote reads slower than it is
+   * written to.
+   *
+   * @return number of pending frames
+   */
+  int getPendingWrites();
 }
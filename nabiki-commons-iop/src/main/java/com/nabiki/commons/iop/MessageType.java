@@ -72,5 +72,7 @@ public enum MessageType implements java.io.Serializable {
   RSP_ORDER_INSERT,
   RSP_ERROR,
   RSP_CONNECT,
-  RSP_DISCONNECT
+  RSP_DISCONNECT,
+  QRY_CANDLE,
+  RSP_QRY_CANDLE
 }
@@ -158,4 +158,12 @@ public abstract class ServerMessageAdaptor {
       int current,
       int total) {
   }
+
+  public void doQryCandle(
+      ServerSession session,
+      CQryCandle query,
+      String requestID,
+      int current,
+      int total) {
+  }
 }
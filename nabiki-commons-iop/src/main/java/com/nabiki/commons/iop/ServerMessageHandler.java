@@ -30,4 +30,16 @@ package com.nabiki.commons.iop;
 
 public interface ServerMessageHandler {
   void onMessage(ServerSession session, Message message);
+
+  /**
+   * Check if the handler takes messages of the specified type. Outgoing frames
+   * of the types not taken are not decoded, so a handler that logs only some
+   * responses doesn't pay for decoding every market data frame sent.
+   *
+   * @param type message type
+   * @return {@code true} if the handler takes the type, {@code false} otherwise
+   */
+  default boolean accepts(MessageType type) {
+    return true;
+  }
 }
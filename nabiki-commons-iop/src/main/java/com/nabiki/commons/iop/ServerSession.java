@@ -33,4 +33,23 @@ public interface ServerSession extends IOPSession {
 
   void sendResponse(Message message);
 
+  /**
+   * Send the message and run the callback after its frame is written to the
+   * remote or fails, so the caller can tell its own frames from the others in
+   * {@link IOPSession#getPendingWrites()}.
+   *
+   * @param message message
+   * @param written callback after the frame is done
+   */
+  void sendResponse(Message message, Runnable written);
+
+  /**
+   * Send the message encoded by {@link IOP#encode(Message)}. The encoded bytes
+   * are shared by all sessions, so a message sent to many sessions is only
+   * encoded once for each codec.
+   *
+   * @param message encoded message
+   */
+  void sendResponse(EncodedMessage message);
+
 }
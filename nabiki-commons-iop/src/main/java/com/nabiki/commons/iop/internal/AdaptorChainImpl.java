@@ -215,6 +215,14 @@ class AdaptorChainImpl implements AdaptorChain {
             message.CurrentCount,
             message.TotalCount);
         break;
+      case QRY_CANDLE:
+        adaptor.doQryCandle(
+            session,
+            (CQryCandle) message.Body,
+            message.RequestID,
+            message.CurrentCount,
+            message.TotalCount);
+        break;
       default:
         session.setResponseState(SessionResponseState.ERROR);
         whenError(session, SessionEvent.STRANGE_MESSAGE, message);
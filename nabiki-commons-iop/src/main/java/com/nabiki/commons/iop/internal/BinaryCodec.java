@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.commons.iop.internal;
+
+import com.nabiki.commons.ctpobj.CRspInfo;
+import com.nabiki.commons.iop.Message;
+import com.nabiki.commons.iop.MessageType;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary encoding of IOP messages. Message body and rsp info are written
+ * field by field with a schema per ctpobj class, so there is no JSON on the
+ * wire and no nested JSON string inside the frame body.
+ *
+ * <p>The codec is negotiated at login. A client offers the codec in the login
+ * frame and the server echoes it back if it agrees. Login frames are always
+ * JSON so peers not knowing the codec keep talking JSON. A binary frame body
+ * starts with {@link BinaryCodec#MAGIC} which can't start a JSON body, so the
+ * receiver tells the encoding from the first byte.
+ * </p>
+ *
+ * <p>Schema fields are ordered by name, both peers must use the same ctpobj
+ * classes. Adding, removing or renaming a field of a class on the wire changes
+ * the layout, so the version in {@link BinaryCodec#NAME} is bumped and peers
+ * of different layouts fall back to JSON at login.
+ * </p>
+ */
+public class BinaryCodec {
+  /**
+   * Codec name exchanged at login. Version 2 adds {@code Kind} and
+   * {@code Size} to {@link com.nabiki.commons.ctpobj.CCandle}.
+   */
+  public static final String NAME = "binary.2";
+
+  /**
+   * First byte of a binary frame body. JSON body always starts with '{'.
+   */
+  public static final byte MAGIC = (byte) 0xB1;
+
+  private static final int FLAG_BODY = 0x01;
+  private static final int FLAG_RSPINFO = 0x02;
+
+  private static final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+  private BinaryCodec() {
+  }
+
+  /**
+   * Check if the frame body is binary encoded.
+   *
+   * @param bytes frame body
+   * @return {@code true} if the body is binary encoded, {@code false} otherwise
+   */
+  public static boolean isBinary(byte[] bytes) {
+    return bytes != null && bytes.length > 0 && bytes[0] == MAGIC;
+  }
+
+  /**
+   * Check if the message can be binary encoded. The body must be the exact
+   * class its message type carries.
+   *
+   * @param message message to encode
+   * @return {@code true} if the message can be binary encoded
+   */
+  public static boolean isEncodable(Message message) {
+    if (message == null || message.Type == null)
+      return false;
+    if (message.Body == null)
+      return true;
+    try {
+      var clazz = MessageImpl.getBodyClass(message.Type);
+      return clazz == message.Body.getClass() && getSchema(clazz) != null;
+    } catch (IOException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Encode message into binary frame body.
+   *
+   * @param message message to encode
+   * @return frame body bytes
+   */
+  public static byte[] encode(Message message) {
+    if (!isEncodable(message))
+      throw new IllegalArgumentException("message not binary encodable");
+    var out = new Output();
+    out.writeByte(MAGIC);
+    out.writeVarInt(message.Type.ordinal());
+    out.writeString(message.RequestID);
+    out.writeString(message.ResponseID);
+    out.writeInt(message.CurrentCount);
+    out.writeInt(message.TotalCount);
+    out.writeLong(message.TimeStamp);
+    int flags = 0;
+    if (message.Body != null)
+      flags |= FLAG_BODY;
+    if (message.RspInfo != null)
+      flags |= FLAG_RSPINFO;
+    out.writeByte((byte) flags);
+    if (message.Body != null)
+      getSchema(message.Body.getClass()).write(message.Body, out);
+    if (message.RspInfo != null)
+      getSchema(CRspInfo.class).write(message.RspInfo, out);
+    return out.toBytes();
+  }
+
+  /**
+   * Decode message from binary frame body.
+   *
+   * @param bytes frame body
+   * @return message
+   * @throws IOException if the bytes are not a valid binary message
+   */
+  public static Message decode(byte[] bytes) throws IOException {
+    if (!isBinary(bytes))
+      throw new IOException("not binary message");
+    try {
+      var in = ByteBuffer.wrap(bytes);
+      in.get();
+      var msg = new Message();
+      var types = MessageType.values();
+      int ordinal = readVarInt(in);
+      if (ordinal < 0 || ordinal >= types.length)
+        throw new IOException("unknown message type ordinal " + ordinal);
+      msg.Type = types[ordinal];
+      msg.RequestID = readString(in);
+      msg.ResponseID = readString(in);
+      msg.CurrentCount = in.getInt();
+      msg.TotalCount = in.getInt();
+      msg.TimeStamp = in.getLong();
+      int flags = in.get();
+      if ((flags & FLAG_BODY) != 0) {
+        var clazz = MessageImpl.getBodyClass(msg.Type);
+        if (clazz == null)
+          throw new IOException("unexpected body for " + msg.Type);
+        msg.Body = getSchema(clazz).read(in);
+      }
+      if ((flags & FLAG_RSPINFO) != 0)
+        msg.RspInfo = (CRspInfo) getSchema(CRspInfo.class).read(in);
+      if (in.hasRemaining())
+        throw new IOException("trailing bytes " + in.remaining());
+      return msg;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("binary message truncated", e);
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      throw new IOException("binary message broken", e);
+    }
+  }
+
+  /**
+   * Encode a ctpobj object without message header. It is used to store objects
+   * in the same compact form as the wire.
+   *
+   * @param object ctpobj object
+   * @return encoded bytes
+   */
+  public static byte[] encodeObject(Object object) {
+    Objects.requireNonNull(object, "object null");
+    var out = new Output();
+    getSchema(object.getClass()).write(object, out);
+    return out.toBytes();
+  }
+
+  /**
+   * Decode a ctpobj object encoded by {@link BinaryCodec#encodeObject(Object)}.
+   *
+   * @param bytes encoded bytes
+   * @param clazz class of the object
+   * @param <T>   type of the object
+   * @return decoded object
+   * @throws IOException if the bytes are not a valid object of the class
+   */
+  public static <T> T decodeObject(byte[] bytes, Class<T> clazz)
+      throws IOException {
+    try {
+      var in = ByteBuffer.wrap(bytes);
+      var object = clazz.cast(getSchema(clazz).read(in));
+      if (in.hasRemaining())
+        throw new IOException("trailing bytes " + in.remaining());
+      return object;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("binary object truncated", e);
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      throw new IOException("binary object broken", e);
+    }
+  }
+
+  private static Schema getSchema(Class<?> clazz) {
+    return schemas.computeIfAbsent(clazz, Schema::new);
+  }
+
+  private static int readVarInt(ByteBuffer in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("malformed var int");
+  }
+
+  /*
+  String is written as var int length plus one, followed by UTF-8 bytes. Zero
+  length means null.
+   */
+  private static String readString(ByteBuffer in) throws IOException {
+    int len = readVarInt(in) - 1;
+    if (len < 0)
+      return null;
+    if (len > in.remaining())
+      throw new IOException("string length out of bound " + len);
+    var s = new String(in.array(), in.arrayOffset() + in.position(), len,
+        StandardCharsets.UTF_8);
+    in.position(in.position() + len);
+    return s;
+  }
+
+  private static class Output {
+    private byte[] buffer = new byte[512];
+    private int position = 0;
+
+    void ensure(int size) {
+      if (position + size > buffer.length)
+        buffer = Arrays.copyOf(buffer,
+            Math.max(buffer.length * 2, position + size));
+    }
+
+    void writeByte(byte b) {
+      ensure(1);
+      buffer[position++] = b;
+    }
+
+    void writeInt(int v) {
+      ensure(4);
+      buffer[position++] = (byte) (v >>> 24);
+      buffer[position++] = (byte) (v >>> 16);
+      buffer[position++] = (byte) (v >>> 8);
+      buffer[position++] = (byte) v;
+    }
+
+    void writeLong(long v) {
+      writeInt((int) (v >>> 32));
+      writeInt((int) v);
+    }
+
+    void writeDouble(double v) {
+      writeLong(Double.doubleToRawLongBits(v));
+    }
+
+    void writeVarInt(int v) {
+      ensure(5);
+      while ((v & ~0x7F) != 0) {
+        buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buffer[position++] = (byte) v;
+    }
+
+    void writeString(String s) {
+      if (s == null) {
+        writeVarInt(0);
+        return;
+      }
+      var bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(bytes.length + 1);
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    byte[] toBytes() {
+      return Arrays.copyOf(buffer, position);
+    }
+  }
+
+  /*
+  Schema of a ctpobj class. It keeps the public instance fields ordered by
+  name, and reads/writes them in the order.
+   */
+  private static class Schema {
+    private static final int INT = 0, LONG = 1, DOUBLE = 2, BYTE = 3,
+        CHAR = 4, BOOLEAN = 5, STRING = 6, STRING_ARRAY = 7;
+
+    private final Class<?> clazz;
+    private final Field[] fields;
+    private final int[] kinds;
+
+    Schema(Class<?> clazz) {
+      var list = new LinkedList<Field>();
+      for (var f : clazz.getFields()) {
+        var mod = f.getModifiers();
+        if (!Modifier.isStatic(mod) && !Modifier.isFinal(mod))
+          list.add(f);
+      }
+      list.sort(Comparator.comparing(Field::getName));
+      this.clazz = clazz;
+      this.fields = list.toArray(new Field[0]);
+      this.kinds = new int[this.fields.length];
+      for (int i = 0; i < this.fields.length; ++i)
+        this.kinds[i] = kindOf(this.fields[i]);
+    }
+
+    private static int kindOf(Field field) {
+      var type = field.getType();
+      if (type == int.class)
+        return INT;
+      else if (type == long.class)
+        return LONG;
+      else if (type == double.class)
+        return DOUBLE;
+      else if (type == byte.class)
+        return BYTE;
+      else if (type == char.class)
+        return CHAR;
+      else if (type == boolean.class)
+        return BOOLEAN;
+      else if (type == String.class)
+        return STRING;
+      else if (type == String[].class)
+        return STRING_ARRAY;
+      else
+        throw new IllegalArgumentException("unsupported field type "
+            + type.getName() + " of " + field.getName());
+    }
+
+    void write(Object object, Output out) {
+      try {
+        for (int i = 0; i < fields.length; ++i) {
+          var f = fields[i];
+          switch (kinds[i]) {
+            case INT:
+              out.writeInt(f.getInt(object));
+              break;
+            case LONG:
+              out.writeLong(f.getLong(object));
+              break;
+            case DOUBLE:
+              out.writeDouble(f.getDouble(object));
+              break;
+            case BYTE:
+              out.writeByte(f.getByte(object));
+              break;
+            case CHAR:
+              out.writeVarInt(f.getChar(object));
+              break;
+            case BOOLEAN:
+              out.writeByte((byte) (f.getBoolean(object) ? 1 : 0));
+              break;
+            case STRING:
+              out.writeString((String) f.get(object));
+              break;
+            case STRING_ARRAY:
+              var array = (String[]) f.get(object);
+              if (array == null) {
+                out.writeVarInt(0);
+              } else {
+                out.writeVarInt(array.length + 1);
+                for (var s : array)
+                  out.writeString(s);
+              }
+              break;
+          }
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException("can't access field of "
+            + clazz.getName(), e);
+      }
+    }
+
+    Object read(ByteBuffer in)
+        throws IOException, ReflectiveOperationException {
+      var object = clazz.getConstructor().newInstance();
+      for (int i = 0; i < fields.length; ++i) {
+        var f = fields[i];
+        switch (kinds[i]) {
+          case INT:
+            f.setInt(object, in.getInt());
+            break;
+          case LONG:
+            f.setLong(object, in.getLong());
+            break;
+          case DOUBLE:
+            f.setDouble(object, in.getDouble());
+            break;
+          case BYTE:
+            f.setByte(object, in.get());
+            break;
+          case CHAR:
+            f.setChar(object, (char) readVarInt(in));
+            break;
+          case BOOLEAN:
+            f.setBoolean(object, in.get() != 0);
+            break;
+          case STRING:
+            f.set(object, readString(in));
+            break;
+          case STRING_ARRAY:
+            int len = readVarInt(in) - 1;
+            if (len >= 0) {
+              if (len > in.remaining())
+                throw new IOException("array length out of bound " + len);
+              var array = new String[len];
+              for (int j = 0; j < len; ++j)
+                array[j] = readString(in);
+              f.set(object, array);
+            }
+            break;
+        }
+      }
+      return object;
+    }
+  }
+}
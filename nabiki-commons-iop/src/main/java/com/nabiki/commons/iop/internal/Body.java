@@ -76,6 +76,12 @@ public class Body implements java.io.Serializable {
    */
   public long TimeStamp;
 
+  /**
+   * Codec negotiated in login frames. Client offers the codec it can talk and
+   * server echoes the one it accepts. Null means JSON.
+   */
+  public String Codec;
+
   public Body() {
   }
 }
@@ -247,9 +247,16 @@ class ClientFrameHandler implements IoHandler {
       throw new IllegalStateException("message is not frame");
     try {
       var frame = (Frame) message;
-      var body = Utils.fromJson(new String(
-          frame.Body, StandardCharsets.UTF_8), Body.class);
-      offer(session, toMessage(body), frame.Type);
+      if (BinaryCodec.isBinary(frame.Body)) {
+        offer(session, BinaryCodec.decode(frame.Body), frame.Type);
+      } else {
+        var body = Utils.fromJson(new String(
+            frame.Body, StandardCharsets.UTF_8), Body.class);
+        // Switch codec as soon as login rsp arrives, before it is queued.
+        if (frame.Type == FrameType.LOGIN)
+          ClientSessionImpl.from(session).negotiateCodec(body.Codec);
+        offer(session, toMessage(body), frame.Type);
+      }
     } catch (IOException e) {
       exceptionCaught(session, e);
     }
@@ -264,9 +271,13 @@ class ClientFrameHandler implements IoHandler {
     ClientSessionImpl iopSession = ClientSessionImpl.from(session);
     var frame = (Frame) message;
     try {
-      body = Utils.fromJson(new String(
-          frame.Body, StandardCharsets.UTF_8), Body.class);
-      iopMessage = toMessage(body);
+      if (BinaryCodec.isBinary(frame.Body)) {
+        iopMessage = BinaryCodec.decode(frame.Body);
+      } else {
+        body = Utils.fromJson(new String(
+            frame.Body, StandardCharsets.UTF_8), Body.class);
+        iopMessage = toMessage(body);
+      }
       try {
         this.msgHandlerOut.onMessage(iopSession, iopMessage);
       } catch (Throwable th) {
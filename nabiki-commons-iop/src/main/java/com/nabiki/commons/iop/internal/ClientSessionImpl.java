@@ -62,6 +62,14 @@ class ClientSessionImpl extends SessionImpl implements ClientSession {
       return null;
   }
 
+  /*
+  Always offer binary codec, server decides if it is used.
+   */
+  @Override
+  protected String getLoginCodec() {
+    return BinaryCodec.NAME;
+  }
+
   @Override
   public void close() {
     super.close();
@@ -83,7 +91,7 @@ class ClientSessionImpl extends SessionImpl implements ClientSession {
     message.Type = MessageType.REQ_LOGIN;
     // Need to wait until login request is actually sent.
     try {
-      super.send(toBody(message), FrameType.LOGIN).await();
+      super.send(message, FrameType.LOGIN).await();
     } catch (Throwable ignored) {
     }
   }
@@ -93,19 +101,24 @@ class ClientSessionImpl extends SessionImpl implements ClientSession {
     // Send message and set response state.
     // Need to ensure the request has been sent before return.
     message.TimeStamp = System.currentTimeMillis();
-    super.send(toBody(message), FrameType.REQUEST).await();
+    super.send(message, FrameType.REQUEST).await();
   }
 
   @Override
   public void sendHeartbeat(String heartbeatID) {
     // Take down latest heartbeat ID.
     setAttribute(IOP_HEARTBEAT_ID_KEY, heartbeatID);
-    var body = new Body();
-    body.RequestID = heartbeatID;
-    body.Type = MessageType.HEARTBEAT;
-    body.TimeStamp = System.currentTimeMillis();
+    var message = new Message();
+    message.RequestID = heartbeatID;
+    message.Type = MessageType.HEARTBEAT;
+    message.TimeStamp = System.currentTimeMillis();
     // NO NEED to wait heart beat sent.
-    super.send(body, FrameType.HEARTBEAT);
+    super.send(message, FrameType.HEARTBEAT);
+  }
+
+  @Override
+  public void setCoalesce(boolean coalesce) {
+    super.setCoalesce(coalesce);
   }
 
   @Override
@@ -132,4 +145,9 @@ class ClientSessionImpl extends SessionImpl implements ClientSession {
   public long getLag() {
     return super.getLag();
   }
+
+  @Override
+  public int getPendingWrites() {
+    return super.getPendingWrites();
+  }
 }
@@ -297,6 +297,15 @@ public class DefaultClientMessageHandler implements ClientMessageHandler {
             message.CurrentCount,
             message.TotalCount);
         break;
+      case RSP_QRY_CANDLE:
+        adaptor.doRspQryCandle(
+            (CCandle) message.Body,
+            message.RspInfo,
+            message.RequestID,
+            message.ResponseID,
+            message.CurrentCount,
+            message.TotalCount);
+        break;
       default:
         throw new IllegalStateException(String.format("unknown frame type %s", message.Type));
     }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.commons.iop.internal;
+
+import com.nabiki.commons.iop.EncodedMessage;
+import com.nabiki.commons.iop.Message;
+
+public class EncodedMessageImpl implements EncodedMessage {
+  private final Message message;
+  private volatile byte[] json, binary;
+
+  public EncodedMessageImpl(Message message) {
+    if (message == null)
+      throw new NullPointerException("message null");
+    if (message.TimeStamp == 0)
+      message.TimeStamp = System.currentTimeMillis();
+    this.message = message;
+  }
+
+  @Override
+  public Message getMessage() {
+    return this.message;
+  }
+
+  /*
+  Get the encoded bytes for the specified codec. Each codec is encoded at most
+  once, concurrent callers may encode twice but get the same content.
+   */
+  byte[] getBytes(String codec) {
+    if (BinaryCodec.NAME.equals(codec) && BinaryCodec.isEncodable(this.message)) {
+      var r = this.binary;
+      if (r == null)
+        this.binary = r = BinaryCodec.encode(this.message);
+      return r;
+    } else {
+      var r = this.json;
+      if (r == null)
+        this.json = r = SessionImpl.toJsonBytes(this.message);
+      return r;
+    }
+  }
+}
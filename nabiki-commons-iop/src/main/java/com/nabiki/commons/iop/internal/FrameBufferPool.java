@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.commons.iop.internal;
+
+import org.apache.mina.core.buffer.AbstractIoBuffer;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.buffer.IoBufferAllocator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers for outgoing frames. Buffers are grouped by capacity
+ * of power of two, and returned to the pool when MINA frees the buffer after it
+ * is written to socket. So the buffer can be allocated and freed in different
+ * threads.
+ *
+ * <p>Buffer larger than {@link FrameBufferPool#MAX_POOLED_SIZE} is not pooled.
+ * </p>
+ */
+class FrameBufferPool implements IoBufferAllocator {
+  static final int MIN_POOLED_SIZE = 512;
+  static final int MAX_POOLED_SIZE = 64 * 1024;
+  static final int MAX_BYTES_PER_SIZE = 4 * 1024 * 1024;
+
+  private static final FrameBufferPool pool = new FrameBufferPool();
+
+  private final Queue<ByteBuffer>[] queues;
+  private final AtomicInteger[] counts;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private FrameBufferPool() {
+    int n = indexOf(MAX_POOLED_SIZE) + 1;
+    this.queues = new Queue[n];
+    this.counts = new AtomicInteger[n];
+    for (int i = 0; i < n; ++i) {
+      this.queues[i] = new ConcurrentLinkedQueue<>();
+      this.counts[i] = new AtomicInteger(0);
+    }
+  }
+
+  static FrameBufferPool getDefault() {
+    return pool;
+  }
+
+  /*
+  Index of the size class that holds the specified capacity.
+   */
+  private static int indexOf(int capacity) {
+    int size = MIN_POOLED_SIZE, index = 0;
+    while (size < capacity) {
+      size <<= 1;
+      ++index;
+    }
+    return index;
+  }
+
+  private static int sizeOf(int index) {
+    return MIN_POOLED_SIZE << index;
+  }
+
+  private ByteBuffer acquire(int capacity, boolean direct) {
+    if (!direct || capacity > MAX_POOLED_SIZE) {
+      return direct ? ByteBuffer.allocateDirect(capacity)
+          : ByteBuffer.allocate(capacity);
+    }
+    int index = indexOf(capacity);
+    var buffer = this.queues[index].poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(sizeOf(index));
+    } else {
+      this.counts[index].decrementAndGet();
+      buffer.clear();
+    }
+    // Limit is the requested capacity so the buffer looks exact.
+    buffer.limit(capacity);
+    return buffer;
+  }
+
+  private void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect())
+      return;
+    int capacity = buffer.capacity();
+    if (capacity > MAX_POOLED_SIZE)
+      return;
+    int index = indexOf(capacity);
+    // Only buffers of the exact size class are pooled.
+    if (sizeOf(index) != capacity)
+      return;
+    if (this.counts[index].incrementAndGet() * capacity > MAX_BYTES_PER_SIZE) {
+      this.counts[index].decrementAndGet();
+      return;
+    }
+    this.queues[index].offer(buffer);
+  }
+
+  /**
+   * Get count of the pooled buffers for all sizes.
+   *
+   * @return number of idle buffers in pool
+   */
+  int getPooledCount() {
+    int r = 0;
+    for (var c : this.counts)
+      r += c.get();
+    return r;
+  }
+
+  @Override
+  public IoBuffer allocate(int capacity, boolean direct) {
+    return wrap(allocateNioBuffer(capacity, direct));
+  }
+
+  @Override
+  public ByteBuffer allocateNioBuffer(int capacity, boolean direct) {
+    return acquire(capacity, direct).order(ByteOrder.BIG_ENDIAN);
+  }
+
+  @Override
+  public IoBuffer wrap(ByteBuffer nioBuffer) {
+    return new PooledBuffer(this, nioBuffer);
+  }
+
+  @Override
+  public void dispose() {
+    for (var q : this.queues)
+      q.clear();
+    for (var c : this.counts)
+      c.set(0);
+  }
+
+  /*
+  IO buffer that returns its NIO buffer to pool when it is freed. Derived buffers
+  share the memory so they never return it.
+   */
+  private static class PooledBuffer extends AbstractIoBuffer {
+    private final FrameBufferPool pool;
+    private final boolean derived;
+    private final AtomicBoolean freed = new AtomicBoolean(false);
+    private ByteBuffer buf;
+
+    PooledBuffer(FrameBufferPool pool, ByteBuffer buf) {
+      super(pool, buf.capacity());
+      this.pool = pool;
+      this.buf = buf;
+      this.derived = false;
+    }
+
+    PooledBuffer(PooledBuffer parent, ByteBuffer buf) {
+      super(parent);
+      this.pool = parent.pool;
+      this.buf = buf;
+      this.derived = true;
+    }
+
+    @Override
+    public ByteBuffer buf() {
+      return this.buf;
+    }
+
+    @Override
+    protected void buf(ByteBuffer buf) {
+      // Old buffer is replaced on expanding, return it to pool.
+      var old = this.buf;
+      this.buf = buf;
+      if (!this.derived && old != buf)
+        this.pool.release(old);
+    }
+
+    @Override
+    protected IoBuffer duplicate0() {
+      return new PooledBuffer(this, this.buf.duplicate());
+    }
+
+    @Override
+    protected IoBuffer slice0() {
+      return new PooledBuffer(this, this.buf.slice());
+    }
+
+    @Override
+    protected IoBuffer asReadOnlyBuffer0() {
+      return new PooledBuffer(this, this.buf.asReadOnlyBuffer());
+    }
+
+    @Override
+    public byte[] array() {
+      return this.buf.array();
+    }
+
+    @Override
+    public int arrayOffset() {
+      return this.buf.arrayOffset();
+    }
+
+    @Override
+    public boolean hasArray() {
+      return this.buf.hasArray();
+    }
+
+    @Override
+    public void free() {
+      if (!this.derived && this.freed.compareAndSet(false, true))
+        this.pool.release(this.buf);
+    }
+  }
+}
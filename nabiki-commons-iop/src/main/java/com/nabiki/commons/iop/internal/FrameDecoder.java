@@ -47,11 +47,9 @@ class FrameDecoder extends CumulativeProtocolDecoder {
       parser = new FrameParser();
       session.setAttribute(PARSER_ATTR, parser);
     }
-    // Read bytes.
-    byte[] bytes = new byte[in.remaining()];
-    in.get(bytes);
-    // Parse.
-    boolean r = parser.parse(bytes);
+    // Parse frames directly from the buffer. Partial frame is left in the
+    // buffer and the cumulative decoder keeps it for the next read.
+    boolean r = parser.parse(in.buf());
     if (r) {
       while (parser.size() > 0)
         out.write(parser.poll());
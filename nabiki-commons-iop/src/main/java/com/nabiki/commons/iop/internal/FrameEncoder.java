@@ -29,7 +29,6 @@
 package com.nabiki.commons.iop.internal;
 
 import com.nabiki.commons.utils.frame.Frame;
-import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
 import org.apache.mina.filter.codec.ProtocolEncoderOutput;
@@ -41,6 +40,14 @@ class FrameEncoder extends ProtocolEncoderAdapter {
     if (!(message instanceof Frame)) {
       throw new IllegalArgumentException("message is not frame");
     }
-    out.write(IoBuffer.wrap(((Frame) message).getBytes()));
+    // Write header and body into a pooled direct buffer. The buffer is
+    // returned to pool after MINA writes it to socket and frees it.
+    var frame = (Frame) message;
+    var buffer = FrameBufferPool.getDefault().allocate(8 + frame.Length, true);
+    buffer.putInt(frame.Type);
+    buffer.putInt(frame.Length);
+    buffer.put(frame.Body);
+    buffer.flip();
+    out.write(buffer);
   }
 }
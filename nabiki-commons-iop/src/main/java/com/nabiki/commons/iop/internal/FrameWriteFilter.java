@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.commons.iop.internal;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteException;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.core.write.WriteToClosedSessionException;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Filter between socket and frame codec that coalesces small frames. When the
+ * session enables coalescing and a write is still in flight, the following
+ * encoded frames are appended into one pending buffer. The pending buffer is
+ * written in one socket write after the in-flight write is sent, and the
+ * original write requests are notified sent at that time.
+ */
+class FrameWriteFilter extends IoFilterAdapter {
+  private static final String IOP_WRITE_STATE_KEY = "iop.write.state";
+
+  static class WriteState {
+    IoBuffer pending;
+    List<WriteRequest> deferred = new LinkedList<>();
+    boolean inFlight = false;
+  }
+
+  /*
+  Write request that carries the merged frames and the original requests.
+   */
+  static class MergedWriteRequest extends DefaultWriteRequest {
+    final List<WriteRequest> merged;
+
+    MergedWriteRequest(IoSession session, IoBuffer buffer,
+                       List<WriteRequest> merged) {
+      super(buffer, new DefaultWriteFuture(session));
+      this.merged = merged;
+      // Fail the original requests if the merged write fails.
+      getFuture().addListener(future -> {
+        var f = (WriteFuture) future;
+        if (!f.isWritten()) {
+          for (var r : this.merged)
+            r.getFuture().setException(f.getException());
+          fail(session, f.getException());
+        }
+      });
+    }
+  }
+
+  /*
+  Fail the deferred requests, drop the pending frames and clear in-flight mark
+  so the next write goes out directly.
+   */
+  static void fail(IoSession session, Throwable cause) {
+    var state = (WriteState) session.getAttribute(IOP_WRITE_STATE_KEY);
+    if (state == null)
+      return;
+    synchronized (state) {
+      for (var r : state.deferred)
+        r.getFuture().setException(cause != null
+            ? cause : new WriteToClosedSessionException(r));
+      state.deferred.clear();
+      if (state.pending != null) {
+        state.pending.free();
+        state.pending = null;
+      }
+      state.inFlight = false;
+    }
+  }
+
+  private WriteState getState(IoSession session) {
+    var state = session.getAttribute(IOP_WRITE_STATE_KEY);
+    if (state == null) {
+      var n = new WriteState();
+      state = session.setAttributeIfAbsent(IOP_WRITE_STATE_KEY, n);
+      if (state == null)
+        state = n;
+    }
+    return (WriteState) state;
+  }
+
+  private void append(WriteState state, IoBuffer buffer) {
+    var pool = FrameBufferPool.getDefault();
+    if (state.pending == null) {
+      state.pending = pool.allocate(
+          Math.max(FrameBufferPool.MAX_POOLED_SIZE, buffer.remaining()), true);
+    } else if (state.pending.remaining() < buffer.remaining()) {
+      var n = pool.allocate(
+          2 * (state.pending.position() + buffer.remaining()), true);
+      state.pending.flip();
+      n.put(state.pending);
+      state.pending.free();
+      state.pending = n;
+    }
+    state.pending.put(buffer);
+    buffer.free();
+  }
+
+  @Override
+  public void filterWrite(NextFilter nextFilter, IoSession session,
+                          WriteRequest writeRequest) throws Exception {
+    var message = writeRequest.getMessage();
+    if (!(message instanceof IoBuffer) || !SessionImpl.isCoalesce(session)) {
+      nextFilter.filterWrite(session, writeRequest);
+      return;
+    }
+    var state = getState(session);
+    synchronized (state) {
+      if (state.inFlight) {
+        append(state, (IoBuffer) message);
+        // The buffer is freed after merged, don't reference it.
+        writeRequest.setMessage(IoBuffer.wrap(new byte[0]));
+        state.deferred.add(writeRequest);
+        return;
+      }
+      state.inFlight = true;
+    }
+    // A failed write is not followed by message sent, release the frames
+    // behind it or they wait forever.
+    writeRequest.getFuture().addListener(future -> {
+      var f = (WriteFuture) future;
+      if (!f.isWritten())
+        fail(session, f.getException());
+    });
+    nextFilter.filterWrite(session, writeRequest);
+  }
+
+  @Override
+  public void messageSent(NextFilter nextFilter, IoSession session,
+                          WriteRequest writeRequest) throws Exception {
+    if (writeRequest instanceof MergedWriteRequest) {
+      // Notify the original requests in order.
+      for (var r : ((MergedWriteRequest) writeRequest).merged) {
+        r.getFuture().setWritten();
+        nextFilter.messageSent(session, r);
+      }
+    } else {
+      nextFilter.messageSent(session, writeRequest);
+    }
+    var state = (WriteState) session.getAttribute(IOP_WRITE_STATE_KEY);
+    if (state == null)
+      return;
+    MergedWriteRequest flush;
+    synchronized (state) {
+      if (state.pending == null) {
+        state.inFlight = false;
+        return;
+      }
+      state.pending.flip();
+      flush = new MergedWriteRequest(session, state.pending, state.deferred);
+      state.pending = null;
+      state.deferred = new LinkedList<>();
+    }
+    // Keep in flight and write the pending frames at once.
+    nextFilter.filterWrite(session, flush);
+  }
+
+  @Override
+  public void sessionClosed(NextFilter nextFilter, IoSession session)
+      throws Exception {
+    fail(session, null);
+    nextFilter.sessionClosed(session);
+  }
+
+  @Override
+  public void exceptionCaught(NextFilter nextFilter, IoSession session,
+                              Throwable cause) throws Exception {
+    // Write failure is also reported here, the session may stay open.
+    if (cause instanceof WriteException || cause instanceof IOException)
+      fail(session, cause);
+    nextFilter.exceptionCaught(session, cause);
+  }
+}
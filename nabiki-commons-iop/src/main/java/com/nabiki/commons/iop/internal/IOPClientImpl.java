@@ -60,6 +60,8 @@ public class IOPClientImpl implements IOPClient {
     var chain = this.connector.getFilterChain();
     // Too many logs, don't use the logging filter.
     // chain.addLast(UUID.randomUUID().toString(), new LoggingFilter());
+    // Write filter sits between socket and codec, handling encoded frames.
+    chain.addLast(Utils.getUID(), new FrameWriteFilter());
     chain.addLast(Utils.getUID(), new ProtocolCodecFilter(new FrameCodecFactory()));
     // Set handler.
     connector.setHandler(frameHandler);
@@ -52,6 +52,8 @@ public class IOPServerImpl implements IOPServer {
     var chain = this.acceptor.getFilterChain();
     // Too many logs, don't use the logging filter.
     // chain.addLast(UUID.randomUUID().toString(), new LoggingFilter());
+    // Write filter sits between socket and codec, handling encoded frames.
+    chain.addLast(Utils.getUID(), new FrameWriteFilter());
     chain.addLast(Utils.getUID(), new ProtocolCodecFilter(new FrameCodecFactory()));
     // Frame handler.
     this.acceptor.setHandler(frameHandler);
@@ -30,6 +30,7 @@ package com.nabiki.commons.iop.internal;
 
 import com.nabiki.commons.ctpobj.*;
 import com.nabiki.commons.iop.Message;
+import com.nabiki.commons.iop.MessageType;
 import com.nabiki.commons.utils.Utils;
 
 import java.io.IOException;
@@ -38,140 +39,112 @@ class MessageImpl extends Message {
   protected MessageImpl() {
   }
 
+  /*
+  Get the class of the body object carried by the specified message type, or
+  null if the type carries no body.
+   */
+  static Class<?> getBodyClass(MessageType type) throws IOException {
+    switch (type) {
+      case HEARTBEAT:
+        return null;
+      case SUB_MD:
+        return CSubMarketData.class;
+      case RSP_SUB_MD:
+      case RSP_UNSUB_MD:
+        return CSpecificInstrument.class;
+      case UNSUB_MD:
+        return CUnsubMarketData.class;
+      case FLOW_DEPTH:
+      case RSP_QRY_MD:
+        return CDepthMarketData.class;
+      case FLOW_CANDLE:
+      case RSP_QRY_CANDLE:
+        return CCandle.class;
+      case QRY_CANDLE:
+        return CQryCandle.class;
+      case REQ_AUTHENTICATE:
+        return CReqAuthenticate.class;
+      case RSP_REQ_AUTHENTICATE:
+        return CRspAuthenticate.class;
+      case REQ_LOGIN:
+        return CReqUserLogin.class;
+      case RSP_REQ_LOGIN:
+        return CRspUserLogin.class;
+      case REQ_LOGOUT:
+      case RSP_REQ_LOGOUT:
+        return CUserLogout.class;
+      case REQ_SETTLEMENT:
+        return CSettlementInfoConfirm.class;
+      case RSP_REQ_SETTLEMENT:
+        return CSettlementInfoConfirm.class;
+      case QRY_MD:
+        return CQryDepthMarketData.class;
+      case REQ_ORDER_INSERT:
+        return CInputOrder.class;
+      case RSP_REQ_ORDER_INSERT:
+        return COrder.class;
+      case REQ_ORDER_ACTION:
+        return CInputOrderAction.class;
+      case RSP_REQ_ORDER_ACTION:
+        return COrderAction.class;
+      case QRY_ACCOUNT:
+        return CQryTradingAccount.class;
+      case RSP_QRY_ACCOUNT:
+        return CTradingAccount.class;
+      case QRY_ORDER:
+        return CQryOrder.class;
+      case RSP_QRY_ORDER:
+        return COrder.class;
+      case QRY_POSITION:
+        return CQryInvestorPosition.class;
+      case RSP_QRY_POSITION:
+        return CInvestorPosition.class;
+      case QRY_POSI_DETAIL:
+        return CQryInvestorPositionDetail.class;
+      case RSP_QRY_POSI_DETAIL:
+        return CInvestorPositionDetail.class;
+      case QRY_INSTRUMENT:
+        return CQryInstrument.class;
+      case RSP_QRY_INSTRUMENT:
+        return CInstrument.class;
+      case QRY_COMMISSION:
+        return CQryInstrumentCommissionRate.class;
+      case RSP_QRY_COMMISSION:
+        return CInstrumentCommissionRate.class;
+      case QRY_MARGIN:
+        return CQryInstrumentMarginRate.class;
+      case RSP_QRY_MARGIN:
+        return CInstrumentMarginRate.class;
+      case RTN_ORDER:
+        return COrder.class;
+      case RTN_TRADE:
+        return CTrade.class;
+      case RTN_ORDER_ACTION:
+        return COrderAction.class;
+      case RTN_ORDER_INSERT:
+        return CInputOrder.class;
+      case RSP_ORDER_ACTION:
+        return CInputOrderAction.class;
+      case RSP_ORDER_INSERT:
+        return CInputOrder.class;
+      case RSP_ERROR:
+        return CRspInfo.class;
+      case RSP_CONNECT:
+        return CConnect.class;
+      case RSP_DISCONNECT:
+        return CDisconnect.class;
+      default:
+        throw new IOException("unknown message type " + type);
+    }
+  }
+
   static Message toMessage(Body body) throws IOException {
     var msg = new Message();
     // Decode object.
     if (body.Body != null && body.Body.length() > 0) {
-      switch (body.Type) {
-        case HEARTBEAT:
-          msg.Body = null;
-          break;
-        case SUB_MD:
-          msg.Body = Utils.fromJson(body.Body, CSubMarketData.class);
-          break;
-        case RSP_SUB_MD:
-        case RSP_UNSUB_MD:
-          msg.Body = Utils.fromJson(body.Body, CSpecificInstrument.class);
-          break;
-        case UNSUB_MD:
-          msg.Body = Utils.fromJson(body.Body, CUnsubMarketData.class);
-          break;
-        case FLOW_DEPTH:
-        case RSP_QRY_MD:
-          msg.Body = Utils.fromJson(body.Body, CDepthMarketData.class);
-          break;
-        case FLOW_CANDLE:
-          msg.Body = Utils.fromJson(body.Body, CCandle.class);
-          break;
-        case REQ_AUTHENTICATE:
-          msg.Body = Utils.fromJson(body.Body, CReqAuthenticate.class);
-          break;
-        case RSP_REQ_AUTHENTICATE:
-          msg.Body = Utils.fromJson(body.Body, CRspAuthenticate.class);
-          break;
-        case REQ_LOGIN:
-          msg.Body = Utils.fromJson(body.Body, CReqUserLogin.class);
-          break;
-        case RSP_REQ_LOGIN:
-          msg.Body = Utils.fromJson(body.Body, CRspUserLogin.class);
-          break;
-        case REQ_LOGOUT:
-        case RSP_REQ_LOGOUT:
-          msg.Body = Utils.fromJson(body.Body, CUserLogout.class);
-          break;
-        case REQ_SETTLEMENT:
-          msg.Body = Utils.fromJson(body.Body, CSettlementInfoConfirm.class);
-          break;
-        case RSP_REQ_SETTLEMENT:
-          msg.Body = Utils.fromJson(body.Body, CSettlementInfoConfirm.class);
-          break;
-        case QRY_MD:
-          msg.Body = Utils.fromJson(body.Body, CQryDepthMarketData.class);
-          break;
-        case REQ_ORDER_INSERT:
-          msg.Body = Utils.fromJson(body.Body, CInputOrder.class);
-          break;
-        case RSP_REQ_ORDER_INSERT:
-          msg.Body = Utils.fromJson(body.Body, COrder.class);
-          break;
-        case REQ_ORDER_ACTION:
-          msg.Body = Utils.fromJson(body.Body, CInputOrderAction.class);
-          break;
-        case RSP_REQ_ORDER_ACTION:
-          msg.Body = Utils.fromJson(body.Body, COrderAction.class);
-          break;
-        case QRY_ACCOUNT:
-          msg.Body = Utils.fromJson(body.Body, CQryTradingAccount.class);
-          break;
-        case RSP_QRY_ACCOUNT:
-          msg.Body = Utils.fromJson(body.Body, CTradingAccount.class);
-          break;
-        case QRY_ORDER:
-          msg.Body = Utils.fromJson(body.Body, CQryOrder.class);
-          break;
-        case RSP_QRY_ORDER:
-          msg.Body = Utils.fromJson(body.Body, COrder.class);
-          break;
-        case QRY_POSITION:
-          msg.Body = Utils.fromJson(body.Body, CQryInvestorPosition.class);
-          break;
-        case RSP_QRY_POSITION:
-          msg.Body = Utils.fromJson(body.Body, CInvestorPosition.class);
-          break;
-        case QRY_POSI_DETAIL:
-          msg.Body = Utils.fromJson(body.Body, CQryInvestorPositionDetail.class);
-          break;
-        case RSP_QRY_POSI_DETAIL:
-          msg.Body = Utils.fromJson(body.Body, CInvestorPositionDetail.class);
-          break;
-        case QRY_INSTRUMENT:
-          msg.Body = Utils.fromJson(body.Body, CQryInstrument.class);
-          break;
-        case RSP_QRY_INSTRUMENT:
-          msg.Body = Utils.fromJson(body.Body, CInstrument.class);
-          break;
-        case QRY_COMMISSION:
-          msg.Body = Utils.fromJson(body.Body, CQryInstrumentCommissionRate.class);
-          break;
-        case RSP_QRY_COMMISSION:
-          msg.Body = Utils.fromJson(body.Body, CInstrumentCommissionRate.class);
-          break;
-        case QRY_MARGIN:
-          msg.Body = Utils.fromJson(body.Body, CQryInstrumentMarginRate.class);
-          break;
-        case RSP_QRY_MARGIN:
-          msg.Body = Utils.fromJson(body.Body, CInstrumentMarginRate.class);
-          break;
-        case RTN_ORDER:
-          msg.Body = Utils.fromJson(body.Body, COrder.class);
-          break;
-        case RTN_TRADE:
-          msg.Body = Utils.fromJson(body.Body, CTrade.class);
-          break;
-        case RTN_ORDER_ACTION:
-          msg.Body = Utils.fromJson(body.Body, COrderAction.class);
-          break;
-        case RTN_ORDER_INSERT:
-          msg.Body = Utils.fromJson(body.Body, CInputOrder.class);
-          break;
-        case RSP_ORDER_ACTION:
-          msg.Body = Utils.fromJson(body.Body, CInputOrderAction.class);
-          break;
-        case RSP_ORDER_INSERT:
-          msg.Body = Utils.fromJson(body.Body, CInputOrder.class);
-          break;
-        case RSP_ERROR:
-          msg.Body = Utils.fromJson(body.Body, CRspInfo.class);
-          break;
-        case RSP_CONNECT:
-          msg.Body = Utils.fromJson(body.Body, CConnect.class);
-          break;
-        case RSP_DISCONNECT:
-          msg.Body = Utils.fromJson(body.Body, CDisconnect.class);
-          break;
-        default:
-          throw new IOException("unknown message type " + body.Type);
-      }
+      var clazz = getBodyClass(body.Type);
+      if (clazz != null)
+        msg.Body = Utils.fromJson(body.Body, clazz);
     }
     if (body.RspInfo != null && body.RspInfo.length() > 0)
       msg.RspInfo = Utils.fromJson(body.RspInfo,
@@ -168,9 +168,16 @@ class ServerFrameHandler implements IoHandler {
     ServerSessionImpl iopSession = ServerSessionImpl.from(session);
     var frame = (Frame) message;
     try {
-      body = Utils.fromJson(new String(
-          frame.Body, StandardCharsets.UTF_8), Body.class);
-      iopMessage = toMessage(body);
+      if (BinaryCodec.isBinary(frame.Body)) {
+        iopMessage = BinaryCodec.decode(frame.Body);
+      } else {
+        body = Utils.fromJson(new String(
+            frame.Body, StandardCharsets.UTF_8), Body.class);
+        // Negotiate codec before login so login rsp echoes the codec.
+        if (frame.Type == FrameType.LOGIN)
+          iopSession.negotiateCodec(body.Codec);
+        iopMessage = toMessage(body);
+      }
       // Taken down lag from client to server.
       checkLag(iopSession, iopMessage);
       // 1. call message adaptor chain.
@@ -209,10 +216,20 @@ class ServerFrameHandler implements IoHandler {
     Message iopMessage;
     ServerSessionImpl iopSession = ServerSessionImpl.from(session);
     var frame = (Frame) message;
+    // Don't decode the frames the handler doesn't take.
+    if (frame instanceof MessageFrame) {
+      var type = ((MessageFrame) frame).messageType;
+      if (type != null && !this.msgHandlerOut.accepts(type))
+        return;
+    }
     try {
-      body = Utils.fromJson(new String(
-          frame.Body, StandardCharsets.UTF_8), Body.class);
-      iopMessage = toMessage(body);
+      if (BinaryCodec.isBinary(frame.Body)) {
+        iopMessage = BinaryCodec.decode(frame.Body);
+      } else {
+        body = Utils.fromJson(new String(
+            frame.Body, StandardCharsets.UTF_8), Body.class);
+        iopMessage = toMessage(body);
+      }
       try {
         this.msgHandlerOut.onMessage(iopSession, iopMessage);
       } catch (Throwable th) {
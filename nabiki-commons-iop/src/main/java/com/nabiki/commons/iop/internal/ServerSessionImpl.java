@@ -28,6 +28,7 @@
 
 package com.nabiki.commons.iop.internal;
 
+import com.nabiki.commons.iop.EncodedMessage;
 import com.nabiki.commons.iop.Message;
 import com.nabiki.commons.iop.MessageType;
 import com.nabiki.commons.iop.ServerSession;
@@ -66,6 +67,14 @@ class ServerSessionImpl extends SessionImpl implements ServerSession {
     return this.responseState;
   }
 
+  /*
+  Echo the codec accepted from client's login frame.
+   */
+  @Override
+  protected String getLoginCodec() {
+    return getCodec();
+  }
+
   @Override
   public void close() {
     super.close();
@@ -90,24 +99,45 @@ class ServerSessionImpl extends SessionImpl implements ServerSession {
   public void sendLogin(Message message) {
     message.Type = MessageType.RSP_REQ_LOGIN;
     message.TimeStamp = System.currentTimeMillis();
-    super.send(toBody(message), FrameType.LOGIN);
+    super.send(message, FrameType.LOGIN);
   }
 
   @Override
   public void sendResponse(Message message) {
     // Send message and set response state.
     message.TimeStamp = System.currentTimeMillis();
-    super.send(toBody(message), FrameType.RESPONSE);
+    super.send(message, FrameType.RESPONSE);
+    setResponseState(SessionResponseState.SENDING);
+  }
+
+  @Override
+  public void sendResponse(Message message, Runnable written) {
+    message.TimeStamp = System.currentTimeMillis();
+    super.send(message, FrameType.RESPONSE).addListener(
+        future -> written.run());
+    setResponseState(SessionResponseState.SENDING);
+  }
+
+  @Override
+  public void sendResponse(EncodedMessage message) {
+    if (!(message instanceof EncodedMessageImpl))
+      throw new IllegalArgumentException("message not encoded by IOP");
+    super.send((EncodedMessageImpl) message, FrameType.RESPONSE);
     setResponseState(SessionResponseState.SENDING);
   }
 
   @Override
   public void sendHeartbeat(String heartbeatID) {
-    var body = new Body();
-    body.RequestID = heartbeatID;
-    body.Type = MessageType.HEARTBEAT;
-    body.TimeStamp = System.currentTimeMillis();
-    super.send(body, FrameType.HEARTBEAT);
+    var message = new Message();
+    message.RequestID = heartbeatID;
+    message.Type = MessageType.HEARTBEAT;
+    message.TimeStamp = System.currentTimeMillis();
+    super.send(message, FrameType.HEARTBEAT);
+  }
+
+  @Override
+  public void setCoalesce(boolean coalesce) {
+    super.setCoalesce(coalesce);
   }
 
   @Override
@@ -134,4 +164,9 @@ class ServerSessionImpl extends SessionImpl implements ServerSession {
   public long getLag() {
     return super.getLag();
   }
+
+  @Override
+  public int getPendingWrites() {
+    return super.getPendingWrites();
+  }
 }
@@ -31,6 +31,8 @@ package com.nabiki.commons.iop.internal;
 import com.nabiki.commons.iop.Message;
 import com.nabiki.commons.utils.Utils;
 import com.nabiki.commons.utils.frame.Frame;
+import com.nabiki.commons.utils.frame.FrameType;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IoSession;
 
@@ -38,11 +40,19 @@ import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 
-class SessionImpl {
+abstract class SessionImpl {
   protected static final String IOP_SESSION_KEY = "iop.session";
   protected static final String IOP_LAG_KEY = "iop.lag.ms";
+  protected static final String IOP_CODEC_KEY = "iop.codec";
+  protected static final String IOP_COALESCE_KEY = "iop.coalesce";
 
   private final IoSession session;
+  /*
+  Frames written but not yet sent or failed.
+   */
+  private final AtomicInteger pendingWrites = new AtomicInteger(0);
+  private final IoFutureListener<WriteFuture> writeDone
+      = future -> pendingWrites.decrementAndGet();
   static AtomicInteger countX = new AtomicInteger(0);
 
   protected SessionImpl(IoSession ioSession) {
@@ -68,13 +78,46 @@ class SessionImpl {
     }
   }
 
+  /*
+  Set the codec negotiated in login frame. Only the known codec is accepted,
+  otherwise session falls back to JSON.
+   */
+  void negotiateCodec(String codec) {
+    if (BinaryCodec.NAME.equals(codec))
+      session.setAttribute(IOP_CODEC_KEY, codec);
+    else
+      session.removeAttribute(IOP_CODEC_KEY);
+  }
+
+  protected String getCodec() {
+    var r = session.getAttribute(IOP_CODEC_KEY);
+    if (r instanceof String)
+      return (String) r;
+    else
+      return null;
+  }
+
+  /*
+  Codec written into the outgoing login frame. Null means JSON.
+   */
+  protected abstract String getLoginCodec();
+
+  protected void setCoalesce(boolean coalesce) {
+    if (!isClosed())
+      this.session.setAttribute(IOP_COALESCE_KEY, coalesce);
+  }
+
+  static boolean isCoalesce(IoSession session) {
+    return Boolean.TRUE.equals(session.getAttribute(IOP_COALESCE_KEY));
+  }
+
   protected static Object findSelf(IoSession session) {
     if (session == null)
       throw new NullPointerException("io session null");
     return session.getAttribute(IOP_SESSION_KEY);
   }
 
-  protected Body toBody(Message message) {
+  protected static Body toBody(Message message) {
     var body = new Body();
     body.Type = message.Type;
     body.RequestID = message.RequestID;
@@ -123,26 +166,60 @@ class SessionImpl {
     }
   }
 
-  protected WriteFuture send(Body message, int type) {
+  /*
+  Encode message into frame body. Login frame is always JSON so it can carry
+  the codec negotiation to peer that doesn't know binary codec.
+   */
+  private byte[] encode(Message message, int type) {
+    if (type != FrameType.LOGIN && BinaryCodec.NAME.equals(getCodec())
+        && BinaryCodec.isEncodable(message))
+      return BinaryCodec.encode(message);
+    var body = toBody(message);
+    if (type == FrameType.LOGIN)
+      body.Codec = getLoginCodec();
+    return Utils.toJson(body).getBytes(StandardCharsets.UTF_8);
+  }
+
+  static byte[] toJsonBytes(Message message) {
+    return Utils.toJson(toBody(message)).getBytes(StandardCharsets.UTF_8);
+  }
+
+  protected WriteFuture send(Message message, int type) {
     if (message == null) {
       throw new NullPointerException("message null");
     }
+    // Get body bytes.
+    return write(new MessageFrame(type, encode(message, type), message.Type));
+  }
+
+  /*
+  Send the shared bytes of the encoded message in the session's codec.
+   */
+  protected WriteFuture send(EncodedMessageImpl message, int type) {
+    if (message == null) {
+      throw new NullPointerException("message null");
+    }
+    return write(new MessageFrame(type, message.getBytes(getCodec()),
+        message.getMessage().Type));
+  }
+
+  private WriteFuture write(Frame frame) {
     synchronized (this) {
       if (isClosed()) {
         throw new IllegalStateException("session closed");
       }
-      // Get body bytes.
-      var bytes = Utils.toJson(message).getBytes(StandardCharsets.UTF_8);
-      // Construct frame.
-      var req = new Frame();
-      req.Type = type;
-      req.Length = bytes.length;
-      req.Body = bytes;
       // Send frame.
-      return this.session.write(req);
+      this.pendingWrites.incrementAndGet();
+      var future = this.session.write(frame);
+      future.addListener(this.writeDone);
+      return future;
     }
   }
 
+  protected int getPendingWrites() {
+    return this.pendingWrites.get();
+  }
+
   protected void setAttribute(String key, Object attribute) {
     if (!isClosed())
       this.session.setAttribute(key, attribute);
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.commons.iop;
+
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.iop.internal.BinaryCodec;
+import com.nabiki.commons.utils.Utils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest {
+  private final Random random = new Random();
+
+  private <T> T fill(T object) throws IllegalAccessException {
+    for (var f : object.getClass().getFields()) {
+      if (Modifier.isStatic(f.getModifiers()))
+        continue;
+      var type = f.getType();
+      if (type == int.class)
+        f.setInt(object, random.nextInt());
+      else if (type == double.class)
+        f.setDouble(object, random.nextDouble() * 10000);
+      else if (type == byte.class)
+        f.setByte(object, (byte) random.nextInt());
+      else if (type == String.class)
+        f.set(object, random.nextBoolean() ? Utils.getUID() : null);
+      else if (type == String[].class)
+        f.set(object, new String[]{"c2101", "中文", "", null});
+    }
+    return object;
+  }
+
+  private Message message(MessageType type, Object body)
+      throws IllegalAccessException {
+    var m = new Message();
+    m.Type = type;
+    m.Body = body == null ? null : fill(body);
+    m.RspInfo = fill(new CRspInfo());
+    m.RequestID = Utils.getUID();
+    m.ResponseID = null;
+    m.CurrentCount = 1;
+    m.TotalCount = 3;
+    m.TimeStamp = System.currentTimeMillis();
+    return m;
+  }
+
+  private void roundTrip(Message m) throws IOException {
+    var bytes = BinaryCodec.encode(m);
+    assertTrue(BinaryCodec.isBinary(bytes));
+    var m2 = BinaryCodec.decode(bytes);
+    assertEquals(m.Type, m2.Type);
+    if (m.Body != null)
+      assertEquals(m.Body.getClass(), m2.Body.getClass());
+    // Compare JSON to check all fields.
+    assertEquals(Utils.toJson(m), Utils.toJson(m2));
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    roundTrip(message(MessageType.FLOW_DEPTH, new CDepthMarketData()));
+    roundTrip(message(MessageType.FLOW_CANDLE, new CCandle()));
+    roundTrip(message(MessageType.RTN_ORDER, new COrder()));
+    roundTrip(message(MessageType.RTN_TRADE, new CTrade()));
+    roundTrip(message(MessageType.SUB_MD, new CSubMarketData()));
+    roundTrip(message(MessageType.REQ_ORDER_INSERT, new CInputOrder()));
+    roundTrip(message(MessageType.RSP_QRY_ACCOUNT, new CTradingAccount()));
+    roundTrip(message(MessageType.RSP_QRY_POSI_DETAIL,
+        new CInvestorPositionDetail()));
+    roundTrip(message(MessageType.HEARTBEAT, null));
+  }
+
+  @Test
+  public void objectRoundTrip() throws Exception {
+    var detail = fill(new CInvestorPositionDetail());
+    var bytes = BinaryCodec.encodeObject(detail);
+    var detail2 = BinaryCodec.decodeObject(bytes,
+        CInvestorPositionDetail.class);
+    assertEquals(Utils.toJson(detail), Utils.toJson(detail2));
+    try {
+      BinaryCodec.decodeObject(Arrays.copyOf(bytes, bytes.length - 1),
+          CInvestorPositionDetail.class);
+      fail("truncated bytes decoded");
+    } catch (IOException ignored) {
+    }
+  }
+
+  private static void putString(ByteBuffer buffer, String s) {
+    var bytes = s.getBytes(StandardCharsets.UTF_8);
+    buffer.put((byte) (bytes.length + 1));
+    buffer.put(bytes);
+  }
+
+  /*
+  Candle fields are written in the order of their names. If this test fails,
+  the layout has changed and the codec version must be bumped with it.
+   */
+  @Test
+  public void candleLayout() throws Exception {
+    assertEquals("binary.2", BinaryCodec.NAME);
+    var c = new CCandle();
+    c.ActionDay = "20210104";
+    c.AveragePrice = 2001.5D;
+    c.ClosePrice = 2002D;
+    c.EndTime = "21:01:00";
+    c.HighestPrice = 2003D;
+    c.InstrumentID = "c2105";
+    c.Kind = (byte) 2;
+    c.LowestPrice = 1999D;
+    c.Minute = 1;
+    c.OpenInterest = 100000D;
+    c.OpenPrice = 2000D;
+    c.Size = 10D;
+    c.TradingDay = "20210105";
+    c.UpdateTime = "21:00:59";
+    c.Volume = 12;
+    var expected = ByteBuffer.allocate(256);
+    putString(expected, "20210104");
+    expected.putDouble(2001.5D);
+    expected.putDouble(2002D);
+    putString(expected, "21:01:00");
+    expected.putDouble(2003D);
+    putString(expected, "c2105");
+    expected.put((byte) 2);
+    expected.putDouble(1999D);
+    expected.putInt(1);
+    expected.putDouble(100000D);
+    expected.putDouble(2000D);
+    expected.putDouble(10D);
+    putString(expected, "20210105");
+    putString(expected, "21:00:59");
+    expected.putInt(12);
+    var bytes = BinaryCodec.encodeObject(c);
+    assertArrayEquals(
+        Arrays.copyOf(expected.array(), expected.position()), bytes);
+    assertEquals(Utils.toJson(c),
+        Utils.toJson(BinaryCodec.decodeObject(bytes, CCandle.class)));
+  }
+
+  @Test
+  public void compact() throws Exception {
+    var m = message(MessageType.FLOW_DEPTH, new CDepthMarketData());
+    var binary = BinaryCodec.encode(m);
+    var json = Utils.toJson(m).getBytes(StandardCharsets.UTF_8);
+    assertTrue(binary.length < json.length);
+  }
+
+  @Test
+  public void notEncodable() throws Exception {
+    // Body class doesn't match message type.
+    var m = message(MessageType.FLOW_DEPTH, new CCandle());
+    assertFalse(BinaryCodec.isEncodable(m));
+    // JSON body is not binary.
+    assertFalse(BinaryCodec.isBinary(
+        "{}".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void broken() throws Exception {
+    var bytes = BinaryCodec.encode(
+        message(MessageType.RTN_TRADE, new CTrade()));
+    try {
+      BinaryCodec.decode(Arrays.copyOf(bytes, bytes.length / 2));
+      fail("truncated bytes decoded");
+    } catch (IOException ignored) {
+    }
+  }
+}
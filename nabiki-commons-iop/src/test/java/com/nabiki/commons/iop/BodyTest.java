@@ -30,6 +30,7 @@ package com.nabiki.commons.iop;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.GsonBuilder;
+import com.nabiki.commons.iop.internal.BinaryCodec;
 import com.nabiki.commons.iop.internal.Body;
 import com.nabiki.commons.utils.Utils;
 import org.junit.Assert;
@@ -45,6 +46,7 @@ public class BodyTest {
     body.Type = MessageType.QRY_POSITION;
     body.Body = "xxx";
     body.RspInfo = "yyy";
+    body.Codec = BinaryCodec.NAME;
 
     var gson = new GsonBuilder()
         .setPrettyPrinting()
@@ -59,5 +61,6 @@ public class BodyTest {
     Assert.assertEquals(body.Body, body2.Body);
     Assert.assertEquals(body.RspInfo, body2.RspInfo);
     Assert.assertEquals(body.Type, body2.Type);
+    Assert.assertEquals(body.Codec, body2.Codec);
   }
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.commons.iop;
+
+import com.nabiki.commons.ctpobj.*;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalesceTest {
+  static final int COUNT = 5000;
+
+  class TestLoginManager extends LoginManager {
+    volatile ServerSession session;
+
+    @Override
+    public int doLogin(ServerSession session, Message message) {
+      this.session = session;
+      var rsp = new Message();
+      rsp.Body = new CRspUserLogin();
+      rsp.RspInfo = new CRspInfo();
+      session.sendLogin(rsp);
+      // Burst of small frames coalesced into fewer writes.
+      session.setCoalesce(true);
+      for (int i = 1; i <= COUNT; ++i) {
+        var depth = new CDepthMarketData();
+        depth.InstrumentID = "c2105";
+        depth.Volume = i;
+        var m = new Message();
+        m.Type = MessageType.FLOW_DEPTH;
+        m.Body = depth;
+        m.CurrentCount = i;
+        m.TotalCount = COUNT;
+        // Mix pre-encoded messages into the burst.
+        if (i % 2 == 0)
+          session.sendResponse(IOP.encode(m));
+        else
+          session.sendResponse(m);
+      }
+      return ErrorCodes.NONE;
+    }
+  }
+
+  @Test
+  public void burst() throws Exception {
+    var received = new AtomicInteger(0);
+    var outOfOrder = new AtomicInteger(0);
+    var latch = new CountDownLatch(1);
+
+    var server = IOP.createServer();
+    var loginManager = new TestLoginManager();
+    server.setLoginManager(loginManager);
+    server.bind(new InetSocketAddress("localhost", 24502));
+
+    var client = IOP.createClient();
+    client.setMessageAdaptor(new ClientMessageAdaptor() {
+      @Override
+      public void doRspDepthMarketData(
+          CDepthMarketData rsp,
+          CRspInfo info,
+          String requestID,
+          String responseID,
+          int current,
+          int total) {
+        var n = received.incrementAndGet();
+        if (n != current || rsp.Volume != current)
+          outOfOrder.incrementAndGet();
+        if (n == total)
+          latch.countDown();
+      }
+    });
+    client.connect(new InetSocketAddress("localhost", 24502));
+    var m = new Message();
+    m.Body = new CReqUserLogin();
+    client.getSession().sendLogin(m);
+
+    assertTrue("not all frames received",
+        latch.await(10, TimeUnit.SECONDS));
+    assertEquals(COUNT, received.get());
+    assertEquals(0, outOfOrder.get());
+    // All frames are sent, including the login response.
+    var session = loginManager.session;
+    for (int i = 0; i < 100 && session.getPendingWrites() > 0; ++i)
+      TimeUnit.MILLISECONDS.sleep(10);
+    assertEquals(0, session.getPendingWrites());
+    client.disconnect();
+  }
+
+  class ReusingLoginManager extends LoginManager {
+    @Override
+    public int doLogin(ServerSession session, Message message) {
+      var rsp = new Message();
+      rsp.Body = new CRspUserLogin();
+      rsp.RspInfo = new CRspInfo();
+      session.sendLogin(rsp);
+      session.setCoalesce(true);
+      // Same message is changed and sent again before the previous is sent.
+      var depth = new CDepthMarketData();
+      var m = new Message();
+      m.Type = MessageType.FLOW_DEPTH;
+      m.Body = depth;
+      m.TotalCount = COUNT;
+      for (int i = 1; i <= COUNT; ++i) {
+        depth.Volume = i;
+        m.CurrentCount = i;
+        session.sendResponse(m);
+      }
+      return ErrorCodes.NONE;
+    }
+  }
+
+  @Test
+  public void reused_message_logged_as_sent() throws Exception {
+    var logged = new AtomicInteger(0);
+    var mismatch = new AtomicInteger(0);
+    var latch = new CountDownLatch(1);
+
+    var server = IOP.createServer();
+    server.setLoginManager(new ReusingLoginManager());
+    server.setMessageHandlerOut((session, message) -> {
+      if (message.Type != MessageType.FLOW_DEPTH)
+        return;
+      var n = logged.incrementAndGet();
+      if (message.CurrentCount != n
+          || ((CDepthMarketData) message.Body).Volume != n)
+        mismatch.incrementAndGet();
+      if (n == COUNT)
+        latch.countDown();
+    });
+    server.bind(new InetSocketAddress("localhost", 24503));
+
+    var client = IOP.createClient();
+    client.connect(new InetSocketAddress("localhost", 24503));
+    var m = new Message();
+    m.Body = new CReqUserLogin();
+    client.getSession().sendLogin(m);
+
+    assertTrue("not all frames logged",
+        latch.await(10, TimeUnit.SECONDS));
+    assertEquals(0, mismatch.get());
+    client.disconnect();
+  }
+  @Test
+  public void untaken_frames_not_decoded() throws Exception {
+    var handled = new AtomicInteger(0);
+    var depths = new AtomicInteger(0);
+    var received = new AtomicInteger(0);
+    var latch = new CountDownLatch(1);
+
+    var server = IOP.createServer();
+    server.setLoginManager(new ReusingLoginManager());
+    server.setMessageHandlerOut(new ServerMessageHandler() {
+      @Override
+      public void onMessage(ServerSession session, Message message) {
+        handled.incrementAndGet();
+        if (message.Type == MessageType.FLOW_DEPTH)
+          depths.incrementAndGet();
+      }
+
+      @Override
+      public boolean accepts(MessageType type) {
+        return type != MessageType.FLOW_DEPTH;
+      }
+    });
+    server.bind(new InetSocketAddress("localhost", 24504));
+
+    var client = IOP.createClient();
+    client.setMessageAdaptor(new ClientMessageAdaptor() {
+      @Override
+      public void doRspDepthMarketData(
+          CDepthMarketData rsp,
+          CRspInfo info,
+          String requestID,
+          String responseID,
+          int current,
+          int total) {
+        if (received.incrementAndGet() == total)
+          latch.countDown();
+      }
+    });
+    client.connect(new InetSocketAddress("localhost", 24504));
+    var m = new Message();
+    m.Body = new CReqUserLogin();
+    client.getSession().sendLogin(m);
+
+    assertTrue("not all frames received",
+        latch.await(10, TimeUnit.SECONDS));
+    // Login response is still handled, depths are never decoded for it.
+    assertEquals(1, handled.get());
+    assertEquals(0, depths.get());
+    client.disconnect();
+  }
+}
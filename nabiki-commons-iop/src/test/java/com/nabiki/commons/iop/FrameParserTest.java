@@ -243,4 +243,71 @@ public class FrameParserTest {
     assertNotNull("Should retrieve the first frame", frame1);
     checkFrame(frame1);
   }
-}
\ No newline at end of file
+
+  /*
+  Simulate the cumulative buffer of decoder. Append bytes, parse from the buffer
+  and keep the unconsumed bytes for next time.
+   */
+  static class Cumulative {
+    ByteBuffer buffer = ByteBuffer.allocate(0);
+
+    boolean parse(FrameParser parser, byte[] bytes) {
+      var n = ByteBuffer.allocate(buffer.remaining() + bytes.length);
+      n.put(buffer).put(bytes).flip();
+      buffer = n;
+      return parser.parse(buffer);
+    }
+  }
+
+  @Test
+  public void wholeDirect() {
+    var parser = new FrameParser();
+    var buffer = ByteBuffer.wrap(frameBytes);
+
+    var r = parser.parse(buffer);
+    assertTrue("Should get the frame", r);
+    assertFalse("Should consume all bytes", buffer.hasRemaining());
+    checkFrame(parser.poll());
+  }
+
+  @Test
+  public void partialDirect() {
+    for (int len = 1; len < frameBytes.length - 1; ++len) {
+      var parser = new FrameParser();
+      var cumulative = new Cumulative();
+      var part1 = new byte[len];
+      var part2 = new byte[frameBytes.length - len];
+      System.arraycopy(frameBytes, 0, part1, 0, part1.length);
+      System.arraycopy(frameBytes, len, part2, 0, part2.length);
+
+      assertFalse("Partial frame, should be false",
+          cumulative.parse(parser, part1));
+      // Partial body is left in buffer.
+      if (len > 8)
+        assertEquals(len - 8, cumulative.buffer.remaining());
+
+      assertTrue("Complete the whole, should be true",
+          cumulative.parse(parser, part2));
+      checkFrame(parser.poll());
+      assertFalse(cumulative.buffer.hasRemaining());
+    }
+  }
+
+  @Test
+  public void syncDirect() {
+    var parser = new FrameParser();
+    var cumulative = new Cumulative();
+
+    assertFalse(cumulative.parse(parser, wrongBytes));
+    assertEquals(ParsingState.WAIT_SYNC, parser.getState());
+
+    assertFalse(cumulative.parse(parser, new byte[24]));
+    assertEquals(ParsingState.WAIT_SYNC, parser.getState());
+
+    cumulative.parse(parser, new byte[24]);
+    assertEquals(ParsingState.SYNC_UP, parser.getState());
+
+    assertTrue(cumulative.parse(parser, frameBytes));
+    checkFrame(parser.poll());
+  }
+}
@@ -29,6 +29,7 @@
 package com.nabiki.commons.iop;
 
 import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.iop.internal.BinaryCodec;
 import com.nabiki.commons.iop.internal.Body;
 import com.nabiki.commons.utils.SystemStream;
 import com.nabiki.commons.utils.Utils;
@@ -349,6 +350,17 @@ public class IopTest {
       hit(MessageType.RSP_QRY_MARGIN);
     }
 
+    @Override
+    public void doRspQryCandle(
+        CCandle rsp,
+        CRspInfo info,
+        String requestID,
+        String responseID,
+        int current,
+        int total) {
+      hit(MessageType.RSP_QRY_CANDLE);
+    }
+
     @Override
     public void doRtnOrder(
         COrder rtn,
@@ -654,6 +666,18 @@ public class IopTest {
       hit(MessageType.QRY_MARGIN);
     }
 
+    @Override
+    public void doQryCandle(
+        ServerSession session,
+        CQryCandle query,
+        String requestID,
+        int current,
+        int total) {
+      send(session, new CCandle(),
+          MessageType.RSP_QRY_CANDLE, 1, 1);
+      hit(MessageType.QRY_CANDLE);
+    }
+
     @Override
     public void doQryDepthMarketData(
         ServerSession session,
@@ -761,6 +785,9 @@ public class IopTest {
           1, 1);
       send(session, new CQryInstrumentMarginRate(), MessageType.QRY_MARGIN,
           1, 1);
+      // Test query candle.
+      send(session, new CQryCandle(), MessageType.QRY_CANDLE,
+          1, 1);
       //.........Sleep........
       Thread.sleep(500);
       // Check all message types are tested.
@@ -768,6 +795,8 @@ public class IopTest {
         if (type != MessageType.HEARTBEAT)
           assertTrue("missing " + type, hit.contains(type));
       }
+      // Check binary codec is negotiated at login.
+      assertEquals(BinaryCodec.NAME, session.getAttribute("iop.codec"));
       client.disconnect();
       System.out.println("EXIT");
     } catch (IOException | InterruptedException e) {
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.nabiki.commons.iop.internal;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.apache.mina.filter.FilterEvent;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameWriteFilterTest {
+  static class RecordingNextFilter implements IoFilter.NextFilter {
+    final List<WriteRequest> written = new LinkedList<>();
+
+    @Override
+    public void sessionCreated(IoSession session) {
+    }
+
+    @Override
+    public void sessionOpened(IoSession session) {
+    }
+
+    @Override
+    public void sessionClosed(IoSession session) {
+    }
+
+    @Override
+    public void sessionIdle(IoSession session, IdleStatus status) {
+    }
+
+    @Override
+    public void exceptionCaught(IoSession session, Throwable cause) {
+    }
+
+    @Override
+    public void inputClosed(IoSession session) {
+    }
+
+    @Override
+    public void messageReceived(IoSession session, Object message) {
+    }
+
+    @Override
+    public void messageSent(IoSession session, WriteRequest writeRequest) {
+    }
+
+    @Override
+    public void filterWrite(IoSession session, WriteRequest writeRequest) {
+      written.add(writeRequest);
+    }
+
+    @Override
+    public void filterClose(IoSession session) {
+    }
+
+    @Override
+    public void event(IoSession session, FilterEvent event) {
+    }
+  }
+
+  private WriteRequest request(IoSession session) {
+    return new DefaultWriteRequest(IoBuffer.wrap(new byte[]{1, 2, 3}),
+        new DefaultWriteFuture(session));
+  }
+
+  private IoSession session() {
+    var session = new DummySession();
+    session.setAttribute(SessionImpl.IOP_COALESCE_KEY, true);
+    return session;
+  }
+
+  @Test
+  public void failed_write_releases_queue() throws Exception {
+    var filter = new FrameWriteFilter();
+    var next = new RecordingNextFilter();
+    var session = session();
+    var first = request(session);
+    var second = request(session);
+    filter.filterWrite(next, session, first);
+    filter.filterWrite(next, session, second);
+    // Second is queued behind the in-flight write.
+    assertEquals(1, next.written.size());
+    first.getFuture().setException(new IOException("broken pipe"));
+    assertNotNull(second.getFuture().getException());
+    // Next write goes out directly.
+    var third = request(session);
+    filter.filterWrite(next, session, third);
+    assertEquals(2, next.written.size());
+    assertSame(third, next.written.get(1));
+  }
+
+  @Test
+  public void exception_caught_releases_queue() throws Exception {
+    var filter = new FrameWriteFilter();
+    var next = new RecordingNextFilter();
+    var session = session();
+    var first = request(session);
+    var second = request(session);
+    filter.filterWrite(next, session, first);
+    filter.filterWrite(next, session, second);
+    filter.exceptionCaught(next, session, new IOException("reset"));
+    assertNotNull(second.getFuture().getException());
+    var third = request(session);
+    filter.filterWrite(next, session, third);
+    assertEquals(2, next.written.size());
+    assertSame(third, next.written.get(1));
+  }
+}
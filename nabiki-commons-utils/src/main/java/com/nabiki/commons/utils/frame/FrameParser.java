@@ -38,7 +38,7 @@ public class FrameParser extends LinkedList<Frame> {
 
   private Frame decoding = new Frame();
   private int bodyPosition = 0, syncCount = 0;
-  private ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+  private ByteBuffer buffer;
   private ParsingState state = ParsingState.WAIT_HEADER_TYPE;
 
   public FrameParser() {
@@ -74,7 +74,10 @@ public class FrameParser extends LinkedList<Frame> {
       throw new IllegalArgumentException("no input bytes");
     try {
       store(bytes);
-      parseBuffer();
+      parseBuffer(this.buffer, false);
+      // Compact the buffer so that next write starts from position, which
+      // is after the previous element.
+      this.buffer.compact();
       return super.size() > 0;
     } catch (Throwable th) {
       var m = getFrameDigest(th.getMessage(), decoding);
@@ -84,10 +87,45 @@ public class FrameParser extends LinkedList<Frame> {
     }
   }
 
+  /**
+   * Parse frames directly from the specified buffer without copying the bytes
+   * into the parser's internal buffer. The method consumes headers and whole
+   * frame bodies only, a partial frame body is left in the buffer so the caller
+   * keeps it and calls again with more bytes appended. Frame body is copied
+   * once from the buffer into {@link Frame#Body}.
+   *
+   * <p>The method works on the same {@link ParsingState} and skips broken
+   * frame until it finds continuous zeros of {@link FrameParser#SYNC_ZERO_BYTES}
+   * in length. A parser instance should stick to one of the parse methods
+   * because partial bytes are kept by different owners.
+   * </p>
+   *
+   * @param input buffer to read bytes from, its position is moved forward past
+   *              the consumed bytes
+   * @return {@code true} if the method gets a frame, {@code false} otherwise
+   */
+  public boolean parse(ByteBuffer input) {
+    if (input == null)
+      throw new IllegalArgumentException("no input buffer");
+    try {
+      parseBuffer(input, true);
+      return super.size() > 0;
+    } catch (Throwable th) {
+      var m = getFrameDigest(th.getMessage(), decoding);
+      resetDecoding();
+      // Skip the broken bytes.
+      input.position(input.limit());
+      throw new RuntimeException(m);
+    }
+  }
+
   /*
   Save the specified bytes to internal buffer and flip the buffer for reading.
    */
   private void store(byte[] bytes) {
+    if (this.buffer == null)
+      this.buffer = ByteBuffer.allocate(
+          Math.max(DEFAULT_BUFFER_SIZE, bytes.length));
     // Ensure the buffer can hold the input bytes.
     if (this.buffer.remaining() < bytes.length) {
       var newBuffer = ByteBuffer.allocate(
@@ -102,26 +140,26 @@ public class FrameParser extends LinkedList<Frame> {
   }
 
   /*
-  Parse the bytes in the internal buffer and compact the buffer at the end for
-  next writing.
+  Parse the bytes in the specified buffer until no state makes progress. In
+  direct mode, frame body is only consumed when it is complete.
    */
-  private void parseBuffer() {
+  private void parseBuffer(ByteBuffer src, boolean direct) {
+    boolean progress;
     do {
+      progress = false;
       switch (this.state) {
         case WAIT_HEADER_TYPE:
-          if (this.buffer.remaining() < 4) {
-            this.state = ParsingState.WAIT_HEADER_TYPE;
+          if (src.remaining() < 4)
             break;
-          }
-          setFrameType();
+          setFrameType(src);
           this.state = ParsingState.WAIT_HEADER_LENGTH;
+          progress = true;
           break;
         case WAIT_HEADER_LENGTH:
-          if (this.buffer.remaining() < 4) {
-            this.state = ParsingState.WAIT_HEADER_LENGTH;
+          if (src.remaining() < 4)
             break;
-          }
-          setFrameLength();
+          setFrameLength(src);
+          progress = true;
           // Prepare for bytes.
           if (this.decoding.Length < 1) {
             this.state = ParsingState.WAIT_SYNC;
@@ -131,27 +169,31 @@ public class FrameParser extends LinkedList<Frame> {
           this.state = ParsingState.WAIT_BODY;
           break;
         case WAIT_BODY:
+          // Leave the partial body in the caller's buffer.
+          if (direct && src.remaining() < this.decoding.Length)
+            break;
           // If the body is filled, a frame is successfully decoded.
-          if (setBody()) {
+          if (setBody(src)) {
             super.add(this.decoding);
             resetDecoding();
+            progress = true;
           }
           break;
         case WAIT_SYNC:
-          if (checkSync()) {
+          if (checkSync(src)) {
             this.state = ParsingState.SYNC_UP;
             this.syncCount = 0;
+            progress = true;
           }
           break;
         case SYNC_UP:
-          if (clearSync())
+          if (clearSync(src)) {
             this.state = ParsingState.WAIT_HEADER_TYPE;
+            progress = true;
+          }
           break;
       }
-    } while (this.buffer.remaining() >= 4);
-    // Compact the buffer so that next write starts from position, which
-    // is after the previous element.
-    this.buffer.compact();
+    } while (progress && src.hasRemaining());
   }
 
   private void checkFrameType(int type) {
@@ -173,25 +215,25 @@ public class FrameParser extends LinkedList<Frame> {
     this.state = ParsingState.WAIT_HEADER_TYPE;
   }
 
-  private void setFrameType() {
-    var order = this.buffer.order();
-    this.buffer.order(ByteOrder.BIG_ENDIAN);
-    this.decoding.Type = this.buffer.getInt();
-    this.buffer.order(order);
+  private void setFrameType(ByteBuffer src) {
+    var order = src.order();
+    src.order(ByteOrder.BIG_ENDIAN);
+    this.decoding.Type = src.getInt();
+    src.order(order);
     checkFrameType(decoding.Type);
   }
 
-  private void setFrameLength() {
-    var order = this.buffer.order();
-    this.buffer.order(ByteOrder.BIG_ENDIAN);
-    this.decoding.Length = this.buffer.getInt();
-    this.buffer.order(order);
+  private void setFrameLength(ByteBuffer src) {
+    var order = src.order();
+    src.order(ByteOrder.BIG_ENDIAN);
+    this.decoding.Length = src.getInt();
+    src.order(order);
   }
 
-  private boolean setBody() {
+  private boolean setBody(ByteBuffer src) {
     int bodyRemain = this.decoding.Body.length - bodyPosition;
-    int length = Math.min(bodyRemain, this.buffer.remaining());
-    this.buffer.get(this.decoding.Body, this.bodyPosition, length);
+    int length = Math.min(bodyRemain, src.remaining());
+    src.get(this.decoding.Body, this.bodyPosition, length);
     this.bodyPosition += length;
     return this.bodyPosition == this.decoding.Length;
   }
@@ -199,9 +241,9 @@ public class FrameParser extends LinkedList<Frame> {
   /*
   Check the sync-up zero bytes.
    */
-  private boolean checkSync() {
-    while (this.buffer.hasRemaining()) {
-      if (this.buffer.get() == 0)
+  private boolean checkSync(ByteBuffer src) {
+    while (src.hasRemaining()) {
+      if (src.get() == 0)
         ++this.syncCount;
       else
         this.syncCount = 0;
@@ -215,17 +257,17 @@ public class FrameParser extends LinkedList<Frame> {
   Clear all sync-up bytes which can be more than the threshold, and then set state
   to parse next frame.
    */
-  private boolean clearSync() {
+  private boolean clearSync(ByteBuffer src) {
     // Find the first non-zero byte.
     // Don't consume that byte.
     byte b = 0;
-    while (this.buffer.hasRemaining()) {
-      b = this.buffer.get();
+    while (src.hasRemaining()) {
+      b = src.get();
       if (b != 0)
         break;
     }
     if (b != 0) {
-      this.buffer.position(this.buffer.position() - 1);
+      src.position(src.position() - 1);
       return true;
     } else
       return false;
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.commons.utils;
+
+import com.nabiki.commons.ctpobj.*;
+import org.junit.Test;
+
+import java.lang.reflect.Modifier;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.*;
+
+public class CopyTest {
+  private final Random random = new Random(0);
+
+  private <T> T fill(T obj) throws IllegalAccessException {
+    for (var f : obj.getClass().getFields()) {
+      if (Modifier.isStatic(f.getModifiers()))
+        continue;
+      var type = f.getType();
+      if (type == String.class)
+        f.set(obj, "s" + random.nextInt());
+      else if (type == String[].class)
+        f.set(obj, new String[]{"a" + random.nextInt(), "b" + random.nextInt()});
+      else if (type == double.class)
+        f.setDouble(obj, random.nextDouble());
+      else if (type == int.class)
+        f.setInt(obj, random.nextInt());
+      else if (type == byte.class)
+        f.setByte(obj, (byte) random.nextInt());
+      else
+        fail("unknown field type " + type + " in " + obj.getClass());
+    }
+    return obj;
+  }
+
+  private <T> void check(T origin, UnaryOperator<T> copier) throws IllegalAccessException {
+    fill(origin);
+    var copy = copier.apply(origin);
+    assertNotSame(origin, copy);
+    var deep = Utils.deepCopy(origin);
+    for (var f : origin.getClass().getFields()) {
+      if (Modifier.isStatic(f.getModifiers()))
+        continue;
+      if (f.getType() == String[].class) {
+        assertNotSame(f.get(origin), f.get(copy));
+        assertArrayEquals(f.getName(), (String[]) f.get(deep), (String[]) f.get(copy));
+      } else {
+        assertEquals(f.getName(), f.get(deep), f.get(copy));
+      }
+    }
+  }
+
+  @Test
+  public void copy_all_fields() throws IllegalAccessException {
+    check(new CTradingAccount(), CTradingAccount::new);
+    check(new CInvestorPositionDetail(), CInvestorPositionDetail::new);
+    check(new CInvestorPosition(), CInvestorPosition::new);
+    check(new CInputOrder(), CInputOrder::new);
+    check(new CInputOrderAction(), CInputOrderAction::new);
+    check(new COrder(), COrder::new);
+    check(new CTrade(), CTrade::new);
+    check(new CInstrument(), CInstrument::new);
+    check(new CInstrumentCommissionRate(), CInstrumentCommissionRate::new);
+    check(new CInstrumentMarginRate(), CInstrumentMarginRate::new);
+    check(new CDepthMarketData(), CDepthMarketData::new);
+    check(new CCandle(), CCandle::new);
+    check(new CSubMarketData(), CSubMarketData::new);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.gateway;
+
+/**
+ * Factory of gateways. The centre loads the factory by its class name, so
+ * implementation must have a public constructor without parameter, unless it
+ * is the default CTP factory.
+ */
+public interface GatewayFactory {
+  /**
+   * Create trader gateway.
+   *
+   * @param flowDirectory directory to keep flow files
+   * @return trader gateway
+   */
+  TraderGateway createTrader(String flowDirectory);
+
+  /**
+   * Create market data gateway.
+   *
+   * @param flowDirectory directory to keep flow files
+   * @param isUsingUDP    receive market data by UDP
+   * @param isMulticast   receive multicast market data
+   * @return market data gateway
+   */
+  MdGateway createMd(String flowDirectory, boolean isUsingUDP, boolean isMulticast);
+}
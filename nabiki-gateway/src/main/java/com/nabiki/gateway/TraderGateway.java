@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.gateway;
+
+import com.nabiki.commons.ctpobj.*;
+
+/**
+ * Trader gateway to the remote counter. Requests return 0 if they are sent,
+ * or a non-zero code if they fail sending. Responses are called back to the
+ * registered {@link TraderGatewaySpi}.
+ */
+public interface TraderGateway {
+  void registerSpi(TraderGatewaySpi spi);
+
+  void registerFront(String frontAddress);
+
+  /**
+   * Connect to the registered fronts. Gateway calls back
+   * {@link TraderGatewaySpi#whenFrontConnected()} after it is connected.
+   */
+  void init();
+
+  /**
+   * Disconnect and release resources. The gateway can't be used afterward.
+   */
+  void release();
+
+  int reqAuthenticate(CReqAuthenticate request, int requestID);
+
+  int reqUserLogin(CReqUserLogin request, int requestID);
+
+  int reqUserLogout(CUserLogout request, int requestID);
+
+  int reqSettlementInfoConfirm(CSettlementInfoConfirm request, int requestID);
+
+  int reqQryInstrument(CQryInstrument request, int requestID);
+
+  int reqQryInstrumentMarginRate(CQryInstrumentMarginRate request, int requestID);
+
+  int reqQryInstrumentCommissionRate(
+      CQryInstrumentCommissionRate request, int requestID);
+
+  int reqOrderInsert(CInputOrder request, int requestID);
+
+  int reqOrderAction(CInputOrderAction request, int requestID);
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.gateway;
+
+import com.nabiki.commons.ctpobj.*;
+
+/**
+ * Callbacks of {@link TraderGateway}. Rsp info is never null, and its error ID
+ * is 0 when the request succeeds.
+ */
+public interface TraderGatewaySpi {
+  void whenFrontConnected();
+
+  void whenFrontDisconnected(int reason);
+
+  void whenRspAuthenticate(CRspAuthenticate rspAuthenticate,
+                           CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspUserLogin(CRspUserLogin rspUserLogin,
+                        CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspUserLogout(CUserLogout userLogout,
+                         CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspSettlementInfoConfirm(CSettlementInfoConfirm settlementInfoConfirm,
+                                    CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspQryInstrument(CInstrument instrument,
+                            CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspQryInstrumentMarginRate(CInstrumentMarginRate instrumentMarginRate,
+                                      CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspQryInstrumentCommissionRate(
+      CInstrumentCommissionRate instrumentCommissionRate,
+      CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspOrderInsert(CInputOrder inputOrder,
+                          CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspOrderAction(CInputOrderAction inputOrderAction,
+                          CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRspError(CRspInfo rspInfo, int requestId, boolean isLast);
+
+  void whenRtnOrder(COrder order);
+
+  void whenRtnTrade(CTrade trade);
+
+  void whenErrRtnOrderInsert(CInputOrder inputOrder, CRspInfo rspInfo);
+
+  void whenErrRtnOrderAction(COrderAction orderAction, CRspInfo rspInfo);
+}
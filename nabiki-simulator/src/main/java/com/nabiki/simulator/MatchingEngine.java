@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.OrderStatusType;
+import com.nabiki.commons.utils.Utils;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exchange shared by all simulated sessions. Each instrument has an order book
+ * in price-time priority. An incoming order first matches the resting orders
+ * on the other side, then the best quote of the last tick, and the remaining
+ * volume rests in the book. A new tick resets the quote volumes and sweeps the
+ * resting orders that cross the new quote.
+ */
+public class MatchingEngine {
+  private final Map<String, OrderBook> books = new HashMap<>();
+  private final AtomicLong orderSysID = new AtomicLong(0), tradeID = new AtomicLong(0);
+  private long sequence = 0;
+
+  String nextOrderSysID() {
+    return String.valueOf(orderSysID.incrementAndGet());
+  }
+
+  String nextTradeID() {
+    return String.valueOf(tradeID.incrementAndGet());
+  }
+
+  synchronized void insert(SimOrder order) {
+    var book = getBook(order.input.InstrumentID);
+    order.sequence = ++sequence;
+    order.listener.whenAccepted(order);
+    book.match(order);
+    if (order.remaining() > 0) {
+      book.side(order).add(order);
+    }
+  }
+
+  synchronized boolean cancel(SimOrder order) {
+    var book = books.get(order.input.InstrumentID);
+    if (book == null || !book.side(order).remove(order)) {
+      return false;
+    }
+    order.status = OrderStatusType.CANCELED;
+    order.listener.whenCanceled(order);
+    return true;
+  }
+
+  /**
+   * Update the quote of the instrument and match resting orders against it.
+   *
+   * @param depth new tick
+   */
+  public synchronized void update(CDepthMarketData depth) {
+    var book = getBook(depth.InstrumentID);
+    book.depth = depth;
+    book.askLeft = depth.AskVolume1;
+    book.bidLeft = depth.BidVolume1;
+    book.sweep();
+  }
+
+  /**
+   * Get the last tick of the specified instrument.
+   *
+   * @param instrumentID instrument ID
+   * @return last tick, or {@code null} if no tick is updated
+   */
+  public synchronized CDepthMarketData getDepth(String instrumentID) {
+    var book = books.get(instrumentID);
+    return book != null ? book.depth : null;
+  }
+
+  /**
+   * Get number of resting orders of the specified instrument.
+   *
+   * @param instrumentID instrument ID
+   * @return number of resting orders
+   */
+  public synchronized int getRestingCount(String instrumentID) {
+    var book = books.get(instrumentID);
+    return book != null ? book.bids.size() + book.asks.size() : 0;
+  }
+
+  private OrderBook getBook(String instrumentID) {
+    return books.computeIfAbsent(instrumentID, k -> new OrderBook());
+  }
+
+  private static void trade(SimOrder order, double price, int volume) {
+    order.traded += volume;
+    if (order.remaining() > 0) {
+      order.status = OrderStatusType.PART_TRADED_QUEUEING;
+    } else {
+      order.status = OrderStatusType.ALL_TRADED;
+    }
+    order.listener.whenTraded(order, price, volume);
+  }
+
+  private static boolean crosses(SimOrder order, double price) {
+    return order.isBuy() ? order.price() >= price : order.price() <= price;
+  }
+
+  private static class OrderBook {
+    // Higher bid first, then earlier order.
+    final TreeSet<SimOrder> bids = new TreeSet<>(
+        Comparator.comparingDouble((SimOrder o) -> -o.price())
+            .thenComparingLong(o -> o.sequence));
+    // Lower ask first, then earlier order.
+    final TreeSet<SimOrder> asks = new TreeSet<>(
+        Comparator.comparingDouble(SimOrder::price)
+            .thenComparingLong(o -> o.sequence));
+    CDepthMarketData depth;
+    int askLeft = 0, bidLeft = 0;
+
+    TreeSet<SimOrder> side(SimOrder order) {
+      return order.isBuy() ? bids : asks;
+    }
+
+    void match(SimOrder order) {
+      var iter = (order.isBuy() ? asks : bids).iterator();
+      while (order.remaining() > 0 && iter.hasNext()) {
+        var resting = iter.next();
+        if (!crosses(order, resting.price())) {
+          break;
+        }
+        var volume = Math.min(order.remaining(), resting.remaining());
+        // Trade at the price of the resting order.
+        trade(resting, resting.price(), volume);
+        trade(order, resting.price(), volume);
+        if (resting.remaining() == 0) {
+          iter.remove();
+        }
+      }
+      if (order.remaining() > 0 && depth != null) {
+        if (order.isBuy()) {
+          askLeft -= matchQuote(order, depth.AskPrice1, askLeft);
+        } else {
+          bidLeft -= matchQuote(order, depth.BidPrice1, bidLeft);
+        }
+      }
+    }
+
+    void sweep() {
+      askLeft -= sweep(bids, depth.AskPrice1, askLeft);
+      bidLeft -= sweep(asks, depth.BidPrice1, bidLeft);
+    }
+
+    private int matchQuote(SimOrder order, double quote, int quoteVolume) {
+      if (quoteVolume <= 0 || !Utils.validPrice(quote)
+          || !crosses(order, quote)) {
+        return 0;
+      }
+      var volume = Math.min(order.remaining(), quoteVolume);
+      trade(order, quote, volume);
+      return volume;
+    }
+
+    private int sweep(TreeSet<SimOrder> resting, double quote, int quoteVolume) {
+      if (!Utils.validPrice(quote)) {
+        return 0;
+      }
+      int used = 0;
+      var iter = resting.iterator();
+      while (used < quoteVolume && iter.hasNext()) {
+        var order = iter.next();
+        if (!crosses(order, quote)) {
+          break;
+        }
+        var volume = Math.min(order.remaining(), quoteVolume - used);
+        // Resting order is passive, so it trades at its own price.
+        trade(order, order.price(), volume);
+        used += volume;
+        if (order.remaining() == 0) {
+          iter.remove();
+        }
+      }
+      return used;
+    }
+  }
+}
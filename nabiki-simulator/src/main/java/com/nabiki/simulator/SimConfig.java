@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.ErrorCodes;
+
+import java.util.Properties;
+
+/**
+ * Configuration of the simulated counter. The centre loads the simulator by
+ * class name, so the configuration is read from system properties prefixed by
+ * {@code nabiki.sim.}, for example {@code -Dnabiki.sim.latency=5}.
+ */
+public class SimConfig {
+  public static final String PROPERTY_PREFIX = "nabiki.sim.";
+
+  /**
+   * Milliseconds between receiving a request and processing it.
+   */
+  public long LatencyMillis = 1;
+
+  /**
+   * Path of CSV file keeping the ticks to replay. First line is the header of
+   * field names of {@link com.nabiki.commons.ctpobj.CDepthMarketData}.
+   */
+  public String TickFile = "";
+
+  /**
+   * Milliseconds between two replayed ticks.
+   */
+  public long TickIntervalMillis = 500;
+
+  /**
+   * Comma-separated instrument IDs to return in qry, besides those in tick file.
+   */
+  public String Instruments = "";
+
+  public String ExchangeID = "SIM";
+
+  public int VolumeMultiple = 10;
+
+  public double PriceTick = 1.0D;
+
+  /**
+   * Margin ratio by money for both directions.
+   */
+  public double MarginRatio = 0.1D;
+
+  /**
+   * Commission by volume for open, close and close today.
+   */
+  public double CommissionByVolume = 1.0D;
+
+  /**
+   * Probability in [0, 1] that an order is rejected by the counter.
+   */
+  public double ErrorRate = 0.0D;
+
+  /**
+   * Error ID of the rejected orders.
+   */
+  public int ErrorID = ErrorCodes.INSUFFICIENT_MONEY;
+
+  /**
+   * Seed of the random generator deciding rejected orders.
+   */
+  public long Seed = 0;
+
+  /**
+   * Create configuration from the specified properties, and properties that are
+   * absent keep their default values.
+   *
+   * @param properties properties
+   * @return simulator configuration
+   */
+  public static SimConfig fromProperties(Properties properties) {
+    var c = new SimConfig();
+    c.LatencyMillis = Long.parseLong(get(properties, "latency",
+        String.valueOf(c.LatencyMillis)));
+    c.TickFile = get(properties, "ticks", c.TickFile);
+    c.TickIntervalMillis = Long.parseLong(get(properties, "tickInterval",
+        String.valueOf(c.TickIntervalMillis)));
+    c.Instruments = get(properties, "instruments", c.Instruments);
+    c.ExchangeID = get(properties, "exchange", c.ExchangeID);
+    c.VolumeMultiple = Integer.parseInt(get(properties, "volumeMultiple",
+        String.valueOf(c.VolumeMultiple)));
+    c.PriceTick = Double.parseDouble(get(properties, "priceTick",
+        String.valueOf(c.PriceTick)));
+    c.MarginRatio = Double.parseDouble(get(properties, "marginRatio",
+        String.valueOf(c.MarginRatio)));
+    c.CommissionByVolume = Double.parseDouble(get(properties, "commission",
+        String.valueOf(c.CommissionByVolume)));
+    c.ErrorRate = Double.parseDouble(get(properties, "errorRate",
+        String.valueOf(c.ErrorRate)));
+    c.ErrorID = Integer.parseInt(get(properties, "errorID",
+        String.valueOf(c.ErrorID)));
+    c.Seed = Long.parseLong(get(properties, "seed", String.valueOf(c.Seed)));
+    return c;
+  }
+
+  private static String get(Properties properties, String key, String def) {
+    return properties.getProperty(PROPERTY_PREFIX + key, def).trim();
+  }
+}
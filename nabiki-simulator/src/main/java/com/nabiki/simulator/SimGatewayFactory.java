@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+import com.nabiki.commons.ctpobj.CInstrument;
+import com.nabiki.commons.ctpobj.ProductClassType;
+import com.nabiki.commons.utils.Utils;
+import com.nabiki.gateway.GatewayFactory;
+import com.nabiki.gateway.MdGateway;
+import com.nabiki.gateway.TraderGateway;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gateway factory of the simulated counter. Start the centre with
+ * {@code --gateway com.nabiki.simulator.SimGatewayFactory} and the simulator on
+ * class path, so the centre trades against replayed ticks without a real
+ * counter. All sessions created by the factory share one {@link MatchingEngine}.
+ */
+public class SimGatewayFactory implements GatewayFactory {
+  private final SimConfig config;
+  private final MatchingEngine engine = new MatchingEngine();
+  private final List<CDepthMarketData> ticks;
+  private final Collection<CInstrument> instruments;
+  private final AtomicInteger sessionID = new AtomicInteger(0);
+
+  /**
+   * Create factory with configuration from system properties.
+   */
+  public SimGatewayFactory() {
+    this(SimConfig.fromProperties(System.getProperties()));
+  }
+
+  public SimGatewayFactory(SimConfig config) {
+    this.config = config;
+    this.ticks = loadTicks(config.TickFile);
+    this.instruments = createInstruments();
+  }
+
+  /**
+   * Get the matching engine shared by sessions.
+   *
+   * @return matching engine
+   */
+  public MatchingEngine getEngine() {
+    return engine;
+  }
+
+  @Override
+  public TraderGateway createTrader(String flowDirectory) {
+    return new SimTraderGateway(config, engine, instruments,
+        sessionID.incrementAndGet());
+  }
+
+  @Override
+  public MdGateway createMd(String flowDirectory, boolean isUsingUDP,
+                            boolean isMulticast) {
+    return new SimMdGateway(config, engine, ticks);
+  }
+
+  private static List<CDepthMarketData> loadTicks(String file) {
+    if (file == null || file.length() == 0) {
+      return new LinkedList<>();
+    }
+    try (var reader = new FileReader(file, StandardCharsets.UTF_8)) {
+      return TickReader.read(reader);
+    } catch (IOException e) {
+      throw new UncheckedIOException("fail reading ticks " + file, e);
+    }
+  }
+
+  private Collection<CInstrument> createInstruments() {
+    var ids = new LinkedHashSet<String>();
+    for (var id : config.Instruments.split(",")) {
+      if (id.trim().length() > 0) {
+        ids.add(id.trim());
+      }
+    }
+    for (var tick : ticks) {
+      ids.add(tick.InstrumentID);
+    }
+    var r = new LinkedList<CInstrument>();
+    for (var id : ids) {
+      r.add(createInstrument(id));
+    }
+    return r;
+  }
+
+  private CInstrument createInstrument(String instrumentID) {
+    var expire = LocalDate.now().plusYears(1);
+    var i = new CInstrument();
+    i.InstrumentID = instrumentID;
+    i.InstrumentName = instrumentID;
+    i.ExchangeInstID = instrumentID;
+    i.ExchangeID = config.ExchangeID;
+    i.ProductID = Utils.getProductID(instrumentID);
+    i.ProductClass = ProductClassType.Futures;
+    i.DeliveryYear = expire.getYear();
+    i.DeliveryMonth = expire.getMonthValue();
+    i.MaxLimitOrderVolume = 1000;
+    i.MinLimitOrderVolume = 1;
+    i.MaxMarketOrderVolume = 1000;
+    i.MinMarketOrderVolume = 1;
+    i.VolumeMultiple = config.VolumeMultiple;
+    i.PriceTick = config.PriceTick;
+    i.CreateDate = Utils.getDay(LocalDate.now().minusYears(1), null);
+    i.OpenDate = i.CreateDate;
+    i.ExpireDate = Utils.getDay(expire, null);
+    i.StartDelivDate = i.ExpireDate;
+    i.EndDelivDate = i.ExpireDate;
+    i.IsTrading = 1;
+    i.LongMarginRatio = config.MarginRatio;
+    i.ShortMarginRatio = config.MarginRatio;
+    return i;
+  }
+}
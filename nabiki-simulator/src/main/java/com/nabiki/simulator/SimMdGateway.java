@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.utils.Utils;
+import com.nabiki.gateway.MdGateway;
+import com.nabiki.gateway.MdGatewaySpi;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Simulated market data session. It replays the ticks after the first
+ * subscription. Every tick updates the matching engine, and subscribed ticks
+ * are called back to spi.
+ */
+class SimMdGateway implements MdGateway {
+  private final SimConfig config;
+  private final MatchingEngine engine;
+  private final List<CDepthMarketData> ticks;
+  private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean replaying = new AtomicBoolean(false);
+  private final ScheduledExecutorService requests
+      = Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService callbacks = Executors.newSingleThreadExecutor();
+  private Thread replayThread;
+  private MdGatewaySpi spi;
+
+  SimMdGateway(SimConfig config, MatchingEngine engine,
+               List<CDepthMarketData> ticks) {
+    this.config = config;
+    this.engine = engine;
+    this.ticks = ticks;
+  }
+
+  @Override
+  public void registerSpi(MdGatewaySpi spi) {
+    this.spi = spi;
+  }
+
+  @Override
+  public void registerFront(String frontAddress) {
+    // Simulator has no front.
+  }
+
+  @Override
+  public void init() {
+    request(() -> callback(() -> spi.whenFrontConnected()));
+  }
+
+  @Override
+  public void release() {
+    if (replayThread != null) {
+      replayThread.interrupt();
+    }
+    requests.shutdownNow();
+    callbacks.shutdown();
+  }
+
+  @Override
+  public int reqUserLogin(CReqUserLogin request, int requestID) {
+    request(() -> {
+      var rsp = new CRspUserLogin();
+      rsp.BrokerID = request.BrokerID;
+      rsp.UserID = request.UserID;
+      rsp.TradingDay = Utils.getDay(LocalDate.now(), null);
+      rsp.LoginTime = Utils.getTime(LocalTime.now(), null);
+      rsp.SystemName = "nabiki-simulator";
+      callback(() -> spi.whenRspUserLogin(rsp, rspInfo(), requestID, true));
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqUserLogout(CUserLogout request, int requestID) {
+    request(() -> callback(() -> spi.whenRspUserLogout(request, rspInfo(),
+        requestID, true)));
+    return 0;
+  }
+
+  @Override
+  public int subscribeMarketData(String[] instrumentIDs, int count) {
+    request(() -> {
+      for (int i = 0; i < count; ++i) {
+        var instrument = new CSpecificInstrument();
+        instrument.InstrumentID = instrumentIDs[i];
+        subscribed.add(instrument.InstrumentID);
+        var isLast = i == count - 1;
+        callback(() -> spi.whenRspSubMarketData(instrument, rspInfo(),
+            0, isLast));
+      }
+      startReplay();
+    });
+    return 0;
+  }
+
+  @Override
+  public int unSubscribeMarketData(String[] instrumentIDs, int count) {
+    request(() -> {
+      for (int i = 0; i < count; ++i) {
+        var instrument = new CSpecificInstrument();
+        instrument.InstrumentID = instrumentIDs[i];
+        subscribed.remove(instrument.InstrumentID);
+        var isLast = i == count - 1;
+        callback(() -> spi.whenRspUnSubMarketData(instrument, rspInfo(),
+            0, isLast));
+      }
+    });
+    return 0;
+  }
+
+  private void startReplay() {
+    if (replaying.compareAndSet(false, true)) {
+      replayThread = new Thread(this::replay, "sim-md-replay");
+      replayThread.setDaemon(true);
+      replayThread.start();
+    }
+  }
+
+  private void replay() {
+    for (var tick : ticks) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(config.TickIntervalMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+      setDefaults(tick);
+      engine.update(tick);
+      if (subscribed.contains(tick.InstrumentID)) {
+        callback(() -> spi.whenRtnDepthMarketData(tick));
+      }
+    }
+  }
+
+  private void setDefaults(CDepthMarketData tick) {
+    if (tick.TradingDay == null) {
+      tick.TradingDay = Utils.getDay(LocalDate.now(), null);
+    }
+    if (tick.ActionDay == null) {
+      tick.ActionDay = Utils.getDay(LocalDate.now(), null);
+    }
+    if (tick.UpdateTime == null) {
+      tick.UpdateTime = Utils.getTime(LocalTime.now(), null);
+    }
+    if (tick.ExchangeID == null) {
+      tick.ExchangeID = config.ExchangeID;
+    }
+  }
+
+  private static CRspInfo rspInfo() {
+    var info = new CRspInfo();
+    info.ErrorID = ErrorCodes.NONE;
+    info.ErrorMsg = "";
+    return info;
+  }
+
+  private void request(Runnable task) {
+    requests.schedule(() -> {
+      try {
+        task.run();
+      } catch (Throwable th) {
+        th.printStackTrace();
+      }
+    }, config.LatencyMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void callback(Runnable task) {
+    callbacks.execute(() -> {
+      try {
+        task.run();
+      } catch (Throwable th) {
+        th.printStackTrace();
+      }
+    });
+  }
+}
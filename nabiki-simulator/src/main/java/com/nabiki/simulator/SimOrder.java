@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.CInputOrder;
+import com.nabiki.commons.ctpobj.DirectionType;
+import com.nabiki.commons.ctpobj.OrderStatusType;
+import com.nabiki.commons.utils.Utils;
+
+import java.time.LocalTime;
+
+/*
+ * Order kept in the matching engine. Its states are changed only under the
+ * engine's lock.
+ */
+class SimOrder {
+  final OrderListener listener;
+  final CInputOrder input;
+  final String orderSysID;
+  final String insertTime = Utils.getTime(LocalTime.now(), null);
+  long sequence;
+  int traded = 0;
+  byte status = OrderStatusType.NO_TRADE_QUEUEING;
+
+  SimOrder(OrderListener listener, CInputOrder input, String orderSysID) {
+    this.listener = listener;
+    this.input = input;
+    this.orderSysID = orderSysID;
+  }
+
+  boolean isBuy() {
+    return input.Direction == DirectionType.DIRECTION_BUY;
+  }
+
+  double price() {
+    return input.LimitPrice;
+  }
+
+  int remaining() {
+    return input.VolumeTotalOriginal - traded;
+  }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.commons.utils.Utils;
+import com.nabiki.gateway.TraderGateway;
+import com.nabiki.gateway.TraderGatewaySpi;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Simulated trader session. Requests are processed on a scheduler after the
+ * configured latency, and responses are called back on a single thread in the
+ * order they are produced.
+ */
+class SimTraderGateway implements TraderGateway, OrderListener {
+  private final SimConfig config;
+  private final MatchingEngine engine;
+  private final Collection<CInstrument> instruments;
+  private final int frontID, sessionID;
+  private final Random random;
+  private final ScheduledExecutorService requests
+      = Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService callbacks = Executors.newSingleThreadExecutor();
+  // Order sys ID -> order, and order ref -> order.
+  private final Map<String, SimOrder> sysOrders = new ConcurrentHashMap<>(),
+      refOrders = new ConcurrentHashMap<>();
+  private TraderGatewaySpi spi;
+
+  SimTraderGateway(SimConfig config, MatchingEngine engine,
+                   Collection<CInstrument> instruments, int sessionID) {
+    this.config = config;
+    this.engine = engine;
+    this.instruments = instruments;
+    this.frontID = 1;
+    this.sessionID = sessionID;
+    this.random = new Random(config.Seed + sessionID);
+  }
+
+  @Override
+  public void registerSpi(TraderGatewaySpi spi) {
+    this.spi = spi;
+  }
+
+  @Override
+  public void registerFront(String frontAddress) {
+    // Simulator has no front.
+  }
+
+  @Override
+  public void init() {
+    request(() -> callback(() -> spi.whenFrontConnected()));
+  }
+
+  @Override
+  public void release() {
+    requests.shutdownNow();
+    callbacks.shutdown();
+  }
+
+  @Override
+  public int reqAuthenticate(CReqAuthenticate request, int requestID) {
+    request(() -> {
+      var rsp = new CRspAuthenticate();
+      rsp.BrokerID = request.BrokerID;
+      rsp.UserID = request.UserID;
+      rsp.AppID = request.AppID;
+      rsp.UserProductInfo = request.UserProductInfo;
+      callback(() -> spi.whenRspAuthenticate(rsp, rspInfo(ErrorCodes.NONE),
+          requestID, true));
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqUserLogin(CReqUserLogin request, int requestID) {
+    request(() -> {
+      var rsp = new CRspUserLogin();
+      rsp.BrokerID = request.BrokerID;
+      rsp.UserID = request.UserID;
+      rsp.TradingDay = Utils.getDay(LocalDate.now(), null);
+      rsp.LoginTime = Utils.getTime(LocalTime.now(), null);
+      rsp.SystemName = "nabiki-simulator";
+      rsp.FrontID = frontID;
+      rsp.SessionID = sessionID;
+      rsp.MaxOrderRef = "0";
+      callback(() -> spi.whenRspUserLogin(rsp, rspInfo(ErrorCodes.NONE),
+          requestID, true));
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqUserLogout(CUserLogout request, int requestID) {
+    request(() -> callback(() -> spi.whenRspUserLogout(request,
+        rspInfo(ErrorCodes.NONE), requestID, true)));
+    return 0;
+  }
+
+  @Override
+  public int reqSettlementInfoConfirm(CSettlementInfoConfirm request, int requestID) {
+    request(() -> {
+      request.ConfirmDate = Utils.getDay(LocalDate.now(), null);
+      request.ConfirmTime = Utils.getTime(LocalTime.now(), null);
+      callback(() -> spi.whenRspSettlementInfoConfirm(request,
+          rspInfo(ErrorCodes.NONE), requestID, true));
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqQryInstrument(CQryInstrument request, int requestID) {
+    request(() -> {
+      if (instruments.isEmpty()) {
+        callback(() -> spi.whenRspQryInstrument(new CInstrument(),
+            rspInfo(ErrorCodes.INSTRUMENT_NOT_FOUND), requestID, true));
+        return;
+      }
+      int count = 0;
+      for (var instrument : instruments) {
+        var isLast = ++count == instruments.size();
+        callback(() -> spi.whenRspQryInstrument(instrument,
+            rspInfo(ErrorCodes.NONE), requestID, isLast));
+      }
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqQryInstrumentMarginRate(
+      CQryInstrumentMarginRate request, int requestID) {
+    request(() -> {
+      var rsp = new CInstrumentMarginRate();
+      rsp.BrokerID = request.BrokerID;
+      rsp.InvestorID = request.InvestorID;
+      rsp.InstrumentID = request.InstrumentID;
+      rsp.ExchangeID = config.ExchangeID;
+      rsp.HedgeFlag = request.HedgeFlag;
+      rsp.LongMarginRatioByMoney = config.MarginRatio;
+      rsp.ShortMarginRatioByMoney = config.MarginRatio;
+      callback(() -> spi.whenRspQryInstrumentMarginRate(rsp,
+          rspInfo(ErrorCodes.NONE), requestID, true));
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqQryInstrumentCommissionRate(
+      CQryInstrumentCommissionRate request, int requestID) {
+    request(() -> {
+      var rsp = new CInstrumentCommissionRate();
+      rsp.BrokerID = request.BrokerID;
+      rsp.InvestorID = request.InvestorID;
+      rsp.InstrumentID = request.InstrumentID;
+      rsp.ExchangeID = config.ExchangeID;
+      rsp.OpenRatioByVolume = config.CommissionByVolume;
+      rsp.CloseRatioByVolume = config.CommissionByVolume;
+      rsp.CloseTodayRatioByVolume = config.CommissionByVolume;
+      callback(() -> spi.whenRspQryInstrumentCommissionRate(rsp,
+          rspInfo(ErrorCodes.NONE), requestID, true));
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqOrderInsert(CInputOrder request, int requestID) {
+    request(() -> {
+      int errorID = ErrorCodes.NONE;
+      if (!hasInstrument(request.InstrumentID)) {
+        errorID = ErrorCodes.INSTRUMENT_NOT_FOUND;
+      } else if (refOrders.containsKey(request.OrderRef)) {
+        errorID = ErrorCodes.DUPLICATE_ORDER_REF;
+      } else if (random.nextDouble() < config.ErrorRate) {
+        errorID = config.ErrorID;
+      }
+      if (errorID != ErrorCodes.NONE) {
+        var info = rspInfo(errorID);
+        callback(() -> spi.whenRspOrderInsert(request, info, requestID, true));
+        return;
+      }
+      request.ExchangeID = config.ExchangeID;
+      var order = new SimOrder(this, request, engine.nextOrderSysID());
+      refOrders.put(request.OrderRef, order);
+      sysOrders.put(order.orderSysID, order);
+      engine.insert(order);
+    });
+    return 0;
+  }
+
+  @Override
+  public int reqOrderAction(CInputOrderAction request, int requestID) {
+    request(() -> {
+      SimOrder order = null;
+      if (request.OrderSysID != null && request.OrderSysID.length() > 0) {
+        order = sysOrders.get(request.OrderSysID);
+      }
+      if (order == null && request.OrderRef != null) {
+        order = refOrders.get(request.OrderRef);
+      }
+      if (order == null) {
+        errRtnOrderAction(request, ErrorCodes.ORDER_NOT_FOUND);
+      } else if (!engine.cancel(order)) {
+        errRtnOrderAction(request, ErrorCodes.INSUITABLE_ORDER_STATUS);
+      }
+    });
+    return 0;
+  }
+
+  @Override
+  public void whenAccepted(SimOrder order) {
+    var rtn = toRtnOrder(order);
+    callback(() -> spi.whenRtnOrder(rtn));
+  }
+
+  @Override
+  public void whenTraded(SimOrder order, double price, int volume) {
+    var trade = toTrade(order, price, volume);
+    var rtn = toRtnOrder(order);
+    callback(() -> {
+      spi.whenRtnOrder(rtn);
+      spi.whenRtnTrade(trade);
+    });
+  }
+
+  @Override
+  public void whenCanceled(SimOrder order) {
+    var rtn = toRtnOrder(order);
+    rtn.CancelTime = rtn.UpdateTime;
+    callback(() -> spi.whenRtnOrder(rtn));
+  }
+
+  private boolean hasInstrument(String instrumentID) {
+    for (var instrument : instruments) {
+      if (instrument.InstrumentID.equals(instrumentID)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void errRtnOrderAction(CInputOrderAction request, int errorID) {
+    var action = new COrderAction();
+    action.BrokerID = request.BrokerID;
+    action.InvestorID = request.InvestorID;
+    action.OrderActionRef = request.OrderActionRef;
+    action.OrderRef = request.OrderRef;
+    action.RequestID = request.RequestID;
+    action.FrontID = request.FrontID;
+    action.SessionID = request.SessionID;
+    action.ExchangeID = request.ExchangeID;
+    action.OrderSysID = request.OrderSysID;
+    action.ActionFlag = request.ActionFlag;
+    action.UserID = request.UserID;
+    action.InstrumentID = request.InstrumentID;
+    action.ActionDate = Utils.getDay(LocalDate.now(), null);
+    action.ActionTime = Utils.getTime(LocalTime.now(), null);
+    var info = rspInfo(errorID);
+    action.StatusMsg = info.ErrorMsg;
+    callback(() -> spi.whenErrRtnOrderAction(action, info));
+  }
+
+  private COrder toRtnOrder(SimOrder order) {
+    var input = order.input;
+    var r = new COrder();
+    r.BrokerID = input.BrokerID;
+    r.InvestorID = input.InvestorID;
+    r.InstrumentID = input.InstrumentID;
+    r.OrderRef = input.OrderRef;
+    r.UserID = input.UserID;
+    r.OrderPriceType = input.OrderPriceType;
+    r.Direction = input.Direction;
+    r.CombOffsetFlag = input.CombOffsetFlag;
+    r.CombHedgeFlag = input.CombHedgeFlag;
+    r.LimitPrice = input.LimitPrice;
+    r.VolumeTotalOriginal = input.VolumeTotalOriginal;
+    r.TimeCondition = input.TimeCondition;
+    r.VolumeCondition = input.VolumeCondition;
+    r.MinVolume = input.MinVolume;
+    r.ContingentCondition = input.ContingentCondition;
+    r.StopPrice = input.StopPrice;
+    r.ForceCloseReason = input.ForceCloseReason;
+    r.IsAutoSuspend = input.IsAutoSuspend;
+    r.RequestID = input.RequestID;
+    r.ExchangeID = input.ExchangeID;
+    r.OrderSysID = order.orderSysID;
+    r.OrderSubmitStatus = OrderSubmitStatusType.ACCEPTED;
+    r.OrderStatus = order.status;
+    r.VolumeTraded = order.traded;
+    r.VolumeTotal = order.remaining();
+    r.TradingDay = Utils.getDay(LocalDate.now(), null);
+    r.InsertDate = r.TradingDay;
+    r.InsertTime = order.insertTime;
+    r.UpdateTime = Utils.getTime(LocalTime.now(), null);
+    r.FrontID = frontID;
+    r.SessionID = sessionID;
+    r.SequenceNo = (int) order.sequence;
+    return r;
+  }
+
+  private CTrade toTrade(SimOrder order, double price, int volume) {
+    var input = order.input;
+    var r = new CTrade();
+    r.BrokerID = input.BrokerID;
+    r.InvestorID = input.InvestorID;
+    r.InstrumentID = input.InstrumentID;
+    r.OrderRef = input.OrderRef;
+    r.UserID = input.UserID;
+    r.ExchangeID = input.ExchangeID;
+    r.TradeID = engine.nextTradeID();
+    r.Direction = input.Direction;
+    r.OrderSysID = order.orderSysID;
+    r.OffsetFlag = input.CombOffsetFlag;
+    r.HedgeFlag = input.CombHedgeFlag;
+    r.Price = price;
+    r.Volume = volume;
+    r.TradingDay = Utils.getDay(LocalDate.now(), null);
+    r.TradeDate = r.TradingDay;
+    r.TradeTime = Utils.getTime(LocalTime.now(), null);
+    return r;
+  }
+
+  private static CRspInfo rspInfo(int errorID) {
+    var info = new CRspInfo();
+    info.ErrorID = errorID;
+    info.ErrorMsg = errorID == ErrorCodes.NONE ? "" : Utils.getErrorMsg(errorID);
+    return info;
+  }
+
+  private void request(Runnable task) {
+    requests.schedule(() -> {
+      try {
+        task.run();
+      } catch (Throwable th) {
+        th.printStackTrace();
+      }
+    }, config.LatencyMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void callback(Runnable task) {
+    callbacks.execute(() -> {
+      try {
+        task.run();
+      } catch (Throwable th) {
+        th.printStackTrace();
+      }
+    });
+  }
+}
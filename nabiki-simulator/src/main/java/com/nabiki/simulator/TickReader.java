@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.CDepthMarketData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads ticks from CSV. The header line names the fields of
+ * {@link CDepthMarketData}, and columns of unknown names are skipped.
+ */
+public class TickReader {
+  /**
+   * Read all ticks from the specified reader.
+   *
+   * @param reader reader of CSV text
+   * @return ticks in the order they appear
+   * @throws IOException fail reading or parsing the text
+   */
+  public static List<CDepthMarketData> read(Reader reader) throws IOException {
+    var ticks = new LinkedList<CDepthMarketData>();
+    var br = new BufferedReader(reader);
+    var header = br.readLine();
+    if (header == null) {
+      return ticks;
+    }
+    var fields = parseHeader(header.split(","));
+    String line;
+    int lineNo = 1;
+    while ((line = br.readLine()) != null) {
+      ++lineNo;
+      if (line.trim().length() == 0) {
+        continue;
+      }
+      try {
+        ticks.add(parseLine(fields, line.split(",")));
+      } catch (IllegalAccessException | NumberFormatException e) {
+        throw new IOException("bad tick at line " + lineNo, e);
+      }
+    }
+    return ticks;
+  }
+
+  private static Field[] parseHeader(String[] names) {
+    var fields = new Field[names.length];
+    for (int i = 0; i < names.length; ++i) {
+      try {
+        fields[i] = CDepthMarketData.class.getField(names[i].trim());
+      } catch (NoSuchFieldException ignored) {
+        fields[i] = null;
+      }
+    }
+    return fields;
+  }
+
+  private static CDepthMarketData parseLine(Field[] fields, String[] values)
+      throws IllegalAccessException {
+    var depth = new CDepthMarketData();
+    for (int i = 0; i < fields.length && i < values.length; ++i) {
+      var value = values[i].trim();
+      if (fields[i] == null || value.length() == 0) {
+        continue;
+      }
+      var type = fields[i].getType();
+      if (type == double.class) {
+        fields[i].setDouble(depth, Double.parseDouble(value));
+      } else if (type == int.class) {
+        fields[i].setInt(depth, Integer.parseInt(value));
+      } else {
+        fields[i].set(depth, value);
+      }
+    }
+    return depth;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.*;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MatchingEngineTest {
+  static class Recorder implements OrderListener {
+    final List<String> events = new LinkedList<>();
+
+    @Override
+    public void whenAccepted(SimOrder order) {
+      events.add("accepted " + order.orderSysID);
+    }
+
+    @Override
+    public void whenTraded(SimOrder order, double price, int volume) {
+      events.add(String.format("traded %s %.1f %d", order.orderSysID, price, volume));
+    }
+
+    @Override
+    public void whenCanceled(SimOrder order) {
+      events.add("canceled " + order.orderSysID);
+    }
+  }
+
+  private SimOrder order(Recorder recorder, String sysID, char direction,
+                         double price, int volume) {
+    var input = new CInputOrder();
+    input.InstrumentID = "c2105";
+    input.Direction = (byte) direction;
+    input.LimitPrice = price;
+    input.VolumeTotalOriginal = volume;
+    return new SimOrder(recorder, input, sysID);
+  }
+
+  private CDepthMarketData depth(double bid, int bidVolume, double ask,
+                                 int askVolume) {
+    var d = new CDepthMarketData();
+    d.InstrumentID = "c2105";
+    d.BidPrice1 = bid;
+    d.BidVolume1 = bidVolume;
+    d.AskPrice1 = ask;
+    d.AskVolume1 = askVolume;
+    return d;
+  }
+
+  @Test
+  public void quote_volume() {
+    var engine = new MatchingEngine();
+    var r = new Recorder();
+    engine.update(depth(2500, 10, 2501, 3));
+    // Buy 5, but only 3 on the ask.
+    var o = order(r, "1", DirectionType.DIRECTION_BUY, 2502, 5);
+    engine.insert(o);
+    assertEquals(List.of("accepted 1", "traded 1 2501.0 3"), r.events);
+    assertEquals(OrderStatusType.PART_TRADED_QUEUEING, o.status);
+    assertEquals(1, engine.getRestingCount("c2105"));
+    // The next tick sweeps the rest at the resting price.
+    engine.update(depth(2500, 10, 2500, 10));
+    assertEquals("traded 1 2502.0 2", r.events.get(2));
+    assertEquals(OrderStatusType.ALL_TRADED, o.status);
+    assertEquals(0, engine.getRestingCount("c2105"));
+  }
+
+  @Test
+  public void price_time_priority() {
+    var engine = new MatchingEngine();
+    var r = new Recorder();
+    engine.insert(order(r, "1", DirectionType.DIRECTION_SELL, 2505, 1));
+    engine.insert(order(r, "2", DirectionType.DIRECTION_SELL, 2503, 1));
+    engine.insert(order(r, "3", DirectionType.DIRECTION_SELL, 2503, 1));
+    r.events.clear();
+    // Crosses the two better asks, earlier one first.
+    engine.insert(order(r, "4", DirectionType.DIRECTION_BUY, 2504, 3));
+    assertEquals(List.of("accepted 4", "traded 2 2503.0 1", "traded 4 2503.0 1",
+        "traded 3 2503.0 1", "traded 4 2503.0 1"), r.events);
+    // Order 1 and the rest of order 4.
+    assertEquals(2, engine.getRestingCount("c2105"));
+  }
+
+  @Test
+  public void cancel() {
+    var engine = new MatchingEngine();
+    var r = new Recorder();
+    var o = order(r, "1", DirectionType.DIRECTION_BUY, 2500, 1);
+    engine.insert(o);
+    assertTrue(engine.cancel(o));
+    assertEquals(OrderStatusType.CANCELED, o.status);
+    assertEquals("canceled 1", r.events.get(1));
+    // Can't cancel twice.
+    assertFalse(engine.cancel(o));
+    // Canceled order doesn't trade.
+    engine.update(depth(2499, 10, 2499, 10));
+    assertEquals(2, r.events.size());
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2020-2020. Hongbao Chen <chenhongbao@outlook.com>
+ *
+ * Licensed under the  GNU Affero General Public License v3.0 and you may not use
+ * this file except in compliance with the  License. You may obtain a copy of the
+ * License at
+ *
+ *                    https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ * Permission is hereby  granted, free of charge, to any  person obtaining a copy
+ * of this software and associated  documentation files (the "Software"), to deal
+ * in the Software  without restriction, including without  limitation the rights
+ * to  use, copy,  modify, merge,  publish, distribute,  sublicense, and/or  sell
+ * copies  of  the Software,  and  to  permit persons  to  whom  the Software  is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE  IS PROVIDED "AS  IS", WITHOUT WARRANTY  OF ANY KIND,  EXPRESS OR
+ * IMPLIED,  INCLUDING BUT  NOT  LIMITED TO  THE  WARRANTIES OF  MERCHANTABILITY,
+ * FITNESS FOR  A PARTICULAR PURPOSE AND  NONINFRINGEMENT. IN NO EVENT  SHALL THE
+ * AUTHORS  OR COPYRIGHT  HOLDERS  BE  LIABLE FOR  ANY  CLAIM,  DAMAGES OR  OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF  CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE  OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.nabiki.simulator;
+
+import com.nabiki.commons.ctpobj.*;
+import com.nabiki.gateway.MdGatewaySpi;
+import com.nabiki.gateway.TraderGatewaySpi;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimGatewayTest {
+  static final String CSV = "InstrumentID,UpdateTime,LastPrice,BidPrice1,BidVolume1,AskPrice1,AskVolume1,Unknown\n"
+      + "c2105,09:00:00,2500,2499,10,2501,10,x\n"
+      + "c2105,09:00:01,2498,2497,10,2498,10,x\n";
+
+  static class TraderRecorder implements TraderGatewaySpi {
+    final BlockingQueue<Object> rsp = new LinkedBlockingQueue<>();
+
+    @Override
+    public void whenFrontConnected() {
+      rsp.add("connected");
+    }
+
+    @Override
+    public void whenFrontDisconnected(int reason) {
+    }
+
+    @Override
+    public void whenRspAuthenticate(CRspAuthenticate rspAuthenticate,
+                                    CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(rspAuthenticate);
+    }
+
+    @Override
+    public void whenRspUserLogin(CRspUserLogin rspUserLogin,
+                                 CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(rspUserLogin);
+    }
+
+    @Override
+    public void whenRspUserLogout(CUserLogout userLogout,
+                                  CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(userLogout);
+    }
+
+    @Override
+    public void whenRspSettlementInfoConfirm(CSettlementInfoConfirm settlementInfoConfirm,
+                                             CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(settlementInfoConfirm);
+    }
+
+    @Override
+    public void whenRspQryInstrument(CInstrument instrument,
+                                     CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(instrument);
+    }
+
+    @Override
+    public void whenRspQryInstrumentMarginRate(CInstrumentMarginRate instrumentMarginRate,
+                                               CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(instrumentMarginRate);
+    }
+
+    @Override
+    public void whenRspQryInstrumentCommissionRate(
+        CInstrumentCommissionRate instrumentCommissionRate,
+        CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(instrumentCommissionRate);
+    }
+
+    @Override
+    public void whenRspOrderInsert(CInputOrder inputOrder,
+                                   CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(rspInfo);
+    }
+
+    @Override
+    public void whenRspOrderAction(CInputOrderAction inputOrderAction,
+                                   CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(rspInfo);
+    }
+
+    @Override
+    public void whenRspError(CRspInfo rspInfo, int requestId, boolean isLast) {
+      rsp.add(rspInfo);
+    }
+
+    @Override
+    public void whenRtnOrder(COrder order) {
+      rsp.add(order);
+    }
+
+    @Override
+    public void whenRtnTrade(CTrade trade) {
+      rsp.add(trade);
+    }
+
+    @Override
+    public void whenErrRtnOrderInsert(CInputOrder inputOrder, CRspInfo rspInfo) {
+      rsp.add(rspInfo);
+    }
+
+    @Override
+    public void whenErrRtnOrderAction(COrderAction orderAction, CRspInfo rspInfo) {
+      rsp.add(orderAction);
+    }
+  }
+
+  static class MdRecorder implements MdGatewaySpi {
+    final BlockingQueue<CDepthMarketData> depths = new LinkedBlockingQueue<>();
+
+    @Override
+    public void whenFrontConnected() {
+    }
+
+    @Override
+    public void whenFrontDisconnected(int reason) {
+    }
+
+    @Override
+    public void whenRspUserLogin(CRspUserLogin rspUserLogin,
+                                 CRspInfo rspInfo, int requestId, boolean isLast) {
+    }
+
+    @Override
+    public void whenRspUserLogout(CUserLogout userLogout,
+                                  CRspInfo rspInfo, int requestId, boolean isLast) {
+    }
+
+    @Override
+    public void whenRspError(CRspInfo rspInfo, int requestId, boolean isLast) {
+    }
+
+    @Override
+    public void whenRspSubMarketData(CSpecificInstrument specificInstrument,
+                                     CRspInfo rspInfo, int requestId, boolean isLast) {
+    }
+
+    @Override
+    public void whenRspUnSubMarketData(CSpecificInstrument specificInstrument,
+                                       CRspInfo rspInfo, int requestId, boolean isLast) {
+    }
+
+    @Override
+    public void whenRtnDepthMarketData(CDepthMarketData depthMarketData) {
+      depths.add(depthMarketData);
+    }
+  }
+
+  private SimConfig config() throws IOException {
+    var file = Files.createTempFile("ticks", ".csv");
+    file.toFile().deleteOnExit();
+    Files.writeString(file, CSV, StandardCharsets.UTF_8);
+    var c = new SimConfig();
+    c.TickFile = file.toString();
+    c.TickIntervalMillis = 10;
+    return c;
+  }
+
+  private CInputOrder input(String ref, double price) {
+    var o = new CInputOrder();
+    o.InstrumentID = "c2105";
+    o.OrderRef = ref;
+    o.Direction = DirectionType.DIRECTION_BUY;
+    o.CombOffsetFlag = CombOffsetFlagType.OFFSET_OPEN;
+    o.LimitPrice = price;
+    o.VolumeTotalOriginal = 1;
+    return o;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T poll(TraderRecorder r, Class<T> clz) throws InterruptedException {
+    var o = r.rsp.poll(5, TimeUnit.SECONDS);
+    assertNotNull("no response", o);
+    assertTrue("expect " + clz.getSimpleName() + " but " + o, clz.isInstance(o));
+    return (T) o;
+  }
+
+  @Test
+  public void read_ticks() throws IOException {
+    var ticks = TickReader.read(new StringReader(CSV));
+    assertEquals(2, ticks.size());
+    var t = ticks.get(0);
+    assertEquals("c2105", t.InstrumentID);
+    assertEquals("09:00:00", t.UpdateTime);
+    assertEquals(2501.0, t.AskPrice1, 0.0);
+    assertEquals(10, t.AskVolume1);
+  }
+
+  @Test
+  public void trade_on_replay() throws Exception {
+    var factory = new SimGatewayFactory(config());
+    var trader = factory.createTrader("");
+    var tr = new TraderRecorder();
+    trader.registerSpi(tr);
+    trader.init();
+    assertEquals("connected", tr.rsp.poll(5, TimeUnit.SECONDS));
+    trader.reqUserLogin(new CReqUserLogin(), 1);
+    var login = poll(tr, CRspUserLogin.class);
+    trader.reqQryInstrument(new CQryInstrument(), 2);
+    assertEquals("c2105", poll(tr, CInstrument.class).InstrumentID);
+    // Rests before any tick.
+    trader.reqOrderInsert(input("1", 2498), 3);
+    var rtn = poll(tr, COrder.class);
+    assertEquals(OrderStatusType.NO_TRADE_QUEUEING, rtn.OrderStatus);
+    assertEquals(login.SessionID, rtn.SessionID);
+    // Cancel unknown order.
+    var action = new CInputOrderAction();
+    action.OrderRef = "100";
+    trader.reqOrderAction(action, 4);
+    poll(tr, COrderAction.class);
+
+    var md = factory.createMd("", false, false);
+    var mr = new MdRecorder();
+    md.registerSpi(mr);
+    md.init();
+    md.subscribeMarketData(new String[]{"c2105"}, 1);
+    assertNotNull(mr.depths.poll(5, TimeUnit.SECONDS));
+    assertNotNull(mr.depths.poll(5, TimeUnit.SECONDS));
+    // Second tick's ask crosses the resting bid.
+    rtn = poll(tr, COrder.class);
+    assertEquals(OrderStatusType.ALL_TRADED, rtn.OrderStatus);
+    var trade = poll(tr, CTrade.class);
+    assertEquals(2498.0, trade.Price, 0.0);
+    assertEquals(rtn.OrderSysID, trade.OrderSysID);
+
+    trader.release();
+    md.release();
+  }
+
+  @Test
+  public void injected_error() throws Exception {
+    var c = config();
+    c.ErrorRate = 1.0;
+    var trader = new SimGatewayFactory(c).createTrader("");
+    var tr = new TraderRecorder();
+    trader.registerSpi(tr);
+    trader.reqOrderInsert(input("1", 2500), 1);
+    assertEquals(ErrorCodes.INSUFFICIENT_MONEY, poll(tr, CRspInfo.class).ErrorID);
+    // Unknown instrument.
+    var o = input("2", 2500);
+    o.InstrumentID = "x0000";
+    trader.reqOrderInsert(o, 2);
+    assertEquals(ErrorCodes.INSTRUMENT_NOT_FOUND, poll(tr, CRspInfo.class).ErrorID);
+    trader.release();
+  }
+}